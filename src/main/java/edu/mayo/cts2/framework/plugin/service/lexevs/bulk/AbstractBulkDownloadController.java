@@ -9,13 +9,25 @@
 package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.AdmissionDeniedException;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadJob;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadJobManager;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
 import edu.mayo.cts2.framework.webapp.rest.extensions.controller.ControllerProvider;
 
 
@@ -29,6 +41,27 @@ public abstract class AbstractBulkDownloadController implements ControllerProvid
 	protected static final String DEFAULT_SEPARATOR = "|";
 	
 	protected static final String DEFAULT_FILE_NAME = "terminology-bulk-download.txt";
+	
+	protected static final String DEFAULT_FORMAT = "delimited";
+	
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+	
+	private static final String FORWARDED_FOR_HEADER = "X-Forwarded-For";
+	
+	private static final String EXPORTER_PATH = "/exporter/";
+	
+	protected static final String JOB_PATH = "job";
+	
+	@Resource
+	private BulkDownloadAdmissionManager bulkDownloadAdmissionManager;
+	
+	@Resource
+	private BulkDownloadJobManager bulkDownloadJobManager;
+	
+	@Resource
+	private BulkDownloadSpooler bulkDownloadSpooler;
+	
+	private Set<String> trustedProxies = Collections.emptySet();
 
 	public static class UserInputException extends RuntimeException {
 
@@ -50,6 +83,14 @@ public abstract class AbstractBulkDownloadController implements ControllerProvid
 	    this.writeException(response, error.toString(), 400);
 	}
 	
+	@ExceptionHandler(AdmissionDeniedException.class)
+	@ResponseBody
+	public void handleAdmissionDeniedException(AdmissionDeniedException e, HttpServletResponse response) {
+		response.setHeader("Retry-After", Long.toString(e.getRetryAfterSeconds()));
+		
+		this.writeException(response, e.getMessage() + "\n", SC_TOO_MANY_REQUESTS);
+	}
+	
 	@ExceptionHandler(Throwable.class)
 	@ResponseBody
 	public void handleUnknownException(Throwable e, HttpServletResponse response) {
@@ -62,6 +103,173 @@ public abstract class AbstractBulkDownloadController implements ControllerProvid
 	}
 	
 	protected abstract String getValidParametersMessage();
+	
+	/**
+	 * Wait for a bulk download slot for the requesting client. The returned
+	 * {@link Permit} must be released when the download completes.
+	 *
+	 * @param request the request
+	 * @return the permit
+	 */
+	protected Permit admit(HttpServletRequest request){
+		return this.bulkDownloadAdmissionManager.acquire(this.getClientId(request));
+	}
+	
+	/**
+	 * Send a download to the client. The download is read from LexEVS on
+	 * another thread, which releases the download slot of the permit once it is
+	 * done reading, so a slow client does not hold LexEVS resources or a download
+	 * slot. The permit itself is held until the client has been sent everything.
+	 *
+	 * @param response the response
+	 * @param permit the permit held for the download
+	 * @param task the task
+	 */
+	protected void spool(HttpServletResponse response, Permit permit, BulkDownloadTask task){
+		try {
+			this.bulkDownloadSpooler.spool(task, permit, response.getOutputStream());
+			
+			response.flushBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			permit.release();
+		}
+	}
+	
+	/**
+	 * Submit a download to run in the background and respond with
+	 * the job status and its location.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param key the key identifying the download parameters
+	 * @param filename the filename
+	 * @param format the format the task writes
+	 * @param task the task
+	 */
+	protected void submitJob(
+			HttpServletRequest request, 
+			HttpServletResponse response, 
+			String key, 
+			String filename, 
+			BulkDownloadFormat format,
+			BulkDownloadTask task){
+		BulkDownloadJob job = this.bulkDownloadJobManager.submit(key, filename, format, task);
+		
+		String url = request.getRequestURL().toString();
+		int index = url.lastIndexOf(EXPORTER_PATH);
+		if(index > -1){
+			response.setHeader("Location", 
+				url.substring(0, index + EXPORTER_PATH.length()) + JOB_PATH + "/" + job.getId());
+		}
+		
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		
+		this.writeJobStatus(response, job);
+	}
+	
+	/**
+	 * Write the status of a job as plain text.
+	 *
+	 * @param response the response
+	 * @param job the job
+	 */
+	protected void writeJobStatus(HttpServletResponse response, BulkDownloadJob job){
+		StringBuilder sb = new StringBuilder();
+		sb.append("id=").append(job.getId()).append("\n");
+		sb.append("status=").append(job.getStatus()).append("\n");
+		sb.append("rowswritten=").append(job.getProgress().getRowsWritten()).append("\n");
+		sb.append("estimatedremaining=").append(job.getProgress().getEstimatedRemaining()).append("\n");
+		if(job.getErrorMessage() != null){
+			sb.append("error=").append(job.getErrorMessage()).append("\n");
+		}
+		
+		response.setContentType("text/plain; charset=utf-8");
+		
+		try {
+			IOUtils.write(sb.toString(), response.getOutputStream());
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Identify the client for per-client limits. This is the remote address, unless
+	 * the request came through one of the configured trusted proxies. In that case the
+	 * 'X-Forwarded-For' header is read from the right, and the first address that is not
+	 * a trusted proxy is used, as the entries to the left of it may be forged.
+	 *
+	 * @param request the request
+	 * @return the client id
+	 */
+	protected String getClientId(HttpServletRequest request){
+		String clientId = request.getRemoteAddr();
+		
+		String forwardedFor = request.getHeader(FORWARDED_FOR_HEADER);
+		if(! this.trustedProxies.contains(clientId) || StringUtils.isBlank(forwardedFor)){
+			return clientId;
+		}
+		
+		String[] addresses = StringUtils.split(forwardedFor, ',');
+		for(int i = addresses.length - 1; i >= 0; i--){
+			clientId = StringUtils.trim(addresses[i]);
+			if(! this.trustedProxies.contains(clientId)){
+				break;
+			}
+		}
+		
+		return clientId;
+	}
+	
+	/**
+	 * Sets the addresses of the proxies trusted to report the client address.
+	 *
+	 * @param trustedProxies a comma separated list of addresses
+	 */
+	@Value("${bulkDownloadTrustedProxies:}")
+	public void setTrustedProxies(String trustedProxies) {
+		Set<String> proxies = new HashSet<String>();
+		for(String proxy : StringUtils.split(StringUtils.defaultString(trustedProxies), ',')){
+			if(StringUtils.isNotBlank(proxy)){
+				proxies.add(StringUtils.trim(proxy));
+			}
+		}
+		
+		this.trustedProxies = proxies;
+	}
+
+	/**
+	 * Parse the requested output format.
+	 *
+	 * @param format the format name
+	 * @return the format
+	 */
+	protected BulkDownloadFormat getFormat(String format){
+		BulkDownloadFormat bulkDownloadFormat = BulkDownloadFormat.fromName(format);
+		if(bulkDownloadFormat == null){
+			throw new UserInputException("'format' must be one of: " + 
+				StringUtils.join(BulkDownloadFormat.values(), ", ").toLowerCase() + ".");
+		}
+		
+		return bulkDownloadFormat;
+	}
+	
+	/**
+	 * Gets the file name to offer the client. If the default file name was
+	 * requested, its extension is changed to match the format.
+	 *
+	 * @param filename the requested filename
+	 * @param format the format
+	 * @return the filename
+	 */
+	protected String getFilename(String filename, BulkDownloadFormat format){
+		if(DEFAULT_FILE_NAME.equals(filename)){
+			return StringUtils.substringBeforeLast(filename, ".") + "." + format.getFileExtension();
+		}
+		
+		return filename;
+	}
 
 	/**
 	 * Sets the headers.
@@ -70,10 +278,21 @@ public abstract class AbstractBulkDownloadController implements ControllerProvid
 	 * @param filename the filename
 	 */
 	protected void setHeaders(HttpServletResponse response, String filename){
+		this.setHeaders(response, filename, BulkDownloadFormat.DELIMITED);
+	}
+	
+	/**
+	 * Sets the headers for content in the given format.
+	 *
+	 * @param response the response
+	 * @param filename the filename
+	 * @param format the format
+	 */
+	protected void setHeaders(HttpServletResponse response, String filename, BulkDownloadFormat format){
 		String headerKey = "Content-Disposition";
         String headerValue = String.format("attachment; filename=\"%s\"", filename);
         response.setHeader(headerKey, headerValue);
-		response.setContentType("text/plain; charset=utf-8");
+		response.setContentType(format.getContentType());
 	}
 	
 	protected void writeException(HttpServletResponse response, String message, int errorCode){
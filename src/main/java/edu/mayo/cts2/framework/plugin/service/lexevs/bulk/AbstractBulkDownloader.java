@@ -10,15 +10,14 @@ package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
 import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
-import org.supercsv.io.CsvListWriter;
-import org.supercsv.io.ICsvListWriter;
-import org.supercsv.prefs.CsvPreference;
+import org.LexGrid.LexBIG.Exceptions.LBResourceUnavailableException;
+import org.LexGrid.LexBIG.Impl.helpers.ResolvedConceptReferencesIteratorAdapter;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
 
 /**
  * An Abstract BulkDownloader that will write String values to an OutputStream.
@@ -26,6 +25,26 @@ import org.supercsv.prefs.CsvPreference;
  * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
  */
 public abstract class AbstractBulkDownloader {
+	
+	private static final int PROGRESS_UPDATE_INTERVAL = 1000;
+
+	/**
+	 * Write the output, reporting progress as rows are written.
+	 *
+	 * @param outputStream the output stream
+	 * @param itr the itr
+	 * @param separator the separator
+	 * @param format the output format
+	 * @param fields the fields
+	 * @param progress the progress, may be null
+	 */
+	protected void doWrite(OutputStream outputStream,
+			ResolvedConceptReferencesIterator itr, char separator,
+			BulkDownloadFormat format, List<String> fields, 
+			BulkDownloadProgress progress) {
+		this.doWrite(outputStream, new ResolvedConceptReferencesIteratorAdapter(itr), 
+				separator, format, fields, progress, itr);
+	}
 
 	/**
 	 * Write the output.
@@ -38,11 +57,64 @@ public abstract class AbstractBulkDownloader {
 	protected void doWrite(OutputStream outputStream,
 			Iterator<ResolvedConceptReference> itr, char separator,
 			List<String> fields) {
+		this.doWrite(outputStream, itr, separator, BulkDownloadFormat.DELIMITED, fields, null);
+	}
+	
+	/**
+	 * Write the output, counting rows as they are written.
+	 *
+	 * @param outputStream the output stream
+	 * @param itr the itr
+	 * @param separator the separator
+	 * @param format the output format
+	 * @param fields the fields
+	 * @param progress the progress, may be null
+	 */
+	protected void doWrite(OutputStream outputStream,
+			Iterator<ResolvedConceptReference> itr, char separator,
+			BulkDownloadFormat format, List<String> fields, 
+			BulkDownloadProgress progress) {
+		this.doWrite(outputStream, itr, separator, format, fields, progress, null);
+	}
+	
+	private void updateEstimatedRemaining(ResolvedConceptReferencesIterator itr, BulkDownloadProgress progress){
+		try {
+			progress.setEstimatedRemaining(itr.numberRemaining());
+		} catch (LBResourceUnavailableException e) {
+			progress.setEstimatedRemaining(BulkDownloadProgress.UNKNOWN);
+		}
+	}
+	
+	/**
+	 * Write the output, counting rows as they are written. The estimated remaining
+	 * count is taken from the given LexEVS iterator, which may not produce exactly one
+	 * row per reference (for instance, when 'itr' expands each of its references into
+	 * several rows).
+	 *
+	 * @param outputStream the output stream
+	 * @param itr the itr
+	 * @param separator the separator, used only by delimited output
+	 * @param format the output format
+	 * @param fields the fields
+	 * @param progress the progress, may be null
+	 * @param remainingSource the source of the estimated remaining count, may be null
+	 */
+	protected void doWrite(OutputStream outputStream,
+			Iterator<ResolvedConceptReference> itr, char separator,
+			BulkDownloadFormat format, List<String> fields, 
+			BulkDownloadProgress progress, 
+			ResolvedConceptReferencesIterator remainingSource) {
+		if(progress != null && remainingSource != null){
+			this.updateEstimatedRemaining(remainingSource, progress);
+		}
 
-		CsvPreference preferences = new CsvPreference.Builder('"', separator, "\r\n").build();
-
-		ICsvListWriter listWriter = new CsvListWriter(new PrintWriter(
-				outputStream), preferences);
+		RowWriter rowWriter;
+		try {
+			rowWriter = format.createRowWriter(outputStream, separator, fields);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
 		try {
 
 			while (itr.hasNext()) {
@@ -54,7 +126,21 @@ public abstract class AbstractBulkDownloader {
 							.extract(ref);
 				}
 
-				listWriter.write(fieldValues);
+				rowWriter.write(fieldValues);
+				
+				if(progress != null){
+					progress.rowWritten();
+					if(remainingSource != null && 
+							progress.getRowsWritten() % PROGRESS_UPDATE_INTERVAL == 0){
+						this.updateEstimatedRemaining(remainingSource, progress);
+					}
+				}
+			}
+			
+			rowWriter.finish();
+			
+			if(progress != null){
+				progress.setEstimatedRemaining(0);
 			}
 
 		} catch (Exception e) {
@@ -62,8 +148,7 @@ public abstract class AbstractBulkDownloader {
 
 		} finally {
 			try {
-				listWriter.flush();
-				listWriter.close();
+				rowWriter.close();
 			} catch (IOException e) {
 				//
 			}
@@ -0,0 +1,95 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * A {@link RowWriter} for a compact, length-prefixed binary format.
+ *
+ * All integers are big-endian and all strings are UTF-8. The stream is:
+ * <pre>
+ * header:  magic "LXBD" (4 bytes), version (1 byte), field count (int),
+ *          then for each field its name as (int length, bytes)
+ * row:     ROW marker (1 byte), then for each field (int length, bytes),
+ *          where a length of -1 is a null value with no bytes
+ * end:     END marker (1 byte)
+ * </pre>
+ * A stream without the END marker was truncated, for instance because the
+ * download was cancelled or failed.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class BinaryRowWriter implements RowWriter {
+	
+	public static final byte[] MAGIC = new byte[]{'L','X','B','D'};
+	
+	public static final byte VERSION = 1;
+	
+	public static final byte ROW = 1;
+	
+	public static final byte END = 0;
+	
+	private static final String UTF8 = "UTF-8";
+	
+	private DataOutputStream dataOutputStream;
+	
+	private int fieldCount;
+
+	public BinaryRowWriter(OutputStream outputStream, List<String> fields) throws IOException {
+		this.dataOutputStream = new DataOutputStream(new BufferedOutputStream(outputStream));
+		this.fieldCount = fields.size();
+		
+		this.dataOutputStream.write(MAGIC);
+		this.dataOutputStream.writeByte(VERSION);
+		this.dataOutputStream.writeInt(this.fieldCount);
+		for(String field : fields){
+			this.writeString(field);
+		}
+	}
+
+	@Override
+	public void write(String[] values) throws IOException {
+		if(values.length != this.fieldCount){
+			throw new IllegalArgumentException("Expected " + this.fieldCount + " values but got " + values.length + ".");
+		}
+		
+		this.dataOutputStream.writeByte(ROW);
+		for(String value : values){
+			this.writeString(value);
+		}
+	}
+
+	@Override
+	public void finish() throws IOException {
+		this.dataOutputStream.writeByte(END);
+		this.dataOutputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.dataOutputStream.flush();
+		this.dataOutputStream.close();
+	}
+	
+	private void writeString(String value) throws IOException {
+		if(value == null){
+			this.dataOutputStream.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(UTF8);
+			this.dataOutputStream.writeInt(bytes.length);
+			this.dataOutputStream.write(bytes);
+		}
+	}
+
+}
@@ -0,0 +1,381 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Bounds the number of bulk downloads that may run at the same time.
+ *
+ * Downloads are admitted up to a global limit and a per-client limit. Requests
+ * over those limits wait in a FIFO queue for up to the configured timeout. If the
+ * queue is full, or the wait times out, the request is rejected with an
+ * {@link AdmissionDeniedException} that carries a suggested retry delay.
+ *
+ * A download holds its slot while it is reading from LexEVS, which may finish
+ * before the client has received everything. The transfers still being sent to
+ * clients are counted separately, and bounded by their own limit.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class BulkDownloadAdmissionManager {
+
+	private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 4;
+
+	private static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS_PER_CLIENT = 1;
+
+	private static final int DEFAULT_MAX_CONCURRENT_TRANSFERS = 16;
+
+	private static final int DEFAULT_MAX_QUEUE_SIZE = 16;
+
+	private static final long DEFAULT_QUEUE_TIMEOUT_SECONDS = 30;
+
+	private static final long DEFAULT_RETRY_AFTER_SECONDS = 60;
+
+	protected Logger log = Logger.getLogger(this.getClass());
+
+	private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+
+	private int maxConcurrentDownloadsPerClient = DEFAULT_MAX_CONCURRENT_DOWNLOADS_PER_CLIENT;
+
+	private int maxConcurrentTransfers = DEFAULT_MAX_CONCURRENT_TRANSFERS;
+
+	private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+
+	private long queueTimeoutSeconds = DEFAULT_QUEUE_TIMEOUT_SECONDS;
+
+	private long retryAfterSeconds = DEFAULT_RETRY_AFTER_SECONDS;
+
+	private final Object mutex = new Object();
+
+	private final LinkedList<Ticket> queue = new LinkedList<Ticket>();
+
+	private final Map<String, Integer> activePerClient = new HashMap<String, Integer>();
+
+	private int active = 0;
+
+	private int transfers = 0;
+
+	private long admittedCount = 0;
+
+	private long rejectedCount = 0;
+
+	private long timedOutCount = 0;
+
+	private long totalWaitMillis = 0;
+
+	private long maxWaitMillis = 0;
+
+	/**
+	 * Thrown when a download cannot be admitted.
+	 */
+	public static class AdmissionDeniedException extends RuntimeException {
+
+		private static final long serialVersionUID = 3071625184839512231L;
+
+		private long retryAfterSeconds;
+
+		public AdmissionDeniedException(String message, long retryAfterSeconds){
+			super(message);
+			this.retryAfterSeconds = retryAfterSeconds;
+		}
+
+		public long getRetryAfterSeconds() {
+			return retryAfterSeconds;
+		}
+	}
+
+	/**
+	 * A granted admission. Must be released when the download finishes.
+	 */
+	public class Permit {
+
+		private final String clientId;
+
+		private boolean slotReleased = false;
+
+		private boolean released = false;
+
+		private Permit(String clientId){
+			this.clientId = clientId;
+		}
+
+		/**
+		 * Release the download slot once the download has been read, while the
+		 * transfer to the client is still counted until {@link #release()}.
+		 */
+		public void releaseSlot(){
+			synchronized(mutex){
+				if(! this.slotReleased){
+					this.slotReleased = true;
+					doReleaseSlot(this.clientId);
+				}
+			}
+		}
+
+		public void release(){
+			synchronized(mutex){
+				this.releaseSlot();
+				if(! this.released){
+					this.released = true;
+					doReleaseTransfer();
+				}
+			}
+		}
+	}
+
+	private static class Ticket {
+		private final String clientId;
+
+		private Ticket(String clientId){
+			this.clientId = clientId;
+		}
+	}
+
+	/**
+	 * Wait (up to the queue timeout) for a download slot for the given client.
+	 *
+	 * @param clientId the client id
+	 * @return the permit
+	 * @throws AdmissionDeniedException if the queue is full or the wait times out
+	 */
+	public Permit acquire(String clientId) {
+		long start = System.currentTimeMillis();
+		long deadline = start + (this.queueTimeoutSeconds * 1000);
+
+		synchronized(this.mutex){
+			Ticket ticket = new Ticket(clientId);
+
+			if(this.queue.isEmpty() && this.canRun(clientId)){
+				return this.admit(ticket, start);
+			}
+
+			if(this.queue.size() >= this.maxQueueSize){
+				this.rejectedCount++;
+				throw new AdmissionDeniedException(
+					"Too many concurrent bulk downloads. Please try again later.",
+					this.retryAfterSeconds);
+			}
+
+			this.queue.add(ticket);
+
+			try {
+				while(! this.isNext(ticket)){
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0){
+						this.queue.remove(ticket);
+						this.timedOutCount++;
+						this.mutex.notifyAll();
+
+						throw new AdmissionDeniedException(
+							"Timed out waiting for a bulk download slot. Please try again later.",
+							this.retryAfterSeconds);
+					}
+					this.mutex.wait(remaining);
+				}
+			} catch (InterruptedException e) {
+				this.queue.remove(ticket);
+				this.mutex.notifyAll();
+				Thread.currentThread().interrupt();
+
+				throw new RuntimeException(e);
+			}
+
+			this.queue.remove(ticket);
+			this.mutex.notifyAll();
+
+			return this.admit(ticket, start);
+		}
+	}
+
+	private Permit admit(Ticket ticket, long start){
+		long waited = System.currentTimeMillis() - start;
+
+		this.active++;
+		this.transfers++;
+		Integer clientActive = this.activePerClient.get(ticket.clientId);
+		this.activePerClient.put(ticket.clientId, clientActive == null ? 1 : clientActive + 1);
+
+		this.admittedCount++;
+		this.totalWaitMillis += waited;
+		this.maxWaitMillis = Math.max(this.maxWaitMillis, waited);
+
+		if(log.isDebugEnabled()){
+			log.debug("Admitted bulk download for client: " + ticket.clientId +
+				" after waiting " + waited + "ms. Active: " + this.active +
+				", Queued: " + this.queue.size());
+		}
+
+		return new Permit(ticket.clientId);
+	}
+
+	private void doReleaseSlot(String clientId){
+		this.active--;
+
+		Integer clientActive = this.activePerClient.get(clientId);
+		if(clientActive == null || clientActive <= 1){
+			this.activePerClient.remove(clientId);
+		} else {
+			this.activePerClient.put(clientId, clientActive - 1);
+		}
+
+		this.mutex.notifyAll();
+	}
+
+	private void doReleaseTransfer(){
+		this.transfers--;
+
+		this.mutex.notifyAll();
+	}
+
+	/**
+	 * A queued ticket may run if there is capacity for it and no ticket queued
+	 * ahead of it could run instead. This keeps admission FIFO, while not letting one
+	 * client at its per-client limit block everybody queued behind it.
+	 */
+	private boolean isNext(Ticket ticket){
+		Iterator<Ticket> itr = this.queue.iterator();
+		while(itr.hasNext()){
+			Ticket queued = itr.next();
+			if(queued == ticket){
+				return this.canRun(ticket.clientId);
+			}
+			if(this.canRun(queued.clientId)){
+				return false;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean canRun(String clientId){
+		if(this.active >= this.maxConcurrentDownloads || 
+				this.transfers >= this.maxConcurrentTransfers){
+			return false;
+		}
+
+		Integer clientActive = this.activePerClient.get(clientId);
+
+		return clientActive == null || clientActive < this.maxConcurrentDownloadsPerClient;
+	}
+
+	public int getActiveCount() {
+		synchronized(this.mutex){
+			return this.active;
+		}
+	}
+
+	public int getTransferCount() {
+		synchronized(this.mutex){
+			return this.transfers;
+		}
+	}
+
+	public int getQueueDepth() {
+		synchronized(this.mutex){
+			return this.queue.size();
+		}
+	}
+
+	public long getAdmittedCount() {
+		synchronized(this.mutex){
+			return this.admittedCount;
+		}
+	}
+
+	public long getRejectedCount() {
+		synchronized(this.mutex){
+			return this.rejectedCount;
+		}
+	}
+
+	public long getTimedOutCount() {
+		synchronized(this.mutex){
+			return this.timedOutCount;
+		}
+	}
+
+	public long getMaxWaitMillis() {
+		synchronized(this.mutex){
+			return this.maxWaitMillis;
+		}
+	}
+
+	public long getAverageWaitMillis() {
+		synchronized(this.mutex){
+			if(this.admittedCount == 0){
+				return 0;
+			}
+			return this.totalWaitMillis / this.admittedCount;
+		}
+	}
+
+	public int getMaxConcurrentDownloads() {
+		return maxConcurrentDownloads;
+	}
+
+	@Value("${bulkDownloadMaxConcurrentDownloads:" + DEFAULT_MAX_CONCURRENT_DOWNLOADS + "}")
+	public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+		this.maxConcurrentDownloads = maxConcurrentDownloads;
+	}
+
+	public int getMaxConcurrentDownloadsPerClient() {
+		return maxConcurrentDownloadsPerClient;
+	}
+
+	@Value("${bulkDownloadMaxConcurrentDownloadsPerClient:" + DEFAULT_MAX_CONCURRENT_DOWNLOADS_PER_CLIENT + "}")
+	public void setMaxConcurrentDownloadsPerClient(int maxConcurrentDownloadsPerClient) {
+		this.maxConcurrentDownloadsPerClient = maxConcurrentDownloadsPerClient;
+	}
+
+	public int getMaxConcurrentTransfers() {
+		return maxConcurrentTransfers;
+	}
+
+	@Value("${bulkDownloadMaxConcurrentTransfers:" + DEFAULT_MAX_CONCURRENT_TRANSFERS + "}")
+	public void setMaxConcurrentTransfers(int maxConcurrentTransfers) {
+		this.maxConcurrentTransfers = maxConcurrentTransfers;
+	}
+
+	public int getMaxQueueSize() {
+		return maxQueueSize;
+	}
+
+	@Value("${bulkDownloadMaxQueueSize:" + DEFAULT_MAX_QUEUE_SIZE + "}")
+	public void setMaxQueueSize(int maxQueueSize) {
+		this.maxQueueSize = maxQueueSize;
+	}
+
+	public long getQueueTimeoutSeconds() {
+		return queueTimeoutSeconds;
+	}
+
+	@Value("${bulkDownloadQueueTimeoutSeconds:" + DEFAULT_QUEUE_TIMEOUT_SECONDS + "}")
+	public void setQueueTimeoutSeconds(long queueTimeoutSeconds) {
+		this.queueTimeoutSeconds = queueTimeoutSeconds;
+	}
+
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+
+	@Value("${bulkDownloadRetryAfterSeconds:" + DEFAULT_RETRY_AFTER_SECONDS + "}")
+	public void setRetryAfterSeconds(long retryAfterSeconds) {
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The output formats available for bulk downloads.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public enum BulkDownloadFormat {
+	
+	DELIMITED("text/plain; charset=utf-8", "txt"){
+		@Override
+		public RowWriter createRowWriter(OutputStream outputStream, char separator, List<String> fields) {
+			return new DelimitedRowWriter(outputStream, separator);
+		}
+	},
+	
+	NDJSON("application/x-ndjson; charset=utf-8", "ndjson"){
+		@Override
+		public RowWriter createRowWriter(OutputStream outputStream, char separator, List<String> fields) {
+			return new NdjsonRowWriter(outputStream, fields);
+		}
+	},
+	
+	BINARY("application/octet-stream", "bin"){
+		@Override
+		public RowWriter createRowWriter(OutputStream outputStream, char separator, List<String> fields) throws IOException {
+			return new BinaryRowWriter(outputStream, fields);
+		}
+	};
+	
+	private String contentType;
+	
+	private String fileExtension;
+	
+	private BulkDownloadFormat(String contentType, String fileExtension){
+		this.contentType = contentType;
+		this.fileExtension = fileExtension;
+	}
+	
+	/**
+	 * Create a writer for this format.
+	 *
+	 * @param outputStream the output stream
+	 * @param separator the separator, used only by delimited output
+	 * @param fields the fields, in output order
+	 * @return the row writer
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public abstract RowWriter createRowWriter(OutputStream outputStream, char separator, List<String> fields) throws IOException;
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public String getFileExtension() {
+		return fileExtension;
+	}
+	
+	/**
+	 * Find a format by name, ignoring case.
+	 *
+	 * @param name the name
+	 * @return the format, or null if there is none with that name
+	 */
+	public static BulkDownloadFormat fromName(String name){
+		for(BulkDownloadFormat format : values()){
+			if(format.name().equalsIgnoreCase(name)){
+				return format;
+			}
+		}
+		
+		return null;
+	}
+
+}
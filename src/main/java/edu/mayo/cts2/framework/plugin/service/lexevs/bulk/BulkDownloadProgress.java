@@ -0,0 +1,49 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+/**
+ * Tracks the progress of a running bulk download. Updated by the writing
+ * thread and safe to read from any other thread.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class BulkDownloadProgress {
+	
+	public static final long UNKNOWN = -1;
+
+	private volatile long rowsWritten = 0;
+	
+	private volatile long estimatedRemaining = UNKNOWN;
+
+	/**
+	 * Record that one row has been written.
+	 */
+	public void rowWritten() {
+		this.rowsWritten++;
+	}
+
+	public long getRowsWritten() {
+		return rowsWritten;
+	}
+
+	/**
+	 * Gets the estimated number of rows remaining, or {@link #UNKNOWN}.
+	 *
+	 * @return the estimated remaining
+	 */
+	public long getEstimatedRemaining() {
+		return estimatedRemaining;
+	}
+
+	public void setEstimatedRemaining(long estimatedRemaining) {
+		this.estimatedRemaining = estimatedRemaining;
+	}
+
+}
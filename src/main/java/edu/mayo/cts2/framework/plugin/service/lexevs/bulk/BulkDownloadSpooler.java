@@ -0,0 +1,468 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
+
+/**
+ * Decouples reading a bulk download from LexEVS from sending it to the client.
+ *
+ * The download is written to spool files on a separate thread as fast as LexEVS
+ * can produce it, while the request thread copies the files to the client as they
+ * grow. The LexEVS iterators, and the download slot of the {@link Permit}, are
+ * released as soon as the download has been read, not when a slow client has
+ * finished receiving it. If the client goes away, the read is cancelled.
+ *
+ * The spool is split into segment files, each deleted once it has been sent. The
+ * producer blocks once the bytes not yet sent to the client reach the configured
+ * maximum, so a download never holds much more than that on disk.
+ *
+ * Threads are only started for admitted downloads, so the number running is bounded
+ * by the {@link BulkDownloadAdmissionManager}.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class BulkDownloadSpooler implements InitializingBean, DisposableBean {
+
+	private static final String DEFAULT_SPOOL_DIRECTORY =
+		System.getProperty("java.io.tmpdir") + File.separator + "lexevs-bulk-spool";
+
+	private static final long DEFAULT_MAX_SPOOL_BYTES = 256L * 1024 * 1024;
+
+	private static final long DEFAULT_SEGMENT_BYTES = 8L * 1024 * 1024;
+
+	private static final int COPY_BUFFER_SIZE = 8192;
+
+	private static final long POLL_MILLIS = 50;
+
+	protected Logger log = Logger.getLogger(this.getClass());
+
+	private String spoolDirectory = DEFAULT_SPOOL_DIRECTORY;
+
+	private long maxSpoolBytes = DEFAULT_MAX_SPOOL_BYTES;
+
+	private long segmentBytes = DEFAULT_SEGMENT_BYTES;
+
+	private ExecutorService executor;
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		FileUtils.forceMkdir(new File(this.spoolDirectory));
+
+		final AtomicInteger count = new AtomicInteger();
+
+		this.executor = Executors.newCachedThreadPool(new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "lexevs-bulk-spool-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.executor != null){
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run the task and copy what it writes to the client. Returns once the client
+	 * has been sent everything. The download slot of the permit is released once
+	 * the task has finished, whether or not the client has caught up, and the
+	 * permit is released once the client has been sent everything.
+	 *
+	 * @param task the task
+	 * @param permit the permit held for the download, may be null
+	 * @param clientStream the client stream
+	 * @throws IOException if writing to the client fails
+	 */
+	public void spool(BulkDownloadTask task, Permit permit, OutputStream clientStream) throws IOException {
+		try {
+			Spool spool = new Spool(
+				new File(this.spoolDirectory), 
+				this.maxSpoolBytes, 
+				Math.min(this.segmentBytes, this.maxSpoolBytes));
+
+			this.executor.execute(this.createProducer(spool, task, permit));
+
+			try {
+				this.consume(spool, clientStream);
+			} catch (IOException e) {
+				spool.cancel();
+				throw e;
+			} catch (RuntimeException e) {
+				spool.cancel();
+				throw e;
+			} finally {
+				spool.consumerFinished();
+			}
+
+			if(spool.getError() != null){
+				throw new RuntimeException(spool.getError());
+			}
+		} finally {
+			if(permit != null){
+				permit.release();
+			}
+		}
+	}
+
+	private Runnable createProducer(final Spool spool, final BulkDownloadTask task, final Permit permit){
+		return new Runnable(){
+
+			@Override
+			public void run() {
+				OutputStream outputStream = null;
+				try {
+					outputStream = new BufferedOutputStream(new SpoolOutputStream(spool));
+
+					task.run(outputStream, new BulkDownloadProgress());
+
+					outputStream.flush();
+				} catch (Throwable e) {
+					if(! spool.isCancelled()){
+						log.warn("Spooled bulk download failed.", e);
+					}
+					spool.setError(e);
+				} finally {
+					IOUtils.closeQuietly(outputStream);
+					if(permit != null){
+						permit.releaseSlot();
+					}
+					spool.producerFinished();
+				}
+			}
+
+		};
+	}
+
+	private void consume(Spool spool, OutputStream clientStream) throws IOException {
+		byte[] buffer = new byte[COPY_BUFFER_SIZE];
+
+		Segment segment;
+		while((segment = spool.awaitSegment(POLL_MILLIS)) != null){
+			InputStream inputStream = new FileInputStream(segment.file);
+			try {
+				boolean closed = false;
+				while(true){
+					int read = inputStream.read(buffer);
+					if(read > 0){
+						clientStream.write(buffer, 0, read);
+						spool.consumed(read);
+					} else if(closed){
+						break;
+					} else {
+						//read once more after the segment is closed, so nothing written
+						//between the last read and the close is missed
+						closed = spool.awaitClosed(segment, POLL_MILLIS);
+					}
+				}
+			} finally {
+				IOUtils.closeQuietly(inputStream);
+			}
+
+			spool.removeSegment(segment);
+		}
+
+		clientStream.flush();
+	}
+
+	/**
+	 * One spool file. It is closed once the producer has moved on to the next one.
+	 */
+	private static class Segment {
+
+		private final File file;
+
+		private long length = 0;
+
+		private boolean closed = false;
+
+		private Segment(File file){
+			this.file = file;
+		}
+	}
+
+	/**
+	 * The state shared by the producing and consuming threads of one download.
+	 * Segments are deleted as they are sent, and any left are deleted once both 
+	 * threads are finished with them.
+	 */
+	private static class Spool {
+
+		private final File directory;
+
+		private final long maxPendingBytes;
+
+		private final long segmentBytes;
+
+		private final LinkedList<Segment> segments = new LinkedList<Segment>();
+
+		private long pendingBytes = 0;
+
+		private boolean producerFinished = false;
+
+		private boolean consumerFinished = false;
+
+		private volatile boolean cancelled = false;
+
+		private volatile Throwable error;
+
+		private Spool(File directory, long maxPendingBytes, long segmentBytes) throws IOException {
+			this.directory = directory;
+			this.maxPendingBytes = maxPendingBytes;
+			this.segmentBytes = segmentBytes;
+
+			this.addSegment();
+		}
+
+		private synchronized Segment addSegment() throws IOException {
+			Segment segment = new Segment(File.createTempFile("spool", null, this.directory));
+			this.segments.add(segment);
+
+			return segment;
+		}
+
+		private synchronized Segment getLastSegment(){
+			return this.segments.getLast();
+		}
+
+		private synchronized Segment roll(Segment segment) throws IOException {
+			Segment next = this.addSegment();
+
+			this.close(segment);
+
+			return next;
+		}
+
+		private synchronized void close(Segment segment){
+			segment.closed = true;
+			this.notifyAll();
+		}
+
+		private synchronized void written(Segment segment, int length){
+			segment.length += length;
+			this.pendingBytes += length;
+			this.notifyAll();
+		}
+
+		private synchronized void consumed(int length){
+			this.pendingBytes -= length;
+			this.notifyAll();
+		}
+
+		private synchronized void awaitCapacity() throws IOException {
+			while(this.pendingBytes >= this.maxPendingBytes && ! this.cancelled){
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for the client.");
+				}
+			}
+
+			if(this.cancelled){
+				throw new IOException("Bulk download cancelled.");
+			}
+		}
+
+		private synchronized Segment awaitSegment(long millis) throws IOException {
+			while(this.segments.isEmpty() && ! this.producerFinished){
+				this.doWait(millis);
+			}
+
+			return this.segments.isEmpty() ? null : this.segments.getFirst();
+		}
+
+		private synchronized boolean awaitClosed(Segment segment, long millis) throws IOException {
+			if(! segment.closed){
+				this.doWait(millis);
+			}
+
+			return segment.closed;
+		}
+
+		private void doWait(long millis) throws IOException {
+			try {
+				this.wait(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for bulk download.");
+			}
+		}
+
+		private synchronized void removeSegment(Segment segment){
+			this.segments.remove(segment);
+			FileUtils.deleteQuietly(segment.file);
+		}
+
+		private synchronized void producerFinished(){
+			this.producerFinished = true;
+			for(Segment segment : this.segments){
+				segment.closed = true;
+			}
+			this.notifyAll();
+			if(this.consumerFinished){
+				this.deleteSegments();
+			}
+		}
+
+		private synchronized void consumerFinished(){
+			this.consumerFinished = true;
+			if(this.producerFinished){
+				this.deleteSegments();
+			} else {
+				this.cancel();
+			}
+		}
+
+		private void deleteSegments(){
+			for(Segment segment : this.segments){
+				FileUtils.deleteQuietly(segment.file);
+			}
+			this.segments.clear();
+		}
+
+		private synchronized void cancel(){
+			this.cancelled = true;
+			this.notifyAll();
+		}
+
+		private boolean isCancelled(){
+			return this.cancelled;
+		}
+
+		private Throwable getError(){
+			return this.error;
+		}
+
+		private void setError(Throwable error){
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Writes the producer's output to the segments of a {@link Spool}, blocking
+	 * while the client is too far behind. Fails the producer's next write once the 
+	 * client has gone away, so the task stops reading from LexEVS and releases its 
+	 * iterators.
+	 */
+	private static class SpoolOutputStream extends OutputStream {
+
+		private final Spool spool;
+
+		private Segment segment;
+
+		private OutputStream out;
+
+		private SpoolOutputStream(Spool spool) throws IOException {
+			this.spool = spool;
+			this.segment = spool.getLastSegment();
+			this.out = new FileOutputStream(this.segment.file);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.write(new byte[]{(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0){
+				this.spool.awaitCapacity();
+
+				if(this.segment.length >= this.spool.segmentBytes){
+					this.out.close();
+					this.segment = this.spool.roll(this.segment);
+					this.out = new FileOutputStream(this.segment.file);
+				}
+
+				int chunk = (int) Math.min(len, this.spool.segmentBytes - this.segment.length);
+				this.out.write(b, off, chunk);
+				this.spool.written(this.segment, chunk);
+
+				off += chunk;
+				len -= chunk;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.close();
+			this.spool.close(this.segment);
+		}
+	}
+
+	public String getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	@Value("${bulkDownloadSpoolDirectory:${java.io.tmpdir}/lexevs-bulk-spool}")
+	public void setSpoolDirectory(String spoolDirectory) {
+		this.spoolDirectory = spoolDirectory;
+	}
+
+	public long getMaxSpoolBytes() {
+		return maxSpoolBytes;
+	}
+
+	@Value("${bulkDownloadMaxSpoolBytes:" + DEFAULT_MAX_SPOOL_BYTES + "}")
+	public void setMaxSpoolBytes(long maxSpoolBytes) {
+		this.maxSpoolBytes = maxSpoolBytes;
+	}
+
+	public long getSegmentBytes() {
+		return segmentBytes;
+	}
+
+	@Value("${bulkDownloadSpoolSegmentBytes:" + DEFAULT_SEGMENT_BYTES + "}")
+	public void setSegmentBytes(long segmentBytes) {
+		this.segmentBytes = segmentBytes;
+	}
+
+}
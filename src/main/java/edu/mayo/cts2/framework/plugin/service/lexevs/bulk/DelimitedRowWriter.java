@@ -0,0 +1,53 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+
+import org.supercsv.io.CsvListWriter;
+import org.supercsv.io.ICsvListWriter;
+import org.supercsv.prefs.CsvPreference;
+
+/**
+ * A {@link RowWriter} for separator-delimited text.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class DelimitedRowWriter implements RowWriter {
+	
+	private ICsvListWriter listWriter;
+
+	public DelimitedRowWriter(OutputStream outputStream, char separator) {
+		CsvPreference preferences = new CsvPreference.Builder('"', separator, "\r\n").build();
+
+		// Not a PrintWriter, which would swallow the IOException raised when the
+		// download is cancelled and leave the caller writing rows to nowhere.
+		this.listWriter = new CsvListWriter(new OutputStreamWriter(
+				outputStream), preferences);
+	}
+
+	@Override
+	public void write(String[] values) throws IOException {
+		this.listWriter.write(values);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		this.listWriter.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.listWriter.flush();
+		this.listWriter.close();
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A {@link RowWriter} for newline-delimited JSON. Each row is written as one JSON
+ * object on its own line, keyed by field name.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class NdjsonRowWriter implements RowWriter {
+	
+	private Writer writer;
+	
+	private String[] keys;
+
+	public NdjsonRowWriter(OutputStream outputStream, List<String> fields) {
+		try {
+			this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
+		this.keys = new String[fields.size()];
+		for(int i=0;i<fields.size();i++){
+			this.keys[i] = this.quote(fields.get(i));
+		}
+	}
+
+	@Override
+	public void write(String[] values) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append('{');
+		for(int i=0;i<values.length;i++){
+			if(i > 0){
+				sb.append(',');
+			}
+			sb.append(this.keys[i]).append(':');
+			if(values[i] == null){
+				sb.append("null");
+			} else {
+				sb.append(this.quote(values[i]));
+			}
+		}
+		sb.append("}\n");
+		
+		this.writer.write(sb.toString());
+	}
+
+	@Override
+	public void finish() throws IOException {
+		this.writer.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.writer.flush();
+		this.writer.close();
+	}
+	
+	private String quote(String value){
+		StringBuilder sb = new StringBuilder(value.length() + 2);
+		sb.append('"');
+		for(int i=0;i<value.length();i++){
+			char c = value.charAt(i);
+			switch(c){
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				case '\b': sb.append("\\b"); break;
+				case '\f': sb.append("\\f"); break;
+				default:
+					if(c < 0x20){
+						sb.append(String.format("\\u%04x", (int) c));
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+		
+		return sb.toString();
+	}
+
+}
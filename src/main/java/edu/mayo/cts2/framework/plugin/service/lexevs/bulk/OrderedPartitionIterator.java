@@ -0,0 +1,229 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+
+/**
+ * Reads several partitions of a download concurrently, returning their
+ * results one partition after another in the order the partitions were given.
+ *
+ * Each partition is read on the supplied executor into its own bounded buffer,
+ * so memory use is limited to (number of partitions * buffer size) references
+ * no matter how large the partitions are. Partitions ahead of the one currently
+ * being returned block once their buffer is full. A partition that waits longer
+ * than the wait timeout for room in its buffer is cancelled, and the iterator
+ * fails when it reaches that partition.
+ *
+ * Callers must {@link #close()} the iterator, even if it was not read to the end.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class OrderedPartitionIterator implements Iterator<ResolvedConceptReference> {
+
+	private static final long POLL_MILLIS = 100;
+
+	private static final Object END_OF_PARTITION = new Object();
+
+	/**
+	 * One independently readable piece of a download.
+	 */
+	public interface Partition {
+
+		/**
+		 * Open an iterator over the content of this partition.
+		 *
+		 * @return the iterator
+		 * @throws LBException the lB exception
+		 */
+		public ResolvedConceptReferencesIterator open() throws LBException;
+	}
+
+	/**
+	 * The results read from one partition, and why reading it stopped early, if it did.
+	 */
+	private static class Buffer {
+
+		private final BlockingQueue<Object> queue;
+
+		private volatile Throwable failure;
+
+		private Buffer(int size){
+			this.queue = new ArrayBlockingQueue<Object>(size);
+		}
+	}
+
+	private final List<Buffer> buffers;
+
+	private final long waitTimeoutMillis;
+
+	private volatile boolean closed = false;
+
+	private int current = 0;
+
+	private ResolvedConceptReference next;
+
+	/**
+	 * Instantiates a new ordered partition iterator and starts reading
+	 * the partitions.
+	 *
+	 * @param executor the executor
+	 * @param partitions the partitions
+	 * @param bufferSize the number of references to buffer per partition
+	 * @param waitTimeoutMillis how long a partition may wait for room in its buffer
+	 */
+	public OrderedPartitionIterator(ExecutorService executor, List<Partition> partitions, int bufferSize, long waitTimeoutMillis) {
+		this.buffers = new ArrayList<Buffer>(partitions.size());
+		this.waitTimeoutMillis = waitTimeoutMillis;
+
+		for(final Partition partition : partitions){
+			final Buffer buffer = new Buffer(bufferSize);
+			this.buffers.add(buffer);
+
+			executor.execute(new Runnable(){
+
+				@Override
+				public void run() {
+					read(partition, buffer);
+				}
+
+			});
+		}
+	}
+
+	private void read(Partition partition, Buffer buffer){
+		ResolvedConceptReferencesIterator itr = null;
+		try {
+			if(this.closed){
+				return;
+			}
+
+			itr = partition.open();
+
+			while(! this.closed && itr.hasNext()){
+				if(! this.put(buffer, itr.next())){
+					return;
+				}
+			}
+
+			this.put(buffer, END_OF_PARTITION);
+		} catch (Throwable e) {
+			this.put(buffer, e);
+		} finally {
+			if(itr != null){
+				try {
+					itr.release();
+				} catch (LBException e) {
+					//
+				}
+			}
+		}
+	}
+
+	private boolean put(Buffer buffer, Object item){
+		long deadline = System.currentTimeMillis() + this.waitTimeoutMillis;
+		try {
+			while(! buffer.queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)){
+				if(this.closed){
+					return false;
+				}
+				if(System.currentTimeMillis() > deadline){
+					buffer.failure = new IllegalStateException(
+						"Timed out after " + this.waitTimeoutMillis + " ms waiting for a partition to be read.");
+					return false;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			buffer.failure = e;
+			return false;
+		}
+
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while(this.next == null && this.current < this.buffers.size()){
+			Buffer buffer = this.buffers.get(this.current);
+
+			Object item;
+			try {
+				item = buffer.queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			}
+
+			if(item == null){
+				//the failure is set before the partition stops, so nothing is left to read
+				if(buffer.failure != null && buffer.queue.isEmpty()){
+					throw new RuntimeException(buffer.failure);
+				}
+			} else if(item == END_OF_PARTITION){
+				this.current++;
+			} else if(item instanceof Throwable){
+				throw new RuntimeException((Throwable) item);
+			} else {
+				this.next = (ResolvedConceptReference) item;
+			}
+		}
+
+		return this.next != null;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public ResolvedConceptReference next() {
+		if(! this.hasNext()){
+			throw new NoSuchElementException();
+		}
+
+		ResolvedConceptReference ref = this.next;
+		this.next = null;
+
+		return ref;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stop reading any partitions that are still running.
+	 */
+	public void close() {
+		this.closed = true;
+
+		for(Buffer buffer : this.buffers){
+			buffer.queue.clear();
+		}
+	}
+
+}
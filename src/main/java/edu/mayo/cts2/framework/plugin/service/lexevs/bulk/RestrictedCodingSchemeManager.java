@@ -0,0 +1,149 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.Exceptions.LBInvocationException;
+import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.security.msso.MssoUserValidator;
+
+/**
+ * Decides which coding schemes may not be bulk downloaded. The NCI Metathesaurus
+ * is never available, and MedDRA is only available with a valid MedDRA token.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class RestrictedCodingSchemeManager implements InitializingBean {
+
+	private static final String MEDDRA_NAME = "MedDRA";
+
+	private static final String NCI_META_NAME = "NCI Metathesaurus";
+
+	@Resource
+	private LexBIGService lexBigService;
+
+	@Resource
+	private MssoUserValidator mssoUserValidator;
+
+	private Set<CodingSchemeReference> meddraExclusions;
+
+	private Set<CodingSchemeReference> nciMetaExclusions;
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.meddraExclusions = this.doGetCodingSchemeReferences(MEDDRA_NAME);
+		this.nciMetaExclusions = this.doGetCodingSchemeReferences(NCI_META_NAME);
+	}
+
+	/**
+	 * Check a MedDRA token, if one was supplied. If it is invalid,
+	 * a '403 Forbidden' is sent.
+	 *
+	 * @param response the response
+	 * @param meddraToken the meddra token
+	 * @return false if the token was supplied but is not valid
+	 */
+	public boolean validateMeddraToken(HttpServletResponse response, String meddraToken){
+		if(StringUtils.isNotBlank(meddraToken)){
+			boolean validates = this.mssoUserValidator.isValid(meddraToken);
+			if(! validates){
+		        try {
+					response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid MedDRA token.");
+					return false;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Check that a coding scheme, by name or URI, is not restricted. If it is,
+	 * a '403 Forbidden' is sent.
+	 *
+	 * @param response the response
+	 * @param codingscheme the codingscheme
+	 * @param isValidMeddraToken whether a valid MedDRA token was supplied
+	 * @return false if the coding scheme is restricted
+	 */
+	public boolean validateCodingScheme(HttpServletResponse response, String codingscheme, boolean isValidMeddraToken){
+		boolean restricted = codingscheme.equals(NCI_META_NAME) ||
+				(! isValidMeddraToken && codingscheme.equals(MEDDRA_NAME));
+
+		for(CodingSchemeReference exclusion : this.getExclusions(isValidMeddraToken)){
+			if(codingscheme.equals(exclusion.getCodingScheme())){
+				restricted = true;
+			}
+		}
+
+		if(restricted){
+	        try {
+				response.sendError(HttpServletResponse.SC_FORBIDDEN, "CodingScheme not available: " + codingscheme);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		return ! restricted;
+	}
+
+	/**
+	 * Get the coding scheme versions to leave out of a download.
+	 *
+	 * @param isValidMeddraToken whether a valid MedDRA token was supplied
+	 * @return the exclusions
+	 */
+	public Set<CodingSchemeReference> getExclusions(boolean isValidMeddraToken){
+		Set<CodingSchemeReference> exclusions = new HashSet<CodingSchemeReference>();
+		exclusions.addAll(this.nciMetaExclusions);
+		if(! isValidMeddraToken){
+			exclusions.addAll(this.meddraExclusions);
+		}
+
+		return exclusions;
+	}
+
+	private Set<CodingSchemeReference> doGetCodingSchemeReferences(String name){
+		Set<CodingSchemeReference> references = new HashSet<CodingSchemeReference>();
+		try {
+			for(CodingSchemeRendering scheme : lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+				if(scheme.getCodingSchemeSummary().getLocalName().equals(name)){
+					CodingSchemeReference reference = new CodingSchemeReference();
+					reference.setCodingScheme(
+							scheme.getCodingSchemeSummary().getCodingSchemeURI());
+					reference.setVersionOrTag(
+							Constructors.createCodingSchemeVersionOrTagFromVersion(scheme.getCodingSchemeSummary().getRepresentsVersion()));
+
+					references.add(reference);
+				}
+			}
+		} catch (LBInvocationException e) {
+			return null;
+		}
+
+		return references;
+	}
+
+}
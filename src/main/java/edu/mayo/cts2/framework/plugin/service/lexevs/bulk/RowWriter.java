@@ -0,0 +1,43 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import java.io.IOException;
+
+/**
+ * Writes bulk download rows in a particular output format.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public interface RowWriter {
+	
+	/**
+	 * Write one row. The values are in the same order as the requested fields.
+	 *
+	 * @param values the values
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(String[] values) throws IOException;
+	
+	/**
+	 * Finish the output and flush any buffered content. Called only
+	 * if every row was written successfully.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void finish() throws IOException;
+	
+	/**
+	 * Release the writer. Always called, whether or not the download completed.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException;
+
+}
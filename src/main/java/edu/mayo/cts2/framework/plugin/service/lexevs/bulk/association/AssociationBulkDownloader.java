@@ -0,0 +1,63 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association;
+
+import java.io.OutputStream;
+import java.util.List;
+
+import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
+/**
+ * Bulk downloads the associations (edges) of a coding scheme.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public interface AssociationBulkDownloader {
+	
+	static final String SOURCE_CODE_FIELD = "source-code";
+	static final String SOURCE_NAMESPACE_FIELD = "source-namespace";
+	static final String SOURCE_DESCRIPTION_FIELD = "source-description";
+	
+	static final String ASSOCIATION_NAME_FIELD = "association-name";
+	
+	static final String TARGET_CODE_FIELD = "target-code";
+	static final String TARGET_NAMESPACE_FIELD = "target-namespace";
+	static final String TARGET_DESCRIPTION_FIELD = "target-description";
+	
+	static final String CODINGSCHEME_NAME_FIELD = "codingschemename";
+	static final String CODINGSCHEME_VERSION_FIELD = "codingschemeversion";
+	
+	/**
+	 * Send one row per (source, association, target) to the provided {@link OutputStream}.
+	 *
+	 * @param outputStream the output stream
+	 * @param codingScheme the coding scheme
+	 * @param associations the association names to include, or null for all
+	 * @param fields the fields
+	 * @param separator the separator
+	 */
+	void download(OutputStream outputStream, CodingSchemeReference codingScheme, List<String> associations, List<String> fields, char separator);
+	
+	/**
+	 * Send one row per (source, association, target) to the provided {@link OutputStream}
+	 * in the given {@link BulkDownloadFormat}, reporting progress to the given {@link BulkDownloadProgress}.
+	 *
+	 * @param outputStream the output stream
+	 * @param codingScheme the coding scheme
+	 * @param associations the association names to include, or null for all
+	 * @param fields the fields
+	 * @param separator the separator, used only by delimited output
+	 * @param format the output format
+	 * @param progress the progress
+	 */
+	void download(OutputStream outputStream, CodingSchemeReference codingScheme, List<String> associations, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress);
+}
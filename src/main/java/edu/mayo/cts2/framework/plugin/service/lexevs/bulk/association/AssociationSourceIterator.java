@@ -0,0 +1,133 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+
+/**
+ * Returns the entities of a coding scheme that are the source of at least one
+ * association, each with its outgoing associations resolved in 'sourceOf'.
+ *
+ * Entities are read from the given iterator a batch at a time, and the associations
+ * of each batch are resolved together, so only one batch is held in memory.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class AssociationSourceIterator implements Iterator<ResolvedConceptReference> {
+	
+	/**
+	 * Resolves the outgoing associations of a batch of entities.
+	 */
+	public interface BatchResolver {
+		
+		/**
+		 * Resolve the given codes with their outgoing associations.
+		 *
+		 * @param codes the codes
+		 * @return the resolved sources
+		 * @throws LBException the lB exception
+		 */
+		public ResolvedConceptReferenceList resolve(ConceptReferenceList codes) throws LBException;
+	}
+	
+	private final ResolvedConceptReferencesIterator entities;
+	
+	private final BatchResolver resolver;
+	
+	private final int batchSize;
+	
+	private ResolvedConceptReference[] batch = new ResolvedConceptReference[0];
+	
+	private int batchIndex;
+	
+	private ResolvedConceptReference next;
+
+	public AssociationSourceIterator(ResolvedConceptReferencesIterator entities, BatchResolver resolver, int batchSize) {
+		this.entities = entities;
+		this.resolver = resolver;
+		this.batchSize = batchSize;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		try {
+			while(this.next == null){
+				if(this.batchIndex < this.batch.length){
+					ResolvedConceptReference ref = this.batch[this.batchIndex++];
+					if(ref.getSourceOf() != null && ref.getSourceOf().getAssociationCount() > 0){
+						this.next = ref;
+					}
+				} else if(this.entities.hasNext()){
+					this.nextBatch();
+				} else {
+					return false;
+				}
+			}
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+		
+		return true;
+	}
+	
+	private void nextBatch() throws LBException {
+		ResolvedConceptReferenceList entityList = this.entities.next(this.batchSize);
+		
+		ConceptReferenceList codes = new ConceptReferenceList();
+		for(ResolvedConceptReference entity : entityList.getResolvedConceptReference()){
+			ConceptReference code = new ConceptReference();
+			code.setCode(entity.getCode());
+			code.setCodeNamespace(entity.getCodeNamespace());
+			
+			codes.addConceptReference(code);
+		}
+		
+		this.batchIndex = 0;
+		if(codes.getConceptReferenceCount() == 0){
+			this.batch = new ResolvedConceptReference[0];
+		} else {
+			this.batch = this.resolver.resolve(codes).getResolvedConceptReference();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public ResolvedConceptReference next() {
+		if(! this.hasNext()){
+			throw new NoSuchElementException();
+		}
+		
+		ResolvedConceptReference ref = this.next;
+		this.next = null;
+		
+		return ref;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+}
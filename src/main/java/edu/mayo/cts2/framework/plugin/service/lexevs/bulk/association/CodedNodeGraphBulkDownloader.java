@@ -0,0 +1,244 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Collections.NameAndValueList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.apache.commons.collections.CollectionUtils;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association.AssociationSourceIterator.BatchResolver;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.mapversion.MapTargetIterator;
+
+/**
+ * A Bulk Downloader for associations based on the LexEVS CodedNodeGraph.
+ * 
+ * The entities of the coding scheme are walked once, and the outgoing associations
+ * are resolved one batch of source entities at a time. One row is written for each
+ * (source, association, target).
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class CodedNodeGraphBulkDownloader 
+	extends AbstractBulkDownloader 
+	implements AssociationBulkDownloader {
+	
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
+	@Resource
+	private LexBIGService lexBigService;
+	
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	
+	private final static Map<String, Extractor> EXTRACTOR_MAP = new HashMap<String,Extractor>(){
+
+		private ResolvedConceptReference getTarget(ResolvedConceptReference ref){
+			return ref.getSourceOf().getAssociation(0).getAssociatedConcepts().getAssociatedConcept(0);
+		}
+		
+		private static final long serialVersionUID = 2957213410826498416L;
+		{{
+				put(AssociationBulkDownloader.SOURCE_CODE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCode();
+					}	
+				});
+				
+				put(AssociationBulkDownloader.SOURCE_NAMESPACE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodeNamespace();
+					}	
+				});
+				
+				put(AssociationBulkDownloader.SOURCE_DESCRIPTION_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						if(ref.getEntityDescription() != null) {
+							return ref.getEntityDescription().getContent();
+						} else {
+							return "";
+						}
+					}	
+				});
+				
+				put(AssociationBulkDownloader.ASSOCIATION_NAME_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getSourceOf().getAssociation(0).getAssociationName();
+					}	
+				});
+				
+				put(AssociationBulkDownloader.TARGET_CODE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return getTarget(ref).getCode();
+					}	
+				});
+				
+				put(AssociationBulkDownloader.TARGET_NAMESPACE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return getTarget(ref).getCodeNamespace();
+					}	
+				});
+				
+				put(AssociationBulkDownloader.TARGET_DESCRIPTION_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						ResolvedConceptReference target = getTarget(ref);
+						if(target.getEntityDescription() != null) {
+							return target.getEntityDescription().getContent();
+						} else {
+							return "";
+						}
+					}	
+				});
+				
+				put(AssociationBulkDownloader.CODINGSCHEME_NAME_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodingSchemeName();
+					}	
+				});
+				
+				put(AssociationBulkDownloader.CODINGSCHEME_VERSION_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodingSchemeVersion();
+					}	
+				});
+
+		}}};
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association.AssociationBulkDownloader#download(java.io.OutputStream, org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference, java.util.List, java.util.List, char)
+	 */
+	@Override
+	public void download(
+			OutputStream outputStream,
+			CodingSchemeReference codingScheme, 
+			List<String> associations,
+			List<String> fields, 
+			char separator) {
+		this.download(outputStream, codingScheme, associations, fields, separator, BulkDownloadFormat.DELIMITED, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association.AssociationBulkDownloader#download(java.io.OutputStream, org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference, java.util.List, java.util.List, char, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress)
+	 */
+	@Override
+	public void download(
+			OutputStream outputStream,
+			final CodingSchemeReference codingScheme, 
+			final List<String> associations,
+			List<String> fields, 
+			char separator,
+			BulkDownloadFormat format,
+			BulkDownloadProgress progress) {
+		
+		ResolvedConceptReferencesIterator entities;
+		try {
+			entities = this.lexBigService.getNodeSet(
+				codingScheme.getCodingScheme(), 
+				codingScheme.getVersionOrTag(), 
+				null).resolve(null, null, null, null, false);
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+		
+		BatchResolver resolver = new BatchResolver(){
+
+			@Override
+			public ResolvedConceptReferenceList resolve(ConceptReferenceList codes) throws LBException {
+				return resolveSources(codingScheme, associations, codes);
+			}
+			
+		};
+		
+		try {
+			this.doWrite(
+				outputStream, 
+				new MapTargetIterator(new AssociationSourceIterator(entities, resolver, this.batchSize)), 
+				separator, 
+				format,
+				fields, 
+				progress, 
+				entities);
+		} finally {
+			try {
+				entities.release();
+			} catch (LBException e) {
+				//
+			}
+		}
+	}
+	
+	protected ResolvedConceptReferenceList resolveSources(
+			CodingSchemeReference codingScheme, 
+			List<String> associations,
+			ConceptReferenceList codes) throws LBException {
+		CodedNodeGraph graph = this.lexBigService.getNodeGraph(
+			codingScheme.getCodingScheme(), 
+			codingScheme.getVersionOrTag(), 
+			null);
+		
+		if(! CollectionUtils.isEmpty(associations)){
+			NameAndValueList associationNames = new NameAndValueList();
+			for(String association : associations){
+				associationNames.addNameAndValue(Constructors.createNameAndValue(association, null));
+			}
+			
+			graph = graph.restrictToAssociations(associationNames, null);
+		}
+		
+		graph = graph.restrictToSourceCodes(
+			this.lexBigService.getNodeSet(
+				codingScheme.getCodingScheme(), 
+				codingScheme.getVersionOrTag(), 
+				null).restrictToCodes(codes));
+		
+		return graph.resolveAsList(null, true, false, 0, 1, null, null, null, null, -1);
+	}
+
+	@Override
+	protected Map<String, Extractor> getExtractorMap() {
+		return EXTRACTOR_MAP;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+}
@@ -0,0 +1,260 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association.controller;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloadController;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.RestrictedCodingSchemeManager;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association.AssociationBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
+
+/**
+ * A REST Controller for bulk downloads of the associations of a coding scheme.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Controller("associationBulkDownloadController")
+public class AssociationBulkDownloadController extends AbstractBulkDownloadController {
+
+	private static final List<String> DEFAULT_FIELDS = Arrays.asList(
+				AssociationBulkDownloader.SOURCE_CODE_FIELD,
+				AssociationBulkDownloader.SOURCE_NAMESPACE_FIELD,
+				AssociationBulkDownloader.ASSOCIATION_NAME_FIELD,
+				AssociationBulkDownloader.TARGET_CODE_FIELD,
+				AssociationBulkDownloader.TARGET_NAMESPACE_FIELD
+	);
+	
+	private static final List<String> ALL_FIELDS = Arrays.asList(
+				AssociationBulkDownloader.SOURCE_CODE_FIELD,
+				AssociationBulkDownloader.SOURCE_NAMESPACE_FIELD,
+				AssociationBulkDownloader.SOURCE_DESCRIPTION_FIELD,
+				AssociationBulkDownloader.ASSOCIATION_NAME_FIELD,
+				AssociationBulkDownloader.TARGET_CODE_FIELD,
+				AssociationBulkDownloader.TARGET_NAMESPACE_FIELD,
+				AssociationBulkDownloader.TARGET_DESCRIPTION_FIELD,
+				AssociationBulkDownloader.CODINGSCHEME_NAME_FIELD,
+				AssociationBulkDownloader.CODINGSCHEME_VERSION_FIELD
+	);
+
+	@Resource
+	private AssociationBulkDownloader associationBulkDownloader;
+	
+	@Resource
+	private RestrictedCodingSchemeManager restrictedCodingSchemeManager;
+
+	/**
+	 * Download.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param meddraToken the meddra token
+	 * @param codingscheme the codingscheme
+	 * @param associations the associations
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 * @throws LBException the lB exception
+	 */
+	@RequestMapping(value="/exporter/association")
+    public void download(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="meddratoken", defaultValue="") String meddraToken,
+    		@RequestParam(value="codingscheme", defaultValue="") String codingscheme,
+    		@RequestParam(value="associations", defaultValue="") String associations,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) throws LBException {
+		
+		BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		if(StringUtils.isBlank(codingscheme)){
+			throw new UserInputException("'codingscheme' parameter is required.");
+		}
+		
+		boolean isValidMeddraToken = StringUtils.isNotBlank(meddraToken);
+		
+		if(! this.restrictedCodingSchemeManager.validateMeddraToken(response, meddraToken) ||
+				! this.restrictedCodingSchemeManager.validateCodingScheme(
+						response, StringUtils.split(codingscheme, ':')[0], isValidMeddraToken)){
+			return;
+		}
+		
+		List<String> fieldsList = this.getFields(fields);
+		
+		List<String> associationsList = this.getAssociations(associations);
+		
+		CodingSchemeReference reference = this.getReference(codingscheme);
+
+		Permit permit = this.admit(request);
+
+		this.setHeaders(response, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat);
+		
+		this.spool(response, permit, this.createTask(
+				reference, associationsList, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	/**
+	 * Submit a download to run in the background. The response contains the job id,
+	 * which can be polled for status and then downloaded once complete.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param meddraToken the meddra token
+	 * @param codingscheme the codingscheme
+	 * @param associations the associations
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 * @throws LBException the lB exception
+	 */
+	@RequestMapping(value="/exporter/association/" + JOB_PATH)
+    public void submitDownload(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="meddratoken", defaultValue="") String meddraToken,
+    		@RequestParam(value="codingscheme", defaultValue="") String codingscheme,
+    		@RequestParam(value="associations", defaultValue="") String associations,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) final char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) throws LBException {
+		
+		final BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		if(StringUtils.isBlank(codingscheme)){
+			throw new UserInputException("'codingscheme' parameter is required.");
+		}
+		
+		boolean isValidMeddraToken = StringUtils.isNotBlank(meddraToken);
+		
+		if(! this.restrictedCodingSchemeManager.validateMeddraToken(response, meddraToken) ||
+				! this.restrictedCodingSchemeManager.validateCodingScheme(
+						response, StringUtils.split(codingscheme, ':')[0], isValidMeddraToken)){
+			return;
+		}
+		
+		final List<String> fieldsList = this.getFields(fields);
+		
+		final List<String> associationsList = this.getAssociations(associations);
+		
+		final CodingSchemeReference reference = this.getReference(codingscheme);
+		
+		String key = "association:" + codingscheme + ";" + 
+				(associationsList == null ? "" : new TreeSet<String>(associationsList)) + 
+				";" + fieldsList + ";" + separator + ";" + bulkDownloadFormat + ";" + isValidMeddraToken;
+		
+		this.submitJob(request, response, key, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat, this.createTask(
+				reference, associationsList, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	private BulkDownloadTask createTask(
+			final CodingSchemeReference reference, 
+			final List<String> associationsList, 
+			final List<String> fieldsList, 
+			final char separator, 
+			final BulkDownloadFormat bulkDownloadFormat){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				associationBulkDownloader.download(
+					outputStream, 
+					reference, 
+					associationsList, 
+					fieldsList, 
+					separator, 
+					bulkDownloadFormat, 
+					progress);
+			}
+			
+		};
+	}
+	
+	private List<String> getFields(String fields){
+		List<String> fieldsList;
+		if(StringUtils.isBlank(fields)){
+			fieldsList = DEFAULT_FIELDS;
+		} else {
+			fieldsList = Arrays.asList(StringUtils.split(fields, ','));
+			
+			for(String field : fieldsList){
+				if(! ALL_FIELDS.contains(field)){
+					throw new UserInputException("Unknown field '" + field + "'.");
+				}
+			}
+		}
+		
+		return fieldsList;
+	}
+	
+	private List<String> getAssociations(String associations){
+		if(StringUtils.isBlank(associations)){
+			return null;
+		} else {
+			return Arrays.asList(StringUtils.split(associations, ','));
+		}
+	}
+	
+	private CodingSchemeReference getReference(String codingscheme){
+		String[] parts = StringUtils.split(codingscheme, ':');
+		
+		CodingSchemeReference reference = new CodingSchemeReference();
+		reference.setCodingScheme(parts[0]);
+
+		if(parts.length == 2){
+			reference.setVersionOrTag(
+				Constructors.createCodingSchemeVersionOrTagFromVersion(parts[1]));
+		} 
+		
+		return reference;
+	}
+	
+	@Override
+	public Object getController() {
+		return this;
+	}
+	
+	@Override
+	protected String getValidParametersMessage() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("codingscheme - The CodingScheme to export\n");
+		sb.append("\tFormat: codingSchemeName[:version]  - example: 'MyCodingScheme' or 'MyCodingScheme:1.0'\n");
+		sb.append("associations - (Optional) Association names to include (comma-separated). Default: all\n");
+		sb.append("fields - (Optional) Content fields to output. Default: "+ DEFAULT_FIELDS + "\n");
+		sb.append("\tAvailable: " + ALL_FIELDS + "\n");
+		sb.append("separator -(Optional) One character field separator. Default: " + DEFAULT_SEPARATOR +"\n");
+		sb.append("format - (Optional) Output format: delimited, ndjson or binary. Default: " + DEFAULT_FORMAT +"\n");
+		sb.append("filename - (Optional) Output file name. Default: " + DEFAULT_FILE_NAME + "\n");
+		sb.append("meddratoken - (Optional) MedDRA authorization token. Required to export MedDRA.");
+		
+		return sb.toString();
+	}
+
+}
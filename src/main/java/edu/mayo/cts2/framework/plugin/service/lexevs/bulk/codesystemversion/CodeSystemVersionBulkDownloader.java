@@ -14,6 +14,9 @@ import java.util.Set;
 
 import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
 
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
 /**
  * A Bulk Downloading interface for downloading large terminology content.
  *
@@ -39,4 +42,17 @@ public interface CodeSystemVersionBulkDownloader {
 	 * @param separator the separator
 	 */
 	void download(OutputStream outputStream, Set<CodingSchemeReference> codingSchemes, Set<CodingSchemeReference> excludedCodingSchemes, List<String> fields, char separator);
+	
+	/**
+	 * Send requested content to the provided {@link OutputStream} in the given
+	 * {@link BulkDownloadFormat}, reporting progress to the given {@link BulkDownloadProgress}.
+	 *
+	 * @param outputStream the output stream
+	 * @param codingSchemes the coding schemes
+	 * @param fields the fields
+	 * @param separator the separator, used only by delimited output
+	 * @param format the output format
+	 * @param progress the progress
+	 */
+	void download(OutputStream outputStream, Set<CodingSchemeReference> codingSchemes, Set<CodingSchemeReference> excludedCodingSchemes, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress);
 }
@@ -0,0 +1,42 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion;
+
+import java.io.OutputStream;
+import java.util.List;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
+/**
+ * Bulk downloads the differences between two versions of a coding scheme.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public interface CodeSystemVersionDeltaBulkDownloader {
+	
+	static final String CHANGE_FIELD = "change";
+	
+	/**
+	 * Send one row for each entity added, removed or changed between the two
+	 * versions to the provided {@link OutputStream}. Removed entities are written with
+	 * their values in 'fromVersion', others with their values in 'toVersion'. An entity
+	 * is changed if any requested field other than the coding scheme version differs.
+	 *
+	 * @param outputStream the output stream
+	 * @param codingScheme the coding scheme name or URI
+	 * @param fromVersion the earlier version
+	 * @param toVersion the later version
+	 * @param fields the fields, which may include {@link #CHANGE_FIELD}
+	 * @param separator the separator, used only by delimited output
+	 * @param format the output format
+	 * @param progress the progress, may be null
+	 */
+	void download(OutputStream outputStream, String codingScheme, String fromVersion, String toVersion, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress);
+}
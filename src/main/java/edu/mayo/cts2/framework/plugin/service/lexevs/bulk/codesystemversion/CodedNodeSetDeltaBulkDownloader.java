@@ -0,0 +1,172 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.DeltaIterator.DeltaReference;
+
+/**
+ * A {@link CodeSystemVersionDeltaBulkDownloader} implementation that reads both versions
+ * with LexEVS CodedNodeSets and merges them with a {@link DeltaIterator}.
+ *
+ * Both versions are sorted here rather than by LexEVS, whose collation of codes
+ * does not match the order the merge expects. The references are read without
+ * their entities, so each version is held in memory as codes and descriptions only.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class CodedNodeSetDeltaBulkDownloader 
+	extends AbstractBulkDownloader 
+	implements CodeSystemVersionDeltaBulkDownloader {
+	
+	private static final int BATCH_SIZE = 1000;
+
+	@Resource
+	private LexBIGService lexBigService;
+	
+	private final static Map<String, Extractor> EXTRACTOR_MAP = new HashMap<String,Extractor>(){
+
+		private static final long serialVersionUID = 3364004874338146297L;
+		{{
+				putAll(SearchExtensionBulkDownloader.EXTRACTOR_MAP);
+				
+				put(CodeSystemVersionDeltaBulkDownloader.CHANGE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ((DeltaReference) ref).getChange().toString().toLowerCase();
+					}	
+				});
+
+		}}};
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.CodeSystemVersionDeltaBulkDownloader#download(java.io.OutputStream, java.lang.String, java.lang.String, java.lang.String, java.util.List, char, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress)
+	 */
+	@Override
+	public void download(
+			OutputStream outputStream, 
+			String codingScheme,
+			String fromVersion, 
+			String toVersion, 
+			List<String> fields,
+			char separator, 
+			BulkDownloadFormat format,
+			BulkDownloadProgress progress) {
+		try {
+			List<ResolvedConceptReference> from = this.resolveSorted(codingScheme, fromVersion);
+			List<ResolvedConceptReference> to = this.resolveSorted(codingScheme, toVersion);
+			
+			DeltaIterator delta = new DeltaIterator(
+				from.iterator(), 
+				to.iterator(), 
+				this.getComparedFields(fields));
+			
+			this.doWrite(outputStream, delta, separator, format, fields, progress);
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Read all references of a version, sorted in {@link DeltaIterator#ORDER}.
+	 *
+	 * @param codingScheme the coding scheme
+	 * @param version the version
+	 * @return the references
+	 * @throws LBException the lB exception
+	 */
+	private List<ResolvedConceptReference> resolveSorted(String codingScheme, String version) throws LBException {
+		ResolvedConceptReferencesIterator itr = this.lexBigService.getNodeSet(
+			codingScheme, 
+			Constructors.createCodingSchemeVersionOrTagFromVersion(version), 
+			null).resolve(
+				null, 
+				null, 
+				null, 
+				null, 
+				false);
+		
+		List<ResolvedConceptReference> references = new ArrayList<ResolvedConceptReference>();
+		try {
+			while(itr.hasNext()){
+				ResolvedConceptReferenceList list = itr.next(BATCH_SIZE);
+				for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+					references.add(ref);
+				}
+			}
+		} finally {
+			this.release(itr);
+		}
+		
+		Collections.sort(references, DeltaIterator.ORDER);
+		
+		return references;
+	}
+	
+	/**
+	 * Gets the extractors to compare. The version always differs between the two
+	 * versions, and the change itself is not yet known, so neither is compared.
+	 *
+	 * @param fields the fields
+	 * @return the compared fields
+	 */
+	private List<Extractor> getComparedFields(List<String> fields){
+		List<Extractor> extractors = new ArrayList<Extractor>();
+		for(String field : fields){
+			if(field.equals(CodeSystemVersionBulkDownloader.CODINGSCHEME_VERSION_FIELD) ||
+					field.equals(CHANGE_FIELD)){
+				continue;
+			}
+			
+			Extractor extractor = EXTRACTOR_MAP.get(field);
+			if(extractor != null){
+				extractors.add(extractor);
+			}
+		}
+		
+		return extractors;
+	}
+	
+	private void release(ResolvedConceptReferencesIterator itr){
+		if(itr != null){
+			try {
+				itr.release();
+			} catch (LBException e) {
+				//
+			}
+		}
+	}
+
+	@Override
+	protected Map<String, Extractor> getExtractorMap() {
+		return EXTRACTOR_MAP;
+	}
+
+}
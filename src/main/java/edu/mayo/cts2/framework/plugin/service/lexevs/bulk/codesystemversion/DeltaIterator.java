@@ -0,0 +1,189 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.apache.commons.lang.StringUtils;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
+
+/**
+ * Merges two iterators, each sorted by code and namespace in the order of
+ * {@link #ORDER}, returning only the references that were added, removed or
+ * changed from the first to the second.
+ *
+ * Only the current reference of each iterator is held in memory.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class DeltaIterator implements Iterator<ResolvedConceptReference> {
+	
+	public enum Change { ADDED, REMOVED, CHANGED }
+	
+	/**
+	 * The order both iterators must be sorted in.
+	 */
+	public static final Comparator<ResolvedConceptReference> ORDER = new Comparator<ResolvedConceptReference>(){
+
+		@Override
+		public int compare(ResolvedConceptReference ref1, ResolvedConceptReference ref2) {
+			return DeltaIterator.compare(ref1, ref2);
+		}
+		
+	};
+	
+	/**
+	 * A reference with the kind of change that was found.
+	 */
+	public static class DeltaReference extends ResolvedConceptReference {
+
+		private static final long serialVersionUID = -1306254519783510335L;
+		
+		private Change change;
+
+		public Change getChange() {
+			return change;
+		}
+	}
+	
+	private final Iterator<ResolvedConceptReference> from;
+	
+	private final Iterator<ResolvedConceptReference> to;
+	
+	private final List<Extractor> comparedFields;
+	
+	private ResolvedConceptReference fromHead;
+	
+	private ResolvedConceptReference toHead;
+	
+	private DeltaReference next;
+
+	/**
+	 * Instantiates a new delta iterator.
+	 *
+	 * @param from the earlier content
+	 * @param to the later content
+	 * @param comparedFields the fields that, if different, make a reference 'changed'
+	 */
+	public DeltaIterator(
+			Iterator<ResolvedConceptReference> from, 
+			Iterator<ResolvedConceptReference> to, 
+			List<Extractor> comparedFields) {
+		this.from = from;
+		this.to = to;
+		this.comparedFields = comparedFields;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while(this.next == null){
+			if(this.fromHead == null && this.from.hasNext()){
+				this.fromHead = this.from.next();
+			}
+			if(this.toHead == null && this.to.hasNext()){
+				this.toHead = this.to.next();
+			}
+			
+			if(this.fromHead == null && this.toHead == null){
+				return false;
+			}
+			
+			int compare;
+			if(this.fromHead == null){
+				compare = 1;
+			} else if(this.toHead == null){
+				compare = -1;
+			} else {
+				compare = compare(this.fromHead, this.toHead);
+			}
+			
+			if(compare < 0){
+				this.next = this.copy(this.fromHead, Change.REMOVED);
+				this.fromHead = null;
+			} else if(compare > 0){
+				this.next = this.copy(this.toHead, Change.ADDED);
+				this.toHead = null;
+			} else {
+				if(this.isChanged(this.fromHead, this.toHead)){
+					this.next = this.copy(this.toHead, Change.CHANGED);
+				}
+				this.fromHead = null;
+				this.toHead = null;
+			}
+		}
+		
+		return true;
+	}
+	
+	protected static int compare(ResolvedConceptReference ref1, ResolvedConceptReference ref2){
+		int compare = ref1.getCode().compareTo(ref2.getCode());
+		if(compare != 0){
+			return compare;
+		}
+		
+		return StringUtils.defaultString(ref1.getCodeNamespace()).compareTo(
+				StringUtils.defaultString(ref2.getCodeNamespace()));
+	}
+	
+	private boolean isChanged(ResolvedConceptReference fromRef, ResolvedConceptReference toRef){
+		for(Extractor extractor : this.comparedFields){
+			if(! StringUtils.equals(extractor.extract(fromRef), extractor.extract(toRef))){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private DeltaReference copy(ResolvedConceptReference ref, Change change){
+		DeltaReference copy = new DeltaReference();
+		copy.setCode(ref.getCode());
+		copy.setCodeNamespace(ref.getCodeNamespace());
+		copy.setEntityDescription(ref.getEntityDescription());
+		copy.setEntity(ref.getEntity());
+		copy.setCodingSchemeName(ref.getCodingSchemeName());
+		copy.setCodingSchemeURI(ref.getCodingSchemeURI());
+		copy.setCodingSchemeVersion(ref.getCodingSchemeVersion());
+		copy.change = change;
+		
+		return copy;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public ResolvedConceptReference next() {
+		if(! this.hasNext()){
+			throw new NoSuchElementException();
+		}
+		
+		ResolvedConceptReference ref = this.next;
+		this.next = null;
+		
+		return ref;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+}
@@ -9,31 +9,53 @@
 package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion;
 
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Resource;
 
 import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.types.CodingSchemeVersionStatus;
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Exceptions.LBInvocationException;
 import org.LexGrid.LexBIG.Exceptions.LBParameterException;
 import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
 import org.LexGrid.LexBIG.Extensions.Generic.SearchExtension;
 import org.LexGrid.LexBIG.Extensions.Generic.SearchExtension.MatchAlgorithm;
-import org.LexGrid.LexBIG.Impl.helpers.ResolvedConceptReferencesIteratorAdapter;
 import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
 import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 import org.compass.core.util.CollectionUtils;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.OrderedPartitionIterator;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.OrderedPartitionIterator.Partition;
 
 /**
  * A {@link CodeSystemVersionBulkDownloader} implementation using the LexEVS SearchExtension.
+ * 
+ * When more than one coding scheme is requested, each coding scheme is searched
+ * separately and concurrently, and the results are written one coding scheme at a time,
+ * ordered by coding scheme name and version. Each download searches on its own threads,
+ * so one download cannot hold up the partitions of another.
  *
  * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
  */
@@ -41,15 +63,25 @@ import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
 public class SearchExtensionBulkDownloader 
 	extends AbstractBulkDownloader 
 	implements CodeSystemVersionBulkDownloader, InitializingBean {
+	
+	private static final int DEFAULT_PARTITION_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	private static final long DEFAULT_PARTITION_WAIT_TIMEOUT_SECONDS = 1800;
+	
+	private static final int PARTITION_BUFFER_SIZE = 1000;
 
 	@Resource
 	private LexBIGService lexBigService;
 	
 	private SearchExtension searchExtension;
 	
+	private int partitionThreads = DEFAULT_PARTITION_THREADS;
+	
+	private long partitionWaitTimeoutSeconds = DEFAULT_PARTITION_WAIT_TIMEOUT_SECONDS;
+	
 	protected Logger log = Logger.getLogger(this.getClass());
 	
-	private final static Map<String, Extractor> EXTRACTOR_MAP = new HashMap<String,Extractor>(){
+	final static Map<String, Extractor> EXTRACTOR_MAP = new HashMap<String,Extractor>(){
 
 		private static final long serialVersionUID = -7214815015371005224L;
 		{{
@@ -119,6 +151,24 @@ public class SearchExtensionBulkDownloader
 	 */
 	@Override
 	public void download(OutputStream outputStream, Set<CodingSchemeReference> codingSchemes, Set<CodingSchemeReference> excludedCodingSchemes, List<String> fields, char separator) {
+		this.download(outputStream, codingSchemes, excludedCodingSchemes, fields, separator, BulkDownloadFormat.DELIMITED, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.CodeSystemVersionBulkDownloader#download(java.io.OutputStream, java.util.Set, java.util.Set, java.util.List, char, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress)
+	 */
+	@Override
+	public void download(OutputStream outputStream, Set<CodingSchemeReference> codingSchemes, Set<CodingSchemeReference> excludedCodingSchemes, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress) {
+		List<CodingSchemeReference> partitions = this.getPartitions(codingSchemes);
+		
+		if(partitions == null || partitions.size() < 2){
+			this.doDownload(outputStream, codingSchemes, excludedCodingSchemes, fields, separator, format, progress);
+		} else {
+			this.doPartitionedDownload(outputStream, partitions, excludedCodingSchemes, fields, separator, format, progress);
+		}
+	}
+	
+	protected void doDownload(OutputStream outputStream, Set<CodingSchemeReference> codingSchemes, Set<CodingSchemeReference> excludedCodingSchemes, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress) {
 		ResolvedConceptReferencesIterator itr;
 		
 		if(CollectionUtils.isEmpty(codingSchemes)){
@@ -131,7 +181,131 @@ public class SearchExtensionBulkDownloader
 			throw new RuntimeException(e);
 		}
 
-		this.doWrite(outputStream, new ResolvedConceptReferencesIteratorAdapter(itr), separator, fields);
+		this.doWrite(outputStream, itr, separator, format, fields, progress);
+	}
+	
+	protected void doPartitionedDownload(OutputStream outputStream, List<CodingSchemeReference> partitions, final Set<CodingSchemeReference> excludedCodingSchemes, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress) {
+		List<Partition> searches = new ArrayList<Partition>();
+		
+		for(final CodingSchemeReference partition : partitions){
+			if(this.isExcluded(partition, excludedCodingSchemes)){
+				continue;
+			}
+			
+			searches.add(new Partition(){
+
+				@Override
+				public ResolvedConceptReferencesIterator open() throws LBException {
+					Set<CodingSchemeReference> codingScheme = new HashSet<CodingSchemeReference>();
+					codingScheme.add(partition);
+					
+					return searchExtension.search(null, codingScheme, excludedCodingSchemes, MatchAlgorithm.LUCENE);
+				}
+				
+			});
+		}
+		
+		ExecutorService executor = this.createPartitionExecutor(
+			Math.max(1, Math.min(this.partitionThreads, searches.size())));
+		
+		OrderedPartitionIterator itr = new OrderedPartitionIterator(
+			executor, searches, PARTITION_BUFFER_SIZE, this.partitionWaitTimeoutSeconds * 1000);
+		try {
+			this.doWrite(outputStream, itr, separator, format, fields, progress);
+		} finally {
+			itr.close();
+			executor.shutdownNow();
+		}
+	}
+	
+	private ExecutorService createPartitionExecutor(int threads){
+		final AtomicInteger count = new AtomicInteger();
+		
+		return Executors.newFixedThreadPool(threads, new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "lexevs-bulk-partition-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+	}
+	
+	private boolean isExcluded(CodingSchemeReference reference, Set<CodingSchemeReference> excludedCodingSchemes){
+		if(excludedCodingSchemes == null || reference.getVersionOrTag() == null){
+			return false;
+		}
+		
+		for(CodingSchemeReference excluded : excludedCodingSchemes){
+			if(StringUtils.equals(excluded.getCodingScheme(), reference.getCodingScheme()) &&
+					excluded.getVersionOrTag() != null &&
+					StringUtils.equals(excluded.getVersionOrTag().getVersion(), reference.getVersionOrTag().getVersion())){
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Split the requested coding schemes into one partition per coding scheme,
+	 * ordered by name and version. If no coding schemes were requested, all active
+	 * coding schemes are used.
+	 *
+	 * @param codingSchemes the coding schemes
+	 * @return the partitions, or null if they could not be determined
+	 */
+	protected List<CodingSchemeReference> getPartitions(Set<CodingSchemeReference> codingSchemes) {
+		Map<String, CodingSchemeReference> ordered = new TreeMap<String, CodingSchemeReference>();
+		
+		if(CollectionUtils.isEmpty(codingSchemes)){
+			try {
+				for(CodingSchemeRendering scheme : this.lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+					if(scheme.getRenderingDetail().getVersionStatus().equals(CodingSchemeVersionStatus.ACTIVE)){
+						CodingSchemeReference reference = new CodingSchemeReference();
+						reference.setCodingScheme(
+								scheme.getCodingSchemeSummary().getCodingSchemeURI());
+						reference.setVersionOrTag(
+								Constructors.createCodingSchemeVersionOrTagFromVersion(scheme.getCodingSchemeSummary().getRepresentsVersion()));
+						
+						ordered.put(
+							scheme.getCodingSchemeSummary().getLocalName() + ":" + 
+							scheme.getCodingSchemeSummary().getRepresentsVersion(), reference);
+					}
+				}
+			} catch (LBInvocationException e) {
+				log.warn("Could not list coding schemes, downloading without partitioning.", e);
+				return null;
+			}
+		} else {
+			for(CodingSchemeReference reference : codingSchemes){
+				String version = reference.getVersionOrTag() != null ? reference.getVersionOrTag().getVersion() : null;
+				
+				ordered.put(reference.getCodingScheme() + ":" + StringUtils.defaultString(version), reference);
+			}
+		}
+		
+		return new ArrayList<CodingSchemeReference>(ordered.values());
+	}
+
+	public int getPartitionThreads() {
+		return partitionThreads;
+	}
+
+	@Value("${bulkDownloadPartitionThreads:#{T(java.lang.Runtime).getRuntime().availableProcessors()}}")
+	public void setPartitionThreads(int partitionThreads) {
+		this.partitionThreads = partitionThreads;
+	}
+
+	public long getPartitionWaitTimeoutSeconds() {
+		return partitionWaitTimeoutSeconds;
+	}
+
+	@Value("${bulkDownloadPartitionWaitTimeoutSeconds:" + DEFAULT_PARTITION_WAIT_TIMEOUT_SECONDS + "}")
+	public void setPartitionWaitTimeoutSeconds(long partitionWaitTimeoutSeconds) {
+		this.partitionWaitTimeoutSeconds = partitionWaitTimeoutSeconds;
 	}
 
 	@Override
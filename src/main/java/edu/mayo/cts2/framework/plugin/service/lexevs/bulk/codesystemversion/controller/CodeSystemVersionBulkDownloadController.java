@@ -8,14 +8,16 @@
 */
 package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.controller;
 
-import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.LexGrid.LexBIG.DataModel.Core.types.CodingSchemeVersionStatus;
@@ -26,14 +28,18 @@ import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
 import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
 import org.LexGrid.LexBIG.Utility.Constructors;
 import org.apache.commons.lang.StringUtils;
-import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloadController;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.RestrictedCodingSchemeManager;
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.CodeSystemVersionBulkDownloader;
-import edu.mayo.cts2.framework.plugin.service.lexevs.security.msso.MssoUserValidator;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.CodeSystemVersionDeltaBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
 
 /**
  * A REST Controller for providing access to bulk downloads.
@@ -41,7 +47,7 @@ import edu.mayo.cts2.framework.plugin.service.lexevs.security.msso.MssoUserValid
  * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
  */
 @Controller("codeSystemVersionBulkDownloadController")
-public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloadController implements InitializingBean {
+public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloadController {
 	
 	private static final String DEFAULT_SEPARATOR = "|";
 	
@@ -49,9 +55,7 @@ public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloa
 	
 	private static final String DEFAULT_FILE_NAME = "terminology-bulk-download.txt";
 	
-	private static final String MEDDRA_NAME = "MedDRA";
-	
-	private static final String NCI_META_NAME = "NCI Metathesaurus";
+	private static final String DELTA_PATH = "delta";
 	
 	private static final List<String> DEFAULT_FIELDS = Arrays.asList(
 				CodeSystemVersionBulkDownloader.CODE_FIELD,
@@ -66,57 +70,262 @@ public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloa
 	
 	@Resource
 	private CodeSystemVersionBulkDownloader codeSystemVersionBulkDownloader;
+	
+	@Resource
+	private CodeSystemVersionDeltaBulkDownloader codeSystemVersionDeltaBulkDownloader;
 
 	@Resource
-	private MssoUserValidator mssoUserValidator;
-	
-	private Set<CodingSchemeReference> meddraExclusions;
-	
-	private Set<CodingSchemeReference> nciMetaExclusions;
-	
-	@Override
-	public void afterPropertiesSet() throws Exception {
-		this.meddraExclusions = this.getMeddraCodingSchemes();
-		this.nciMetaExclusions = this.getNciMetaCodingSchemes();
-	}
+	private RestrictedCodingSchemeManager restrictedCodingSchemeManager;
 	
 	/**
 	 * Download.
 	 *
+	 * @param request the request
 	 * @param response the response
 	 * @param codingschemes the codingschemes
 	 * @param fields the fields
 	 * @param separator the separator
+	 * @param format the output format
 	 * @throws LBException the lB exception
 	 */
 	@RequestMapping(value="/exporter/codingscheme")
     public void download(
+    		HttpServletRequest request,
     		HttpServletResponse response,
     		@RequestParam(value="meddratoken", defaultValue="") String meddraToken,
     		@RequestParam(value="codingschemes", defaultValue="") String codingschemes,
     		@RequestParam(value="fields", defaultValue="") String fields,
     		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
     		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) throws LBException {
 		
+		BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
 		if(StringUtils.isBlank(codingschemes)){
 			throw new UserInputException("'codingschemes' parameter is required.");
 		}
 		
-		boolean isValidMeddraToken = false;
-		if(StringUtils.isNotBlank(meddraToken)){
-			boolean validates = this.mssoUserValidator.isValid(meddraToken);
-			if(! validates){
-		        try {
-					response.sendError(HttpServletResponse.SC_FORBIDDEN, "Invalid MedDRA token.");
-					return;
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				}
-			} else {
-				isValidMeddraToken = true;
-			}
+		if(! this.restrictedCodingSchemeManager.validateMeddraToken(response, meddraToken)){
+			return;
+		}
+		boolean isValidMeddraToken = StringUtils.isNotBlank(meddraToken);
+
+		List<String> fieldsList = this.getFields(fields);
+		
+		Set<CodingSchemeReference> references = this.getReferences(codingschemes);
+		
+		Set<CodingSchemeReference> exclusions = this.restrictedCodingSchemeManager.getExclusions(isValidMeddraToken);
+
+		Permit permit = this.admit(request);
+
+		this.setHeaders(response, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat);
+		
+		this.spool(response, permit, this.createTask(
+				references, exclusions, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	/**
+	 * Submit a download to run in the background. The response contains the job id,
+	 * which can be polled for status and then downloaded once complete.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param codingschemes the codingschemes
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 * @throws LBException the lB exception
+	 */
+	@RequestMapping(value="/exporter/codingscheme/" + JOB_PATH)
+    public void submitDownload(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="meddratoken", defaultValue="") String meddraToken,
+    		@RequestParam(value="codingschemes", defaultValue="") String codingschemes,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) final char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) throws LBException {
+		
+		final BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		if(StringUtils.isBlank(codingschemes)){
+			throw new UserInputException("'codingschemes' parameter is required.");
+		}
+		
+		if(! this.restrictedCodingSchemeManager.validateMeddraToken(response, meddraToken)){
+			return;
+		}
+		boolean isValidMeddraToken = StringUtils.isNotBlank(meddraToken);
+
+		final List<String> fieldsList = this.getFields(fields);
+		
+		final Set<CodingSchemeReference> references = this.getReferences(codingschemes);
+		
+		final Set<CodingSchemeReference> exclusions = this.restrictedCodingSchemeManager.getExclusions(isValidMeddraToken);
+		
+		String key = "codingscheme:" + 
+				StringUtils.join(new TreeSet<String>(Arrays.asList(StringUtils.split(codingschemes, ','))), ',') + 
+				";" + fieldsList + ";" + separator + ";" + bulkDownloadFormat + ";" + isValidMeddraToken;
+		
+		this.submitJob(request, response, key, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat, this.createTask(
+				references, exclusions, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	/**
+	 * Download the entities added, removed or changed between two versions of a coding scheme.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param codingscheme the codingscheme
+	 * @param fromversion the earlier version
+	 * @param toversion the later version
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 */
+	@RequestMapping(value="/exporter/codingscheme/" + DELTA_PATH)
+    public void downloadDelta(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="meddratoken", defaultValue="") String meddraToken,
+    		@RequestParam(value="codingscheme", defaultValue="") String codingscheme,
+    		@RequestParam(value="fromversion", defaultValue="") String fromversion,
+    		@RequestParam(value="toversion", defaultValue="") String toversion,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) {
+		
+		BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		this.validateDeltaParameters(codingscheme, fromversion, toversion);
+		
+		if(! this.restrictedCodingSchemeManager.validateMeddraToken(response, meddraToken) ||
+				! this.restrictedCodingSchemeManager.validateCodingScheme(response, codingscheme, StringUtils.isNotBlank(meddraToken))){
+			return;
+		}
+
+		List<String> fieldsList = this.getDeltaFields(fields);
+
+		Permit permit = this.admit(request);
+
+		this.setHeaders(response, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat);
+		
+		this.spool(response, permit, this.createDeltaTask(
+				codingscheme, fromversion, toversion, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	/**
+	 * Submit a delta download to run in the background.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param codingscheme the codingscheme
+	 * @param fromversion the earlier version
+	 * @param toversion the later version
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 */
+	@RequestMapping(value="/exporter/codingscheme/" + DELTA_PATH + "/" + JOB_PATH)
+    public void submitDeltaDownload(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="meddratoken", defaultValue="") String meddraToken,
+    		@RequestParam(value="codingscheme", defaultValue="") final String codingscheme,
+    		@RequestParam(value="fromversion", defaultValue="") final String fromversion,
+    		@RequestParam(value="toversion", defaultValue="") final String toversion,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) final char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) {
+		
+		final BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		this.validateDeltaParameters(codingscheme, fromversion, toversion);
+		
+		if(! this.restrictedCodingSchemeManager.validateMeddraToken(response, meddraToken) ||
+				! this.restrictedCodingSchemeManager.validateCodingScheme(response, codingscheme, StringUtils.isNotBlank(meddraToken))){
+			return;
 		}
 
+		final List<String> fieldsList = this.getDeltaFields(fields);
+		
+		String key = "codingschemedelta:" + codingscheme + ";" + fromversion + ";" + toversion + 
+				";" + fieldsList + ";" + separator + ";" + bulkDownloadFormat;
+		
+		this.submitJob(request, response, key, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat, this.createDeltaTask(
+				codingscheme, fromversion, toversion, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	private BulkDownloadTask createTask(
+			final Set<CodingSchemeReference> references, 
+			final Set<CodingSchemeReference> exclusions, 
+			final List<String> fieldsList, 
+			final char separator, 
+			final BulkDownloadFormat bulkDownloadFormat){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				codeSystemVersionBulkDownloader.download(
+					outputStream, 
+					references, 
+					exclusions,
+					fieldsList, 
+					separator,
+					bulkDownloadFormat,
+					progress);
+			}
+			
+		};
+	}
+	
+	private BulkDownloadTask createDeltaTask(
+			final String codingscheme, 
+			final String fromversion, 
+			final String toversion, 
+			final List<String> fieldsList, 
+			final char separator, 
+			final BulkDownloadFormat bulkDownloadFormat){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				codeSystemVersionDeltaBulkDownloader.download(
+					outputStream, 
+					codingscheme, 
+					fromversion,
+					toversion,
+					fieldsList, 
+					separator,
+					bulkDownloadFormat,
+					progress);
+			}
+			
+		};
+	}
+	
+	private void validateDeltaParameters(String codingscheme, String fromversion, String toversion){
+		if(StringUtils.isBlank(codingscheme) || StringUtils.isBlank(fromversion) || StringUtils.isBlank(toversion)){
+			throw new UserInputException("'codingscheme', 'fromversion' and 'toversion' parameters are required.");
+		}
+	}
+	
+	private List<String> getDeltaFields(String fields){
+		if(StringUtils.isBlank(fields)){
+			List<String> fieldsList = new ArrayList<String>();
+			fieldsList.add(CodeSystemVersionDeltaBulkDownloader.CHANGE_FIELD);
+			fieldsList.addAll(DEFAULT_FIELDS);
+			
+			return fieldsList;
+		} else {
+			return this.getFields(fields);
+		}
+	}
+	
+	private List<String> getFields(String fields){
 		List<String> fieldsList;
 		if(StringUtils.isBlank(fields)){
 			fieldsList = DEFAULT_FIELDS;
@@ -124,8 +333,10 @@ public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloa
 			fieldsList = Arrays.asList(StringUtils.split(fields, ','));
 		}
 		
-		this.setHeaders(response, filename);
-		
+		return fieldsList;
+	}
+	
+	private Set<CodingSchemeReference> getReferences(String codingschemes){
 		Set<CodingSchemeReference> references = new HashSet<CodingSchemeReference>();
 		
 		for(String codingScheme : StringUtils.split(codingschemes, ',')){
@@ -145,30 +356,9 @@ public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloa
 			references.add(reference);
 		}
 		
-		Set<CodingSchemeReference> exclusions = new HashSet<CodingSchemeReference>();
-		exclusions.addAll(this.nciMetaExclusions);
-		if(! isValidMeddraToken){
-			exclusions.addAll(this.meddraExclusions);
-		}
-
-		try {
-			this.codeSystemVersionBulkDownloader.download(
-					response.getOutputStream(), 
-					references, 
-					exclusions,
-					fieldsList, 
-					separator);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
+		return references;
+	}
 	
-        try {
-			response.flushBuffer();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-    }
-
 	@Override
 	protected String getValidParametersMessage() {
 		StringBuilder sb = new StringBuilder();
@@ -176,41 +366,19 @@ public class CodeSystemVersionBulkDownloadController extends AbstractBulkDownloa
 		sb.append("\tFormat: codingSchemeName[:version]  - example: 'MyCodingScheme' or 'MyCodingScheme:1.0'\n");
 		sb.append("fields - (Optional) Content fields to output. Default: "+ DEFAULT_FIELDS + "\n");
 		sb.append("separator -(Optional) One character field separator. Default: " + DEFAULT_SEPARATOR +"\n");
+		sb.append("format - (Optional) Output format: delimited, ndjson or binary. Default: " + DEFAULT_FORMAT +"\n");
 		sb.append("filename - (Optional) Output file name. Default: " + DEFAULT_FILE_NAME);
 		sb.append("meddratoken - (Optional) MedDRA authorization token. If not supplied, MedDRA content will be excluded.");
+		sb.append("\nFor '/exporter/codingscheme/" + DELTA_PATH + "':\n");
+		sb.append("codingscheme - The CodingScheme name or URI\n");
+		sb.append("fromversion - The earlier version\n");
+		sb.append("toversion - The later version\n");
+		sb.append("fields - (Optional) Content fields to output, including '" + 
+			CodeSystemVersionDeltaBulkDownloader.CHANGE_FIELD + "' (added, removed or changed).");
 		
 		return sb.toString();
 	}
 	
-	private Set<CodingSchemeReference> getMeddraCodingSchemes(){
-		return this.doGetCodingSchemeReferences(MEDDRA_NAME);
-	}
-	
-	private Set<CodingSchemeReference> getNciMetaCodingSchemes(){
-		return this.doGetCodingSchemeReferences(NCI_META_NAME);
-	}
-	
-	private Set<CodingSchemeReference> doGetCodingSchemeReferences(String name){
-		Set<CodingSchemeReference> references = new HashSet<CodingSchemeReference>();
-		try {
-			for(CodingSchemeRendering scheme : lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
-				if(scheme.getCodingSchemeSummary().getLocalName().equals(name)){
-					CodingSchemeReference reference = new CodingSchemeReference();
-					reference.setCodingScheme(
-							scheme.getCodingSchemeSummary().getCodingSchemeURI());
-					reference.setVersionOrTag(
-							Constructors.createCodingSchemeVersionOrTagFromVersion(scheme.getCodingSchemeSummary().getRepresentsVersion()));
-				
-					references.add(reference);
-				}
-			}
-		} catch (LBInvocationException e) {
-			return null;
-		}
-		
-		return references;
-	}
-	
 	@SuppressWarnings("unused")
 	private String getAvailableCodingSchemesString(){
 		List<String> schemes = new ArrayList<String>();
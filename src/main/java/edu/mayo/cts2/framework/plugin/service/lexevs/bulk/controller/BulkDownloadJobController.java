@@ -0,0 +1,115 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.controller;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloadController;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadJob;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadJobManager;
+
+/**
+ * A REST Controller for polling and fetching asynchronous bulk downloads.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Controller("bulkDownloadJobController")
+public class BulkDownloadJobController extends AbstractBulkDownloadController {
+
+	@Resource
+	private BulkDownloadJobManager bulkDownloadJobManager;
+
+	/**
+	 * Report the status and progress of a job.
+	 *
+	 * @param response the response
+	 * @param id the job id
+	 */
+	@RequestMapping(value="/exporter/" + JOB_PATH + "/{id}")
+	public void status(
+			HttpServletResponse response,
+			@PathVariable("id") String id) {
+		BulkDownloadJob job = this.bulkDownloadJobManager.getJob(id);
+		if(job == null){
+			this.writeJobNotFound(response, id);
+			return;
+		}
+
+		this.writeJobStatus(response, job);
+	}
+
+	/**
+	 * Download the content of a completed job.
+	 *
+	 * @param response the response
+	 * @param id the job id
+	 */
+	@RequestMapping(value="/exporter/" + JOB_PATH + "/{id}/download")
+	public void download(
+			HttpServletResponse response,
+			@PathVariable("id") String id) {
+		BulkDownloadJob job = this.bulkDownloadJobManager.getJob(id);
+		if(job == null){
+			this.writeJobNotFound(response, id);
+			return;
+		}
+
+		if(job.getStatus() != BulkDownloadJob.Status.COMPLETED){
+			response.setStatus(HttpServletResponse.SC_CONFLICT);
+			this.writeJobStatus(response, job);
+			return;
+		}
+
+		InputStream inputStream = null;
+		try {
+			inputStream = this.bulkDownloadJobManager.openFile(job);
+			if(inputStream == null){
+				this.writeJobNotFound(response, id);
+				return;
+			}
+
+			this.setHeaders(response, job.getFilename(), job.getFormat());
+			response.setHeader("Content-Length", Long.toString(job.getFile().length()));
+
+			IOUtils.copyLarge(inputStream, response.getOutputStream());
+
+			response.flushBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+	}
+
+	private void writeJobNotFound(HttpServletResponse response, String id){
+		this.writeException(response, 
+			"No job found for id: " + id + ". It may have expired.\n", 
+			HttpServletResponse.SC_NOT_FOUND);
+	}
+
+	@Override
+	protected String getValidParametersMessage() {
+		return "id - The job id returned when the download was submitted.";
+	}
+
+	@Override
+	public Object getController() {
+		return this;
+	}
+
+}
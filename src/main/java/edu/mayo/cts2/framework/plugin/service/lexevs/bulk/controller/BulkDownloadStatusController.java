@@ -0,0 +1,77 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.controller;
+
+import java.io.IOException;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloadController;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager;
+
+/**
+ * A REST Controller reporting the current bulk download load.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Controller("bulkDownloadStatusController")
+public class BulkDownloadStatusController extends AbstractBulkDownloadController {
+
+	@Resource
+	private BulkDownloadAdmissionManager bulkDownloadAdmissionManager;
+
+	/**
+	 * Report admission metrics.
+	 *
+	 * @param response the response
+	 */
+	@RequestMapping(value="/exporter/status")
+	public void status(HttpServletResponse response) {
+		BulkDownloadAdmissionManager manager = this.bulkDownloadAdmissionManager;
+		
+		StringBuilder sb = new StringBuilder();
+		sb.append("active=").append(manager.getActiveCount()).append("\n");
+		sb.append("transfers=").append(manager.getTransferCount()).append("\n");
+		sb.append("queued=").append(manager.getQueueDepth()).append("\n");
+		sb.append("admitted=").append(manager.getAdmittedCount()).append("\n");
+		sb.append("rejected=").append(manager.getRejectedCount()).append("\n");
+		sb.append("timedout=").append(manager.getTimedOutCount()).append("\n");
+		sb.append("averagewaitmillis=").append(manager.getAverageWaitMillis()).append("\n");
+		sb.append("maxwaitmillis=").append(manager.getMaxWaitMillis()).append("\n");
+		sb.append("maxconcurrent=").append(manager.getMaxConcurrentDownloads()).append("\n");
+		sb.append("maxconcurrentperclient=").append(manager.getMaxConcurrentDownloadsPerClient()).append("\n");
+		sb.append("maxtransfers=").append(manager.getMaxConcurrentTransfers()).append("\n");
+		sb.append("maxqueuesize=").append(manager.getMaxQueueSize()).append("\n");
+		
+		response.setContentType("text/plain; charset=utf-8");
+		
+		try {
+			IOUtils.write(sb.toString(), response.getOutputStream());
+			response.flushBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	protected String getValidParametersMessage() {
+		return "";
+	}
+
+	@Override
+	public Object getController() {
+		return this;
+	}
+
+}
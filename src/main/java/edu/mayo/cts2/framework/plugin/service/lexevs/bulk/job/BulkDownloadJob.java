@@ -0,0 +1,145 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job;
+
+import java.io.File;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
+/**
+ * The state of one asynchronous bulk download.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class BulkDownloadJob {
+	
+	public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+	private final String id;
+	
+	private final String key;
+	
+	private final String filename;
+	
+	private final BulkDownloadFormat format;
+	
+	private final File file;
+	
+	private final BulkDownloadProgress progress = new BulkDownloadProgress();
+	
+	private final long submittedTime;
+	
+	private volatile Status status = Status.QUEUED;
+	
+	private volatile long finishedTime;
+	
+	private volatile String errorMessage;
+	
+	/* readers of the file and expiry, guarded by the job manager */
+	private int readers;
+	
+	private boolean expired;
+
+	protected BulkDownloadJob(String id, String key, String filename, BulkDownloadFormat format, File file) {
+		super();
+		this.id = id;
+		this.key = key;
+		this.filename = filename;
+		this.format = format;
+		this.file = file;
+		this.submittedTime = System.currentTimeMillis();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Gets the key identifying the request parameters. Jobs with the
+	 * same key produce the same content.
+	 *
+	 * @return the key
+	 */
+	public String getKey() {
+		return key;
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public BulkDownloadFormat getFormat() {
+		return format;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public BulkDownloadProgress getProgress() {
+		return progress;
+	}
+
+	public long getSubmittedTime() {
+		return submittedTime;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public long getFinishedTime() {
+		return finishedTime;
+	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+	
+	public boolean isFinished() {
+		return this.status == Status.COMPLETED || this.status == Status.FAILED;
+	}
+
+	protected void setRunning() {
+		this.status = Status.RUNNING;
+	}
+
+	protected void setCompleted() {
+		this.finishedTime = System.currentTimeMillis();
+		this.status = Status.COMPLETED;
+	}
+
+	protected void setFailed(String errorMessage) {
+		this.errorMessage = errorMessage;
+		this.finishedTime = System.currentTimeMillis();
+		this.status = Status.FAILED;
+	}
+
+	protected int addReader() {
+		return ++this.readers;
+	}
+
+	protected int removeReader() {
+		return --this.readers;
+	}
+
+	protected int getReaders() {
+		return this.readers;
+	}
+
+	protected boolean isExpired() {
+		return this.expired;
+	}
+
+	protected void setExpired() {
+		this.expired = true;
+	}
+
+}
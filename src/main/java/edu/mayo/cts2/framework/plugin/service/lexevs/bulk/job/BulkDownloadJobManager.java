@@ -0,0 +1,348 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.AdmissionDeniedException;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+
+/**
+ * Runs bulk downloads in the background, writing each to a local file.
+ *
+ * Jobs run on a bounded pool. Finished jobs, and their files, are kept for
+ * the retention period so the same download can be fetched repeatedly, and a
+ * submission matching a retained job returns that job instead of starting a new one.
+ * The file of an expired job is kept until the last download of it finishes.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class BulkDownloadJobManager implements InitializingBean, DisposableBean {
+
+	private static final int DEFAULT_MAX_RUNNING_JOBS = 2;
+
+	private static final int DEFAULT_MAX_QUEUED_JOBS = 16;
+
+	private static final int DEFAULT_RETENTION_MINUTES = 60;
+
+	private static final int PURGE_PERIOD_MINUTES = 1;
+
+	private static final long RETRY_AFTER_SECONDS = 60;
+
+	private static final String DEFAULT_JOB_DIRECTORY =
+		System.getProperty("java.io.tmpdir") + File.separator + "lexevs-bulk-download";
+
+	protected Logger log = Logger.getLogger(this.getClass());
+
+	private int maxRunningJobs = DEFAULT_MAX_RUNNING_JOBS;
+
+	private int maxQueuedJobs = DEFAULT_MAX_QUEUED_JOBS;
+
+	private int retentionMinutes = DEFAULT_RETENTION_MINUTES;
+
+	private String jobDirectory = DEFAULT_JOB_DIRECTORY;
+
+	private ThreadPoolExecutor executor;
+
+	private Timer purgeTimer;
+
+	private final Map<String, BulkDownloadJob> jobs = new HashMap<String, BulkDownloadJob>();
+
+	private final Map<String, BulkDownloadJob> jobsByKey = new HashMap<String, BulkDownloadJob>();
+
+	private final Object mutex = new Object();
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		FileUtils.forceMkdir(new File(this.jobDirectory));
+
+		this.executor = new ThreadPoolExecutor(
+			this.maxRunningJobs,
+			this.maxRunningJobs,
+			0L,
+			TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(this.maxQueuedJobs));
+
+		this.schedulePurge();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.purgeTimer != null){
+			this.purgeTimer.cancel();
+		}
+		if(this.executor != null){
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Submit a delimited download to run in the background.
+	 *
+	 * @param key the key identifying the download parameters
+	 * @param filename the file name to offer the client
+	 * @param task the task
+	 * @return the job
+	 * @throws AdmissionDeniedException if too many jobs are already queued
+	 */
+	public BulkDownloadJob submit(String key, String filename, BulkDownloadTask task) {
+		return this.submit(key, filename, BulkDownloadFormat.DELIMITED, task);
+	}
+
+	/**
+	 * Submit a download to run in the background. If a job with the same key
+	 * is queued, running, or retained after completing, that job is returned instead.
+	 *
+	 * @param key the key identifying the download parameters
+	 * @param filename the file name to offer the client
+	 * @param format the format the task writes
+	 * @param task the task
+	 * @return the job
+	 * @throws AdmissionDeniedException if too many jobs are already queued
+	 */
+	public BulkDownloadJob submit(String key, String filename, BulkDownloadFormat format, final BulkDownloadTask task) {
+		synchronized(this.mutex){
+			BulkDownloadJob existing = this.jobsByKey.get(key);
+			if(existing != null && existing.getStatus() != BulkDownloadJob.Status.FAILED){
+				return existing;
+			}
+
+			String id = UUID.randomUUID().toString();
+
+			final BulkDownloadJob job = new BulkDownloadJob(
+				id, key, filename, format, new File(this.jobDirectory, id));
+
+			try {
+				this.executor.execute(new Runnable(){
+
+					@Override
+					public void run() {
+						doRun(job, task);
+					}
+
+				});
+			} catch (RejectedExecutionException e) {
+				throw new AdmissionDeniedException(
+					"Too many queued bulk download jobs. Please try again later.",
+					RETRY_AFTER_SECONDS);
+			}
+
+			this.jobs.put(id, job);
+			this.jobsByKey.put(key, job);
+
+			return job;
+		}
+	}
+
+	/**
+	 * Gets a job by id.
+	 *
+	 * @param id the id
+	 * @return the job, or null if it is unknown or has expired
+	 */
+	public BulkDownloadJob getJob(String id) {
+		synchronized(this.mutex){
+			return this.jobs.get(id);
+		}
+	}
+
+	/**
+	 * Open the file of a completed job for reading. The file is not deleted while
+	 * it is open, even if the job expires meanwhile, so the stream must be closed.
+	 *
+	 * @param job the job
+	 * @return the stream, or null if the job has expired
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public InputStream openFile(final BulkDownloadJob job) throws IOException {
+		synchronized(this.mutex){
+			if(job.isExpired()){
+				return null;
+			}
+			job.addReader();
+		}
+
+		InputStream inputStream;
+		try {
+			inputStream = new FileInputStream(job.getFile());
+		} catch (IOException e) {
+			this.closeFile(job);
+			throw e;
+		}
+
+		return new FilterInputStream(inputStream){
+
+			private boolean closed = false;
+
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					if(! this.closed){
+						this.closed = true;
+						closeFile(job);
+					}
+				}
+			}
+
+		};
+	}
+
+	private void closeFile(BulkDownloadJob job){
+		boolean delete;
+		synchronized(this.mutex){
+			delete = job.removeReader() == 0 && job.isExpired();
+		}
+
+		if(delete){
+			FileUtils.deleteQuietly(job.getFile());
+		}
+	}
+
+	private void doRun(BulkDownloadJob job, BulkDownloadTask task){
+		job.setRunning();
+
+		OutputStream outputStream = null;
+		try {
+			outputStream = new BufferedOutputStream(new FileOutputStream(job.getFile()));
+
+			task.run(outputStream, job.getProgress());
+
+			outputStream.flush();
+			IOUtils.closeQuietly(outputStream);
+
+			job.setCompleted();
+		} catch (Exception e) {
+			IOUtils.closeQuietly(outputStream);
+			FileUtils.deleteQuietly(job.getFile());
+
+			log.warn("Bulk download job " + job.getId() + " failed.", e);
+
+			job.setFailed(e.getMessage());
+		}
+	}
+
+	protected void purge(){
+		long cutoff = System.currentTimeMillis() - (this.retentionMinutes * 60L * 1000L);
+
+		List<BulkDownloadJob> expired = new ArrayList<BulkDownloadJob>();
+
+		List<BulkDownloadJob> unread = new ArrayList<BulkDownloadJob>();
+
+		synchronized(this.mutex){
+			for(BulkDownloadJob job : this.jobs.values()){
+				if(job.isFinished() && job.getFinishedTime() < cutoff){
+					expired.add(job);
+				}
+			}
+
+			for(BulkDownloadJob job : expired){
+				this.jobs.remove(job.getId());
+				if(this.jobsByKey.get(job.getKey()) == job){
+					this.jobsByKey.remove(job.getKey());
+				}
+
+				//a file still being downloaded is deleted when its last reader closes it
+				job.setExpired();
+				if(job.getReaders() == 0){
+					unread.add(job);
+				}
+			}
+		}
+
+		for(BulkDownloadJob job : unread){
+			FileUtils.deleteQuietly(job.getFile());
+		}
+	}
+
+	protected void schedulePurge() {
+		TimerTask purgeTask = new TimerTask() {
+			@Override
+			public void run() {
+				purge();
+			}
+		};
+
+		this.purgeTimer = new Timer(true);
+
+		int minutesInMillis = PURGE_PERIOD_MINUTES * 60 * 1000;
+		this.purgeTimer.schedule(purgeTask, minutesInMillis, minutesInMillis);
+	}
+
+	public int getMaxRunningJobs() {
+		return maxRunningJobs;
+	}
+
+	@Value("${bulkDownloadMaxRunningJobs:" + DEFAULT_MAX_RUNNING_JOBS + "}")
+	public void setMaxRunningJobs(int maxRunningJobs) {
+		this.maxRunningJobs = maxRunningJobs;
+	}
+
+	public int getMaxQueuedJobs() {
+		return maxQueuedJobs;
+	}
+
+	@Value("${bulkDownloadMaxQueuedJobs:" + DEFAULT_MAX_QUEUED_JOBS + "}")
+	public void setMaxQueuedJobs(int maxQueuedJobs) {
+		this.maxQueuedJobs = maxQueuedJobs;
+	}
+
+	public int getRetentionMinutes() {
+		return retentionMinutes;
+	}
+
+	@Value("${bulkDownloadJobRetentionMinutes:" + DEFAULT_RETENTION_MINUTES + "}")
+	public void setRetentionMinutes(int retentionMinutes) {
+		this.retentionMinutes = retentionMinutes;
+	}
+
+	public String getJobDirectory() {
+		return jobDirectory;
+	}
+
+	@Value("${bulkDownloadJobDirectory:${java.io.tmpdir}/lexevs-bulk-download}")
+	public void setJobDirectory(String jobDirectory) {
+		this.jobDirectory = jobDirectory;
+	}
+
+}
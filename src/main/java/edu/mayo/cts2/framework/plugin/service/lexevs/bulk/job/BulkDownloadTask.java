@@ -0,0 +1,30 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job;
+
+import java.io.OutputStream;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
+/**
+ * A unit of bulk download work that can be run in the background.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public interface BulkDownloadTask {
+	
+	/**
+	 * Write the download content to the provided {@link OutputStream}.
+	 *
+	 * @param outputStream the output stream
+	 * @param progress the progress
+	 */
+	public void run(OutputStream outputStream, BulkDownloadProgress progress);
+
+}
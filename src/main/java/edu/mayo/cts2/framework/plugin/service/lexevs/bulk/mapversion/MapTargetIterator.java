@@ -0,0 +1,161 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.mapversion;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+
+/**
+ * Flattens sources, such as map sources or association sources, into one
+ * {@link ResolvedConceptReference} per (source, association, target).
+ *
+ * Each returned reference is a copy of the source whose 'sourceOf' holds exactly
+ * one {@link Association} with exactly one {@link AssociatedConcept}. A source with
+ * no targets is returned once with no 'sourceOf'. Only the current source is held
+ * in memory.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class MapTargetIterator implements Iterator<ResolvedConceptReference> {
+
+	private final Iterator<ResolvedConceptReference> sources;
+
+	private ResolvedConceptReference source;
+
+	private Association[] associations;
+
+	private int associationIndex;
+
+	private int targetIndex;
+	
+	private boolean sourceHasTargets;
+
+	private ResolvedConceptReference next;
+
+	public MapTargetIterator(Iterator<ResolvedConceptReference> sources) {
+		this.sources = sources;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	@Override
+	public boolean hasNext() {
+		while(this.next == null){
+			if(this.source == null){
+				if(! this.sources.hasNext()){
+					return false;
+				}
+				this.startSource(this.sources.next());
+			}
+
+			if(this.associationIndex >= this.associations.length){
+				if(! this.sourceHasTargets){
+					this.next = this.copySource(null, null);
+				}
+				this.source = null;
+				continue;
+			}
+
+			Association association = this.associations[this.associationIndex];
+			AssociatedConcept[] targets = this.getTargets(association);
+
+			if(this.targetIndex < targets.length){
+				this.next = this.copySource(association, targets[this.targetIndex]);
+				this.targetIndex++;
+				this.sourceHasTargets = true;
+			} else {
+				this.associationIndex++;
+				this.targetIndex = 0;
+			}
+		}
+
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	@Override
+	public ResolvedConceptReference next() {
+		if(! this.hasNext()){
+			throw new NoSuchElementException();
+		}
+
+		ResolvedConceptReference ref = this.next;
+		this.next = null;
+
+		return ref;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#remove()
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	private void startSource(ResolvedConceptReference source){
+		this.source = source;
+		this.associationIndex = 0;
+		this.targetIndex = 0;
+		this.sourceHasTargets = false;
+
+		if(source.getSourceOf() != null){
+			this.associations = source.getSourceOf().getAssociation();
+		} else {
+			this.associations = new Association[0];
+		}
+	}
+
+	private AssociatedConcept[] getTargets(Association association){
+		if(association.getAssociatedConcepts() == null){
+			return new AssociatedConcept[0];
+		}
+
+		return association.getAssociatedConcepts().getAssociatedConcept();
+	}
+
+	private ResolvedConceptReference copySource(Association association, AssociatedConcept target){
+		ResolvedConceptReference copy = new ResolvedConceptReference();
+		copy.setCode(this.source.getCode());
+		copy.setCodeNamespace(this.source.getCodeNamespace());
+		copy.setEntityDescription(this.source.getEntityDescription());
+		copy.setEntity(this.source.getEntity());
+		copy.setCodingSchemeName(this.source.getCodingSchemeName());
+		copy.setCodingSchemeURI(this.source.getCodingSchemeURI());
+		copy.setCodingSchemeVersion(this.source.getCodingSchemeVersion());
+
+		if(association != null){
+			AssociatedConceptList targets = new AssociatedConceptList();
+			targets.addAssociatedConcept(target);
+
+			Association single = new Association();
+			single.setAssociationName(association.getAssociationName());
+			single.setAssociationReference(association.getAssociationReference());
+			single.setDirectionalName(association.getDirectionalName());
+			single.setAssociatedConcepts(targets);
+
+			AssociationList sourceOf = new AssociationList();
+			sourceOf.addAssociation(single);
+
+			copy.setSourceOf(sourceOf);
+		}
+
+		return copy;
+	}
+
+}
@@ -13,6 +13,9 @@ import java.util.List;
 
 import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
 
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
 /**
  * A Bulk Downloading interface for downloading large terminology content.
  *
@@ -34,6 +37,8 @@ public interface MapVersionBulkDownloader {
 	static final String TARGET_CODINGSCHEME_URI_FIELD = "target-codingschemeuri";
 	static final String TARGET_CODINGSCHEME_VERSION_FIELD = "target-codingschemeversion";
 	
+	static final String ASSOCIATION_NAME_FIELD = "association-name";
+	
 	/**
 	 * Send requested content to the provided {@link OutputStream}.
 	 *
@@ -43,4 +48,17 @@ public interface MapVersionBulkDownloader {
 	 * @param separator the separator
 	 */
 	void download(OutputStream outputStream, CodingSchemeReference codingScheme, List<String> fields, char separator);
+	
+	/**
+	 * Send requested content to the provided {@link OutputStream} in the given
+	 * {@link BulkDownloadFormat}, reporting progress to the given {@link BulkDownloadProgress}.
+	 *
+	 * @param outputStream the output stream
+	 * @param codingScheme the coding scheme
+	 * @param fields the fields
+	 * @param separator the separator, used only by delimited output
+	 * @param format the output format
+	 * @param progress the progress
+	 */
+	void download(OutputStream outputStream, CodingSchemeReference codingScheme, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress);
 }
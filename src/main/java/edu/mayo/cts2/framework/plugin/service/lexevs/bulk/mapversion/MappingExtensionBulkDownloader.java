@@ -25,10 +25,14 @@ import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
 
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
 
 /**
  * A Bulk Downloader based on the LexEVS MappingExtension.
+ * 
+ * One row is written for each (source, association, target) of the map.
  *
  * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
  */
@@ -95,6 +99,9 @@ public class MappingExtensionBulkDownloader
 		private final static Map<String, Extractor> TARGET_EXTRACTOR_MAP = new HashMap<String,Extractor>(){
 
 			private ResolvedConceptReference getTarget(ResolvedConceptReference ref){
+				if(ref.getSourceOf() == null){
+					return null;
+				}
 				return ref.getSourceOf().getAssociation(0).getAssociatedConcepts().getAssociatedConcept(0);
 			}
 			
@@ -103,42 +110,89 @@ public class MappingExtensionBulkDownloader
 					put(MapVersionBulkDownloader.TARGET_CODE_FIELD, new Extractor(){
 						@Override
 						public String extract(ResolvedConceptReference ref) {
-							return getTarget(ref).getCode();
+							ResolvedConceptReference target = getTarget(ref);
+							if(target != null) {
+								return target.getCode();
+							} else {
+								return "";
+							}
 						}	
 					});
 					
 					put(MapVersionBulkDownloader.TARGET_NAMESPACE_FIELD, new Extractor(){
 						@Override
 						public String extract(ResolvedConceptReference ref) {
-							return getTarget(ref).getCodeNamespace();
+							ResolvedConceptReference target = getTarget(ref);
+							if(target != null) {
+								return target.getCodeNamespace();
+							} else {
+								return "";
+							}
 						}	
 					});
 					
 					put(MapVersionBulkDownloader.TARGET_DESCRIPTION_FIELD, new Extractor(){
 						@Override
 						public String extract(ResolvedConceptReference ref) {
-							return getTarget(ref).getEntityDescription().getContent();
+							ResolvedConceptReference target = getTarget(ref);
+							if(target != null && target.getEntityDescription() != null) {
+								return target.getEntityDescription().getContent();
+							} else {
+								return "";
+							}
 						}	
 					});
 					
 					put(MapVersionBulkDownloader.TARGET_CODINGSCHEME_NAME_FIELD, new Extractor(){
 						@Override
 						public String extract(ResolvedConceptReference ref) {
-							return getTarget(ref).getCodingSchemeName();
+							ResolvedConceptReference target = getTarget(ref);
+							if(target != null) {
+								return target.getCodingSchemeName();
+							} else {
+								return "";
+							}
 						}	
 					});
 					
 					put(MapVersionBulkDownloader.TARGET_CODINGSCHEME_URI_FIELD, new Extractor(){
 						@Override
 						public String extract(ResolvedConceptReference ref) {
-							return getTarget(ref).getCodingSchemeURI();
+							ResolvedConceptReference target = getTarget(ref);
+							if(target != null) {
+								return target.getCodingSchemeURI();
+							} else {
+								return "";
+							}
 						}	
 					});
 					
 					put(MapVersionBulkDownloader.TARGET_CODINGSCHEME_VERSION_FIELD, new Extractor(){
 						@Override
 						public String extract(ResolvedConceptReference ref) {
-							return getTarget(ref).getCodingSchemeVersion();
+							ResolvedConceptReference target = getTarget(ref);
+							if(target != null) {
+								return target.getCodingSchemeVersion();
+							} else {
+								return "";
+							}
+						}	
+					});
+
+			}}};
+			
+		private final static Map<String, Extractor> ASSOCIATION_EXTRACTOR_MAP = new HashMap<String,Extractor>(){
+
+			private static final long serialVersionUID = -2389405766133962611L;
+			{{
+					put(MapVersionBulkDownloader.ASSOCIATION_NAME_FIELD, new Extractor(){
+						@Override
+						public String extract(ResolvedConceptReference ref) {
+							if(ref.getSourceOf() != null) {
+								return ref.getSourceOf().getAssociation(0).getAssociationName();
+							} else {
+								return "";
+							}
 						}	
 					});
 
@@ -154,6 +208,7 @@ public class MappingExtensionBulkDownloader
 		Map<String, Extractor> map = new HashMap<String, Extractor>();
 		map.putAll(SOURCE_EXTRACTOR_MAP);
 		map.putAll(TARGET_EXTRACTOR_MAP);
+		map.putAll(ASSOCIATION_EXTRACTOR_MAP);
 		
 		this.extractorMap = map;
 	}
@@ -167,6 +222,20 @@ public class MappingExtensionBulkDownloader
 			CodingSchemeReference codingScheme, 
 			List<String> fields,
 			char separator) {
+		this.download(outputStream, codingScheme, fields, separator, BulkDownloadFormat.DELIMITED, null);
+	}
+	
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.mapversion.MapVersionBulkDownloader#download(java.io.OutputStream, org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference, java.util.List, char, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress)
+	 */
+	@Override
+	public void download(
+			OutputStream outputStream,
+			CodingSchemeReference codingScheme, 
+			List<String> fields,
+			char separator,
+			BulkDownloadFormat format,
+			BulkDownloadProgress progress) {
 		
 		ResolvedConceptReferencesIterator itr;
 		try {
@@ -179,7 +248,14 @@ public class MappingExtensionBulkDownloader
 			throw new RuntimeException(e);
 		}
 		
-		this.doWrite(outputStream, new ResolvedConceptReferencesIteratorAdapter(itr), separator, fields);
+		this.doWrite(
+			outputStream, 
+			new MapTargetIterator(new ResolvedConceptReferencesIteratorAdapter(itr)), 
+			separator, 
+			format,
+			fields, 
+			progress, 
+			itr);
 	}
 
 	@Override
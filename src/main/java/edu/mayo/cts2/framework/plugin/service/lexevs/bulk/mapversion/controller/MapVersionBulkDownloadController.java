@@ -8,12 +8,13 @@
 */
 package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.mapversion.controller;
 
-import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.LexGrid.LexBIG.DataModel.Core.types.CodingSchemeVersionStatus;
@@ -29,6 +30,10 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloadController;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
 import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.mapversion.MapVersionBulkDownloader;
 
 /**
@@ -55,6 +60,13 @@ public class MapVersionBulkDownloadController extends AbstractBulkDownloadContro
 				MapVersionBulkDownloader.TARGET_CODINGSCHEME_VERSION_FIELD			
 	);
 	
+	private static final List<String> ALL_FIELDS = new ArrayList<String>(DEFAULT_FIELDS){
+
+		private static final long serialVersionUID = 5541370582146493178L;
+		{{
+			add(MapVersionBulkDownloader.ASSOCIATION_NAME_FIELD);
+		}}};
+	
 	@Resource
 	private LexBIGService lexBigService;
 
@@ -67,29 +79,105 @@ public class MapVersionBulkDownloadController extends AbstractBulkDownloadContro
 	/**
 	 * Download.
 	 *
+	 * @param request the request
 	 * @param response the response
 	 * @param codingschemes the codingschemes
 	 * @param fields the fields
 	 * @param separator the separator
+	 * @param format the output format
 	 * @throws LBException the lB exception
 	 */
 	@RequestMapping(value="/exporter/map")
     public void download(
+    		HttpServletRequest request,
     		HttpServletResponse response,
     		@RequestParam(value="map", required=true) String map,
     		@RequestParam(value="fields", defaultValue="") String fields,
     		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
     		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) throws LBException {
 		
+		BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		List<String> fieldsList = this.getFields(fields);
+		
+		CodingSchemeReference reference = this.getReference(map);
+
+		Permit permit = this.admit(request);
+
+		this.setHeaders(response, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat);
+		
+		this.spool(response, permit, this.createTask(
+				reference, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	/**
+	 * Submit a download to run in the background. The response contains the job id,
+	 * which can be polled for status and then downloaded once complete.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param map the map
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 * @throws LBException the lB exception
+	 */
+	@RequestMapping(value="/exporter/map/" + JOB_PATH)
+    public void submitDownload(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="map", required=true) String map,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) final char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) throws LBException {
+		
+		final BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		final List<String> fieldsList = this.getFields(fields);
+		
+		final CodingSchemeReference reference = this.getReference(map);
+		
+		String key = "map:" + map + ";" + fieldsList + ";" + separator + ";" + bulkDownloadFormat;
+		
+		this.submitJob(request, response, key, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat, this.createTask(
+				reference, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	private BulkDownloadTask createTask(
+			final CodingSchemeReference reference, 
+			final List<String> fieldsList, 
+			final char separator, 
+			final BulkDownloadFormat bulkDownloadFormat){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				mapVersionBulkDownloader.download(outputStream, reference, fieldsList, separator, bulkDownloadFormat, progress);
+			}
+			
+		};
+	}
+	
+	private List<String> getFields(String fields){
 		List<String> fieldsList;
 		if(StringUtils.isBlank(fields)){
 			fieldsList = DEFAULT_FIELDS;
 		} else {
 			fieldsList = Arrays.asList(StringUtils.split(fields, ','));
+			
+			for(String field : fieldsList){
+				if(! ALL_FIELDS.contains(field)){
+					throw new UserInputException("Unknown field '" + field + "'.");
+				}
+			}
 		}
 		
-		this.setHeaders(response, filename);
-		
+		return fieldsList;
+	}
+	
+	private CodingSchemeReference getReference(String map){
 		String[] parts = StringUtils.split(map, ':');
 		
 		CodingSchemeReference reference = new CodingSchemeReference();
@@ -99,20 +187,9 @@ public class MapVersionBulkDownloadController extends AbstractBulkDownloadContro
 			reference.setVersionOrTag(
 				Constructors.createCodingSchemeVersionOrTagFromVersion(parts[1]));
 		} 
-
-
-		try {
-			this.mapVersionBulkDownloader.download(response.getOutputStream(), reference, fieldsList, separator);
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	
-        try {
-			response.flushBuffer();
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-    }
+		
+		return reference;
+	}
 	
 	@Override
 	public Object getController() {
@@ -126,7 +203,9 @@ public class MapVersionBulkDownloadController extends AbstractBulkDownloadContro
 		sb.append("\tFormat: mapName[:version]  - example: 'MyMap' or 'MyMap:1.0'\n");
 		sb.append("\tAvailable: " + this.getAvailableCodingSchemesString() + "\n");
 		sb.append("fields - (Optional) Content fields to output. Default: "+ DEFAULT_FIELDS + "\n");
+		sb.append("\tAvailable: " + ALL_FIELDS + "\n");
 		sb.append("separator -(Optional) One character field separator. Default: " + DEFAULT_SEPARATOR +"\n");
+		sb.append("format - (Optional) Output format: delimited, ndjson or binary. Default: " + DEFAULT_FORMAT +"\n");
 		sb.append("filename - (Optional) Output file name. Default: " + DEFAULT_FILE_NAME);
 		
 		return sb.toString();
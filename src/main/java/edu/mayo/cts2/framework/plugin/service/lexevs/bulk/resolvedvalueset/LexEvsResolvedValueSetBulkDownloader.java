@@ -0,0 +1,311 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.LexGrid.codingSchemes.CodingScheme;
+import org.LexGrid.commonTypes.Property;
+import org.LexGrid.commonTypes.PropertyQualifier;
+import org.LexGrid.naming.SupportedCodingScheme;
+import org.LexGrid.naming.SupportedNamespace;
+import org.lexgrid.valuesets.LexEVSValueSetDefinitionServices;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTranslator;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTriple;
+
+/**
+ * A Bulk Downloader for resolved value sets.
+ * 
+ * A LexEVS resolved value set is stored as a coding scheme, so its members are read
+ * with an unresolved CodedNodeSet iterator, one resolved value set after another. Only
+ * the header of the resolved value set currently being read is held in memory.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class LexEvsResolvedValueSetBulkDownloader 
+	extends AbstractBulkDownloader 
+	implements ResolvedValueSetBulkDownloader {
+
+	@Resource
+	private LexBIGService lexBigService;
+	
+	@Resource
+	private ResolvedValueSetNameTranslator resolvedValueSetNameTranslator;
+	
+	private final static Map<String, Extractor> EXTRACTOR_MAP = new HashMap<String,Extractor>(){
+
+		private static final long serialVersionUID = -5836170524195437126L;
+		{{
+				put(ResolvedValueSetBulkDownloader.CODE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCode();
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.NAMESPACE_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodeNamespace();
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.DESCRIPTION_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						if(ref.getEntityDescription() != null) {
+							return ref.getEntityDescription().getContent();
+						} else {
+							return "";
+						}
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.CODINGSCHEME_NAME_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodingSchemeName();
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.CODINGSCHEME_URI_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodingSchemeURI();
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.CODINGSCHEME_VERSION_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCodingSchemeVersion();
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.VALUESET_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ((ResolvedValueSetMember) ref).getResolvedValueSet().getValueSetName();
+					}	
+				});
+				
+				put(ResolvedValueSetBulkDownloader.VALUESET_DEFINITION_FIELD, new Extractor(){
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ((ResolvedValueSetMember) ref).getResolvedValueSet().getDefinitionLocalId();
+					}	
+				});
+
+		}}};
+	
+	/**
+	 * The coding schemes a resolved value set was resolved against, keyed
+	 * by the namespaces of its members.
+	 */
+	private static class ResolvedAgainst {
+		
+		private Map<String,String> namespaceToName = new HashMap<String,String>();
+		private Map<String,String> nameToUri = new HashMap<String,String>();
+		private Map<String,String> uriToVersion = new HashMap<String,String>();
+		
+		private ResolvedAgainst(CodingScheme codingScheme){
+			if(codingScheme.getMappings() != null){
+				for(SupportedNamespace namespace : codingScheme.getMappings().getSupportedNamespace()){
+					this.namespaceToName.put(namespace.getLocalId(), namespace.getEquivalentCodingScheme());
+				}
+				for(SupportedCodingScheme scheme : codingScheme.getMappings().getSupportedCodingScheme()){
+					this.nameToUri.put(scheme.getLocalId(), scheme.getUri());
+				}
+			}
+			
+			if(codingScheme.getProperties() != null){
+				for(Property property : codingScheme.getProperties().getProperty()){
+					if(property.getPropertyName().equalsIgnoreCase(
+							LexEVSValueSetDefinitionServices.RESOLVED_AGAINST_CODING_SCHEME_VERSION)){
+						String version = null;
+						for(PropertyQualifier qualifier : property.getPropertyQualifier()){
+							if(qualifier.getPropertyQualifierName().equalsIgnoreCase(
+									LexEVSValueSetDefinitionServices.VERSION)){
+								version = qualifier.getValue().getContent();
+							}
+						}
+						this.uriToVersion.put(property.getValue().getContent(), version);
+					}
+				}
+			}
+		}
+		
+		private void describe(ResolvedValueSetMember member){
+			String name = this.namespaceToName.get(member.getCodeNamespace());
+			if(name == null){
+				name = member.getCodeNamespace();
+			}
+			String uri = this.nameToUri.get(name);
+			
+			member.setCodingSchemeName(name);
+			member.setCodingSchemeURI(uri);
+			member.setCodingSchemeVersion(uri != null ? this.uriToVersion.get(uri) : null);
+		}
+	}
+	
+	/**
+	 * Reads the members of each resolved value set in turn, keeping only
+	 * one LexEVS iterator open at a time.
+	 */
+	private class MemberIterator implements Iterator<ResolvedConceptReference> {
+		
+		private Iterator<ResolvedValueSetNameTriple> resolvedValueSets;
+		
+		private ResolvedValueSetNameTriple current;
+		
+		private ResolvedAgainst resolvedAgainst;
+		
+		private ResolvedConceptReferencesIterator members;
+		
+		private MemberIterator(List<ResolvedValueSetNameTriple> resolvedValueSets){
+			this.resolvedValueSets = resolvedValueSets.iterator();
+		}
+
+		@Override
+		public boolean hasNext() {
+			try {
+				while(this.members == null || ! this.members.hasNext()){
+					this.close();
+					
+					if(! this.resolvedValueSets.hasNext()){
+						return false;
+					}
+					
+					this.open(this.resolvedValueSets.next());
+				}
+			} catch (LBException e) {
+				throw new RuntimeException(e);
+			}
+			
+			return true;
+		}
+
+		@Override
+		public ResolvedConceptReference next() {
+			if(! this.hasNext()){
+				throw new NoSuchElementException();
+			}
+			
+			ResolvedConceptReference entity;
+			try {
+				entity = this.members.next();
+			} catch (LBException e) {
+				throw new RuntimeException(e);
+			}
+			
+			ResolvedValueSetMember member = new ResolvedValueSetMember();
+			member.setCode(entity.getCode());
+			member.setCodeNamespace(entity.getCodeNamespace());
+			member.setEntityDescription(entity.getEntityDescription());
+			member.setResolvedValueSet(this.current);
+			
+			this.resolvedAgainst.describe(member);
+			
+			return member;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+		
+		private void open(ResolvedValueSetNameTriple resolvedValueSet) throws LBException {
+			NameVersionPair codingScheme = 
+				resolvedValueSetNameTranslator.getNameVersionPair(resolvedValueSet);
+			if(codingScheme == null){
+				throw new IllegalArgumentException("No resolved value set found for: " + 
+					resolvedValueSet.getValueSetName() + ":" + resolvedValueSet.getDefinitionLocalId());
+			}
+			
+			this.current = resolvedValueSet;
+			this.resolvedAgainst = new ResolvedAgainst(
+				lexBigService.resolveCodingScheme(
+					codingScheme.getName(), 
+					Constructors.createCodingSchemeVersionOrTagFromVersion(codingScheme.getVersion())));
+			
+			this.members = lexBigService.getNodeSet(
+				codingScheme.getName(), 
+				Constructors.createCodingSchemeVersionOrTagFromVersion(codingScheme.getVersion()), 
+				null).resolve(null, null, null, null, false);
+		}
+		
+		private void close() {
+			if(this.members != null){
+				try {
+					this.members.release();
+				} catch (LBException e) {
+					//
+				}
+				this.members = null;
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset.ResolvedValueSetBulkDownloader#download(java.io.OutputStream, java.util.List, java.util.List, char)
+	 */
+	@Override
+	public void download(
+			OutputStream outputStream,
+			List<ResolvedValueSetNameTriple> resolvedValueSets, 
+			List<String> fields,
+			char separator) {
+		this.download(outputStream, resolvedValueSets, fields, separator, BulkDownloadFormat.DELIMITED, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset.ResolvedValueSetBulkDownloader#download(java.io.OutputStream, java.util.List, java.util.List, char, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat, edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress)
+	 */
+	@Override
+	public void download(
+			OutputStream outputStream,
+			List<ResolvedValueSetNameTriple> resolvedValueSets, 
+			List<String> fields,
+			char separator, 
+			BulkDownloadFormat format, 
+			BulkDownloadProgress progress) {
+		MemberIterator itr = new MemberIterator(resolvedValueSets);
+		try {
+			this.doWrite(outputStream, itr, separator, format, fields, progress);
+		} finally {
+			itr.close();
+		}
+	}
+
+	@Override
+	protected Map<String, Extractor> getExtractorMap() {
+		return EXTRACTOR_MAP;
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset;
+
+import java.io.OutputStream;
+import java.util.List;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTriple;
+
+/**
+ * Bulk downloads the members of resolved value sets.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public interface ResolvedValueSetBulkDownloader {
+	
+	static final String CODE_FIELD = "code";
+	static final String NAMESPACE_FIELD = "namespace";
+	static final String DESCRIPTION_FIELD = "description";
+	static final String CODINGSCHEME_NAME_FIELD = "codingschemename";
+	static final String CODINGSCHEME_URI_FIELD = "codingschemeuri";
+	static final String CODINGSCHEME_VERSION_FIELD = "codingschemeversion";
+	static final String VALUESET_FIELD = "valueset";
+	static final String VALUESET_DEFINITION_FIELD = "valuesetdefinition";
+	
+	/**
+	 * Send the members of the given resolved value sets to the provided {@link OutputStream}.
+	 *
+	 * @param outputStream the output stream
+	 * @param resolvedValueSets the resolved value sets
+	 * @param fields the fields
+	 * @param separator the separator
+	 */
+	void download(OutputStream outputStream, List<ResolvedValueSetNameTriple> resolvedValueSets, List<String> fields, char separator);
+	
+	/**
+	 * Send the members of the given resolved value sets to the provided {@link OutputStream}
+	 * in the given {@link BulkDownloadFormat}, reporting progress to the given {@link BulkDownloadProgress}.
+	 *
+	 * @param outputStream the output stream
+	 * @param resolvedValueSets the resolved value sets
+	 * @param fields the fields
+	 * @param separator the separator, used only by delimited output
+	 * @param format the output format
+	 * @param progress the progress
+	 */
+	void download(OutputStream outputStream, List<ResolvedValueSetNameTriple> resolvedValueSets, List<String> fields, char separator, BulkDownloadFormat format, BulkDownloadProgress progress);
+}
@@ -0,0 +1,36 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTriple;
+
+/**
+ * A member of a resolved value set. The coding scheme name, URI and version
+ * are those of the coding scheme the member was resolved against, not of the
+ * resolved value set itself.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class ResolvedValueSetMember extends ResolvedConceptReference {
+
+	private static final long serialVersionUID = 4180937251672334851L;
+	
+	private ResolvedValueSetNameTriple resolvedValueSet;
+
+	public ResolvedValueSetNameTriple getResolvedValueSet() {
+		return resolvedValueSet;
+	}
+
+	public void setResolvedValueSet(ResolvedValueSetNameTriple resolvedValueSet) {
+		this.resolvedValueSet = resolvedValueSet;
+	}
+
+}
@@ -0,0 +1,202 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset.controller;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.AbstractBulkDownloadController;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset.ResolvedValueSetBulkDownloader;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTranslator;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTriple;
+
+/**
+ * A REST Controller for bulk downloads of resolved value set members.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Controller("resolvedValueSetBulkDownloadController")
+public class ResolvedValueSetBulkDownloadController extends AbstractBulkDownloadController {
+
+	private static final List<String> DEFAULT_FIELDS = Arrays.asList(
+				ResolvedValueSetBulkDownloader.VALUESET_FIELD,
+				ResolvedValueSetBulkDownloader.CODE_FIELD,
+				ResolvedValueSetBulkDownloader.NAMESPACE_FIELD,
+				ResolvedValueSetBulkDownloader.DESCRIPTION_FIELD,
+				ResolvedValueSetBulkDownloader.CODINGSCHEME_NAME_FIELD,
+				ResolvedValueSetBulkDownloader.CODINGSCHEME_VERSION_FIELD
+	);
+
+	@Resource
+	private ResolvedValueSetBulkDownloader resolvedValueSetBulkDownloader;
+	
+	@Resource
+	private ResolvedValueSetNameTranslator resolvedValueSetNameTranslator;
+
+	/**
+	 * Download.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param resolvedvaluesets the resolvedvaluesets
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 */
+	@RequestMapping(value="/exporter/resolvedvalueset")
+    public void download(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="resolvedvaluesets", defaultValue="") String resolvedvaluesets,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) {
+		
+		BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		List<String> fieldsList = this.getFields(fields);
+		
+		List<ResolvedValueSetNameTriple> references = this.getReferences(resolvedvaluesets);
+
+		Permit permit = this.admit(request);
+
+		this.setHeaders(response, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat);
+		
+		this.spool(response, permit, this.createTask(
+				references, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	/**
+	 * Submit a download to run in the background. The response contains the job id,
+	 * which can be polled for status and then downloaded once complete.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @param resolvedvaluesets the resolvedvaluesets
+	 * @param fields the fields
+	 * @param separator the separator
+	 * @param format the output format
+	 */
+	@RequestMapping(value="/exporter/resolvedvalueset/" + JOB_PATH)
+    public void submitDownload(
+    		HttpServletRequest request,
+    		HttpServletResponse response,
+    		@RequestParam(value="resolvedvaluesets", defaultValue="") String resolvedvaluesets,
+    		@RequestParam(value="fields", defaultValue="") String fields,
+    		@RequestParam(value="separator", defaultValue=DEFAULT_SEPARATOR) final char separator,
+    		@RequestParam(value="format", defaultValue=DEFAULT_FORMAT) String format,
+    		@RequestParam(value="filename", defaultValue=DEFAULT_FILE_NAME) String filename) {
+		
+		final BulkDownloadFormat bulkDownloadFormat = this.getFormat(format);
+		
+		final List<String> fieldsList = this.getFields(fields);
+		
+		final List<ResolvedValueSetNameTriple> references = this.getReferences(resolvedvaluesets);
+		
+		String key = "resolvedvalueset:" + resolvedvaluesets + ";" + fieldsList + ";" + separator + ";" + bulkDownloadFormat;
+		
+		this.submitJob(request, response, key, this.getFilename(filename, bulkDownloadFormat), bulkDownloadFormat, this.createTask(
+				references, fieldsList, separator, bulkDownloadFormat));
+    }
+	
+	private BulkDownloadTask createTask(
+			final List<ResolvedValueSetNameTriple> references, 
+			final List<String> fieldsList, 
+			final char separator, 
+			final BulkDownloadFormat bulkDownloadFormat){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				resolvedValueSetBulkDownloader.download(
+					outputStream, 
+					references, 
+					fieldsList, 
+					separator, 
+					bulkDownloadFormat, 
+					progress);
+			}
+			
+		};
+	}
+	
+	private List<String> getFields(String fields){
+		List<String> fieldsList;
+		if(StringUtils.isBlank(fields)){
+			fieldsList = DEFAULT_FIELDS;
+		} else {
+			fieldsList = Arrays.asList(StringUtils.split(fields, ','));
+		}
+		
+		return fieldsList;
+	}
+	
+	private List<ResolvedValueSetNameTriple> getReferences(String resolvedvaluesets){
+		if(StringUtils.isBlank(resolvedvaluesets)){
+			throw new UserInputException("'resolvedvaluesets' parameter is required.");
+		}
+		
+		List<ResolvedValueSetNameTriple> references = new ArrayList<ResolvedValueSetNameTriple>();
+		
+		for(String resolvedValueSet : StringUtils.split(resolvedvaluesets, ',')){
+			String[] parts = StringUtils.split(resolvedValueSet, ':');
+			if(parts.length < 2 || parts.length > 3){
+				throw new UserInputException("Invalid resolved value set: " + resolvedValueSet);
+			}
+			
+			String resolutionId = parts.length == 3 ? 
+				parts[2] : ResolvedValueSetNameTranslator.RESOLVED_VS_LOCAL_ID;
+			
+			ResolvedValueSetNameTriple triple = new ResolvedValueSetNameTriple(parts[0], parts[1], resolutionId);
+			
+			if(this.resolvedValueSetNameTranslator.getNameVersionPair(triple) == null){
+				throw new UserInputException("No resolved value set found for: " + resolvedValueSet);
+			}
+			
+			references.add(triple);
+		}
+		
+		return references;
+	}
+	
+	@Override
+	public Object getController() {
+		return this;
+	}
+	
+	@Override
+	protected String getValidParametersMessage() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("resolvedvaluesets - Resolved value sets to export (comma-separated)\n");
+		sb.append("\tFormat: valueSetName:definitionLocalId[:resolutionLocalId]  - example: 'MyValueSet:571eb4e6'\n");
+		sb.append("fields - (Optional) Content fields to output. Default: "+ DEFAULT_FIELDS + "\n");
+		sb.append("separator -(Optional) One character field separator. Default: " + DEFAULT_SEPARATOR +"\n");
+		sb.append("format - (Optional) Output format: delimited, ndjson or binary. Default: " + DEFAULT_FORMAT +"\n");
+		sb.append("filename - (Optional) Output file name. Default: " + DEFAULT_FILE_NAME);
+		
+		return sb.toString();
+	}
+
+}
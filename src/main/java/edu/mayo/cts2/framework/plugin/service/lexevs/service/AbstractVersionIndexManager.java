@@ -0,0 +1,367 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.event.LexEvsChangeEventObserver;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+
+/**
+ * Base class for holding one in-memory index per coding scheme version.
+ *
+ * An index is built in the background the first time it is asked for. Until it is
+ * ready, callers get null and should fall back to LexEVS. When LexEVS content
+ * changes, all indexes are dropped and the ones that were in use are rebuilt.
+ *
+ * Subclasses that give their indexes a weight may bound the total weight held, in
+ * which case the least recently used indexes are dropped first. Subclasses may also
+ * name versions to build at startup and after each change, before they are asked for,
+ * and limit the versions that may be built to the ones LexEVS knows of.
+ *
+ * A version whose build returns null is not built again until the next change. A
+ * version whose build fails is tried again after a delay.
+ *
+ * @param <T> the index type
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public abstract class AbstractVersionIndexManager<T>
+	implements LexEvsChangeEventObserver, InitializingBean, DisposableBean {
+
+	protected Logger log = Logger.getLogger(this.getClass());
+
+	private ExecutorService executor;
+
+	private final LinkedHashMap<String, T> indexes = new LinkedHashMap<String, T>(16, 0.75f, true);
+
+	private final Map<String, NameVersionPair> indexedVersions = new HashMap<String, NameVersionPair>();
+
+	private final Set<String> building = new HashSet<String>();
+
+	private static final int MAX_NOT_INDEXABLE = 1024;
+
+	private static final long FAILED_BUILD_RETRY_MILLIS = 60000;
+
+	/*
+	 * The time until which each version is not built again.
+	 */
+	private final LinkedHashMap<String, Long> notIndexable = new LinkedHashMap<String, Long>(){
+
+		private static final long serialVersionUID = 3387609270153432208L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+			return this.size() > MAX_NOT_INDEXABLE;
+		}
+
+	};
+
+	private volatile Set<String> knownVersions;
+
+	private long generation = 0;
+
+	private long weight = 0;
+
+	private long maxWeight = Long.MAX_VALUE;
+
+	private final Object mutex = new Object();
+
+	/**
+	 * Build the index of a coding scheme version. Called on a background thread.
+	 *
+	 * @param version the coding scheme name and version
+	 * @return the index, or null if the coding scheme version should not be indexed
+	 * @throws Exception the exception
+	 */
+	protected abstract T buildIndex(NameVersionPair version) throws Exception;
+
+	/**
+	 * The name of the background build thread.
+	 *
+	 * @return the thread name
+	 */
+	protected abstract String getThreadName();
+
+	/**
+	 * The weight of an index, counted against the maximum weight.
+	 *
+	 * @param index the index
+	 * @return the weight, 0 by default
+	 */
+	protected long getWeight(T index) {
+		return 0;
+	}
+
+	/**
+	 * The versions to build at startup and after each change, whether or not they
+	 * have been asked for. Called on the background thread.
+	 *
+	 * @return the versions, none by default
+	 * @throws Exception the exception
+	 */
+	protected List<NameVersionPair> getVersionsToPrebuild() throws Exception {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * The versions that may be built. Asking for any other version does not start
+	 * a build. Called once after startup and once after each change.
+	 *
+	 * @return the versions, or null if any version may be built, which is the default
+	 * @throws Exception the exception
+	 */
+	protected List<NameVersionPair> getKnownVersions() throws Exception {
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, getThreadName());
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+
+		this.schedulePrebuild();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.executor != null){
+			this.executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gets the index for a coding scheme version, starting a build if there is none.
+	 *
+	 * @param version the coding scheme name and version
+	 * @return the index, or null if it is not (yet) available
+	 */
+	public T getIndex(NameVersionPair version) {
+		String key = this.getKey(version);
+
+		synchronized(this.mutex){
+			T index = this.indexes.get(key);
+			if(index != null || this.building.contains(key)){
+				return index;
+			}
+		}
+
+		if(! this.isKnownVersion(key)){
+			return null;
+		}
+
+		synchronized(this.mutex){
+			T index = this.indexes.get(key);
+			if(index == null){
+				this.scheduleBuild(version);
+			}
+
+			return index;
+		}
+	}
+
+	/*
+	 * Whether LexEVS knows of a version. The known versions are listed again after
+	 * each change. If they cannot be listed, nothing is built until they can be.
+	 */
+	private boolean isKnownVersion(String key){
+		Set<String> known = this.knownVersions;
+		if(known == null){
+			List<NameVersionPair> versions;
+			try {
+				versions = this.getKnownVersions();
+			} catch (Exception e) {
+				log.warn("Could not list the versions to build the " + this.getThreadName() + " for.", e);
+				return false;
+			}
+
+			if(versions == null){
+				return true;
+			}
+
+			known = new HashSet<String>();
+			for(NameVersionPair version : versions){
+				known.add(this.getKey(version));
+			}
+			this.knownVersions = known;
+		}
+
+		return known.contains(key);
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.event.LexEvsChangeEventObserver#onChange()
+	 */
+	@Override
+	public void onChange() {
+		synchronized(this.mutex){
+			this.generation++;
+
+			List<NameVersionPair> inUse = new ArrayList<NameVersionPair>(this.indexedVersions.values());
+
+			this.indexes.clear();
+			this.indexedVersions.clear();
+			this.weight = 0;
+			this.building.clear();
+			this.notIndexable.clear();
+			this.knownVersions = null;
+
+			for(NameVersionPair version : inUse){
+				this.scheduleBuild(version);
+			}
+		}
+
+		this.schedulePrebuild();
+	}
+
+	private void schedulePrebuild(){
+		if(this.executor == null){
+			return;
+		}
+
+		this.executor.execute(new Runnable(){
+
+			@Override
+			public void run() {
+				List<NameVersionPair> versions;
+				try {
+					versions = getVersionsToPrebuild();
+				} catch (Exception e) {
+					log.warn("Could not list the versions to build the " + getThreadName() + " for.", e);
+					return;
+				}
+
+				synchronized(mutex){
+					for(NameVersionPair version : versions){
+						if(! indexes.containsKey(getKey(version))){
+							scheduleBuild(version);
+						}
+					}
+				}
+			}
+
+		});
+	}
+
+	private void scheduleBuild(final NameVersionPair version){
+		final String key = this.getKey(version);
+
+		if(this.executor == null || this.building.contains(key)){
+			return;
+		}
+
+		Long retryTime = this.notIndexable.get(key);
+		if(retryTime != null){
+			if(retryTime > System.currentTimeMillis()){
+				return;
+			}
+			this.notIndexable.remove(key);
+		}
+
+		this.building.add(key);
+
+		final long buildGeneration = this.generation;
+
+		this.executor.execute(new Runnable(){
+
+			@Override
+			public void run() {
+				T index = null;
+				long retryTime = Long.MAX_VALUE;
+				try {
+					index = buildIndex(version);
+				} catch (Exception e) {
+					log.warn("Could not build the " + getThreadName() + " for " + key + ".", e);
+					retryTime = System.currentTimeMillis() + FAILED_BUILD_RETRY_MILLIS;
+				}
+
+				synchronized(mutex){
+					if(buildGeneration != generation){
+						return;
+					}
+
+					building.remove(key);
+					if(index != null){
+						indexes.put(key, index);
+						indexedVersions.put(key, version);
+						weight += getWeight(index);
+						evict();
+					} else {
+						notIndexable.put(key, retryTime);
+					}
+				}
+			}
+
+		});
+	}
+
+	/*
+	 * Drops the least recently used indexes until the total weight fits, always
+	 * keeping the most recent one. A dropped index is built again when next asked for.
+	 */
+	private void evict(){
+		Iterator<Map.Entry<String, T>> itr = this.indexes.entrySet().iterator();
+		while(this.weight > this.maxWeight && this.indexes.size() > 1 && itr.hasNext()){
+			Map.Entry<String, T> eldest = itr.next();
+			itr.remove();
+			this.indexedVersions.remove(eldest.getKey());
+			this.weight -= this.getWeight(eldest.getValue());
+
+			log.info("Dropped the " + this.getThreadName() + " for " + eldest.getKey() + " to stay within its weight.");
+		}
+	}
+
+	public long getWeight() {
+		synchronized(this.mutex){
+			return this.weight;
+		}
+	}
+
+	public long getMaxWeight() {
+		return maxWeight;
+	}
+
+	public void setMaxWeight(long maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	protected String getKey(NameVersionPair version){
+		return version.getName() + ":" + version.getVersion();
+	}
+
+}
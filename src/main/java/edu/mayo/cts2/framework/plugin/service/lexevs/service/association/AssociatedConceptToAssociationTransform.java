@@ -16,6 +16,7 @@ import org.LexGrid.LexBIG.DataModel.Core.Association;
 import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
 import org.springframework.stereotype.Component;
 import edu.mayo.cts2.framework.model.association.AssociationDirectoryEntry;
+import edu.mayo.cts2.framework.model.association.GraphNode;
 import edu.mayo.cts2.framework.model.core.CodeSystemVersionReference;
 import edu.mayo.cts2.framework.model.core.PredicateReference;
 import edu.mayo.cts2.framework.model.core.StatementTarget;
@@ -58,12 +59,6 @@ public class AssociatedConceptToAssociationTransform
 
 		List<AssociationDirectoryEntry> returnList = new ArrayList<AssociationDirectoryEntry>();
 
-		URIAndEntityName uriEntityName = new URIAndEntityName();
-		uriEntityName.setName(subject.getCode());
-		uriEntityName.setNamespace(this.sanitizeNamespace(subject.getCodeNamespace()));
-		uriEntityName.setUri(this.getUriHandler().getEntityUri(subject));
-		uriEntityName.setHref(this.getTransformUtils().createEntityHref(subject));
-		
 		AssociationList associations;
 		switch(ref.getDirection()){
 			case SOURCEOF:{
@@ -79,7 +74,17 @@ public class AssociatedConceptToAssociationTransform
 		int counter = 0;
 		
 		if(associations != null){
+			URIAndEntityName subjectName = this.toUriAndEntityName(subject);
+			
 			for (Association association : associations.getAssociation()) {
+				int size = association.getAssociatedConcepts().getAssociatedConceptCount();
+				
+				//Skip whole associations before the page
+				if(counter + size <= ref.getStart()){
+					counter += size;
+					continue;
+				}
+				
 				//We can reuse these in each entry
 				PredicateReference predReference = new PredicateReference();
 				predReference.setName(association.getAssociationName());
@@ -98,21 +103,16 @@ public class AssociatedConceptToAssociationTransform
 						.getAssociatedConcept()) {
 					if(counter++ >= ref.getStart()){
 						AssociationDirectoryEntry entry = new AssociationDirectoryEntry();
-						entry.setSubject(uriEntityName);
+						entry.setSubject(subjectName);
 						entry.setAssertedBy(codeSystemVersionReference);
 						entry.setPredicate(predReference);
 						StatementTarget st = new StatementTarget();
-						uriEntityName = new URIAndEntityName();
-						uriEntityName.setName(target.getCode());
-						uriEntityName.setNamespace(this.sanitizeNamespace(target.getCodeNamespace()));
-						uriEntityName.setUri(this.getUriHandler().getEntityUri(target));
-						uriEntityName.setHref(this.getTransformUtils().createEntityHref(target));
-						st.setEntity(uriEntityName);
+						st.setEntity(this.toUriAndEntityName(target));
 						entry.setTarget(st);
 		
 						returnList.add(entry);
 						
-						if(returnList.size() == ref.getEnd()){
+						if(returnList.size() == ref.getEnd() - ref.getStart()){
 							return returnList;
 						}
 					}
@@ -123,4 +123,78 @@ public class AssociatedConceptToAssociationTransform
 
 		return returnList;
 	}
+
+	/**
+	 * Transform an Association directory entry into a full Association.
+	 *
+	 * @param entry the entry
+	 * @return the association
+	 */
+	public edu.mayo.cts2.framework.model.association.Association transformAssociation(
+			AssociationDirectoryEntry entry) {
+		edu.mayo.cts2.framework.model.association.Association association = 
+			new edu.mayo.cts2.framework.model.association.Association();
+		association.setAssociationID(
+				entry.getSubject().getNamespace() + ":" + entry.getSubject().getName() + 
+				"|" + entry.getPredicate().getName() + "|" + 
+				entry.getTarget().getEntity().getNamespace() + ":" + entry.getTarget().getEntity().getName());
+		association.setSubject(entry.getSubject());
+		association.setPredicate(entry.getPredicate());
+		association.setAssertedBy(entry.getAssertedBy());
+		association.addTarget(entry.getTarget());
+
+		return association;
+	}
+
+	/**
+	 * Transform one edge of an association graph.
+	 *
+	 * @param assertedBy the reference whose coding scheme asserts the association
+	 * @param subject the source of the edge
+	 * @param associationName the association name
+	 * @param target the target of the edge
+	 * @param nodeNumber the position of the edge in the graph, starting at 1
+	 * @return the graph node
+	 */
+	public GraphNode transformGraphNode(
+			ResolvedConceptReference assertedBy,
+			ResolvedConceptReference subject,
+			String associationName,
+			ResolvedConceptReference target,
+			long nodeNumber) {
+		GraphNode node = new GraphNode();
+		node.setNodeNumber(nodeNumber);
+		node.setSubject(this.toUriAndEntityName(subject));
+
+		PredicateReference predReference = new PredicateReference();
+		predReference.setName(associationName);
+		predReference.setUri(
+				this.getUriHandler().
+					getPredicateUri(
+							assertedBy.getCodingSchemeURI(),
+							assertedBy.getCodingSchemeVersion(),
+							associationName));
+		node.setPredicate(predReference);
+
+		node.setAssertedBy(this.getTransformUtils().toCodeSystemVersionReference(
+				this.getCodingSchemeNameTranslator().translateFromLexGrid(assertedBy.getCodingSchemeName()),
+				assertedBy.getCodingSchemeVersion(),
+				assertedBy.getCodingSchemeURI()));
+
+		StatementTarget st = new StatementTarget();
+		st.setEntity(this.toUriAndEntityName(target));
+		node.setTarget(st);
+
+		return node;
+	}
+
+	private URIAndEntityName toUriAndEntityName(ResolvedConceptReference ref) {
+		URIAndEntityName uriEntityName = new URIAndEntityName();
+		uriEntityName.setName(ref.getCode());
+		uriEntityName.setNamespace(this.sanitizeNamespace(ref.getCodeNamespace()));
+		uriEntityName.setUri(this.getUriHandler().getEntityUri(ref));
+		uriEntityName.setHref(this.getTransformUtils().createEntityHref(ref));
+
+		return uriEntityName;
+	}
 }
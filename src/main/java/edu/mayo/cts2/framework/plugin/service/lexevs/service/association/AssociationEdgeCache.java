@@ -0,0 +1,229 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.association;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.event.LexEvsChangeEventObserver;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.association.ResolvedConceptReferenceAssociationPage.Direction;
+
+/**
+ * A cache of all associations of a focus entity in one direction, used to count
+ * them and to page deep into them without resolving the focus again.
+ *
+ * The cache is bounded by weight, where the weight of an entry is the number of
+ * associated entities it holds, and evicts the least recently used entries first.
+ * It is cleared when LexEVS content changes.
+ *
+ * Cached {@link ResolvedConceptReference}s are shared, so callers must not modify them.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class AssociationEdgeCache implements LexEvsChangeEventObserver {
+
+	private static final int DEFAULT_MAX_WEIGHT = 1000000;
+
+	private int maxWeight = DEFAULT_MAX_WEIGHT;
+
+	private final LinkedHashMap<String, CacheEntry> cache =
+		new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+	private long weight = 0;
+
+	private long generation = 0;
+
+	private final Object mutex = new Object();
+
+	/**
+	 * The associations of one focus entity.
+	 */
+	public static class Edges {
+
+		private final ResolvedConceptReference focus;
+
+		private final int count;
+
+		private Edges(ResolvedConceptReference focus, int count){
+			this.focus = focus;
+			this.count = count;
+		}
+
+		/**
+		 * @return the resolved focus, or null if it has no associations
+		 */
+		public ResolvedConceptReference getFocus() {
+			return focus;
+		}
+
+		/**
+		 * @return the number of associated entities
+		 */
+		public int getCount() {
+			return count;
+		}
+	}
+
+	private static class CacheEntry {
+
+		private final Edges edges;
+
+		private final int weight;
+
+		private CacheEntry(Edges edges){
+			this.edges = edges;
+			this.weight = edges.getCount() + 1;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.event.LexEvsChangeEventObserver#onChange()
+	 */
+	@Override
+	public void onChange() {
+		synchronized(this.mutex){
+			this.generation++;
+			this.cache.clear();
+			this.weight = 0;
+		}
+	}
+
+	/**
+	 * Get the cached associations of a focus entity.
+	 *
+	 * @param key the key, which must identify the coding scheme version, the
+	 * restrictions of the graph, the focus and the direction
+	 * @return the associations, or null if they are not cached
+	 */
+	public Edges getIfPresent(String key) {
+		synchronized(this.mutex){
+			CacheEntry entry = this.cache.get(key);
+
+			return entry != null ? entry.edges : null;
+		}
+	}
+
+	/**
+	 * Get the associations of a focus entity, resolving them from the graph
+	 * if they are not cached.
+	 *
+	 * @param key the key, which must identify the coding scheme version, the
+	 * restrictions of the graph, the focus and the direction
+	 * @param graph the graph to resolve from
+	 * @param focus the focus
+	 * @param direction the direction
+	 * @return the associations
+	 * @throws LBException the lB exception
+	 */
+	public Edges get(
+			String key,
+			CodedNodeGraph graph,
+			ConceptReference focus,
+			Direction direction) throws LBException {
+		long loadGeneration;
+		synchronized(this.mutex){
+			CacheEntry entry = this.cache.get(key);
+			if(entry != null){
+				return entry.edges;
+			}
+			loadGeneration = this.generation;
+		}
+
+		Edges edges = this.load(graph, focus, direction);
+
+		synchronized(this.mutex){
+			if(loadGeneration == this.generation && ! this.cache.containsKey(key)){
+				CacheEntry entry = new CacheEntry(edges);
+				this.cache.put(key, entry);
+				this.weight += entry.weight;
+				this.evict();
+			}
+		}
+
+		return edges;
+	}
+
+	protected Edges load(
+			CodedNodeGraph graph,
+			ConceptReference focus,
+			Direction direction) throws LBException {
+		ResolvedConceptReferenceList list = graph.resolveAsList(
+			focus,
+			direction == Direction.SOURCEOF,
+			direction == Direction.TARGETOF,
+			0, 1, null, null, null, null, -1);
+
+		return toEdges(
+			list.getResolvedConceptReferenceCount() == 0 ? null : list.getResolvedConceptReference(0),
+			direction);
+	}
+
+	/**
+	 * Count the associated entities of a resolved focus in one direction.
+	 *
+	 * @param ref the resolved focus, or null if it was not found
+	 * @param direction the direction
+	 * @return the associations
+	 */
+	protected static Edges toEdges(ResolvedConceptReference ref, Direction direction){
+		int count = 0;
+
+		if(ref != null){
+			AssociationList associations =
+				direction == Direction.SOURCEOF ? ref.getSourceOf() : ref.getTargetOf();
+
+			if(associations != null){
+				for(Association association : associations.getAssociation()){
+					if(association.getAssociatedConcepts() != null){
+						count += association.getAssociatedConcepts().getAssociatedConceptCount();
+					}
+				}
+			}
+		}
+
+		return new Edges(count > 0 ? ref : null, count);
+	}
+
+	private void evict(){
+		Iterator<Map.Entry<String, CacheEntry>> itr = this.cache.entrySet().iterator();
+		while(this.weight > this.maxWeight && this.cache.size() > 1 && itr.hasNext()){
+			CacheEntry eldest = itr.next().getValue();
+			itr.remove();
+			this.weight -= eldest.weight;
+		}
+	}
+
+	public long getWeight() {
+		synchronized(this.mutex){
+			return this.weight;
+		}
+	}
+
+	public int getMaxWeight() {
+		return maxWeight;
+	}
+
+	@Value("${associationEdgeCacheMaxWeight:" + DEFAULT_MAX_WEIGHT + "}")
+	public void setMaxWeight(int maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+}
@@ -16,17 +16,16 @@ import org.LexGrid.LexBIG.Utility.Constructors;
 
 import edu.mayo.cts2.framework.filter.directory.AbstractStateBuildingDirectoryBuilder;
 import edu.mayo.cts2.framework.filter.match.StateAdjustingComponentReference;
-import edu.mayo.cts2.framework.model.association.AssociationDirectoryEntry;
 import edu.mayo.cts2.framework.model.core.MatchAlgorithmReference;
 import edu.mayo.cts2.framework.service.command.restriction.AssociationQueryServiceRestrictions;
 
-public class CodedNodeGraphDirectoryBuilder 
+public class CodedNodeGraphDirectoryBuilder<T> 
 	extends 
-	AbstractStateBuildingDirectoryBuilder<CodedNodeGraph,AssociationDirectoryEntry>{
+	AbstractStateBuildingDirectoryBuilder<CodedNodeGraph,T>{
 
 	public CodedNodeGraphDirectoryBuilder(
 			CodedNodeGraph initialState,
-			Callback<CodedNodeGraph, AssociationDirectoryEntry> callback,
+			Callback<CodedNodeGraph, T> callback,
 			Set<MatchAlgorithmReference> matchAlgorithmReferences,
 			Set<StateAdjustingComponentReference<CodedNodeGraph>> stateAdjustingPropertyReferences) {
 		super(initialState, 
@@ -35,7 +34,7 @@ public class CodedNodeGraphDirectoryBuilder
 				stateAdjustingPropertyReferences);
 	}
 	
-	public CodedNodeGraphDirectoryBuilder restrict(AssociationQueryServiceRestrictions restrictions){
+	public CodedNodeGraphDirectoryBuilder<T> restrict(AssociationQueryServiceRestrictions restrictions){
 		if(restrictions != null && 
 				restrictions.getPredicate() != null &&
 				restrictions.getPredicate().getEntityName() != null &&
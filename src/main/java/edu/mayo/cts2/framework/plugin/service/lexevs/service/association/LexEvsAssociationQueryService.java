@@ -9,17 +9,41 @@
 package edu.mayo.cts2.framework.plugin.service.lexevs.service.association;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
 import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
 import org.LexGrid.LexBIG.Exceptions.LBException;
 import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
 import org.LexGrid.LexBIG.Utility.Constructors;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import edu.mayo.cts2.framework.filter.directory.AbstractStateBuildingDirectoryBuilder.Callback;
@@ -36,21 +60,37 @@ import edu.mayo.cts2.framework.model.core.PredicateReference;
 import edu.mayo.cts2.framework.model.core.Property;
 import edu.mayo.cts2.framework.model.core.SortCriteria;
 import edu.mayo.cts2.framework.model.directory.DirectoryResult;
+import edu.mayo.cts2.framework.model.exception.UnspecifiedCts2Exception;
 import edu.mayo.cts2.framework.model.service.core.DocumentedNamespaceReference;
 import edu.mayo.cts2.framework.model.service.core.EntityNameOrURI;
-import edu.mayo.cts2.framework.model.service.core.NameOrURI;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.CodingSchemeNameTranslator;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractLexEvsService;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.association.ResolvedConceptReferenceAssociationPage.Direction;
+import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonUtils;
 import edu.mayo.cts2.framework.service.command.restriction.AssociationQueryServiceRestrictions;
 import edu.mayo.cts2.framework.service.profile.association.AssociationQuery;
 import edu.mayo.cts2.framework.service.profile.association.AssociationQueryService;
 import edu.mayo.cts2.framework.service.profile.entitydescription.name.EntityDescriptionReadId;
 
 @Component
-public class LexEvsAssociationQueryService extends AbstractLexEvsService implements AssociationQueryService {
+public class LexEvsAssociationQueryService extends AbstractLexEvsService 
+	implements AssociationQueryService, InitializingBean, DisposableBean {
+	
+	private static final int DEFAULT_GRAPH_THREADS = 4;
+	
+	private static final int DEFAULT_MAX_GRAPH_NODES = 10000;
+	
+	private static final int DEFAULT_MAX_GRAPH_EDGES = 10000;
+	
+	private static final long DEFAULT_GRAPH_TIMEOUT_MILLIS = 30000;
+	
+	private static final int GRAPH_QUEUE_SIZE_PER_THREAD = 4;
+	
+	private static final String KEY_SEPARATOR = "\0";
+	
+	private static final int DEFAULT_SHALLOW_PAGE_LIMIT = 1000;
 	
 	@Resource
 	private AssociatedConceptToAssociationTransform transform;
@@ -61,20 +101,60 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 	@Resource
 	private CodingSchemeNameTranslator codingSchemeNameTranslator;
 	
-	private class CodedNodeGraphCallback 
-		implements Callback<CodedNodeGraph,AssociationDirectoryEntry> {
+	@Resource
+	private AssociationEdgeCache associationEdgeCache;
+	
+	private int shallowPageLimit = DEFAULT_SHALLOW_PAGE_LIMIT;
+	
+	private int graphThreads = DEFAULT_GRAPH_THREADS;
+	
+	private int maxGraphNodes = DEFAULT_MAX_GRAPH_NODES;
+	
+	private int maxGraphEdges = DEFAULT_MAX_GRAPH_EDGES;
+	
+	private long graphTimeoutMillis = DEFAULT_GRAPH_TIMEOUT_MILLIS;
+	
+	private ExecutorService graphExecutor;
+	
+	private abstract class AbstractCodedNodeGraphCallback<T> 
+		implements Callback<CodedNodeGraph,T> {
 
+		private String key;
 		private ConceptReference focus;
 		private Direction direction;
 		
-		private CodedNodeGraphCallback(ConceptReference focus, Direction direction){
+		private AbstractCodedNodeGraphCallback(AssociationQueryServiceRestrictions restrictions){
 			super();
-			this.focus = focus;
-			this.direction = direction;
+			NameVersionPair versionName = 
+				nameConverter.fromCts2VersionName(restrictions.getCodeSystemVersion().getName());
+			
+			EntityNameOrURI focus;
+			if(restrictions.getSourceEntity() != null){
+				this.direction = Direction.SOURCEOF;
+				focus = restrictions.getSourceEntity();
+			} else {
+				this.direction = Direction.TARGETOF;
+				focus = restrictions.getTargetEntity();
+			}
+			
+			this.focus = 
+				Constructors.createConceptReference(
+					focus.getEntityName().getName(), 
+					codingSchemeNameTranslator.translateToLexGrid(focus.getEntityName().getNamespace()), 
+					null);
+			
+			String predicateName = null;
+			if(restrictions.getPredicate() != null && 
+					restrictions.getPredicate().getEntityName() != null){
+				predicateName = restrictions.getPredicate().getEntityName().getName();
+			}
+			
+			this.key = versionName.getName() + KEY_SEPARATOR + versionName.getVersion() + KEY_SEPARATOR +
+				predicateName + KEY_SEPARATOR + getNodeKey(this.focus) + KEY_SEPARATOR + this.direction;
 		}
 		
 		@Override
-		public DirectoryResult<AssociationDirectoryEntry> 
+		public DirectoryResult<T> 
 			execute(
 				CodedNodeGraph state, 
 				int start, 
@@ -84,15 +164,28 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 			boolean reverse = this.direction.equals(Direction.TARGETOF);
 			
 			try {
-				ResolvedConceptReferenceList resultList = 
-					state.resolveAsList(this.focus, forward, reverse, 0, 1, null, null, null, null, -1);
+				ResolvedConceptReference ref;
+				
+				AssociationEdgeCache.Edges edges = associationEdgeCache.getIfPresent(this.key);
+				if(edges == null && (long) start + maxResults < shallowPageLimit){
+					// Only resolve up to the end of the page. One more is needed to know if there
+					// is a next page, and one more again in case the focus is counted as well.
+					ResolvedConceptReferenceList resultList = 
+						state.resolveAsList(
+							this.focus, forward, reverse, 0, 1, null, null, null, null, start + maxResults + 2);
+					
+					if(resultList.getResolvedConceptReferenceCount() > 1){
+						throw new IllegalStateException("With a focus, this can never be more than 1.");
+					}
+					
+					ref = resultList.getResolvedConceptReferenceCount() == 0 ? 
+							null : resultList.getResolvedConceptReference(0);
+				} else {
+					ref = associationEdgeCache.get(this.key, state, this.focus, this.direction).getFocus();
+				}
 				
-				if(resultList.getResolvedConceptReferenceCount() == 0){
-					return new DirectoryResult<AssociationDirectoryEntry>(
-							new ArrayList<AssociationDirectoryEntry>(), true);
-				} 
-				if(resultList.getResolvedConceptReferenceCount() > 1){
-					throw new IllegalStateException("With a focus, this can never be more than 1.");
+				if(ref == null){
+					return new DirectoryResult<T>(new ArrayList<T>(), true);
 				}
 	
 				List<AssociationDirectoryEntry> results = 
@@ -101,7 +194,7 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 								this.direction, 
 								start, 
 								start + maxResults + 1, 
-								resultList.getResolvedConceptReference(0)));
+								ref));
 				
 				boolean atEnd = true;
 				if(results.size() == maxResults + 1){
@@ -109,7 +202,7 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 					results.remove(results.size() - 1);
 				}
 				
-				return new DirectoryResult<AssociationDirectoryEntry>(results, atEnd);
+				return new DirectoryResult<T>(this.doTransform(results), atEnd);
 				
 			} catch (LBException e) {
 				throw new RuntimeException(e);
@@ -118,9 +211,192 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 
 		@Override
 		public int executeCount(CodedNodeGraph state) {
-			return 0;
+			try {
+				return associationEdgeCache.get(this.key, state, this.focus, this.direction).getCount();
+			} catch (LBException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		protected abstract List<T> doTransform(List<AssociationDirectoryEntry> entries);
+		
+	}
+	
+	private class CodedNodeGraphSummariesCallback 
+		extends AbstractCodedNodeGraphCallback<AssociationDirectoryEntry> {
+
+		private CodedNodeGraphSummariesCallback(AssociationQueryServiceRestrictions restrictions){
+			super(restrictions);
+		}
+		
+		@Override
+		protected List<AssociationDirectoryEntry> doTransform(List<AssociationDirectoryEntry> entries) {
+			return entries;
+		}
+	}
+	
+	private class CodedNodeGraphListCallback 
+		extends AbstractCodedNodeGraphCallback<Association> {
+
+		private CodedNodeGraphListCallback(AssociationQueryServiceRestrictions restrictions){
+			super(restrictions);
+		}
+		
+		@Override
+		protected List<Association> doTransform(List<AssociationDirectoryEntry> entries) {
+			List<Association> returnList = new ArrayList<Association>();
+			for(AssociationDirectoryEntry entry : entries){
+				returnList.add(transform.transformAssociation(entry));
+			}
+			
+			return returnList;
+		}
+	}
+	
+	/**
+	 * Resolves the associations of one batch of graph nodes, in one direction,
+	 * returning at most maxToReturn of the nodes.
+	 */
+	private class GraphLevelCallable implements Callable<ResolvedConceptReferenceList> {
+		
+		private NameVersionPair versionName;
+		private List<ConceptReference> codes;
+		private boolean sourceOf;
+		private int maxToReturn;
+		
+		private GraphLevelCallable(NameVersionPair versionName, List<ConceptReference> codes, boolean sourceOf){
+			super();
+			this.versionName = versionName;
+			this.codes = codes;
+			this.sourceOf = sourceOf;
+		}
+
+		@Override
+		public ResolvedConceptReferenceList call() throws LBException {
+			CodingSchemeVersionOrTag versionOrTag = 
+				Constructors.createCodingSchemeVersionOrTagFromVersion(this.versionName.getVersion());
+			
+			ConceptReferenceList list = new ConceptReferenceList();
+			for(ConceptReference code : this.codes){
+				list.addConceptReference(code);
+			}
+			
+			CodedNodeSet nodes = 
+				getLexBigService().getNodeSet(this.versionName.getName(), versionOrTag, null);
+			nodes = nodes.restrictToCodes(list);
+			
+			CodedNodeGraph graph = 
+				getLexBigService().getNodeGraph(this.versionName.getName(), versionOrTag, null);
+			if(this.sourceOf){
+				graph = graph.restrictToSourceCodes(nodes);
+			} else {
+				graph = graph.restrictToTargetCodes(nodes);
+			}
+			
+			return graph.resolveAsList(null, this.sourceOf, ! this.sourceOf, 0, 1, null, null, null, null, this.maxToReturn);
+		}
+	}
+	
+	/**
+	 * The state of one breadth-first walk of an association graph.
+	 */
+	private class GraphWalk {
+		
+		private Set<String> visited = new HashSet<String>();
+		private Set<String> edges = new HashSet<String>();
+		private List<GraphNode> nodes = new ArrayList<GraphNode>();
+		private List<ConceptReference> frontier = new ArrayList<ConceptReference>();
+		private boolean truncated;
+		
+		private GraphWalk(ConceptReference focus){
+			super();
+			this.visited.add(getNodeKey(focus));
+			this.frontier.add(focus);
+		}
+		
+		private List<ConceptReference> nextLevel(){
+			List<ConceptReference> level = this.frontier;
+			this.frontier = new ArrayList<ConceptReference>();
+			
+			return level;
 		}
 		
+		private void addEdges(ResolvedConceptReference ref, AssociationList associations, boolean sourceOf){
+			if(associations == null){
+				return;
+			}
+			
+			for(org.LexGrid.LexBIG.DataModel.Core.Association association : associations.getAssociation()){
+				for(AssociatedConcept concept : association.getAssociatedConcepts().getAssociatedConcept()){
+					if(this.nodes.size() >= maxGraphEdges){
+						this.truncated = true;
+						return;
+					}
+					
+					String conceptKey = getNodeKey(concept);
+					boolean isNew = ! this.visited.contains(conceptKey);
+					if(isNew && this.visited.size() >= maxGraphNodes){
+						this.truncated = true;
+						continue;
+					}
+					
+					ResolvedConceptReference subject = sourceOf ? ref : concept;
+					ResolvedConceptReference target = sourceOf ? concept : ref;
+					
+					String edgeKey = getNodeKey(subject) + KEY_SEPARATOR + 
+						association.getAssociationName() + KEY_SEPARATOR + getNodeKey(target);
+					if(! this.edges.add(edgeKey)){
+						continue;
+					}
+					
+					if(isNew){
+						this.visited.add(conceptKey);
+						this.frontier.add(
+							Constructors.createConceptReference(concept.getCode(), concept.getCodeNamespace(), null));
+					}
+					
+					this.nodes.add(
+						transform.transformGraphNode(
+							ref, subject, association.getAssociationName(), target, this.nodes.size() + 1));
+				}
+			}
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		
+		this.graphExecutor = new ThreadPoolExecutor(
+			this.graphThreads, 
+			this.graphThreads, 
+			0L, 
+			TimeUnit.MILLISECONDS, 
+			new ArrayBlockingQueue<Runnable>(this.graphThreads * GRAPH_QUEUE_SIZE_PER_THREAD),
+			new ThreadFactory(){
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "lexevs-association-graph-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+
+			},
+			new ThreadPoolExecutor.AbortPolicy());
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.graphExecutor != null){
+			this.graphExecutor.shutdownNow();
+		}
 	}
 	
 	protected <T> List<T> slice(Iterator<T> itr, int start, int end){
@@ -147,48 +423,31 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 		
 		AssociationQueryServiceRestrictions restrictions = query.getRestrictions();
 		
-		NameOrURI codeSystemVersion = restrictions.getCodeSystemVersion();
-		
-		NameVersionPair versionName = this.nameConverter.fromCts2VersionName(codeSystemVersion.getName());
+		DirectoryBuilder<AssociationDirectoryEntry> builder = 
+			new CodedNodeGraphDirectoryBuilder<AssociationDirectoryEntry>(
+				this.getInitialState(restrictions), 
+				new CodedNodeGraphSummariesCallback(restrictions),
+				null, 
+				null).
+				restrict(restrictions).
+				addStart(page.getStart()).
+				addMaxToReturn(page.getMaxToReturn());
 		
-		EntityNameOrURI focus;
-		Direction direction;
-		if(restrictions.getSourceEntity() != null){
-			direction = Direction.SOURCEOF;
-			focus = restrictions.getSourceEntity();
-		} else {
-			direction = Direction.TARGETOF;
-			focus = restrictions.getTargetEntity();
-		}
+		return builder.resolve();
+	}
+	
+	private CodedNodeGraph getInitialState(AssociationQueryServiceRestrictions restrictions){
+		NameVersionPair versionName = 
+			this.nameConverter.fromCts2VersionName(restrictions.getCodeSystemVersion().getName());
 		
-		CodedNodeGraph initialState;
 		try {
-			initialState = 
-				this.getLexBigService().getNodeGraph(
+			return this.getLexBigService().getNodeGraph(
 						versionName.getName(), 
 						Constructors.createCodingSchemeVersionOrTagFromVersion(versionName.getVersion()), 
 						null);
 		} catch (LBException e) {
 			throw new RuntimeException(e);
 		}
-		
-		ConceptReference ref = 
-			Constructors.createConceptReference(
-				focus.getEntityName().getName(), 
-				this.codingSchemeNameTranslator.translateToLexGrid(focus.getEntityName().getNamespace()), 
-				null);
-		
-		DirectoryBuilder<AssociationDirectoryEntry> builder = 
-			new CodedNodeGraphDirectoryBuilder(
-				initialState, 
-				new CodedNodeGraphCallback(ref, direction),
-				null, 
-				null).
-				restrict(restrictions).
-				addStart(page.getStart()).
-				addMaxToReturn(page.getMaxToReturn());
-		
-		return builder.resolve();
 	}
 	
 	protected boolean validateQuery(AssociationQuery query){
@@ -202,12 +461,41 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 	@Override
 	public DirectoryResult<Association> getResourceList(AssociationQuery query,
 			SortCriteria sortCriteria, Page page) {
-		throw new UnsupportedOperationException();
+
+		if(! this.validateQuery(query)){
+			throw new UnsupportedOperationException();
+		}
+		
+		AssociationQueryServiceRestrictions restrictions = query.getRestrictions();
+		
+		DirectoryBuilder<Association> builder = 
+			new CodedNodeGraphDirectoryBuilder<Association>(
+				this.getInitialState(restrictions), 
+				new CodedNodeGraphListCallback(restrictions),
+				null, 
+				null).
+				restrict(restrictions).
+				addStart(page.getStart()).
+				addMaxToReturn(page.getMaxToReturn());
+		
+		return builder.resolve();
 	}
 
 	@Override
 	public int count(AssociationQuery query) {
-		throw new UnsupportedOperationException();
+		if(! this.validateQuery(query)){
+			throw new UnsupportedOperationException();
+		}
+		
+		AssociationQueryServiceRestrictions restrictions = query.getRestrictions();
+		
+		return new CodedNodeGraphDirectoryBuilder<AssociationDirectoryEntry>(
+				this.getInitialState(restrictions), 
+				new CodedNodeGraphSummariesCallback(restrictions),
+				null, 
+				null).
+				restrict(restrictions).
+				count();
 	}
 
 	@Override
@@ -239,7 +527,197 @@ public class LexEvsAssociationQueryService extends AbstractLexEvsService impleme
 	public DirectoryResult<GraphNode> getAssociationGraph(GraphFocus focusType,
 			EntityDescriptionReadId focusEntity, GraphDirection direction,
 			long depth) {
-		throw new UnsupportedOperationException();
+		if(! GraphFocus.SPECIFIC_ENTITY.equals(focusType) ||
+				focusEntity == null ||
+				focusEntity.getEntityName() == null ||
+				focusEntity.getCodeSystemVersion() == null ||
+				focusEntity.getCodeSystemVersion().getName() == null){
+			throw new UnsupportedOperationException();
+		}
+		
+		NameVersionPair versionName = 
+			this.nameConverter.fromCts2VersionName(focusEntity.getCodeSystemVersion().getName());
+		
+		boolean forward = ! GraphDirection.TARGET_TO_SOURCE.equals(direction);
+		boolean reverse = ! GraphDirection.SOURCE_TO_TARGET.equals(direction);
+		
+		ConceptReference focus = 
+			Constructors.createConceptReference(
+				focusEntity.getEntityName().getName(), 
+				this.codingSchemeNameTranslator.translateToLexGrid(focusEntity.getEntityName().getNamespace()), 
+				null);
+		
+		GraphWalk walk = new GraphWalk(focus);
+		
+		long deadline = System.currentTimeMillis() + this.graphTimeoutMillis;
+		
+		// A depth of zero or less walks until the graph or the limits are exhausted.
+		for(long level = 0; 
+				(depth <= 0 || level < depth) && ! walk.frontier.isEmpty() && ! walk.truncated; 
+				level++){
+			this.resolveLevel(walk, versionName, walk.nextLevel(), forward, reverse, deadline);
+		}
+		
+		return new DirectoryResult<GraphNode>(walk.nodes, ! walk.truncated);
+	}
+	
+	/*
+	 * Resolve the tasks of one graph level, in parallel if there are more than one,
+	 * and add their edges to the walk in the order of the tasks. Each task returns no
+	 * more nodes than there are edges left in the budget, and no more tasks are started
+	 * once it is used up. If the walk runs out of time, it is cut short.
+	 */
+	private void resolveLevel(
+			GraphWalk walk, 
+			NameVersionPair versionName, 
+			List<ConceptReference> codes, 
+			boolean forward, 
+			boolean reverse,
+			long deadline){
+		LinkedList<GraphLevelCallable> pending = new LinkedList<GraphLevelCallable>();
+		for(int i = 0; i < codes.size(); i += CommonUtils.MAX_CODES_PER_RESOLVE){
+			List<ConceptReference> batch = 
+				codes.subList(i, Math.min(codes.size(), i + CommonUtils.MAX_CODES_PER_RESOLVE));
+			if(forward){
+				pending.add(new GraphLevelCallable(versionName, batch, true));
+			}
+			if(reverse){
+				pending.add(new GraphLevelCallable(versionName, batch, false));
+			}
+		}
+		
+		boolean inline = pending.size() == 1;
+		
+		LinkedList<GraphLevelCallable> running = new LinkedList<GraphLevelCallable>();
+		LinkedList<Future<ResolvedConceptReferenceList>> futures = 
+			new LinkedList<Future<ResolvedConceptReferenceList>>();
+		try {
+			while(! walk.truncated){
+				while(! pending.isEmpty() && futures.size() < this.graphThreads){
+					int budget = this.maxGraphEdges - walk.nodes.size();
+					if(budget <= 0){
+						walk.truncated = true;
+						break;
+					}
+					
+					GraphLevelCallable task = pending.removeFirst();
+					task.maxToReturn = budget;
+					
+					running.add(task);
+					futures.add(this.submit(task, inline));
+				}
+				
+				if(futures.isEmpty()){
+					break;
+				}
+				
+				GraphLevelCallable task = running.removeFirst();
+				ResolvedConceptReferenceList result = this.getResult(futures.removeFirst(), deadline);
+				if(result == null){
+					log.warn("Timed out walking the association graph of " + 
+						versionName.getName() + ":" + versionName.getVersion() + ".");
+					walk.truncated = true;
+					break;
+				}
+				
+				// LexEVS stopped at the limit, so more nodes may have been left out
+				if(result.getResolvedConceptReferenceCount() >= task.maxToReturn &&
+						task.maxToReturn < task.codes.size()){
+					walk.truncated = true;
+				}
+				
+				for(ResolvedConceptReference ref : result.getResolvedConceptReference()){
+					walk.addEdges(ref, task.sourceOf ? ref.getSourceOf() : ref.getTargetOf(), task.sourceOf);
+				}
+			}
+		} finally {
+			for(Future<ResolvedConceptReferenceList> future : futures){
+				future.cancel(true);
+			}
+		}
+	}
+	
+	private Future<ResolvedConceptReferenceList> submit(GraphLevelCallable task, boolean inline){
+		if(inline){
+			FutureTask<ResolvedConceptReferenceList> future = new FutureTask<ResolvedConceptReferenceList>(task);
+			future.run();
+			
+			return future;
+		}
+		
+		try {
+			return this.graphExecutor.submit(task);
+		} catch (RejectedExecutionException e) {
+			// running it here instead would not be bounded by the walk's deadline
+			throw new UnspecifiedCts2Exception(
+				"Too many association graphs are being walked. Try again later.", 
+				HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+	}
+	
+	/*
+	 * Wait for the result of a task until the deadline, returning null if it passes.
+	 */
+	private ResolvedConceptReferenceList getResult(Future<ResolvedConceptReferenceList> future, long deadline){
+		try {
+			return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+	
+	private String getNodeKey(ConceptReference ref){
+		return ref.getCodeNamespace() + KEY_SEPARATOR + ref.getCode();
+	}
+
+	public long getGraphTimeoutMillis() {
+		return graphTimeoutMillis;
+	}
+
+	@Value("${associationGraphTimeoutMillis:" + DEFAULT_GRAPH_TIMEOUT_MILLIS + "}")
+	public void setGraphTimeoutMillis(long graphTimeoutMillis) {
+		this.graphTimeoutMillis = graphTimeoutMillis;
+	}
+
+	public int getShallowPageLimit() {
+		return shallowPageLimit;
+	}
+
+	@Value("${associationShallowPageLimit:" + DEFAULT_SHALLOW_PAGE_LIMIT + "}")
+	public void setShallowPageLimit(int shallowPageLimit) {
+		this.shallowPageLimit = shallowPageLimit;
+	}
+
+	public int getGraphThreads() {
+		return graphThreads;
+	}
+
+	@Value("${associationGraphThreads:" + DEFAULT_GRAPH_THREADS + "}")
+	public void setGraphThreads(int graphThreads) {
+		this.graphThreads = graphThreads;
+	}
+
+	public int getMaxGraphNodes() {
+		return maxGraphNodes;
+	}
+
+	@Value("${associationGraphMaxNodes:" + DEFAULT_MAX_GRAPH_NODES + "}")
+	public void setMaxGraphNodes(int maxGraphNodes) {
+		this.maxGraphNodes = maxGraphNodes;
+	}
+
+	public int getMaxGraphEdges() {
+		return maxGraphEdges;
+	}
+
+	@Value("${associationGraphMaxEdges:" + DEFAULT_MAX_GRAPH_EDGES + "}")
+	public void setMaxGraphEdges(int maxGraphEdges) {
+		this.maxGraphEdges = maxGraphEdges;
 	}
 
 }
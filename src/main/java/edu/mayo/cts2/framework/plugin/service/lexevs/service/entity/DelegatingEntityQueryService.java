@@ -45,7 +45,7 @@ import edu.mayo.cts2.framework.util.spring.AggregateService;
 public class DelegatingEntityQueryService extends AbstractLexEvsService 
 	implements EntityDescriptionQueryService {
 	
-	protected enum QueryType {SUMMARIES, LIST, COUNT}
+	protected enum QueryType {SUMMARIES, LIST, COUNT, MEMBERSHIP}
 
 	private List<DelegateEntityQueryService> delegates;
 	
@@ -121,14 +121,14 @@ public class DelegatingEntityQueryService extends AbstractLexEvsService
 			EntityNameOrURI entity,
 			EntityDescriptionQuery restrictions, 
 			ResolvedReadContext readContext) {
-		throw new UnsupportedOperationException();
+		return this.getDelegate(restrictions, QueryType.MEMBERSHIP).isEntityInSet(entity, restrictions, readContext);
 	}
 
 	@Override
 	public EntityReferenceList resolveAsEntityReferenceList(
 			EntityDescriptionQuery restrictions,
 			ResolvedReadContext readContext) {
-		throw new UnsupportedOperationException();
+		return this.getDelegate(restrictions, QueryType.MEMBERSHIP).resolveAsEntityReferenceList(restrictions, readContext);
 	}
 
 	@Override
@@ -136,7 +136,7 @@ public class DelegatingEntityQueryService extends AbstractLexEvsService
 			Set<EntityNameOrURI> entities, 
 			EntityDescriptionQuery restrictions,
 			ResolvedReadContext readContext) {
-		throw new UnsupportedOperationException();
+		return this.getDelegate(restrictions, QueryType.MEMBERSHIP).intersectEntityList(entities, restrictions, readContext);
 	}
 
 	@Override
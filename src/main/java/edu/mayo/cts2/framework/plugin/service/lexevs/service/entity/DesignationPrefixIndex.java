@@ -0,0 +1,381 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * An in-memory index of the designations of one coding scheme version, used to
+ * answer 'starts with' searches without going to LexEVS.
+ *
+ * Designations are normalized (lower cased, with whitespace collapsed) and kept
+ * in one sorted array, so all designations starting with a prefix form a single
+ * range found by binary search. Matching entities are ranked by their best
+ * designation: exact matches first, then preferred designations, then shorter
+ * designations. Only the entities up to the end of the asked for page are kept
+ * while ranking, so a short prefix matching much of the index stays cheap.
+ *
+ * Instances are immutable once built, and safe to share between threads.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class DesignationPrefixIndex {
+
+	private final String codingSchemeUri;
+
+	private final String[] codes;
+
+	private final String[] namespaces;
+
+	private final String[] descriptions;
+
+	private final boolean[] active;
+
+	private final String[] designations;
+
+	private final int[] designationEntities;
+
+	private final boolean[] designationPreferred;
+
+	/**
+	 * One entity matching a search.
+	 */
+	public static class Hit {
+
+		private final String code;
+
+		private final String namespace;
+
+		private final String description;
+
+		private Hit(String code, String namespace, String description){
+			this.code = code;
+			this.namespace = namespace;
+			this.description = description;
+		}
+
+		public String getCode() {
+			return code;
+		}
+
+		public String getNamespace() {
+			return namespace;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	/**
+	 * Collects entities and their designations, then builds the index.
+	 */
+	public static class Builder {
+
+		private String codingSchemeUri;
+
+		private final List<String> codes = new ArrayList<String>();
+
+		private final List<String> namespaces = new ArrayList<String>();
+
+		private final List<String> descriptions = new ArrayList<String>();
+
+		private final List<Boolean> active = new ArrayList<Boolean>();
+
+		private final List<Designation> designations = new ArrayList<Designation>();
+
+		public Builder setCodingSchemeUri(String codingSchemeUri) {
+			this.codingSchemeUri = codingSchemeUri;
+			return this;
+		}
+
+		/**
+		 * Add an entity.
+		 *
+		 * @param code the code
+		 * @param namespace the namespace
+		 * @param description the entity description
+		 * @param isActive whether the entity is active
+		 * @return the id to use when adding the entity's designations
+		 */
+		public int addEntity(String code, String namespace, String description, boolean isActive){
+			this.codes.add(code);
+			this.namespaces.add(namespace);
+			this.descriptions.add(description);
+			this.active.add(isActive);
+
+			return this.codes.size() - 1;
+		}
+
+		/**
+		 * Add a designation of an entity. Blank designations are ignored, as are
+		 * duplicate designations of the same entity.
+		 *
+		 * @param entity the entity id returned from {@link #addEntity}
+		 * @param designation the designation
+		 * @param preferred whether this is a preferred designation
+		 */
+		public void addDesignation(int entity, String designation, boolean preferred){
+			String normalized = normalize(designation);
+			if(StringUtils.isNotEmpty(normalized)){
+				this.designations.add(new Designation(normalized, entity, preferred));
+			}
+		}
+
+		public int getEntityCount(){
+			return this.codes.size();
+		}
+
+		public DesignationPrefixIndex build(){
+			Collections.sort(this.designations);
+
+			List<Designation> unique = new ArrayList<Designation>(this.designations.size());
+			Designation last = null;
+			for(Designation designation : this.designations){
+				if(last != null && last.entity == designation.entity && last.text.equals(designation.text)){
+					continue;
+				}
+				unique.add(designation);
+				last = designation;
+			}
+
+			return new DesignationPrefixIndex(this, unique);
+		}
+	}
+
+	private static class Designation implements Comparable<Designation> {
+
+		private final String text;
+
+		private final int entity;
+
+		private final boolean preferred;
+
+		private Designation(String text, int entity, boolean preferred){
+			this.text = text;
+			this.entity = entity;
+			this.preferred = preferred;
+		}
+
+		@Override
+		public int compareTo(Designation other) {
+			int result = this.text.compareTo(other.text);
+			if(result == 0){
+				result = this.entity - other.entity;
+			}
+			if(result == 0){
+				//preferred first, so duplicates keep the preferred flag
+				result = (other.preferred ? 1 : 0) - (this.preferred ? 1 : 0);
+			}
+
+			return result;
+		}
+	}
+
+	private DesignationPrefixIndex(Builder builder, List<Designation> designations){
+		this.codingSchemeUri = builder.codingSchemeUri;
+		this.codes = builder.codes.toArray(new String[builder.codes.size()]);
+		this.namespaces = builder.namespaces.toArray(new String[builder.namespaces.size()]);
+		this.descriptions = builder.descriptions.toArray(new String[builder.descriptions.size()]);
+
+		this.active = new boolean[builder.active.size()];
+		for(int i = 0; i < this.active.length; i++){
+			this.active[i] = builder.active.get(i);
+		}
+
+		int size = designations.size();
+		this.designations = new String[size];
+		this.designationEntities = new int[size];
+		this.designationPreferred = new boolean[size];
+
+		for(int i = 0; i < size; i++){
+			Designation designation = designations.get(i);
+			this.designations[i] = designation.text;
+			this.designationEntities[i] = designation.entity;
+			this.designationPreferred[i] = designation.preferred;
+		}
+	}
+
+	/**
+	 * Normalize text for indexing and searching.
+	 *
+	 * @param text the text
+	 * @return the normalized text
+	 */
+	public static String normalize(String text){
+		if(text == null){
+			return null;
+		}
+
+		return StringUtils.join(StringUtils.split(text.toLowerCase(Locale.ENGLISH)), ' ');
+	}
+
+	/**
+	 * Count the entities with a designation starting with the given text.
+	 *
+	 * @param prefix the prefix
+	 * @param activeOnly whether to count only active entities
+	 * @return the count
+	 */
+	public int count(String prefix, boolean activeOnly){
+		int[] range = this.getRange(prefix);
+
+		BitSet entities = new BitSet(this.codes.length);
+		for(int i = range[0]; i < range[1]; i++){
+			int entity = this.designationEntities[i];
+			if(! activeOnly || this.active[entity]){
+				entities.set(entity);
+			}
+		}
+
+		return entities.cardinality();
+	}
+
+	/**
+	 * Find the entities with a designation starting with the given text, best
+	 * matches first.
+	 *
+	 * @param prefix the prefix
+	 * @param activeOnly whether to return only active entities
+	 * @param start the index of the first ranked entity to return
+	 * @param maxResults the maximum number of entities to return
+	 * @return the hits
+	 */
+	public List<Hit> search(String prefix, boolean activeOnly, int start, int maxResults){
+		final String normalized = normalize(prefix);
+
+		int[] range = this.getRange(prefix);
+
+		int size = (int) Math.min(Integer.MAX_VALUE, (long) start + maxResults);
+		if(size <= 0 || start < 0){
+			return new ArrayList<Hit>();
+		}
+
+		final Comparator<Integer> rank = new Comparator<Integer>(){
+
+			@Override
+			public int compare(Integer d1, Integer d2) {
+				return compareRank(d1, d2, normalized);
+			}
+
+		};
+
+		// the worst ranked designation on top, so it is the one dropped
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(
+			Math.min(size, range[1] - range[0]) + 1, Collections.reverseOrder(rank));
+
+		// the designation in the heap of each entity in it
+		Map<Integer, Integer> best = new HashMap<Integer, Integer>();
+
+		for(int i = range[0]; i < range[1]; i++){
+			int entity = this.designationEntities[i];
+			if(activeOnly && ! this.active[entity]){
+				continue;
+			}
+
+			Integer current = best.get(entity);
+			if(current != null){
+				if(this.compareRank(i, current, normalized) < 0){
+					heap.remove(current);
+					heap.add(i);
+					best.put(entity, i);
+				}
+			} else if(heap.size() < size){
+				heap.add(i);
+				best.put(entity, i);
+			} else if(this.compareRank(i, heap.peek(), normalized) < 0){
+				best.remove(this.designationEntities[heap.poll()]);
+				heap.add(i);
+				best.put(entity, i);
+			}
+		}
+
+		List<Integer> ranked = new ArrayList<Integer>(heap);
+		Collections.sort(ranked, rank);
+
+		List<Hit> hits = new ArrayList<Hit>();
+		for(int i = start; i < ranked.size() && hits.size() < maxResults; i++){
+			int entity = this.designationEntities[ranked.get(i)];
+			hits.add(new Hit(this.codes[entity], this.namespaces[entity], this.descriptions[entity]));
+		}
+
+		return hits;
+	}
+
+	private int compareRank(int d1, int d2, String prefix){
+		boolean exact1 = this.designations[d1].equals(prefix);
+		boolean exact2 = this.designations[d2].equals(prefix);
+		if(exact1 != exact2){
+			return exact1 ? -1 : 1;
+		}
+
+		if(this.designationPreferred[d1] != this.designationPreferred[d2]){
+			return this.designationPreferred[d1] ? -1 : 1;
+		}
+
+		int result = this.designations[d1].length() - this.designations[d2].length();
+		if(result == 0){
+			result = this.designations[d1].compareTo(this.designations[d2]);
+		}
+		if(result == 0){
+			result = this.designationEntities[d1] - this.designationEntities[d2];
+		}
+
+		return result;
+	}
+
+	private int[] getRange(String prefix){
+		String normalized = normalize(prefix);
+		if(StringUtils.isEmpty(normalized)){
+			return new int[]{0, this.designations.length};
+		}
+
+		return new int[]{
+			this.lowerBound(normalized), 
+			this.lowerBound(normalized + Character.MAX_VALUE)};
+	}
+
+	private int lowerBound(String key){
+		int low = 0;
+		int high = this.designations.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(this.designations[mid].compareTo(key) < 0){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	public String getCodingSchemeUri() {
+		return codingSchemeUri;
+	}
+
+	public int getEntityCount() {
+		return this.codes.length;
+	}
+
+	public int getDesignationCount() {
+		return this.designations.length;
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet.ActiveOption;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet.PropertyType;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.LexGrid.concepts.Entity;
+import org.LexGrid.concepts.Presentation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager;
+
+/**
+ * Holds a {@link DesignationPrefixIndex} for each coding scheme version that has
+ * been searched. Coding scheme versions with more entities than the configured
+ * maximum are not indexed, and the total number of designations held is bounded.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class DesignationPrefixIndexManager
+	extends AbstractVersionIndexManager<DesignationPrefixIndex> {
+
+	private static final int DEFAULT_MAX_ENTITIES = 500000;
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final long DEFAULT_MAX_WEIGHT = 5000000;
+
+	@Resource
+	private LexBIGService lexBigService;
+
+	private int maxEntities = DEFAULT_MAX_ENTITIES;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	public DesignationPrefixIndexManager(){
+		super();
+		this.setMaxWeight(DEFAULT_MAX_WEIGHT);
+	}
+
+	@Override
+	protected String getThreadName() {
+		return "lexevs-designation-prefix-index";
+	}
+
+	@Override
+	protected long getWeight(DesignationPrefixIndex index) {
+		return index.getDesignationCount();
+	}
+
+	/**
+	 * Read all entities of a coding scheme version and their designations.
+	 *
+	 * @param version the version
+	 * @return the index, or null if the coding scheme version is too large
+	 * @throws LBException the lB exception
+	 */
+	@Override
+	protected DesignationPrefixIndex buildIndex(NameVersionPair version) throws LBException {
+		long startTime = System.currentTimeMillis();
+
+		CodedNodeSet codedNodeSet = this.lexBigService.getNodeSet(
+			version.getName(),
+			Constructors.createCodingSchemeVersionOrTagFromVersion(version.getVersion()),
+			null);
+		codedNodeSet = codedNodeSet.restrictToStatus(ActiveOption.ALL, null);
+
+		ResolvedConceptReferencesIterator iterator = codedNodeSet.resolve(
+			null, null, null, new PropertyType[]{PropertyType.PRESENTATION}, true);
+
+		DesignationPrefixIndex.Builder builder = new DesignationPrefixIndex.Builder();
+		try {
+			if(iterator.numberRemaining() > this.maxEntities){
+				log.info("Not indexing designations of " + this.getKey(version) +
+					", it has more than " + this.maxEntities + " entities.");
+				return null;
+			}
+
+			while(iterator.hasNext()){
+				ResolvedConceptReferenceList list = iterator.next(this.batchSize);
+
+				for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+					this.addEntity(builder, ref);
+				}
+			}
+		} finally {
+			iterator.release();
+		}
+
+		DesignationPrefixIndex index = builder.build();
+
+		log.info("Indexed " + index.getDesignationCount() + " designations of " +
+			index.getEntityCount() + " entities for " + this.getKey(version) +
+			" in " + (System.currentTimeMillis() - startTime) + " ms.");
+
+		return index;
+	}
+
+	private void addEntity(DesignationPrefixIndex.Builder builder, ResolvedConceptReference ref){
+		if(builder.getEntityCount() == 0){
+			builder.setCodingSchemeUri(ref.getCodingSchemeURI());
+		}
+
+		Entity entity = ref.getEntity();
+
+		String description = null;
+		if(ref.getEntityDescription() != null){
+			description = ref.getEntityDescription().getContent();
+		}
+
+		boolean isActive = entity == null || entity.getIsActive() == null || entity.getIsActive();
+
+		int id = builder.addEntity(ref.getCode(), ref.getCodeNamespace(), description, isActive);
+
+		if(entity != null){
+			for(Presentation presentation : entity.getPresentation()){
+				if(presentation.getValue() != null){
+					builder.addDesignation(
+						id,
+						presentation.getValue().getContent(),
+						Boolean.TRUE.equals(presentation.getIsPreferred()));
+				}
+			}
+		}
+	}
+
+	public int getMaxEntities() {
+		return maxEntities;
+	}
+
+	@Value("${designationPrefixIndexMaxEntities:" + DEFAULT_MAX_ENTITIES + "}")
+	public void setMaxEntities(int maxEntities) {
+		this.maxEntities = maxEntities;
+	}
+
+	@Override
+	@Value("${designationPrefixIndexMaxWeight:" + DEFAULT_MAX_WEIGHT + "}")
+	public void setMaxWeight(long maxWeight) {
+		super.setMaxWeight(maxWeight);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+}
@@ -0,0 +1,200 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A Bloom filter of the entity codes of one coding scheme version, used to
+ * answer 'does not exist' without going to LexEVS.
+ *
+ * If {@link #mightContain(String)} returns false the code is certainly not in the
+ * coding scheme version. If it returns true the code is probably there, and
+ * LexEVS has to be asked. Namespaces are not part of the filter.
+ *
+ * Instances are immutable once built, and safe to share between threads.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class EntityCodeFilter {
+
+	private static final int FORMAT_VERSION = 1;
+
+	private final long[] bits;
+
+	private final long bitCount;
+
+	private final int hashCount;
+
+	private final int entityCount;
+
+	/**
+	 * Collects codes, then builds the filter.
+	 */
+	public static class Builder {
+
+		private final long[] bits;
+
+		private final long bitCount;
+
+		private final int hashCount;
+
+		private int entityCount;
+
+		/**
+		 * Size the filter for the expected number of codes.
+		 *
+		 * @param expectedCodes the number of codes that will be added
+		 * @param falsePositiveProbability the wanted false positive probability
+		 */
+		public Builder(int expectedCodes, double falsePositiveProbability){
+			int n = Math.max(1, expectedCodes);
+
+			long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+			m = Math.max(64, m);
+
+			this.bits = new long[(int) ((m + 63) / 64)];
+			this.bitCount = this.bits.length * 64L;
+			this.hashCount = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+		}
+
+		public Builder add(String code){
+			long hash = EntityCodeFilter.hash(code);
+			int hash1 = (int) hash;
+			int hash2 = (int) (hash >>> 32);
+
+			for(int i = 0; i < this.hashCount; i++){
+				long index = EntityCodeFilter.index(hash1, hash2, i, this.bitCount);
+				this.bits[(int) (index >>> 6)] |= 1L << index;
+			}
+			this.entityCount++;
+
+			return this;
+		}
+
+		public EntityCodeFilter build(){
+			return new EntityCodeFilter(this.bits.clone(), this.hashCount, this.entityCount);
+		}
+	}
+
+	private EntityCodeFilter(long[] bits, int hashCount, int entityCount){
+		this.bits = bits;
+		this.bitCount = bits.length * 64L;
+		this.hashCount = hashCount;
+		this.entityCount = entityCount;
+	}
+
+	/**
+	 * Check whether a code might be in the coding scheme version.
+	 *
+	 * @param code the code
+	 * @return false if the code is certainly not there
+	 */
+	public boolean mightContain(String code){
+		if(code == null){
+			return false;
+		}
+
+		long hash = hash(code);
+		int hash1 = (int) hash;
+		int hash2 = (int) (hash >>> 32);
+
+		for(int i = 0; i < this.hashCount; i++){
+			long index = index(hash1, hash2, i, this.bitCount);
+			if((this.bits[(int) (index >>> 6)] & (1L << index)) == 0){
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Write the filter, to be read back with {@link #readFrom(InputStream)}.
+	 *
+	 * @param outputStream the output stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		DataOutputStream out = new DataOutputStream(outputStream);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(this.hashCount);
+		out.writeInt(this.entityCount);
+		out.writeInt(this.bits.length);
+		for(long word : this.bits){
+			out.writeLong(word);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Read a filter written with {@link #writeTo(OutputStream)}.
+	 *
+	 * @param inputStream the input stream
+	 * @return the filter
+	 * @throws IOException Signals that an I/O exception has occurred, or the data is not a filter.
+	 */
+	public static EntityCodeFilter readFrom(InputStream inputStream) throws IOException {
+		DataInputStream in = new DataInputStream(inputStream);
+		if(in.readInt() != FORMAT_VERSION){
+			throw new IOException("Unknown entity code filter format.");
+		}
+
+		int hashCount = in.readInt();
+		int entityCount = in.readInt();
+		long[] bits = new long[in.readInt()];
+		for(int i = 0; i < bits.length; i++){
+			bits[i] = in.readLong();
+		}
+
+		return new EntityCodeFilter(bits, hashCount, entityCount);
+	}
+
+	/*
+	 * FNV-1a over the characters, followed by the MurmurHash3 finalizer to
+	 * spread the bits over both halves.
+	 */
+	private static long hash(String code){
+		long hash = 0xcbf29ce484222325L;
+		for(int i = 0; i < code.length(); i++){
+			hash ^= code.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+
+		return hash;
+	}
+
+	private static long index(int hash1, int hash2, int i, long bitCount){
+		long combined = hash1 + (long) i * hash2;
+		if(combined < 0){
+			combined = ~combined;
+		}
+
+		return combined % bitCount;
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	public long getSizeInBytes() {
+		return this.bits.length * 8L;
+	}
+
+}
@@ -0,0 +1,293 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeSummary;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet.ActiveOption;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager;
+
+/**
+ * Holds an {@link EntityCodeFilter} for each coding scheme version that has been read.
+ *
+ * If a persist directory is set, filters are also written there and read back
+ * after a restart, as long as the coding scheme version still has the same number
+ * of entities and was last updated in LexEVS at the same time as when the filter
+ * was built. A version reloaded under the same name and version is built again.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class EntityCodeFilterManager extends AbstractVersionIndexManager<EntityCodeFilter> {
+
+	private static final double DEFAULT_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+	private static final int DEFAULT_BATCH_SIZE = 5000;
+
+	private static final String FILE_SUFFIX = ".codes";
+
+	@Resource
+	private LexBIGService lexBigService;
+
+	private double falsePositiveProbability = DEFAULT_FALSE_POSITIVE_PROBABILITY;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	private String persistDirectory;
+
+	/**
+	 * Check whether an entity code might exist in a coding scheme version.
+	 *
+	 * @param version the coding scheme name and version
+	 * @param code the entity code
+	 * @return false only if the code certainly does not exist
+	 */
+	public boolean mightExist(NameVersionPair version, String code) {
+		EntityCodeFilter filter = this.getIndex(version);
+
+		return filter == null || filter.mightContain(code);
+	}
+
+	@Override
+	protected String getThreadName() {
+		return "lexevs-entity-code-filter";
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager#onChange()
+	 */
+	@Override
+	public void onChange() {
+		File directory = this.getPersistDirectoryFile();
+		if(directory != null){
+			File[] files = directory.listFiles();
+			if(files != null){
+				for(File file : files){
+					if(file.getName().endsWith(FILE_SUFFIX)){
+						file.delete();
+					}
+				}
+			}
+		}
+
+		super.onChange();
+	}
+
+	/**
+	 * Read all entity codes of a coding scheme version, or load the persisted
+	 * filter if it is still current.
+	 *
+	 * @param version the version
+	 * @return the filter
+	 * @throws LBException the lB exception
+	 */
+	@Override
+	protected EntityCodeFilter buildIndex(NameVersionPair version) throws LBException {
+		long startTime = System.currentTimeMillis();
+
+		CodedNodeSet codedNodeSet = this.lexBigService.getNodeSet(
+			version.getName(),
+			Constructors.createCodingSchemeVersionOrTagFromVersion(version.getVersion()),
+			null);
+		codedNodeSet = codedNodeSet.restrictToStatus(ActiveOption.ALL, null);
+
+		ResolvedConceptReferencesIterator iterator = codedNodeSet.resolve(null, null, null, null, false);
+
+		EntityCodeFilter filter;
+		long fingerprint;
+		try {
+			int entityCount = iterator.numberRemaining();
+
+			fingerprint = this.getFingerprint(version);
+
+			filter = this.load(version, entityCount, fingerprint);
+			if(filter != null){
+				return filter;
+			}
+
+			EntityCodeFilter.Builder builder =
+				new EntityCodeFilter.Builder(entityCount, this.falsePositiveProbability);
+
+			while(iterator.hasNext()){
+				ResolvedConceptReferenceList list = iterator.next(this.batchSize);
+
+				for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+					builder.add(ref.getCode());
+				}
+			}
+
+			filter = builder.build();
+		} finally {
+			iterator.release();
+		}
+
+		log.info("Built a " + filter.getSizeInBytes() + " byte code filter of " +
+			filter.getEntityCount() + " entities for " + this.getKey(version) +
+			" in " + (System.currentTimeMillis() - startTime) + " ms.");
+
+		this.save(version, filter, fingerprint);
+
+		return filter;
+	}
+
+	/*
+	 * The time the coding scheme version was last updated in LexEVS, or 0 if it
+	 * is not known, in which case a persisted filter is never trusted.
+	 */
+	private long getFingerprint(NameVersionPair version) throws LBException {
+		for(CodingSchemeRendering rendering :
+				this.lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+			CodingSchemeSummary summary = rendering.getCodingSchemeSummary();
+
+			boolean nameMatches =
+				version.getName().equals(summary.getLocalName()) ||
+				version.getName().equals(summary.getCodingSchemeURI()) ||
+				version.getName().equals(summary.getFormalName());
+
+			if(nameMatches && version.getVersion().equals(summary.getRepresentsVersion())){
+				if(rendering.getRenderingDetail() != null &&
+						rendering.getRenderingDetail().getLastUpdateTime() != null){
+					return rendering.getRenderingDetail().getLastUpdateTime().getTime();
+				}
+
+				return 0;
+			}
+		}
+
+		return 0;
+	}
+
+	private EntityCodeFilter load(NameVersionPair version, int entityCount, long fingerprint){
+		File file = this.getFile(version);
+		if(file == null || ! file.exists()){
+			return null;
+		}
+
+		InputStream inputStream = null;
+		try {
+			inputStream = new BufferedInputStream(new FileInputStream(file));
+			long savedFingerprint = new DataInputStream(inputStream).readLong();
+
+			if(fingerprint != 0 && savedFingerprint == fingerprint){
+				EntityCodeFilter filter = EntityCodeFilter.readFrom(inputStream);
+
+				if(filter.getEntityCount() == entityCount){
+					return filter;
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Could not read the code filter " + file + ".", e);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+
+		file.delete();
+
+		return null;
+	}
+
+	private void save(NameVersionPair version, EntityCodeFilter filter, long fingerprint){
+		File file = this.getFile(version);
+		if(file == null){
+			return;
+		}
+
+		file.getParentFile().mkdirs();
+
+		OutputStream outputStream = null;
+		try {
+			outputStream = new BufferedOutputStream(new FileOutputStream(file));
+
+			DataOutputStream out = new DataOutputStream(outputStream);
+			out.writeLong(fingerprint);
+			out.flush();
+
+			filter.writeTo(outputStream);
+		} catch (IOException e) {
+			log.warn("Could not write the code filter " + file + ".", e);
+			IOUtils.closeQuietly(outputStream);
+			outputStream = null;
+			file.delete();
+		} finally {
+			IOUtils.closeQuietly(outputStream);
+		}
+	}
+
+	private File getPersistDirectoryFile(){
+		return StringUtils.isBlank(this.persistDirectory) ? null : new File(this.persistDirectory);
+	}
+
+	private File getFile(NameVersionPair version){
+		File directory = this.getPersistDirectoryFile();
+		if(directory == null){
+			return null;
+		}
+
+		try {
+			return new File(directory, URLEncoder.encode(this.getKey(version), "UTF-8") + FILE_SUFFIX);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public double getFalsePositiveProbability() {
+		return falsePositiveProbability;
+	}
+
+	@Value("${entityCodeFilterFalsePositiveProbability:" + DEFAULT_FALSE_POSITIVE_PROBABILITY + "}")
+	public void setFalsePositiveProbability(double falsePositiveProbability) {
+		this.falsePositiveProbability = falsePositiveProbability;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public String getPersistDirectory() {
+		return persistDirectory;
+	}
+
+	@Value("${entityCodeFilterDirectory:${java.io.tmpdir}/lexevs-service/entity-code-filter}")
+	public void setPersistDirectory(String persistDirectory) {
+		this.persistDirectory = persistDirectory;
+	}
+
+}
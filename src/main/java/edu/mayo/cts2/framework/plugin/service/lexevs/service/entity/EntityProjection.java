@@ -0,0 +1,153 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet.PropertyType;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import edu.mayo.cts2.framework.model.exception.UnspecifiedCts2Exception;
+
+/**
+ * The parts of a full entity description a caller wants. Parts that are left out
+ * are not computed, which matters most for parents (a hierarchy query per entity)
+ * and properties (a predicate URI lookup per property).
+ *
+ * Over REST, the projection is given as a comma separated 'fields' parameter, for
+ * example <code>?fields=designations,definitions</code>. Without it, all parts
+ * are included. An unknown part is an error, rather than silently left out.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class EntityProjection {
+
+	public static final String FIELDS_PARAM = "fields";
+
+	public enum Part {DESIGNATIONS, DEFINITIONS, NOTES, PROPERTIES, PARENTS, LINKS}
+
+	public static final EntityProjection ALL = new EntityProjection(EnumSet.allOf(Part.class));
+
+	private final Set<Part> parts;
+
+	private EntityProjection(Set<Part> parts){
+		this.parts = Collections.unmodifiableSet(parts);
+	}
+
+	/**
+	 * Create a projection of the given parts.
+	 *
+	 * @param parts the parts
+	 * @return the projection
+	 */
+	public static EntityProjection of(Part... parts){
+		Set<Part> set = EnumSet.noneOf(Part.class);
+		Collections.addAll(set, parts);
+
+		return new EntityProjection(set);
+	}
+
+	/**
+	 * Parse a comma separated list of part names, ignoring case.
+	 *
+	 * @param fields the part names
+	 * @return the projection, or {@link #ALL} if no fields are given
+	 * @throws UnspecifiedCts2Exception a '400 Bad Request' if a name is not a known part
+	 */
+	public static EntityProjection parse(String fields){
+		if(StringUtils.isBlank(fields)){
+			return ALL;
+		}
+
+		Set<Part> set = EnumSet.noneOf(Part.class);
+		for(String field : StringUtils.split(fields, ',')){
+			if(StringUtils.isBlank(field)){
+				continue;
+			}
+
+			try {
+				set.add(Part.valueOf(field.trim().toUpperCase(Locale.ENGLISH)));
+			} catch (IllegalArgumentException e) {
+				throw new UnspecifiedCts2Exception("Unknown field '" + field.trim() + "'. Available: " + 
+					StringUtils.join(Part.values(), ',').toLowerCase(Locale.ENGLISH) + ".", 
+					HttpServletResponse.SC_BAD_REQUEST);
+			}
+		}
+
+		return new EntityProjection(set);
+	}
+
+	/**
+	 * Get the projection requested by the current HTTP request.
+	 *
+	 * @return the projection, or {@link #ALL} outside of a request
+	 */
+	public static EntityProjection fromCurrentRequest(){
+		RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+		if(! (attributes instanceof ServletRequestAttributes)){
+			return ALL;
+		}
+
+		HttpServletRequest request = ((ServletRequestAttributes) attributes).getRequest();
+
+		return parse(request.getParameter(FIELDS_PARAM));
+	}
+
+	public boolean includes(Part part){
+		return this.parts.contains(part);
+	}
+
+	public boolean isAll(){
+		return this.parts.size() == Part.values().length;
+	}
+
+	/**
+	 * The LexEVS property types needed to build this projection.
+	 *
+	 * @return the property types, or null for all of them
+	 */
+	public PropertyType[] getPropertyTypes(){
+		if(this.isAll()){
+			return null;
+		}
+
+		List<PropertyType> types = new ArrayList<PropertyType>();
+		if(this.includes(Part.DESIGNATIONS)){
+			types.add(PropertyType.PRESENTATION);
+		}
+		if(this.includes(Part.DEFINITIONS)){
+			types.add(PropertyType.DEFINITION);
+		}
+		if(this.includes(Part.NOTES)){
+			types.add(PropertyType.COMMENT);
+		}
+		if(this.includes(Part.PROPERTIES)){
+			types.add(PropertyType.GENERIC);
+		}
+
+		//LexEVS reads an empty list as 'all', so ask for the smallest part instead
+		if(types.isEmpty()){
+			types.add(PropertyType.PRESENTATION);
+		}
+
+		return types.toArray(new PropertyType[types.size()]);
+	}
+
+}
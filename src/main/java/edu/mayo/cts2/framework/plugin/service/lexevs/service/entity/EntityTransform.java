@@ -10,22 +10,33 @@ package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Resource;
 
 import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
 import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
 import org.LexGrid.LexBIG.Exceptions.LBException;
 import org.LexGrid.LexBIG.Extensions.Generic.LexBIGServiceConvenienceMethods;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
 import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
 import org.LexGrid.LexBIG.Utility.Constructors;
 import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
 import org.LexGrid.concepts.Entity;
 import org.LexGrid.concepts.Presentation;
+import org.LexGrid.naming.SupportedHierarchy;
 import org.apache.commons.lang.BooleanUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
@@ -73,6 +84,9 @@ public class EntityTransform
 	@Resource
 	private CommonResolvedValueSetUtils commonResolvedValueSetUtils;
 	
+	@Resource
+	private HierarchyNeighbourCache hierarchyNeighbourCache;
+	
 	private static Set<String> ROOT_NODES = new HashSet<String>(Arrays.asList("@", "@@"));
 	
 	@Override
@@ -83,6 +97,56 @@ public class EntityTransform
 
 	@Override
 	public EntityListEntry transformFullDescription(ResolvedConceptReference reference) {
+		return this.transformFullDescription(reference, EntityProjection.fromCurrentRequest());
+	}
+	
+	/**
+	 * Transform an entity, computing only the parts in the projection.
+	 *
+	 * @param reference the entity
+	 * @param projection the parts to include
+	 * @return the entity list entry
+	 */
+	public EntityListEntry transformFullDescription(ResolvedConceptReference reference, EntityProjection projection) {
+		return this.doTransformFullDescription(reference, projection, null);
+	}
+	
+	/**
+	 * Transform a page of entities. The parents of all entities on the page are
+	 * resolved together, with one graph query per hierarchy instead of one
+	 * hierarchy query per entity.
+	 *
+	 * @param references the entities
+	 * @param projection the parts to include
+	 * @return the entity list entries, in the same order
+	 */
+	public List<EntityListEntry> transformFullDescriptions(
+			List<ResolvedConceptReference> references, 
+			EntityProjection projection) {
+		Map<String, List<URIAndEntityName>> parents = null;
+		if(projection.includes(EntityProjection.Part.PARENTS) && references.size() > 1){
+			try {
+				parents = this.getParents(references);
+			} catch (Exception e) {
+				log.warn("Error resolving Parents for a page, resolving them one by one.");
+				if(log.isDebugEnabled()){
+					log.debug(e);
+				}
+			}
+		}
+		
+		List<EntityListEntry> returnList = new ArrayList<EntityListEntry>();
+		for(ResolvedConceptReference reference : references){
+			returnList.add(this.doTransformFullDescription(reference, projection, parents));
+		}
+		
+		return returnList;
+	}
+	
+	private EntityListEntry doTransformFullDescription(
+			ResolvedConceptReference reference, 
+			EntityProjection projection,
+			Map<String, List<URIAndEntityName>> pageParents) {
 		Assert.isTrue(reference.getEntity() != null, 
 				"The Entity is null. Please resolve the CodedNodeSet with Resolve = true");
 
@@ -105,27 +169,42 @@ public class EntityTransform
 				reference.getCodingSchemeVersion(),
 				reference.getCodingSchemeURI()));
 		
-		namedEntity.setDesignation(this.toDesignation(entity.getPresentation()));
-		namedEntity.setProperty(this.toProperty(
-				codingSchemeName,
-				reference.getCodingSchemeURI(),
-				reference.getCodingSchemeVersion(),
-				entity.getProperty()));
-		namedEntity.setDefinition(this.toDefinition(entity.getDefinition()));
-		namedEntity.setNote(this.toNote(entity.getComment()));
+		if(projection.includes(EntityProjection.Part.DESIGNATIONS)){
+			namedEntity.setDesignation(this.toDesignation(entity.getPresentation()));
+		}
+		if(projection.includes(EntityProjection.Part.PROPERTIES)){
+			namedEntity.setProperty(this.toProperty(
+					codingSchemeName,
+					reference.getCodingSchemeURI(),
+					reference.getCodingSchemeVersion(),
+					entity.getProperty()));
+		}
+		if(projection.includes(EntityProjection.Part.DEFINITIONS)){
+			namedEntity.setDefinition(this.toDefinition(entity.getDefinition()));
+		}
+		if(projection.includes(EntityProjection.Part.NOTES)){
+			namedEntity.setNote(this.toNote(entity.getComment()));
+		}
 		
-		namedEntity.setChildren(
-			this.getUrlConstructor().createChildrenUrl(
-					codingSchemeName, 
-					reference.getCodingSchemeVersion(), 
-					entity.getEntityCode()));
+		if(projection.includes(EntityProjection.Part.LINKS)){
+			namedEntity.setChildren(
+				this.getUrlConstructor().createChildrenUrl(
+						codingSchemeName, 
+						reference.getCodingSchemeVersion(), 
+						entity.getEntityCode()));
+		}
 		
-		try {
-			namedEntity.setParent(this.getParents(reference));
-		} catch (Exception e) {
-			log.warn("Error resolving Parents for: " + reference.getCode());
-			if(log.isDebugEnabled()){
-				log.debug(e);
+		if(projection.includes(EntityProjection.Part.PARENTS) && pageParents != null){
+			List<URIAndEntityName> parents = pageParents.get(this.getParentKey(reference));
+			namedEntity.setParent(parents == null ? new ArrayList<URIAndEntityName>() : parents);
+		} else if(projection.includes(EntityProjection.Part.PARENTS)){
+			try {
+				namedEntity.setParent(this.getParents(reference));
+			} catch (Exception e) {
+				log.warn("Error resolving Parents for: " + reference.getCode());
+				if(log.isDebugEnabled()){
+					log.debug(e);
+				}
 			}
 		}
 		
@@ -141,11 +220,13 @@ public class EntityTransform
 	    //NOTE: We probably want to check this with the CodedNodeGraph to
 	    //see if there actually are associations to link to. That's added
 	    //expense that I'm not sure if we want.
-	    namedEntity.setSubjectOf(
-	    	entityHref + "/" + URIHelperInterface.SUBJECTOF);
-
-	 	namedEntity.setTargetOf(
-			entityHref + "/" + URIHelperInterface.TARGETOF);
+	    if(projection.includes(EntityProjection.Part.LINKS)){
+		    namedEntity.setSubjectOf(
+		    	entityHref + "/" + URIHelperInterface.SUBJECTOF);
+	
+		 	namedEntity.setTargetOf(
+				entityHref + "/" + URIHelperInterface.TARGETOF);
+	    }
 		
 		EntityDescription ed = new EntityDescription();
 		ed.setNamedEntity(namedEntity);
@@ -158,7 +239,7 @@ public class EntityTransform
 					reference.getCode(), 
 					this.sanitizeNamespace(reference.getCodeNamespace()))));
 		
-		listEntry.setHref(this.getTransformUtils().createEntityHref(reference));
+		listEntry.setHref(entityHref);
 		
 		return listEntry;
 	}
@@ -235,18 +316,7 @@ public class EntityTransform
 				reference.getCode(), 
 				this.sanitizeNamespace(reference.getCodeNamespace())));
 
-		DescriptionInCodeSystem description = new DescriptionInCodeSystem();
-		description.setDescribingCodeSystemVersion(
-			this.getTransformUtils().toCodeSystemVersionReference(
-				reference.getCodingSchemeName(), 
-				reference.getCodingSchemeVersion(),
-				reference.getCodingSchemeURI()));
-		
-		description.setHref(this.getTransformUtils().createEntityHref(reference));
-		
-		if(reference.getEntityDescription() != null){
-			description.setDesignation(reference.getEntityDescription().getContent());
-		}
+		DescriptionInCodeSystem description = this.toDescriptionInCodeSystem(reference);
 		
 		entry.addKnownEntityDescription(description);
 	
@@ -281,20 +351,7 @@ public class EntityTransform
 									this.sanitizeNamespace(ref.getCodeNamespace())));
 					}
 			
-					DescriptionInCodeSystem description = new DescriptionInCodeSystem();
-					description.setDescribingCodeSystemVersion(
-						this.getTransformUtils().toCodeSystemVersionReference(
-							ref.getCodingSchemeName(), 
-							ref.getCodingSchemeVersion(),
-							ref.getCodingSchemeURI()));
-					
-					description.setHref(this.getTransformUtils().createEntityHref(ref));
-					
-					if(ref.getEntityDescription() != null){
-						description.setDesignation(ref.getEntityDescription().getContent());
-					}
-					
-					reference.addKnownEntityDescription(description);
+					reference.addKnownEntityDescription(this.toDescriptionInCodeSystem(ref));
 				}
 
 				return reference;
@@ -305,6 +362,41 @@ public class EntityTransform
 		}
 	}
 	
+	/**
+	 * Transform one entity into a reference with a single known description.
+	 *
+	 * @param ref the entity
+	 * @return the entity reference
+	 */
+	public EntityReference transformEntityReference(ResolvedConceptReference ref) {
+		EntityReference reference = new EntityReference();
+		reference.setAbout(this.getUriHandler().getEntityUri(ref));
+		reference.setName(
+			ModelUtils.createScopedEntityName(
+				ref.getCode(), 
+				this.sanitizeNamespace(ref.getCodeNamespace())));
+		reference.addKnownEntityDescription(this.toDescriptionInCodeSystem(ref));
+		
+		return reference;
+	}
+	
+	private DescriptionInCodeSystem toDescriptionInCodeSystem(ResolvedConceptReference ref) {
+		DescriptionInCodeSystem description = new DescriptionInCodeSystem();
+		description.setDescribingCodeSystemVersion(
+			this.getTransformUtils().toCodeSystemVersionReference(
+				ref.getCodingSchemeName(), 
+				ref.getCodingSchemeVersion(),
+				ref.getCodingSchemeURI()));
+		
+		description.setHref(this.getTransformUtils().createEntityHref(ref));
+		
+		if(ref.getEntityDescription() != null){
+			description.setDesignation(ref.getEntityDescription().getContent());
+		}
+		
+		return description;
+	}
+	
 	protected List<Designation> toDesignation(Presentation... presentations){
 		List<Designation> returnList = new ArrayList<Designation>();
 		
@@ -340,14 +432,11 @@ public class EntityTransform
 		
 		AssociationList assocs;
 		try {
-			assocs = this.lbscm.getHierarchyLevelPrev(
+			assocs = this.hierarchyNeighbourCache.getHierarchyLevelPrev(
 					ref.getCodingSchemeURI(), 
-					Constructors.createCodingSchemeVersionOrTagFromVersion(
-							ref.getCodingSchemeVersion()), 
+					ref.getCodingSchemeVersion(), 
 					null, 
-					ref.getCode(), 
-					false, 
-					null);
+					ref.getCode());
 		} catch (LBException e) {
 			return null;
 		}
@@ -357,20 +446,137 @@ public class EntityTransform
 				association.getAssociatedConcepts().getAssociatedConcept()){
 				
 				if(! ROOT_NODES.contains(parent.getCode())){
-					URIAndEntityName parentName = new URIAndEntityName();
-					parentName.setName(parent.getCode());
-					parentName.setNamespace(
-						this.sanitizeNamespace(parent.getCodeNamespace()));
-					parentName.setUri(this.getUriHandler().getEntityUri(parent));
-					parentName.setHref(this.getTransformUtils().createEntityHref(parent));
-					
-					returnList.add(parentName);
+					returnList.add(this.toParentName(parent));
 				}
 			}
 		}
 		
 		return returnList;
 	}
+	
+	/**
+	 * Resolve the parents of many entities. For each coding scheme version and each of
+	 * its hierarchies, the hierarchy associations are restricted to the entities' codes
+	 * and resolved one level in one graph query.
+	 *
+	 * @param refs the entities
+	 * @return the parents, keyed by {@link #getParentKey(ResolvedConceptReference)}
+	 * @throws LBException the lB exception
+	 */
+	protected Map<String, List<URIAndEntityName>> getParents(List<ResolvedConceptReference> refs) throws LBException {
+		Map<String, List<ResolvedConceptReference>> versions = 
+			new LinkedHashMap<String, List<ResolvedConceptReference>>();
+		for(ResolvedConceptReference ref : refs){
+			String key = ref.getCodingSchemeURI() + "|" + ref.getCodingSchemeVersion();
+			if(! versions.containsKey(key)){
+				versions.put(key, new ArrayList<ResolvedConceptReference>());
+			}
+			versions.get(key).add(ref);
+		}
+		
+		Map<String, List<URIAndEntityName>> returnMap = new HashMap<String, List<URIAndEntityName>>();
+		Map<String, Set<String>> seen = new HashMap<String, Set<String>>();
+		
+		for(List<ResolvedConceptReference> versionRefs : versions.values()){
+			String uri = versionRefs.get(0).getCodingSchemeURI();
+			String version = versionRefs.get(0).getCodingSchemeVersion();
+			CodingSchemeVersionOrTag versionOrTag = 
+				Constructors.createCodingSchemeVersionOrTagFromVersion(version);
+			
+			ConceptReferenceList codes = new ConceptReferenceList();
+			for(ResolvedConceptReference ref : versionRefs){
+				ConceptReference code = new ConceptReference();
+				code.setCode(ref.getCode());
+				code.setCodeNamespace(ref.getCodeNamespace());
+				codes.addConceptReference(code);
+			}
+			
+			for(String hierarchyId : this.lbscm.getHierarchyIDs(uri, versionOrTag)){
+				SupportedHierarchy hierarchy = this.lbscm.getHierarchyDefinition(uri, versionOrTag, hierarchyId);
+				boolean forward = BooleanUtils.toBoolean(hierarchy.getIsForwardNavigable());
+				
+				CodedNodeSet pageCodes = this.lexBigService.getNodeSet(uri, versionOrTag, null).restrictToCodes(codes);
+				
+				CodedNodeGraph graph = this.lexBigService.getNodeGraph(uri, versionOrTag, null);
+				graph = graph.restrictToAssociations(
+					Constructors.createNameAndValueList(hierarchy.getAssociationNames()), null);
+				
+				//if the hierarchy is navigated forward, parents are the sources of
+				//associations to the page's codes -- otherwise, the targets of
+				//associations from them
+				if(forward){
+					graph = graph.restrictToTargetCodes(pageCodes);
+				} else {
+					graph = graph.restrictToSourceCodes(pageCodes);
+				}
+				
+				ResolvedConceptReferenceList sources = 
+					graph.resolveAsList(null, true, false, 0, 1, null, null, null, null, -1);
+				
+				for(ResolvedConceptReference source : sources.getResolvedConceptReference()){
+					if(source.getSourceOf() == null){
+						continue;
+					}
+					
+					for(Association association : source.getSourceOf().getAssociation()){
+						for(AssociatedConcept target : 
+							association.getAssociatedConcepts().getAssociatedConcept()){
+							
+							ResolvedConceptReference child = forward ? target : source;
+							ResolvedConceptReference parent = forward ? source : target;
+							
+							this.addParent(returnMap, seen, uri, version, child, parent);
+						}
+					}
+				}
+			}
+		}
+		
+		return returnMap;
+	}
+	
+	private void addParent(
+			Map<String, List<URIAndEntityName>> parents, 
+			Map<String, Set<String>> seen,
+			String uri,
+			String version,
+			ResolvedConceptReference child, 
+			ResolvedConceptReference parent){
+		if(ROOT_NODES.contains(parent.getCode())){
+			return;
+		}
+		
+		//the graph's references may not carry their coding scheme, so the
+		//coding scheme version they were resolved from is used instead
+		String key = this.getParentKey(uri, version, child);
+		if(! parents.containsKey(key)){
+			parents.put(key, new ArrayList<URIAndEntityName>());
+			seen.put(key, new HashSet<String>());
+		}
+		
+		if(seen.get(key).add(this.getParentKey(uri, version, parent))){
+			parents.get(key).add(this.toParentName(parent));
+		}
+	}
+	
+	private String getParentKey(ResolvedConceptReference ref){
+		return this.getParentKey(ref.getCodingSchemeURI(), ref.getCodingSchemeVersion(), ref);
+	}
+	
+	private String getParentKey(String uri, String version, ResolvedConceptReference ref){
+		return uri + "|" + version + "|" + ref.getCode() + "|" + ref.getCodeNamespace();
+	}
+	
+	private URIAndEntityName toParentName(ResolvedConceptReference parent){
+		URIAndEntityName parentName = new URIAndEntityName();
+		parentName.setName(parent.getCode());
+		parentName.setNamespace(
+			this.sanitizeNamespace(parent.getCodeNamespace()));
+		parentName.setUri(this.getUriHandler().getEntityUri(parent));
+		parentName.setHref(this.getTransformUtils().createEntityHref(parent));
+		
+		return parentName;
+	}
 
 
 }
@@ -0,0 +1,599 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The transitive closure of the hierarchies of one coding scheme version, stored
+ * as interval labels.
+ *
+ * Entities are numbered in pre-order over a depth first spanning forest of the
+ * hierarchy. The descendants of an entity are then a short list of rank intervals:
+ * one interval for a tree, plus one for each extra parent link below it that
+ * reaches outside its spanning subtree. Descendant checks are a binary search over
+ * these intervals, and descendants are listed in pre-order without touching the
+ * rest of the hierarchy. Ancestors are found by walking the parent links upwards.
+ *
+ * Only entities taking part in a hierarchy are indexed. Cycles are broken at the
+ * link that closes them.
+ *
+ * Instances are immutable once built, and safe to share between threads.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class HierarchyClosureIndex {
+
+	private static final int FORMAT_VERSION = 1;
+
+	/* entity codes, by rank */
+	private final String[] codes;
+
+	/* ranks, sorted by code */
+	private final int[] ranksByCode;
+
+	/* descendant intervals of rank i are the pairs intervalOffsets[i] to intervalOffsets[i + 1] */
+	private final int[] intervalOffsets;
+
+	/* start and end (inclusive) of each interval */
+	private final int[] intervals;
+
+	/* parents of rank i are parentOffsets[i] to parentOffsets[i + 1] */
+	private final int[] parentOffsets;
+
+	private final int[] parents;
+
+	private final int entityCount;
+
+	/**
+	 * Collects the parent/child links of the hierarchies, then builds the index.
+	 */
+	public static class Builder {
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		private final List<String> codes = new ArrayList<String>();
+
+		private int[] edgeParents = new int[1024];
+
+		private int[] edgeChildren = new int[1024];
+
+		private int edgeCount;
+
+		private final int entityCount;
+
+		/**
+		 * @param entityCount the number of entities in the coding scheme version, kept
+		 * to tell whether a persisted index is still current
+		 */
+		public Builder(int entityCount){
+			this.entityCount = entityCount;
+		}
+
+		public Builder addLink(String parentCode, String childCode){
+			if(parentCode.equals(childCode)){
+				return this;
+			}
+
+			if(this.edgeCount == this.edgeParents.length){
+				this.edgeParents = Arrays.copyOf(this.edgeParents, this.edgeCount * 2);
+				this.edgeChildren = Arrays.copyOf(this.edgeChildren, this.edgeCount * 2);
+			}
+
+			this.edgeParents[this.edgeCount] = this.getId(parentCode);
+			this.edgeChildren[this.edgeCount] = this.getId(childCode);
+			this.edgeCount++;
+
+			return this;
+		}
+
+		public int getLinkCount() {
+			return this.edgeCount;
+		}
+
+		private int getId(String code){
+			Integer id = this.ids.get(code);
+			if(id == null){
+				id = this.codes.size();
+				this.ids.put(code, id);
+				this.codes.add(code);
+			}
+
+			return id;
+		}
+
+		public HierarchyClosureIndex build(){
+			int n = this.codes.size();
+
+			int[][] children = toAdjacency(n, this.edgeParents, this.edgeChildren, this.edgeCount);
+			int[][] parents = toAdjacency(n, this.edgeChildren, this.edgeParents, this.edgeCount);
+
+			//number the entities in pre-order, starting from the roots
+			int[] rank = new int[n];
+			Arrays.fill(rank, -1);
+			int[] postOrder = new int[n];
+			int postCount = 0;
+			int nextRank = 0;
+
+			int[] stackNode = new int[n];
+			int[] stackChild = new int[n];
+
+			for(int pass = 0; pass < 2; pass++){
+				for(int root = 0; root < n; root++){
+					if(rank[root] != -1 || (pass == 0 && parents[root].length > 0)){
+						continue;
+					}
+
+					int depth = 0;
+					stackNode[depth] = root;
+					stackChild[depth] = 0;
+					depth++;
+					rank[root] = nextRank++;
+
+					while(depth > 0){
+						int node = stackNode[depth - 1];
+						int childIndex = stackChild[depth - 1];
+
+						if(childIndex < children[node].length){
+							stackChild[depth - 1]++;
+
+							int child = children[node][childIndex];
+							if(rank[child] == -1){
+								rank[child] = nextRank++;
+								stackNode[depth] = child;
+								stackChild[depth] = 0;
+								depth++;
+							}
+						} else {
+							postOrder[postCount++] = node;
+							depth--;
+						}
+					}
+				}
+			}
+
+			//in post-order, every child is labelled before its parents
+			int[][] nodeIntervals = new int[n][];
+			int intervalCount = 0;
+			for(int i = 0; i < n; i++){
+				int node = postOrder[i];
+
+				int size = 1;
+				for(int child : children[node]){
+					if(nodeIntervals[child] != null){
+						size += nodeIntervals[child].length / 2;
+					}
+				}
+
+				long[] pairs = new long[size];
+				int pairCount = 0;
+				pairs[pairCount++] = ((long) rank[node] << 32) | rank[node];
+				for(int child : children[node]){
+					int[] childIntervals = nodeIntervals[child];
+					if(childIntervals != null){
+						for(int j = 0; j < childIntervals.length; j += 2){
+							pairs[pairCount++] = ((long) childIntervals[j] << 32) | childIntervals[j + 1];
+						}
+					}
+				}
+
+				nodeIntervals[node] = merge(pairs);
+				intervalCount += nodeIntervals[node].length / 2;
+			}
+
+			//pack everything by rank
+			String[] rankedCodes = new String[n];
+			int[] intervalOffsets = new int[n + 1];
+			int[] intervals = new int[intervalCount * 2];
+			int[] parentOffsets = new int[n + 1];
+			int[] rankedParents = new int[this.countParents(parents)];
+
+			int[] nodes = new int[n];
+			for(int node = 0; node < n; node++){
+				nodes[rank[node]] = node;
+			}
+
+			int intervalPosition = 0;
+			int parentPosition = 0;
+			for(int r = 0; r < n; r++){
+				int node = nodes[r];
+				rankedCodes[r] = this.codes.get(node);
+
+				intervalOffsets[r] = intervalPosition / 2;
+				System.arraycopy(nodeIntervals[node], 0, intervals, intervalPosition, nodeIntervals[node].length);
+				intervalPosition += nodeIntervals[node].length;
+
+				parentOffsets[r] = parentPosition;
+				int[] nodeParents = parents[node];
+				for(int j = 0; j < nodeParents.length; j++){
+					rankedParents[parentPosition + j] = rank[nodeParents[j]];
+				}
+				Arrays.sort(rankedParents, parentPosition, parentPosition + nodeParents.length);
+				parentPosition += nodeParents.length;
+			}
+			intervalOffsets[n] = intervalPosition / 2;
+			parentOffsets[n] = parentPosition;
+
+			String[] sortedCodes = rankedCodes.clone();
+			Arrays.sort(sortedCodes);
+			int[] ranksByCode = new int[n];
+			for(int i = 0; i < n; i++){
+				ranksByCode[i] = rank[this.ids.get(sortedCodes[i])];
+			}
+
+			return new HierarchyClosureIndex(
+				rankedCodes, ranksByCode, intervalOffsets, intervals,
+				parentOffsets, rankedParents, this.entityCount);
+		}
+
+		private int countParents(int[][] parents){
+			int count = 0;
+			for(int[] nodeParents : parents){
+				count += nodeParents.length;
+			}
+
+			return count;
+		}
+
+		/*
+		 * Sorted, de-duplicated neighbours of each node.
+		 */
+		private static int[][] toAdjacency(int n, int[] from, int[] to, int edgeCount){
+			int[] counts = new int[n];
+			for(int i = 0; i < edgeCount; i++){
+				counts[from[i]]++;
+			}
+
+			int[][] adjacency = new int[n][];
+			for(int i = 0; i < n; i++){
+				adjacency[i] = new int[counts[i]];
+				counts[i] = 0;
+			}
+
+			for(int i = 0; i < edgeCount; i++){
+				adjacency[from[i]][counts[from[i]]++] = to[i];
+			}
+
+			for(int i = 0; i < n; i++){
+				int[] neighbours = adjacency[i];
+				if(neighbours.length > 1){
+					Arrays.sort(neighbours);
+
+					int unique = 1;
+					for(int j = 1; j < neighbours.length; j++){
+						if(neighbours[j] != neighbours[unique - 1]){
+							neighbours[unique++] = neighbours[j];
+						}
+					}
+
+					if(unique < neighbours.length){
+						adjacency[i] = Arrays.copyOf(neighbours, unique);
+					}
+				}
+			}
+
+			return adjacency;
+		}
+
+		/*
+		 * Sort (start, end) pairs and join the ones that overlap or touch.
+		 */
+		private static int[] merge(long[] pairs){
+			Arrays.sort(pairs);
+
+			int[] merged = new int[pairs.length * 2];
+			int count = 0;
+			for(long pair : pairs){
+				int start = (int) (pair >>> 32);
+				int end = (int) pair;
+
+				if(count > 0 && start <= merged[count - 1] + 1){
+					merged[count - 1] = Math.max(merged[count - 1], end);
+				} else {
+					merged[count++] = start;
+					merged[count++] = end;
+				}
+			}
+
+			return Arrays.copyOf(merged, count);
+		}
+	}
+
+	private HierarchyClosureIndex(
+			String[] codes,
+			int[] ranksByCode,
+			int[] intervalOffsets,
+			int[] intervals,
+			int[] parentOffsets,
+			int[] parents,
+			int entityCount){
+		this.codes = codes;
+		this.ranksByCode = ranksByCode;
+		this.intervalOffsets = intervalOffsets;
+		this.intervals = intervals;
+		this.parentOffsets = parentOffsets;
+		this.parents = parents;
+		this.entityCount = entityCount;
+	}
+
+	/**
+	 * Check whether an entity takes part in any hierarchy.
+	 *
+	 * @param code the entity code
+	 * @return true if the entity has a parent or a child
+	 */
+	public boolean contains(String code){
+		return this.getRank(code) >= 0;
+	}
+
+	/**
+	 * Check whether an entity is a descendant of another one.
+	 *
+	 * @param code the entity code
+	 * @param ancestorCode the code of the possible ancestor
+	 * @return true if code is below ancestorCode, false if not or if they are the same
+	 */
+	public boolean isDescendant(String code, String ancestorCode){
+		int rank = this.getRank(code);
+		int ancestorRank = this.getRank(ancestorCode);
+		if(rank < 0 || ancestorRank < 0 || rank == ancestorRank){
+			return false;
+		}
+
+		int low = this.intervalOffsets[ancestorRank];
+		int high = this.intervalOffsets[ancestorRank + 1] - 1;
+		while(low <= high){
+			int middle = (low + high) >>> 1;
+			if(this.intervals[middle * 2] > rank){
+				high = middle - 1;
+			} else if(this.intervals[middle * 2 + 1] < rank){
+				low = middle + 1;
+			} else {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public int countDescendants(String code){
+		int rank = this.getRank(code);
+		if(rank < 0){
+			return 0;
+		}
+
+		int count = 0;
+		for(int i = this.intervalOffsets[rank]; i < this.intervalOffsets[rank + 1]; i++){
+			count += this.intervals[i * 2 + 1] - this.intervals[i * 2] + 1;
+		}
+
+		//the entity is in its own intervals
+		return count - 1;
+	}
+
+	/**
+	 * List a window of the descendants of an entity, in pre-order.
+	 *
+	 * @param code the entity code
+	 * @param start the position of the first descendant to return
+	 * @param maxToReturn the maximum number of descendants to return
+	 * @return the descendant codes
+	 */
+	public List<String> getDescendants(String code, int start, int maxToReturn){
+		List<String> returnList = new ArrayList<String>();
+
+		int rank = this.getRank(code);
+		if(rank < 0){
+			return returnList;
+		}
+
+		int skip = start;
+		for(int i = this.intervalOffsets[rank]; i < this.intervalOffsets[rank + 1]; i++){
+			int intervalStart = this.intervals[i * 2];
+			int intervalEnd = this.intervals[i * 2 + 1];
+			boolean hasSelf = intervalStart <= rank && rank <= intervalEnd;
+
+			int size = intervalEnd - intervalStart + 1 - (hasSelf ? 1 : 0);
+			if(skip >= size){
+				skip -= size;
+				continue;
+			}
+
+			int first = intervalStart + skip;
+			if(hasSelf && rank <= first){
+				first++;
+			}
+			skip = 0;
+
+			for(int r = first; r <= intervalEnd; r++){
+				if(r == rank){
+					continue;
+				}
+				if(returnList.size() >= maxToReturn){
+					return returnList;
+				}
+
+				returnList.add(this.codes[r]);
+			}
+		}
+
+		return returnList;
+	}
+
+	public int countAncestors(String code){
+		int rank = this.getRank(code);
+
+		return rank < 0 ? 0 : this.getAncestorRanks(rank).length;
+	}
+
+	/**
+	 * List a window of the ancestors of an entity, in pre-order.
+	 *
+	 * @param code the entity code
+	 * @param start the position of the first ancestor to return
+	 * @param maxToReturn the maximum number of ancestors to return
+	 * @return the ancestor codes
+	 */
+	public List<String> getAncestors(String code, int start, int maxToReturn){
+		List<String> returnList = new ArrayList<String>();
+
+		int rank = this.getRank(code);
+		if(rank < 0){
+			return returnList;
+		}
+
+		int[] ancestors = this.getAncestorRanks(rank);
+		for(int i = start; i < ancestors.length && returnList.size() < maxToReturn; i++){
+			returnList.add(this.codes[ancestors[i]]);
+		}
+
+		return returnList;
+	}
+
+	private int[] getAncestorRanks(int rank){
+		BitSet seen = new BitSet(this.codes.length);
+		int[] queue = new int[16];
+		int head = 0;
+		int tail = 0;
+
+		queue[tail++] = rank;
+		seen.set(rank);
+
+		while(head < tail){
+			int node = queue[head++];
+			for(int i = this.parentOffsets[node]; i < this.parentOffsets[node + 1]; i++){
+				int parent = this.parents[i];
+				if(! seen.get(parent)){
+					seen.set(parent);
+					if(tail == queue.length){
+						queue = Arrays.copyOf(queue, tail * 2);
+					}
+					queue[tail++] = parent;
+				}
+			}
+		}
+
+		int[] ancestors = Arrays.copyOfRange(queue, 1, tail);
+		Arrays.sort(ancestors);
+
+		return ancestors;
+	}
+
+	private int getRank(String code){
+		if(code == null){
+			return -1;
+		}
+
+		int low = 0;
+		int high = this.ranksByCode.length - 1;
+		while(low <= high){
+			int middle = (low + high) >>> 1;
+			int comparison = this.codes[this.ranksByCode[middle]].compareTo(code);
+			if(comparison < 0){
+				low = middle + 1;
+			} else if(comparison > 0){
+				high = middle - 1;
+			} else {
+				return this.ranksByCode[middle];
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Write the index, to be read back with {@link #readFrom(InputStream)}.
+	 *
+	 * @param outputStream the output stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		DataOutputStream out = new DataOutputStream(outputStream);
+		out.writeInt(FORMAT_VERSION);
+		out.writeInt(this.entityCount);
+		out.writeInt(this.codes.length);
+		for(String code : this.codes){
+			out.writeUTF(code);
+		}
+		writeInts(out, this.ranksByCode);
+		writeInts(out, this.intervalOffsets);
+		writeInts(out, this.intervals);
+		writeInts(out, this.parentOffsets);
+		writeInts(out, this.parents);
+		out.flush();
+	}
+
+	/**
+	 * Read an index written with {@link #writeTo(OutputStream)}.
+	 *
+	 * @param inputStream the input stream
+	 * @return the index
+	 * @throws IOException Signals that an I/O exception has occurred, or the data is not an index.
+	 */
+	public static HierarchyClosureIndex readFrom(InputStream inputStream) throws IOException {
+		DataInputStream in = new DataInputStream(inputStream);
+		if(in.readInt() != FORMAT_VERSION){
+			throw new IOException("Unknown hierarchy closure index format.");
+		}
+
+		int entityCount = in.readInt();
+		String[] codes = new String[in.readInt()];
+		for(int i = 0; i < codes.length; i++){
+			codes[i] = in.readUTF();
+		}
+
+		return new HierarchyClosureIndex(
+			codes,
+			readInts(in),
+			readInts(in),
+			readInts(in),
+			readInts(in),
+			readInts(in),
+			entityCount);
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for(int value : values){
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] values = new int[in.readInt()];
+		for(int i = 0; i < values.length; i++){
+			values[i] = in.readInt();
+		}
+
+		return values;
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	public int getNodeCount() {
+		return this.codes.length;
+	}
+
+	public int getIntervalCount() {
+		return this.intervals.length / 2;
+	}
+
+}
@@ -0,0 +1,412 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeSummary;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Extensions.Generic.LexBIGServiceConvenienceMethods;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet.ActiveOption;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.LexGrid.naming.SupportedHierarchy;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.BooleanUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager;
+import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonUtils;
+
+/**
+ * Holds a {@link HierarchyClosureIndex} for each coding scheme version whose
+ * descendants or ancestors have been asked for.
+ *
+ * The index is built by reading the hierarchy links of all entities, one batch of
+ * source codes per graph query. Coding scheme versions without hierarchies, or with
+ * more entities than the configured maximum, are not indexed. If a persist
+ * directory is set, indexes are also written there and read back after a restart,
+ * as long as the coding scheme version has not been updated in LexEVS since and
+ * still has the same number of entities.
+ * Unless prebuilding is turned off, every loaded coding scheme version is indexed
+ * at startup and after each change.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class HierarchyClosureIndexManager extends AbstractVersionIndexManager<HierarchyClosureIndex> {
+
+	private static final int DEFAULT_MAX_ENTITIES = 2000000;
+
+	private static final String FILE_SUFFIX = ".closure";
+
+	private static final Set<String> ROOT_CODES = new HashSet<String>(Arrays.asList("@", "@@"));
+
+	@Resource
+	private LexBIGService lexBigService;
+
+	private LexBIGServiceConvenienceMethods lbscm;
+
+	private int maxEntities = DEFAULT_MAX_ENTITIES;
+
+	private int batchSize = CommonUtils.MAX_CODES_PER_RESOLVE;
+
+	private String persistDirectory;
+
+	private boolean prebuild = true;
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.lbscm = (LexBIGServiceConvenienceMethods)
+			this.lexBigService.getGenericExtension("LexBIGServiceConvenienceMethods");
+
+		super.afterPropertiesSet();
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager#getVersionsToPrebuild()
+	 */
+	@Override
+	protected List<NameVersionPair> getVersionsToPrebuild() throws LBException {
+		List<NameVersionPair> versions = new ArrayList<NameVersionPair>();
+		if(! this.prebuild){
+			return versions;
+		}
+
+		for(CodingSchemeRendering rendering :
+				this.lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+			versions.add(new NameVersionPair(
+				rendering.getCodingSchemeSummary().getLocalName(),
+				rendering.getCodingSchemeSummary().getRepresentsVersion()));
+		}
+
+		return versions;
+	}
+
+	@Override
+	protected String getThreadName() {
+		return "lexevs-hierarchy-closure-index";
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager#onChange()
+	 */
+	@Override
+	public void onChange() {
+		File directory = this.getPersistDirectoryFile();
+		if(directory != null){
+			File[] files = directory.listFiles();
+			if(files != null){
+				for(File file : files){
+					if(file.getName().endsWith(FILE_SUFFIX)){
+						file.delete();
+					}
+				}
+			}
+		}
+
+		super.onChange();
+	}
+
+	/**
+	 * Read the hierarchy links of all entities of a coding scheme version, or load
+	 * the persisted index if it is still current.
+	 *
+	 * @param version the version
+	 * @return the index, or null if the coding scheme version is not indexable
+	 * @throws LBException the lB exception
+	 */
+	@Override
+	protected HierarchyClosureIndex buildIndex(NameVersionPair version) throws LBException {
+		long startTime = System.currentTimeMillis();
+
+		CodingSchemeVersionOrTag versionOrTag =
+			Constructors.createCodingSchemeVersionOrTagFromVersion(version.getVersion());
+
+		String[] hierarchyIds = this.lbscm.getHierarchyIDs(version.getName(), versionOrTag);
+		if(hierarchyIds == null || hierarchyIds.length == 0){
+			log.info("Not indexing the hierarchy of " + this.getKey(version) + ", it has none.");
+			return null;
+		}
+
+		SupportedHierarchy[] hierarchies = new SupportedHierarchy[hierarchyIds.length];
+		for(int i = 0; i < hierarchyIds.length; i++){
+			hierarchies[i] = this.lbscm.getHierarchyDefinition(version.getName(), versionOrTag, hierarchyIds[i]);
+		}
+
+		CodedNodeSet codedNodeSet = this.lexBigService.getNodeSet(version.getName(), versionOrTag, null);
+		codedNodeSet = codedNodeSet.restrictToStatus(ActiveOption.ALL, null);
+
+		ResolvedConceptReferencesIterator iterator = codedNodeSet.resolve(null, null, null, null, false);
+
+		HierarchyClosureIndex index;
+		long fingerprint;
+		try {
+			int entityCount = iterator.numberRemaining();
+			if(entityCount > this.maxEntities){
+				log.info("Not indexing the hierarchy of " + this.getKey(version) +
+					", it has more than " + this.maxEntities + " entities.");
+				return null;
+			}
+
+			fingerprint = this.getFingerprint(version);
+
+			index = this.load(version, entityCount, fingerprint);
+			if(index != null){
+				return index;
+			}
+
+			HierarchyClosureIndex.Builder builder = new HierarchyClosureIndex.Builder(entityCount);
+
+			while(iterator.hasNext()){
+				ResolvedConceptReferenceList list = iterator.next(this.batchSize);
+
+				ConceptReferenceList codes = new ConceptReferenceList();
+				for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+					ConceptReference code = new ConceptReference();
+					code.setCode(ref.getCode());
+					code.setCodeNamespace(ref.getCodeNamespace());
+					codes.addConceptReference(code);
+				}
+
+				for(SupportedHierarchy hierarchy : hierarchies){
+					this.addLinks(builder, version, versionOrTag, hierarchy, codes);
+				}
+			}
+
+			index = builder.build();
+		} finally {
+			iterator.release();
+		}
+
+		log.info("Indexed " + index.getNodeCount() + " hierarchy entities in " +
+			index.getIntervalCount() + " intervals for " + this.getKey(version) +
+			" in " + (System.currentTimeMillis() - startTime) + " ms.");
+
+		this.save(version, index, fingerprint);
+
+		return index;
+	}
+
+	/*
+	 * Add the links of one hierarchy whose source is one of the given codes.
+	 */
+	private void addLinks(
+			HierarchyClosureIndex.Builder builder,
+			NameVersionPair version,
+			CodingSchemeVersionOrTag versionOrTag,
+			SupportedHierarchy hierarchy,
+			ConceptReferenceList codes) throws LBException {
+		boolean forward = BooleanUtils.toBoolean(hierarchy.getIsForwardNavigable());
+
+		CodedNodeSet sources = this.lexBigService.getNodeSet(version.getName(), versionOrTag, null);
+		sources = sources.restrictToCodes(codes);
+
+		CodedNodeGraph graph = this.lexBigService.getNodeGraph(version.getName(), versionOrTag, null);
+		graph = graph.restrictToAssociations(
+			Constructors.createNameAndValueList(hierarchy.getAssociationNames()), null);
+		graph = graph.restrictToSourceCodes(sources);
+
+		ResolvedConceptReferenceList list =
+			graph.resolveAsList(null, true, false, 0, 1, null, null, null, null, -1);
+
+		for(ResolvedConceptReference source : list.getResolvedConceptReference()){
+			if(source.getSourceOf() == null){
+				continue;
+			}
+
+			for(Association association : source.getSourceOf().getAssociation()){
+				for(AssociatedConcept target :
+					association.getAssociatedConcepts().getAssociatedConcept()){
+
+					if(ROOT_CODES.contains(source.getCode()) || ROOT_CODES.contains(target.getCode())){
+						continue;
+					}
+
+					if(forward){
+						builder.addLink(source.getCode(), target.getCode());
+					} else {
+						builder.addLink(target.getCode(), source.getCode());
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * The time the coding scheme version was last updated in LexEVS, or 0 if it
+	 * is not known, in which case a persisted index is never trusted.
+	 */
+	private long getFingerprint(NameVersionPair version) throws LBException {
+		for(CodingSchemeRendering rendering :
+				this.lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+			CodingSchemeSummary summary = rendering.getCodingSchemeSummary();
+
+			boolean nameMatches =
+				version.getName().equals(summary.getLocalName()) ||
+				version.getName().equals(summary.getCodingSchemeURI()) ||
+				version.getName().equals(summary.getFormalName());
+
+			if(nameMatches && version.getVersion().equals(summary.getRepresentsVersion())){
+				if(rendering.getRenderingDetail() != null &&
+						rendering.getRenderingDetail().getLastUpdateTime() != null){
+					return rendering.getRenderingDetail().getLastUpdateTime().getTime();
+				}
+
+				return 0;
+			}
+		}
+
+		return 0;
+	}
+
+	private HierarchyClosureIndex load(NameVersionPair version, int entityCount, long fingerprint){
+		File file = this.getFile(version);
+		if(file == null || ! file.exists()){
+			return null;
+		}
+
+		InputStream inputStream = null;
+		try {
+			inputStream = new BufferedInputStream(new FileInputStream(file));
+			long savedFingerprint = new DataInputStream(inputStream).readLong();
+
+			if(fingerprint != 0 && savedFingerprint == fingerprint){
+				HierarchyClosureIndex index = HierarchyClosureIndex.readFrom(inputStream);
+
+				if(index.getEntityCount() == entityCount){
+					return index;
+				}
+			}
+		} catch (IOException e) {
+			log.warn("Could not read the hierarchy closure index " + file + ".", e);
+		} finally {
+			IOUtils.closeQuietly(inputStream);
+		}
+
+		file.delete();
+
+		return null;
+	}
+
+	private void save(NameVersionPair version, HierarchyClosureIndex index, long fingerprint){
+		File file = this.getFile(version);
+		if(file == null){
+			return;
+		}
+
+		file.getParentFile().mkdirs();
+
+		OutputStream outputStream = null;
+		try {
+			outputStream = new BufferedOutputStream(new FileOutputStream(file));
+
+			DataOutputStream out = new DataOutputStream(outputStream);
+			out.writeLong(fingerprint);
+			out.flush();
+
+			index.writeTo(outputStream);
+		} catch (IOException e) {
+			log.warn("Could not write the hierarchy closure index " + file + ".", e);
+			IOUtils.closeQuietly(outputStream);
+			outputStream = null;
+			file.delete();
+		} finally {
+			IOUtils.closeQuietly(outputStream);
+		}
+	}
+
+	private File getPersistDirectoryFile(){
+		return StringUtils.isBlank(this.persistDirectory) ? null : new File(this.persistDirectory);
+	}
+
+	private File getFile(NameVersionPair version){
+		File directory = this.getPersistDirectoryFile();
+		if(directory == null){
+			return null;
+		}
+
+		try {
+			return new File(directory, URLEncoder.encode(this.getKey(version), "UTF-8") + FILE_SUFFIX);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public int getMaxEntities() {
+		return maxEntities;
+	}
+
+	@Value("${hierarchyClosureIndexMaxEntities:" + DEFAULT_MAX_ENTITIES + "}")
+	public void setMaxEntities(int maxEntities) {
+		this.maxEntities = maxEntities;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public String getPersistDirectory() {
+		return persistDirectory;
+	}
+
+	@Value("${hierarchyClosureIndexDirectory:${java.io.tmpdir}/lexevs-service/hierarchy-closure}")
+	public void setPersistDirectory(String persistDirectory) {
+		this.persistDirectory = persistDirectory;
+	}
+
+	public boolean isPrebuild() {
+		return prebuild;
+	}
+
+	@Value("${hierarchyClosureIndexPrebuild:true}")
+	public void setPrebuild(boolean prebuild) {
+		this.prebuild = prebuild;
+	}
+
+}
@@ -0,0 +1,399 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Extensions.Generic.LexBIGServiceConvenienceMethods;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.apache.log4j.Logger;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.event.LexEvsChangeEventObserver;
+
+/**
+ * A cache of the one-level hierarchy neighbours (children or parents) of entities,
+ * keyed by coding scheme, version, hierarchy, code and direction.
+ *
+ * The cache is bounded by weight, where the weight of an entry is the number of
+ * neighbours it holds, and evicts the least recently used entries first. It is
+ * cleared when LexEVS content changes. If prewarmLevels is set, the neighbours of
+ * the entities in the top levels of every coding scheme are loaded in the
+ * background at startup and after each change. Children queries page the cached
+ * children of an entity instead of asking LexEVS.
+ *
+ * Cached {@link AssociationList}s are shared, so callers must not modify them.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class HierarchyNeighbourCache
+	implements LexEvsChangeEventObserver, InitializingBean, DisposableBean {
+
+	private static final int DEFAULT_MAX_WEIGHT = 1000000;
+
+	public enum Direction {NEXT, PREV}
+
+	protected Logger log = Logger.getLogger(this.getClass());
+
+	@Resource
+	private LexBIGService lexBigService;
+
+	private LexBIGServiceConvenienceMethods lbscm;
+
+	private int maxWeight = DEFAULT_MAX_WEIGHT;
+
+	private int prewarmLevels = 0;
+
+	private ExecutorService prewarmExecutor;
+
+	private final LinkedHashMap<String, CacheEntry> cache =
+		new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+	private long weight = 0;
+
+	private long generation = 0;
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private final Object mutex = new Object();
+
+	private static class CacheEntry {
+
+		private final AssociationList associations;
+
+		private final int weight;
+
+		private CacheEntry(AssociationList associations){
+			this.associations = associations;
+			this.weight = countNeighbours(associations) + 1;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.lbscm = (LexBIGServiceConvenienceMethods)
+			this.lexBigService.getGenericExtension("LexBIGServiceConvenienceMethods");
+
+		this.prewarmExecutor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "lexevs-hierarchy-prewarm");
+				thread.setDaemon(true);
+				return thread;
+			}
+
+		});
+
+		this.schedulePrewarm();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.prewarmExecutor != null){
+			this.prewarmExecutor.shutdownNow();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.event.LexEvsChangeEventObserver#onChange()
+	 */
+	@Override
+	public void onChange() {
+		synchronized(this.mutex){
+			this.generation++;
+			this.cache.clear();
+			this.weight = 0;
+		}
+
+		this.schedulePrewarm();
+	}
+
+	/**
+	 * Get the children of an entity, as from
+	 * {@link LexBIGServiceConvenienceMethods#getHierarchyLevelNext}.
+	 *
+	 * @param codingScheme the coding scheme name or URI
+	 * @param version the coding scheme version
+	 * @param hierarchyId the hierarchy id, or null for all
+	 * @param code the entity code
+	 * @return the children
+	 * @throws LBException the lB exception
+	 */
+	public AssociationList getHierarchyLevelNext(
+			String codingScheme, String version, String hierarchyId, String code) throws LBException {
+		return this.get(codingScheme, version, hierarchyId, code, Direction.NEXT);
+	}
+
+	/**
+	 * Get the children of an entity only if they are already cached, without
+	 * asking LexEVS.
+	 *
+	 * @param codingScheme the coding scheme name or URI
+	 * @param version the coding scheme version
+	 * @param hierarchyId the hierarchy id, or null for all
+	 * @param code the entity code
+	 * @return the children, or null if they are not cached
+	 */
+	public AssociationList getCachedHierarchyLevelNext(
+			String codingScheme, String version, String hierarchyId, String code) {
+		String key = this.getKey(codingScheme, version, hierarchyId, code, Direction.NEXT);
+
+		synchronized(this.mutex){
+			CacheEntry entry = this.cache.get(key);
+			if(entry != null){
+				this.hits++;
+				return entry.associations;
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Get the parents of an entity, as from
+	 * {@link LexBIGServiceConvenienceMethods#getHierarchyLevelPrev}.
+	 *
+	 * @param codingScheme the coding scheme name or URI
+	 * @param version the coding scheme version
+	 * @param hierarchyId the hierarchy id, or null for all
+	 * @param code the entity code
+	 * @return the parents
+	 * @throws LBException the lB exception
+	 */
+	public AssociationList getHierarchyLevelPrev(
+			String codingScheme, String version, String hierarchyId, String code) throws LBException {
+		return this.get(codingScheme, version, hierarchyId, code, Direction.PREV);
+	}
+
+	protected AssociationList get(
+			String codingScheme,
+			String version,
+			String hierarchyId,
+			String code,
+			Direction direction) throws LBException {
+		String key = this.getKey(codingScheme, version, hierarchyId, code, direction);
+
+		long loadGeneration;
+		synchronized(this.mutex){
+			CacheEntry entry = this.cache.get(key);
+			if(entry != null){
+				this.hits++;
+				return entry.associations;
+			}
+			this.misses++;
+			loadGeneration = this.generation;
+		}
+
+		AssociationList associations = this.load(codingScheme, version, hierarchyId, code, direction);
+
+		synchronized(this.mutex){
+			if(loadGeneration == this.generation && ! this.cache.containsKey(key)){
+				CacheEntry entry = new CacheEntry(associations);
+				this.cache.put(key, entry);
+				this.weight += entry.weight;
+				this.evict();
+			}
+		}
+
+		return associations;
+	}
+
+	private String getKey(
+			String codingScheme,
+			String version,
+			String hierarchyId,
+			String code,
+			Direction direction) {
+		return codingScheme + '\u0000' + version + '\u0000' + hierarchyId + '\u0000' + code + '\u0000' + direction;
+	}
+
+	protected AssociationList load(
+			String codingScheme,
+			String version,
+			String hierarchyId,
+			String code,
+			Direction direction) throws LBException {
+		if(direction == Direction.NEXT){
+			return this.lbscm.getHierarchyLevelNext(
+				codingScheme,
+				Constructors.createCodingSchemeVersionOrTagFromVersion(version),
+				hierarchyId,
+				code,
+				false,
+				null);
+		} else {
+			return this.lbscm.getHierarchyLevelPrev(
+				codingScheme,
+				Constructors.createCodingSchemeVersionOrTagFromVersion(version),
+				hierarchyId,
+				code,
+				false,
+				null);
+		}
+	}
+
+	private void evict(){
+		Iterator<Map.Entry<String, CacheEntry>> itr = this.cache.entrySet().iterator();
+		while(this.weight > this.maxWeight && this.cache.size() > 1 && itr.hasNext()){
+			CacheEntry eldest = itr.next().getValue();
+			itr.remove();
+			this.weight -= eldest.weight;
+		}
+	}
+
+	private static int countNeighbours(AssociationList associations){
+		int count = 0;
+		if(associations != null){
+			for(Association association : associations.getAssociation()){
+				if(association.getAssociatedConcepts() != null){
+					count += association.getAssociatedConcepts().getAssociatedConceptCount();
+				}
+			}
+		}
+
+		return count;
+	}
+
+	private void schedulePrewarm(){
+		if(this.prewarmLevels <= 0 || this.prewarmExecutor == null){
+			return;
+		}
+
+		this.prewarmExecutor.execute(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					prewarm();
+				} catch (Exception e) {
+					log.warn("Could not prewarm the hierarchy cache.", e);
+				}
+			}
+
+		});
+	}
+
+	/**
+	 * Load the children and parents of the top levels of every coding scheme.
+	 * Parents are keyed by coding scheme URI, as {@link EntityTransform} asks for them.
+	 *
+	 * @throws LBException the lB exception
+	 */
+	protected void prewarm() throws LBException {
+		long startTime = System.currentTimeMillis();
+
+		for(CodingSchemeRendering rendering :
+				this.lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+			String name = rendering.getCodingSchemeSummary().getLocalName();
+			String uri = rendering.getCodingSchemeSummary().getCodingSchemeURI();
+			String version = rendering.getCodingSchemeSummary().getRepresentsVersion();
+
+			try {
+				ResolvedConceptReferenceList roots = this.lbscm.getHierarchyRoots(
+					name, Constructors.createCodingSchemeVersionOrTagFromVersion(version), null);
+
+				List<String> level = new ArrayList<String>();
+				for(ResolvedConceptReference root : roots.getResolvedConceptReference()){
+					level.add(root.getCode());
+				}
+
+				for(int i = 0; i < this.prewarmLevels && ! level.isEmpty(); i++){
+					List<String> nextLevel = new ArrayList<String>();
+					for(String code : level){
+						this.getHierarchyLevelPrev(uri, version, null, code);
+
+						AssociationList children = this.getHierarchyLevelNext(name, version, null, code);
+						for(Association association : children.getAssociation()){
+							for(AssociatedConcept child : association.getAssociatedConcepts().getAssociatedConcept()){
+								nextLevel.add(child.getCode());
+							}
+						}
+
+						if(Thread.currentThread().isInterrupted()){
+							return;
+						}
+					}
+					level = nextLevel;
+				}
+			} catch (LBException e) {
+				log.info("Not prewarming the hierarchy of " + name + ":" + version + ".");
+			}
+		}
+
+		log.info("Prewarmed the hierarchy cache to " + this.getWeight() +
+			" neighbours in " + (System.currentTimeMillis() - startTime) + " ms.");
+	}
+
+	public long getWeight() {
+		synchronized(this.mutex){
+			return this.weight;
+		}
+	}
+
+	public long getHits() {
+		synchronized(this.mutex){
+			return this.hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized(this.mutex){
+			return this.misses;
+		}
+	}
+
+	public int getMaxWeight() {
+		return maxWeight;
+	}
+
+	@Value("${hierarchyNeighbourCacheMaxWeight:" + DEFAULT_MAX_WEIGHT + "}")
+	public void setMaxWeight(int maxWeight) {
+		this.maxWeight = maxWeight;
+	}
+
+	public int getPrewarmLevels() {
+		return prewarmLevels;
+	}
+
+	@Value("${hierarchyNeighbourCachePrewarmLevels:0}")
+	public void setPrewarmLevels(int prewarmLevels) {
+		this.prewarmLevels = prewarmLevels;
+	}
+
+}
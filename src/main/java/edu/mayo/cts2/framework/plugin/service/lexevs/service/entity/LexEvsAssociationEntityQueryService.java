@@ -11,19 +11,33 @@ package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
 import javax.annotation.Resource;
 
-import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
 import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
 import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
 import org.LexGrid.LexBIG.Exceptions.LBException;
 import org.LexGrid.LexBIG.Extensions.Generic.LexBIGServiceConvenienceMethods;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
 import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.LexGrid.naming.SupportedHierarchy;
+import org.apache.commons.lang.BooleanUtils;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.stereotype.Component;
 
@@ -45,8 +59,8 @@ import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractLexEvsService;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.DelegatingEntityQueryService.QueryType;
-import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonPageUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonSearchFilterUtils;
+import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.Constants;
 import edu.mayo.cts2.framework.service.command.restriction.EntityDescriptionQueryServiceRestrictions.HierarchyRestriction;
 import edu.mayo.cts2.framework.service.command.restriction.EntityDescriptionQueryServiceRestrictions.HierarchyRestriction.HierarchyType;
@@ -62,6 +76,12 @@ public class LexEvsAssociationEntityQueryService extends AbstractLexEvsService
 	@Resource
 	private EntityTransform transformer;
 	
+	@Resource
+	private HierarchyClosureIndexManager closureIndexManager;
+	
+	@Resource
+	private HierarchyNeighbourCache hierarchyNeighbourCache;
+	
 	private LexBIGServiceConvenienceMethods lbscm;
 	
 	@Override
@@ -85,7 +105,40 @@ public class LexEvsAssociationEntityQueryService extends AbstractLexEvsService
 	// -------- Implemented methods ----------------
 	@Override
 	public int count(EntityDescriptionQuery query) {
-		throw new UnsupportedOperationException();
+		NameVersionPair codesystemVersion = this.getCodeSystemVersion(query);
+		HierarchyRestriction restriction = query.getRestrictions().getHierarchyRestriction();
+		
+		HierarchyClosureIndex index = this.getClosureIndex(codesystemVersion, restriction);
+		if(index != null){
+			String code = restriction.getEntity().getEntityName().getName();
+			
+			return restriction.getHierarchyType().equals(HierarchyType.DESCENDANTS) ? 
+				index.countDescendants(code) : index.countAncestors(code);
+		}
+		
+		List<String> children = this.getCachedChildren(codesystemVersion, restriction);
+		if(children != null){
+			return children.size();
+		}
+		
+		ResolvedConceptReferencesIterator iterator = null;
+		try {
+			CodedNodeSet relatives = this.getRelatives(
+				codesystemVersion, 
+				restriction.getEntity().getEntityName().getName(), 
+				restriction.getHierarchyType());
+			if(relatives == null){
+				return 0;
+			}
+			
+			iterator = relatives.resolve(null, null, null, null, false);
+			
+			return iterator.numberRemaining();
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		} finally {
+			this.release(iterator);
+		}
 	}
 
 	@Override
@@ -99,38 +152,359 @@ public class LexEvsAssociationEntityQueryService extends AbstractLexEvsService
 			SortCriteria sortCriteria, 
 			TransformClosure<T> closure, 
 			Page page) {
-		NameVersionPair codesystemVersion = 
-			this.nameConverter.fromCts2VersionName(
-				query.getRestrictions().getCodeSystemVersions().iterator().next().getName());
-
+		NameVersionPair codesystemVersion = this.getCodeSystemVersion(query);
 		HierarchyRestriction restriction = query.getRestrictions().getHierarchyRestriction();
 		
-		if(restriction.getHierarchyType().equals(HierarchyType.CHILDREN)){
-			AssociationList list;
-			try {
-				list = this.lbscm.getHierarchyLevelNext(
-					codesystemVersion.getName(), 
-					Constructors.createCodingSchemeVersionOrTagFromVersion(codesystemVersion.getVersion()), 
-					null, 
-					restriction.getEntity().getEntityName().getName(), 
-					false, 
-					null);
-			} catch (LBException e) {
-				throw new RuntimeException(e);
+		List<T> transformedList = new ArrayList<T>();
+		
+		ResolvedConceptReferencesIterator iterator = null;
+		try {
+			HierarchyClosureIndex index = this.getClosureIndex(codesystemVersion, restriction);
+			if(index != null){
+				return this.doIndexQuery(index, codesystemVersion, restriction, closure, page);
+			}
+			
+			List<String> children = this.getCachedChildren(codesystemVersion, restriction);
+			if(children != null){
+				int start = Math.min(children.size(), page.getStart());
+				int end = Math.min(children.size(), start + page.getMaxToReturn());
+				
+				return new DirectoryResult<T>(
+					this.resolveCodes(codesystemVersion, children.subList(start, end), closure), 
+					end >= children.size());
+			}
+			
+			CodedNodeSet relatives = this.getRelatives(
+				codesystemVersion, 
+				restriction.getEntity().getEntityName().getName(), 
+				restriction.getHierarchyType());
+			if(relatives == null){
+				return new DirectoryResult<T>(transformedList, true);
 			}
 			
-			List<T> transformedList = this.associationListToDirectoryEntry(
-					list, 
-					closure,
-					page.getStart(), 
-					page.getMaxToReturn() + 1);
+			iterator = relatives.resolve(null, null, null, null, true);
 			
-			boolean atEnd = CommonPageUtils.adjustForOnExtraResult(transformedList, page.getMaxToReturn());
+			int total = iterator.numberRemaining();
+			int start = page.getStart();
+			int end = Math.min(total, start + page.getMaxToReturn());
 			
-			return new DirectoryResult<T>(transformedList, atEnd);
+			if(start < end){
+				for(ResolvedConceptReference ref : iterator.get(start, end).getResolvedConceptReference()){
+					transformedList.add(closure.transform(ref));
+				}
+			}
+			
+			return new DirectoryResult<T>(transformedList, end >= total);
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		} finally {
+			this.release(iterator);
+		}
+	}
+	
+	/**
+	 * Page descendants or ancestors out of the closure index, and resolve only
+	 * the entities of the page.
+	 */
+	private <T> DirectoryResult<T> doIndexQuery(
+			HierarchyClosureIndex index,
+			NameVersionPair codesystemVersion,
+			HierarchyRestriction restriction,
+			TransformClosure<T> closure, 
+			Page page) throws LBException {
+		String code = restriction.getEntity().getEntityName().getName();
+		
+		int total;
+		List<String> codes;
+		if(restriction.getHierarchyType().equals(HierarchyType.DESCENDANTS)){
+			total = index.countDescendants(code);
+			codes = index.getDescendants(code, page.getStart(), page.getMaxToReturn());
+		} else {
+			total = index.countAncestors(code);
+			codes = index.getAncestors(code, page.getStart(), page.getMaxToReturn());
+		}
+		
+		return new DirectoryResult<T>(
+			this.resolveCodes(codesystemVersion, codes, closure), 
+			page.getStart() + codes.size() >= total);
+	}
+	
+	/*
+	 * Resolve the entities of a page of codes, keeping the order of the codes.
+	 */
+	private <T> List<T> resolveCodes(
+			NameVersionPair codesystemVersion,
+			List<String> codes,
+			TransformClosure<T> closure) throws LBException {
+		Map<String, ResolvedConceptReference> refs = new HashMap<String, ResolvedConceptReference>();
+		for(int start = 0; start < codes.size(); start += CommonUtils.MAX_CODES_PER_RESOLVE){
+			int end = Math.min(start + CommonUtils.MAX_CODES_PER_RESOLVE, codes.size());
+			
+			ConceptReferenceList references = new ConceptReferenceList();
+			for(String pageCode : codes.subList(start, end)){
+				ConceptReference reference = new ConceptReference();
+				reference.setCode(pageCode);
+				references.addConceptReference(reference);
+			}
+			
+			CodedNodeSet codedNodeSet = this.getLexBigService().getNodeSet(
+				codesystemVersion.getName(), 
+				Constructors.createCodingSchemeVersionOrTagFromVersion(codesystemVersion.getVersion()), 
+				null);
+			codedNodeSet = codedNodeSet.restrictToCodes(references);
+			
+			ResolvedConceptReferencesIterator iterator = codedNodeSet.resolve(null, null, null, null, true);
+			try {
+				while(iterator.hasNext()){
+					for(ResolvedConceptReference ref : 
+						iterator.next(CommonUtils.MAX_CODES_PER_RESOLVE).getResolvedConceptReference()){
+						if(! refs.containsKey(ref.getCode())){
+							refs.put(ref.getCode(), ref);
+						}
+					}
+				}
+			} finally {
+				this.release(iterator);
+			}
+		}
+		
+		List<T> transformedList = new ArrayList<T>();
+		for(String pageCode : codes){
+			ResolvedConceptReference ref = refs.get(pageCode);
+			if(ref != null){
+				transformedList.add(closure.transform(ref));
+			}
+		}
+		
+		return transformedList;
+	}
+	
+	/**
+	 * Check whether an entity is a descendant of another one in any hierarchy
+	 * of a code system version.
+	 *
+	 * @param codeSystemVersionName the CTS2 code system version name
+	 * @param code the entity code
+	 * @param ancestorCode the code of the possible ancestor
+	 * @return true if code is below ancestorCode
+	 */
+	public boolean isDescendant(String codeSystemVersionName, String code, String ancestorCode) {
+		return this.isDescendant(
+			codeSystemVersionName,
+			Arrays.asList(code),
+			Arrays.asList(ancestorCode))[0];
+	}
+
+	/**
+	 * Check many (entity, ancestor) pairs at once. The closure index answers each
+	 * pair with a binary search. Until the index is built, the ancestors of each
+	 * distinct entity are restricted to the asked for codes and resolved once.
+	 * Only codes are compared, namespaces are not.
+	 *
+	 * @param codeSystemVersionName the CTS2 code system version name
+	 * @param codes the entity codes
+	 * @param ancestorCodes the codes of the possible ancestors, one for each entity code
+	 * @return for each pair, true if the entity is below the ancestor
+	 */
+	public boolean[] isDescendant(
+			String codeSystemVersionName, List<String> codes, List<String> ancestorCodes) {
+		if(codes.size() != ancestorCodes.size()){
+			throw new IllegalArgumentException("Each entity code needs one ancestor code.");
+		}
+
+		if(! this.nameConverter.isValidVersionName(codeSystemVersionName)){
+			throw new IllegalArgumentException(
+				"Code system version " + codeSystemVersionName + " is not valid.");
+		}
+
+		NameVersionPair codesystemVersion = this.nameConverter.fromCts2VersionName(codeSystemVersionName);
+
+		boolean[] returnArray = new boolean[codes.size()];
+
+		HierarchyClosureIndex index = this.closureIndexManager.getIndex(codesystemVersion);
+		if(index != null){
+			for(int i = 0; i < returnArray.length; i++){
+				returnArray[i] = index.isDescendant(codes.get(i), ancestorCodes.get(i));
+			}
+
+			return returnArray;
+		}
+
+		Map<String, Set<String>> askedAncestors = new LinkedHashMap<String, Set<String>>();
+		for(int i = 0; i < returnArray.length; i++){
+			if(! askedAncestors.containsKey(codes.get(i))){
+				askedAncestors.put(codes.get(i), new HashSet<String>());
+			}
+			askedAncestors.get(codes.get(i)).add(ancestorCodes.get(i));
+		}
+
+		Map<String, Set<String>> foundAncestors = new HashMap<String, Set<String>>();
+		try {
+			for(Entry<String, Set<String>> entry : askedAncestors.entrySet()){
+				foundAncestors.put(entry.getKey(),
+					this.findAncestors(codesystemVersion, entry.getKey(), entry.getValue()));
+			}
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+
+		for(int i = 0; i < returnArray.length; i++){
+			returnArray[i] = foundAncestors.get(codes.get(i)).contains(ancestorCodes.get(i));
+		}
+
+		return returnArray;
+	}
+
+	/*
+	 * Which of the given codes are ancestors of an entity.
+	 */
+	private Set<String> findAncestors(
+			NameVersionPair codesystemVersion, String code, Set<String> ancestorCodes) throws LBException {
+		Set<String> returnSet = new HashSet<String>();
+
+		CodedNodeSet ancestors = this.getRelatives(codesystemVersion, code, HierarchyType.ANCESTORS);
+		if(ancestors == null){
+			return returnSet;
+		}
+
+		ancestors = ancestors.restrictToCodes(Constructors.createConceptReferenceList(
+			ancestorCodes.toArray(new String[ancestorCodes.size()]), codesystemVersion.getName()));
+
+		ResolvedConceptReferencesIterator iterator = ancestors.resolve(null, null, null, null, false);
+		try {
+			while(iterator.hasNext()){
+				for(ResolvedConceptReference ref :
+					iterator.next(CommonUtils.MAX_CODES_PER_RESOLVE).getResolvedConceptReference()){
+					returnSet.add(ref.getCode());
+				}
+			}
+		} finally {
+			this.release(iterator);
+		}
+
+		return returnSet;
+	}
+
+	/*
+	 * The children of the restricted entity in all hierarchies, if the hierarchy
+	 * cache already holds them -- otherwise null, and LexEVS is asked directly.
+	 */
+	private List<String> getCachedChildren(
+			NameVersionPair codesystemVersion, HierarchyRestriction restriction){
+		if(this.hierarchyNeighbourCache == null || 
+				! restriction.getHierarchyType().equals(HierarchyType.CHILDREN)){
+			return null;
+		}
+		
+		AssociationList associations = this.hierarchyNeighbourCache.getCachedHierarchyLevelNext(
+			codesystemVersion.getName(), 
+			codesystemVersion.getVersion(), 
+			null, 
+			restriction.getEntity().getEntityName().getName());
+		if(associations == null){
+			return null;
+		}
+		
+		Set<String> children = new LinkedHashSet<String>();
+		for(Association association : associations.getAssociation()){
+			if(association.getAssociatedConcepts() != null){
+				for(AssociatedConcept child : association.getAssociatedConcepts().getAssociatedConcept()){
+					children.add(child.getCode());
+				}
+			}
+		}
+		
+		return new ArrayList<String>(children);
+	}
+	
+	private NameVersionPair getCodeSystemVersion(EntityDescriptionQuery query){
+		return this.nameConverter.fromCts2VersionName(
+			query.getRestrictions().getCodeSystemVersions().iterator().next().getName());
+	}
+	
+	/*
+	 * The closure index answers DESCENDANTS and ANCESTORS once it is built.
+	 */
+	private HierarchyClosureIndex getClosureIndex(
+			NameVersionPair codesystemVersion, HierarchyRestriction restriction){
+		HierarchyType type = restriction.getHierarchyType();
+		if(! type.equals(HierarchyType.DESCENDANTS) && ! type.equals(HierarchyType.ANCESTORS)){
+			return null;
+		}
+		
+		return this.closureIndexManager.getIndex(codesystemVersion);
+	}
+	
+	/**
+	 * Build the set of children, descendants or ancestors of the restricted entity,
+	 * without resolving it. Each hierarchy of the coding scheme is navigated from the
+	 * entity in its own direction, one level for children and all levels otherwise,
+	 * and the results are combined.
+	 *
+	 * @param codesystemVersion the code system version
+	 * @param code the entity code
+	 * @param type the hierarchy relation
+	 * @return the related entities, or null if the coding scheme has no hierarchies
+	 * @throws LBException the lB exception
+	 */
+	protected CodedNodeSet getRelatives(
+			NameVersionPair codesystemVersion, String code, HierarchyType type) throws LBException {
+		int depth;
+		boolean down;
+		if(type.equals(HierarchyType.CHILDREN)){
+			depth = 1;
+			down = true;
+		} else if(type.equals(HierarchyType.DESCENDANTS)){
+			depth = -1;
+			down = true;
+		} else if(type.equals(HierarchyType.ANCESTORS)){
+			depth = -1;
+			down = false;
 		} else {
 			throw new IllegalStateException();
 		}
+		
+		String name = codesystemVersion.getName();
+		CodingSchemeVersionOrTag versionOrTag = 
+			Constructors.createCodingSchemeVersionOrTagFromVersion(codesystemVersion.getVersion());
+		
+		LexBIGService lexBigService = this.getLexBigService();
+		
+		CodedNodeSet relatives = null;
+		for(String hierarchyId : this.lbscm.getHierarchyIDs(name, versionOrTag)){
+			SupportedHierarchy hierarchy = this.lbscm.getHierarchyDefinition(name, versionOrTag, hierarchyId);
+			boolean forward = BooleanUtils.toBoolean(hierarchy.getIsForwardNavigable());
+			
+			CodedNodeGraph graph = lexBigService.getNodeGraph(name, versionOrTag, null);
+			graph = graph.restrictToAssociations(
+				Constructors.createNameAndValueList(hierarchy.getAssociationNames()), null);
+			
+			CodedNodeSet hierarchyRelatives = graph.toNodeList(
+				Constructors.createConceptReference(code, name), forward == down, forward != down, depth, -1);
+			
+			relatives = relatives == null ? hierarchyRelatives : relatives.union(hierarchyRelatives);
+		}
+		
+		if(relatives == null){
+			return null;
+		}
+		
+		//the node list includes the focus itself, and ancestors may reach the root
+		CodedNodeSet excluded = lexBigService.getNodeSet(name, versionOrTag, null);
+		excluded = excluded.restrictToCodes(
+			Constructors.createConceptReferenceList(new String[]{code, "@", "@@"}, name));
+		
+		return relatives.difference(excluded);
+	}
+	
+	private void release(ResolvedConceptReferencesIterator iterator){
+		if(iterator != null){
+			try {
+				iterator.release();
+			} catch (LBException e) {
+				log.warn("Could not release the hierarchy iterator.", e);
+			}
+		}
 	}
 	
 	@Override
@@ -145,45 +519,23 @@ public class LexEvsAssociationEntityQueryService extends AbstractLexEvsService
 	}
 
 	private interface TransformClosure<T> {
-		T transform(AssociatedConcept ac);
+		T transform(ResolvedConceptReference ref);
 	}
 	
 	private TransformClosure<EntityListEntry> listClosure = new TransformClosure<EntityListEntry>(){
 		@Override
-		public EntityListEntry transform(AssociatedConcept ac) {
-			return transformer.transformFullDescription(ac);
+		public EntityListEntry transform(ResolvedConceptReference ref) {
+			return transformer.transformFullDescription(ref);
 		}
 	};
 	
 	private TransformClosure<EntityDirectoryEntry> entryClosure = new TransformClosure<EntityDirectoryEntry>(){
 		@Override
-		public EntityDirectoryEntry transform(AssociatedConcept ac) {
-			return transformer.transformSummaryDescription(ac);
+		public EntityDirectoryEntry transform(ResolvedConceptReference ref) {
+			return transformer.transformSummaryDescription(ref);
 		}
 	};
 	
-	protected <T> List<T> associationListToDirectoryEntry(
-			AssociationList list, TransformClosure<T> closure, int start, int max){
-		List<T> returnList = new ArrayList<T>();
-		int counter = 0;
-		
-		if(list != null){
-			for(Association association : list.getAssociation()){
-				AssociatedConceptList conceptList = association.getAssociatedConcepts();
-				if(conceptList != null){
-					for(AssociatedConcept ac : conceptList.getAssociatedConcept()){
-						if(counter >= start && returnList.size() < max){
-							returnList.add(closure.transform(ac));
-						}
-						counter++;
-					}
-				}
-			}
-		}
-		
-		return returnList;
-	}
-	
 	@Override
 	public Set<? extends MatchAlgorithmReference> getSupportedMatchAlgorithms() {
 		return CommonSearchFilterUtils.getLexSupportedMatchAlgorithms();
@@ -235,7 +587,8 @@ public class LexEvsAssociationEntityQueryService extends AbstractLexEvsService
 
 	@Override
 	public boolean canHandle(EntityDescriptionQuery query, QueryType queryType) {
-		return query.getRestrictions().getHierarchyRestriction() != null;
+		return ! queryType.equals(QueryType.MEMBERSHIP) &&
+			query.getRestrictions().getHierarchyRestriction() != null;
 	}
 
 	@Override
@@ -11,8 +11,10 @@ package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Resource;
@@ -23,7 +25,11 @@ import edu.mayo.cts2.framework.model.command.ResolvedFilter;
 import edu.mayo.cts2.framework.model.core.ModelAttributeReference;
 import edu.mayo.cts2.framework.model.core.URIAndEntityName;
 import edu.mayo.cts2.framework.service.meta.StandardModelAttributeReference;
+import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.Exceptions.LBException;
 import org.LexGrid.LexBIG.Exceptions.LBInvocationException;
 import org.LexGrid.LexBIG.Exceptions.LBParameterException;
 import org.LexGrid.LexBIG.Exceptions.LBResourceUnavailableException;
@@ -32,6 +38,7 @@ import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
 import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.queryParser.QueryParser;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Primary;
 import org.springframework.stereotype.Component;
 
@@ -53,6 +60,7 @@ import edu.mayo.cts2.framework.model.service.core.EntityNameOrURIList;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractLexEvsService;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.DelegatingEntityQueryService.QueryType;
+import edu.mayo.cts2.framework.plugin.service.lexevs.uri.UriUtils.BadUriException;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonPageUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonResourceUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonSearchFilterUtils;
@@ -77,6 +85,15 @@ public class LexEvsEntityQueryService extends AbstractLexEvsService
 	
 	@Resource
 	private EntityTransform transformer;
+	
+	@Resource
+	private EntityUriResolver entityUriResolver;
+	
+	private static final int RESOLVE_BATCH_SIZE = 1000;
+	
+	private static final int DEFAULT_MAX_ENTITY_REFERENCES = 100000;
+	
+	private int maxEntityReferences = DEFAULT_MAX_ENTITY_REFERENCES;
 		
 	// ------ Local methods ----------------------
 	public void setCodeSystemVersionNameConverter(
@@ -118,44 +135,188 @@ public class LexEvsEntityQueryService extends AbstractLexEvsService
 	@Override
 	public boolean isEntityInSet(EntityNameOrURI nameOrUri,
 			EntityDescriptionQuery query, ResolvedReadContext readContext) {
-		SortCriteria sortCriteria = null;
+		ConceptReference cts2Code = this.toConceptReference(nameOrUri);
+		if(cts2Code == null){
+			return false;
+		}
 		
-		LexBIGService lexBigService = this.getLexBigService();
-		QueryData<EntityDescriptionQuery> queryData = new QueryData<EntityDescriptionQuery>(query, nameConverter);
+		CodedNodeSet codedNodeSet = this.getCodedNodeSet(query);
+		if(codedNodeSet == null){
+			return false;
+		}
+		
+		try {
+			return codedNodeSet.isCodeInSet(cts2Code);
+		} catch (LBInvocationException e) {
+			throw new RuntimeException(e);
+		} catch (LBParameterException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	/**
+	 * Restrict the query's CodedNodeSet to the given entities and resolve it,
+	 * without resolving the entity objects. The code restriction is split so
+	 * no single resolve has more than {@link CommonUtils#MAX_CODES_PER_RESOLVE} codes.
+	 */
+	@Override
+	public EntityNameOrURIList intersectEntityList(
+			Set<EntityNameOrURI> entities,
+			EntityDescriptionQuery query, 
+			ResolvedReadContext readContext) {
+		List<EntityNameOrURI> candidates = new ArrayList<EntityNameOrURI>();
+		List<ConceptReference> codes = new ArrayList<ConceptReference>();
 		
-		CodedNodeSet codedNodeSet = CommonResourceUtils.getLexCodedNodeSet(lexBigService, queryData, sortCriteria);
+		if(entities != null){
+			for(EntityNameOrURI entity : entities){
+				ConceptReference code = this.toConceptReference(entity);
+				if(code != null){
+					candidates.add(entity);
+					codes.add(code);
+				}
+			}
+		}
 		
-		// TODO: CodedNodeSet still needs to be filtered by restrictions:
-		// restrictions.getEntities  <<--- completed in getCodedNodeSet method
-		// restrictions.getTaggedCodeSystem -- *** unclear how to handle this restriction ****
+		EntityNameOrURIList returnList = new EntityNameOrURIList();
+		for(int start = 0; start < codes.size(); start += CommonUtils.MAX_CODES_PER_RESOLVE){
+			int end = Math.min(start + CommonUtils.MAX_CODES_PER_RESOLVE, codes.size());
+			
+			boolean[] found = this.findCodesInSet(query, codes.subList(start, end));
+			for(int i = 0; i < found.length; i++){
+				if(found[i]){
+					returnList.addEntry(candidates.get(start + i));
+				}
+			}
+		}
 		
+		return returnList;
+	}
+	
+	private boolean[] findCodesInSet(EntityDescriptionQuery query, List<ConceptReference> codes){
+		boolean[] found = new boolean[codes.size()];
 		
+		CodedNodeSet codedNodeSet = this.getCodedNodeSet(query);
+		if(codedNodeSet == null){
+			return found;
+		}
 		
-		ScopedEntityName entityName = nameOrUri.getEntityName();
-		String uri = nameOrUri.getUri();
+		ConceptReferenceList referenceList = new ConceptReferenceList();
+		Map<String, List<Integer>> indexesByCode = new HashMap<String, List<Integer>>();
+		for(int i = 0; i < codes.size(); i++){
+			ConceptReference code = codes.get(i);
+			referenceList.addConceptReference(code);
+			
+			if(! indexesByCode.containsKey(code.getCode())){
+				indexesByCode.put(code.getCode(), new ArrayList<Integer>());
+			}
+			indexesByCode.get(code.getCode()).add(i);
+		}
 		
-		ConceptReference cts2Code = new ConceptReference();
 		try {
-			if(entityName != null){
-				String code = entityName.getName();
-				String nameSpace = entityName.getNamespace();
+			codedNodeSet = codedNodeSet.restrictToCodes(referenceList);
+			
+			ResolvedConceptReferencesIterator iterator = codedNodeSet.resolve(null, null, null, null, false);
+			try {
+				while(iterator.hasNext()){
+					ResolvedConceptReferenceList list = iterator.next(RESOLVE_BATCH_SIZE);
+					
+					for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+						List<Integer> indexes = indexesByCode.get(ref.getCode());
+						if(indexes == null){
+							continue;
+						}
+						
+						for(Integer index : indexes){
+							String namespace = codes.get(index).getCodeNamespace();
+							if(namespace == null || namespace.equals(ref.getCodeNamespace())){
+								found[index] = true;
+							}
+						}
+					}
+				}
+			} finally {
+				iterator.release();
+			}
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+		
+		return found;
+	}
+	
+	/**
+	 * Resolve the query as entity references only, without resolving the entity objects.
+	 */
+	@Override
+	public EntityReferenceList resolveAsEntityReferenceList(
+			EntityDescriptionQuery query, 
+			ResolvedReadContext readContext) {
+		EntityReferenceList returnList = new EntityReferenceList();
+		
+		CodedNodeSet codedNodeSet = this.getCodedNodeSet(query);
+		if(codedNodeSet == null){
+			return returnList;
+		}
+		
+		try {
+			ResolvedConceptReferencesIterator iterator = codedNodeSet.resolve(null, null, null, null, false);
+			try {
+				if(iterator.numberRemaining() > this.maxEntityReferences){
+					throw new IllegalArgumentException(
+						"The query matches " + iterator.numberRemaining() + 
+						" entities, more than the " + this.maxEntityReferences + 
+						" that can be returned as one list. Restrict the query, or page through its entities instead.");
+				}
 				
-				cts2Code.setCode(code);
-				cts2Code.setCodeNamespace(nameSpace);
-				return codedNodeSet.isCodeInSet(cts2Code);
+				while(iterator.hasNext()){
+					ResolvedConceptReferenceList list = iterator.next(RESOLVE_BATCH_SIZE);
+					
+					for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+						returnList.addEntry(this.transformer.transformEntityReference(ref));
+					}
+				}
+			} finally {
+				iterator.release();
 			}
-			else if(uri != null){
-				// TODO need to lookup in LexEVS, turn uri into name LexEvs can understand then update cts2Code object
-				return codedNodeSet.isCodeInSet(cts2Code);
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+		
+		return returnList;
+	}
+	
+	private CodedNodeSet getCodedNodeSet(EntityDescriptionQuery query){
+		QueryData<EntityDescriptionQuery> queryData = new QueryData<EntityDescriptionQuery>(query, nameConverter);
+		
+		return CommonResourceUtils.getLexCodedNodeSet(this.getLexBigService(), queryData, null);
+	}
+	
+	/**
+	 * Convert an entity name or URI to a LexEVS code.
+	 *
+	 * @return the code, or null if a URI cannot be resolved
+	 */
+	private ConceptReference toConceptReference(EntityNameOrURI nameOrUri){
+		ScopedEntityName entityName = nameOrUri.getEntityName();
+		
+		if(entityName == null && nameOrUri.getUri() != null){
+			try {
+				entityName = this.entityUriResolver.resolveUri(nameOrUri.getUri());
+			} catch (BadUriException e){
+				return null;
 			}
+		}
 		
-		} catch (LBInvocationException e) {
-			throw new RuntimeException(e);
-		} catch (LBParameterException e) {
-			throw new RuntimeException(e);
+		if(entityName == null){
+			return null;
 		}
 		
-		return false;
+		ConceptReference code = new ConceptReference();
+		code.setCode(entityName.getName());
+		code.setCodeNamespace(
+			this.nameConverter.getCodingSchemeNameTranslator().translateToLexGrid(entityName.getNamespace()));
+		
+		return code;
 	}
 
 	@Override
@@ -168,10 +329,17 @@ public class LexEvsEntityQueryService extends AbstractLexEvsService
 		ResolvedConceptReferenceResults resolvedConceptReferenceResultsPage;
 		resolvedConceptReferenceResultsPage = CommonPageUtils.getPage(lexBigService, queryData, sortCriteria, page);
 
-		DirectoryResult<EntityListEntry> directoryResult;
-		directoryResult = CommonResourceUtils.createDirectoryResults(this.transformer, resolvedConceptReferenceResultsPage, Constants.FULL_DESCRIPTION);
+		if(resolvedConceptReferenceResultsPage == null || 
+				resolvedConceptReferenceResultsPage.getLexResolvedConceptReference() == null){
+			return CommonResourceUtils.createDirectoryResults(this.transformer, resolvedConceptReferenceResultsPage, Constants.FULL_DESCRIPTION);
+		}
+		
+		//transform the page together, so parents are resolved for the whole page at once
+		List<EntityListEntry> entries = this.transformer.transformFullDescriptions(
+			Arrays.asList(resolvedConceptReferenceResultsPage.getLexResolvedConceptReference()), 
+			EntityProjection.fromCurrentRequest());
 
-		return directoryResult;
+		return new DirectoryResult<EntityListEntry>(entries, resolvedConceptReferenceResultsPage.isAtEnd());
 	}
 
 	@Override
@@ -217,22 +385,6 @@ public class LexEvsEntityQueryService extends AbstractLexEvsService
 	}
 
 	
-	// Not going to implement following methods
-	// ----------------------------------------
-	@Override
-	public EntityReferenceList resolveAsEntityReferenceList(
-			EntityDescriptionQuery arg0, ResolvedReadContext arg1) {
-		throw new UnsupportedOperationException();
-	}
-	
-	@Override
-	public EntityNameOrURIList intersectEntityList(
-			Set<EntityNameOrURI> entities,
-			EntityDescriptionQuery restrictions, 
-			ResolvedReadContext readContext) {
-		throw new UnsupportedOperationException();
-	}
-
 	// Methods returning empty lists or sets
 	// -------------------------------------
 	@Override
@@ -274,6 +426,15 @@ public class LexEvsEntityQueryService extends AbstractLexEvsService
         return true;
     }
 
+	public int getMaxEntityReferences() {
+		return maxEntityReferences;
+	}
+
+	@Value("${entityReferenceListMaxEntities:" + DEFAULT_MAX_ENTITY_REFERENCES + "}")
+	public void setMaxEntityReferences(int maxEntityReferences) {
+		this.maxEntityReferences = maxEntityReferences;
+	}
+
 	@Override
 	public int getOrder() {
 		return 1;
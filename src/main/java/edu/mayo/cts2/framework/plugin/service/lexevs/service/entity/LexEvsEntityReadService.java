@@ -10,6 +10,7 @@ package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.annotation.Resource;
@@ -66,6 +67,9 @@ public class LexEvsEntityReadService extends AbstractLexEvsService
 	@Resource
 	private EntityUriResolver entityUriResolver;
 	
+	@Resource
+	private EntityCodeFilterManager entityCodeFilterManager;
+	
 	private SearchExtension searchExtension;
 	
 	@Override
@@ -93,27 +97,109 @@ public class LexEvsEntityReadService extends AbstractLexEvsService
 	public EntityDescription read(
 			EntityDescriptionReadId identifier,
 			ResolvedReadContext readContext) {
+		return this.read(identifier, readContext, EntityProjection.fromCurrentRequest());
+	}
+	
+	/**
+	 * Read an entity, resolving and transforming only the parts in the projection.
+	 *
+	 * @param identifier the identifier
+	 * @param readContext the read context
+	 * @param projection the parts to include
+	 * @return the entity description, or null if not found
+	 */
+	public EntityDescription read(
+			EntityDescriptionReadId identifier,
+			ResolvedReadContext readContext,
+			EntityProjection projection) {
+		if(! this.mightExist(identifier)){
+			return null;
+		}
+		
 		LexBIGService lexBigService = this.getLexBigService();
-		ResolvedConceptReference entity = CommonUtils.getLexResolvedConceptReference(lexBigService, nameConverter, identifier, readContext);
+		ResolvedConceptReference entity = CommonUtils.getLexResolvedConceptReference(
+			lexBigService, nameConverter, identifier, readContext, projection.getPropertyTypes());
 		
 		if(entity == null){
 			return null;
 		} else {
-			EntityListEntry listEntry = this.transformer.transformFullDescription(entity);
+			EntityListEntry listEntry = this.transformer.transformFullDescription(entity, projection);
 			
 			return listEntry == null ? null : listEntry.getEntry();
 		}
 	}
 
+	/**
+	 * Read many entities at once. Entities of the same code system version are
+	 * resolved together, so the number of LexEVS round trips depends on the number
+	 * of code system versions rather than the number of entities.
+	 *
+	 * @param identifiers the entities to read
+	 * @param readContext the read context
+	 * @return the full descriptions in the order of the identifiers, with null for any not found
+	 */
+	public List<EntityDescription> readEntityDescriptions(
+			List<EntityDescriptionReadId> identifiers,
+			ResolvedReadContext readContext) {
+		List<EntityDescriptionReadId> candidates = new ArrayList<EntityDescriptionReadId>();
+		for(EntityDescriptionReadId identifier : identifiers){
+			candidates.add(this.mightExist(identifier) ? identifier : null);
+		}
+		
+		List<ResolvedConceptReference> entities = CommonUtils.getLexResolvedConceptReferences(
+			this.getLexBigService(), nameConverter, candidates, readContext);
+		
+		List<ResolvedConceptReference> found = new ArrayList<ResolvedConceptReference>();
+		for(ResolvedConceptReference entity : entities){
+			if(entity != null){
+				found.add(entity);
+			}
+		}
+		
+		Iterator<EntityListEntry> listEntries = this.transformer.transformFullDescriptions(
+			found, EntityProjection.fromCurrentRequest()).iterator();
+		
+		List<EntityDescription> returnList = new ArrayList<EntityDescription>();
+		for(ResolvedConceptReference entity : entities){
+			EntityListEntry listEntry = entity == null ? null : listEntries.next();
+			
+			returnList.add(listEntry == null ? null : listEntry.getEntry());
+		}
+		
+		return returnList;
+	}
+
 	@Override
 	public boolean exists(EntityDescriptionReadId identifier,
 			ResolvedReadContext readContext) {
+		if(! this.mightExist(identifier)){
+			return false;
+		}
+		
 		LexBIGService lexBigService = this.getLexBigService();
 		
 		ResolvedConceptReference entity = CommonUtils.getLexResolvedConceptReference(lexBigService, nameConverter, identifier,	readContext);
 		return (entity == null) ? false : true;
 	}
 	
+	/**
+	 * Check the code filter of the code system version, so codes that are
+	 * certainly not there do not cost a LexEVS round trip.
+	 */
+	private boolean mightExist(EntityDescriptionReadId identifier){
+		if(identifier == null || 
+				identifier.getEntityName() == null ||
+				identifier.getCodeSystemVersion() == null ||
+				identifier.getCodeSystemVersion().getName() == null ||
+				! this.nameConverter.isValidVersionName(identifier.getCodeSystemVersion().getName())){
+			return true;
+		}
+		
+		return this.entityCodeFilterManager.mightExist(
+			this.nameConverter.fromCts2VersionName(identifier.getCodeSystemVersion().getName()), 
+			identifier.getEntityName().getName());
+	}
+	
 	@Override
 	public List<VersionTagReference> getSupportedVersionTags() {
 		return Arrays.asList(Constants.CURRENT_TAG);
@@ -0,0 +1,277 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.commonTypes.EntityDescription;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.model.command.Page;
+import edu.mayo.cts2.framework.model.command.ResolvedFilter;
+import edu.mayo.cts2.framework.model.command.ResolvedReadContext;
+import edu.mayo.cts2.framework.model.core.ComponentReference;
+import edu.mayo.cts2.framework.model.core.EntityReferenceList;
+import edu.mayo.cts2.framework.model.core.MatchAlgorithmReference;
+import edu.mayo.cts2.framework.model.core.PredicateReference;
+import edu.mayo.cts2.framework.model.core.SortCriteria;
+import edu.mayo.cts2.framework.model.core.VersionTagReference;
+import edu.mayo.cts2.framework.model.directory.DirectoryResult;
+import edu.mayo.cts2.framework.model.entity.EntityDirectoryEntry;
+import edu.mayo.cts2.framework.model.entity.EntityListEntry;
+import edu.mayo.cts2.framework.model.service.core.DocumentedNamespaceReference;
+import edu.mayo.cts2.framework.model.service.core.EntityNameOrURI;
+import edu.mayo.cts2.framework.model.service.core.EntityNameOrURIList;
+import edu.mayo.cts2.framework.model.service.core.NameOrURI;
+import edu.mayo.cts2.framework.model.service.core.types.ActiveOrAll;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractLexEvsService;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.DelegatingEntityQueryService.QueryType;
+import edu.mayo.cts2.framework.plugin.service.lexevs.utility.Constants;
+import edu.mayo.cts2.framework.service.meta.StandardMatchAlgorithmReference;
+import edu.mayo.cts2.framework.service.meta.StandardModelAttributeReference;
+import edu.mayo.cts2.framework.service.profile.entitydescription.EntityDescriptionQuery;
+
+/**
+ * Answers 'startsWith' designation searches of a single code system version from
+ * a {@link DesignationPrefixIndex}, without going to LexEVS. Results are ranked
+ * best match first.
+ *
+ * Queries this cannot handle, including those against a code system version whose
+ * index is still being built, are left to the other delegates.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class PrefixIndexEntityQueryService extends AbstractLexEvsService
+	implements DelegateEntityQueryService {
+
+	@Resource
+	private DesignationPrefixIndexManager designationPrefixIndexManager;
+
+	@Resource
+	private EntityTransform transformer;
+
+	@Resource
+	private VersionNameConverter versionNameConverter;
+
+	@Override
+	public DirectoryResult<EntityDirectoryEntry> getResourceSummaries(
+			EntityDescriptionQuery query,
+			SortCriteria sortCriteria,
+			Page page) {
+		NameVersionPair version = this.getVersion(query);
+		DesignationPrefixIndex index = this.getIndex(version);
+
+		//ask for one more than needed to know if this is the last page
+		List<DesignationPrefixIndex.Hit> hits = index.search(
+			this.getFilter(query).getMatchValue(),
+			this.isActiveOnly(query),
+			page.getStart(),
+			page.getMaxToReturn() + 1);
+
+		boolean atEnd = hits.size() <= page.getMaxToReturn();
+
+		List<EntityDirectoryEntry> entries = new ArrayList<EntityDirectoryEntry>();
+		for(DesignationPrefixIndex.Hit hit : hits){
+			if(entries.size() == page.getMaxToReturn()){
+				break;
+			}
+			entries.add(this.transformer.transformSummaryDescription(
+				this.toReference(hit, version, index)));
+		}
+
+		return new DirectoryResult<EntityDirectoryEntry>(entries, atEnd);
+	}
+
+	@Override
+	public int count(EntityDescriptionQuery query) {
+		DesignationPrefixIndex index = this.getIndex(this.getVersion(query));
+
+		return index.count(this.getFilter(query).getMatchValue(), this.isActiveOnly(query));
+	}
+
+	@Override
+	public boolean canHandle(EntityDescriptionQuery query, QueryType queryType) {
+		if(queryType.equals(QueryType.LIST) ||
+				queryType.equals(QueryType.MEMBERSHIP) ||
+				query.getEntitiesFromAssociationsQuery() != null ||
+				query.getRestrictions() == null ||
+				query.getRestrictions().getHierarchyRestriction() != null ||
+				! this.isEmpty(query.getRestrictions().getEntities()) ||
+				! this.isEmpty(query.getRestrictions().getTaggedCodeSystems()) ||
+				query.getRestrictions().getCodeSystemVersions().size() != 1 ||
+				this.getFilter(query) == null){
+			return false;
+		}
+
+		NameVersionPair version = this.getVersion(query);
+
+		return version != null &&
+			this.designationPrefixIndexManager.getIndex(version) != null;
+	}
+
+	private boolean isEmpty(Set<?> set){
+		return set == null || set.isEmpty();
+	}
+
+	/**
+	 * Gets the single 'startsWith' designation filter of the query.
+	 *
+	 * @param query the query
+	 * @return the filter, or null if the query has any other filters
+	 */
+	private ResolvedFilter getFilter(EntityDescriptionQuery query){
+		Set<ResolvedFilter> filters = query.getFilterComponent();
+		if(filters == null || filters.size() != 1){
+			return null;
+		}
+
+		ResolvedFilter filter = filters.iterator().next();
+
+		if(! StandardMatchAlgorithmReference.STARTS_WITH.getMatchAlgorithmReference().equals(
+				filter.getMatchAlgorithmReference())){
+			return null;
+		}
+
+		for(ComponentReference supported : this.getSupportedSearchReferences()){
+			if(filter.getComponentReference().getChoiceValue().equals(supported.getChoiceValue().toString())){
+				return filter;
+			}
+		}
+
+		return null;
+	}
+
+	private NameVersionPair getVersion(EntityDescriptionQuery query){
+		NameOrURI version = query.getRestrictions().getCodeSystemVersions().iterator().next();
+
+		if(version == null ||
+				version.getName() == null ||
+				! this.versionNameConverter.isValidVersionName(version.getName())){
+			return null;
+		}
+
+		return this.versionNameConverter.fromCts2VersionName(version.getName());
+	}
+
+	private DesignationPrefixIndex getIndex(NameVersionPair version){
+		DesignationPrefixIndex index = this.designationPrefixIndexManager.getIndex(version);
+		if(index == null){
+			throw new IllegalStateException(
+				"No designation index is available for " + version.getName() + ".");
+		}
+
+		return index;
+	}
+
+	private boolean isActiveOnly(EntityDescriptionQuery query){
+		ResolvedReadContext readContext = query.getReadContext();
+
+		return readContext != null && ActiveOrAll.ACTIVE_ONLY.equals(readContext.getActive());
+	}
+
+	private ResolvedConceptReference toReference(
+			DesignationPrefixIndex.Hit hit,
+			NameVersionPair version,
+			DesignationPrefixIndex index){
+		ResolvedConceptReference ref = new ResolvedConceptReference();
+		ref.setCode(hit.getCode());
+		ref.setCodeNamespace(hit.getNamespace());
+		ref.setCodingSchemeName(version.getName());
+		ref.setCodingSchemeVersion(version.getVersion());
+		ref.setCodingSchemeURI(index.getCodingSchemeUri());
+
+		if(hit.getDescription() != null){
+			EntityDescription description = new EntityDescription();
+			description.setContent(hit.getDescription());
+			ref.setEntityDescription(description);
+		}
+
+		return ref;
+	}
+
+	@Override
+	public DirectoryResult<EntityListEntry> getResourceList(
+			EntityDescriptionQuery query,
+			SortCriteria sortCriteria,
+			Page page) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public boolean isEntityInSet(
+			EntityNameOrURI entity,
+			EntityDescriptionQuery restrictions,
+			ResolvedReadContext readContext) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public EntityReferenceList resolveAsEntityReferenceList(
+			EntityDescriptionQuery restrictions,
+			ResolvedReadContext readContext) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public EntityNameOrURIList intersectEntityList(
+			Set<EntityNameOrURI> entities,
+			EntityDescriptionQuery restrictions,
+			ResolvedReadContext readContext) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public Set<? extends MatchAlgorithmReference> getSupportedMatchAlgorithms() {
+		return new HashSet<MatchAlgorithmReference>(Arrays.asList(
+			StandardMatchAlgorithmReference.STARTS_WITH.getMatchAlgorithmReference()));
+	}
+
+	@Override
+	public Set<? extends ComponentReference> getSupportedSearchReferences() {
+		//only designations are indexed, so 'resourceName' (the entity code) is left to LexEVS
+		return new HashSet<ComponentReference>(Arrays.asList(
+			StandardModelAttributeReference.RESOURCE_SYNOPSIS.getComponentReference()));
+	}
+
+	@Override
+	public Set<? extends ComponentReference> getSupportedSortReferences() {
+		return new HashSet<ComponentReference>();
+	}
+
+	@Override
+	public Set<PredicateReference> getKnownProperties() {
+		return new HashSet<PredicateReference>();
+	}
+
+	@Override
+	public List<DocumentedNamespaceReference> getKnownNamespaceList() {
+		return new ArrayList<DocumentedNamespaceReference>();
+	}
+
+	@Override
+	public Set<? extends VersionTagReference> getSupportedTags() {
+		return new HashSet<VersionTagReference>(Arrays.asList(Constants.CURRENT_TAG));
+	}
+
+	@Override
+	public int getOrder() {
+		return -1;
+	}
+
+}
@@ -10,11 +10,22 @@ package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 
 import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
@@ -27,7 +38,9 @@ import org.LexGrid.LexBIG.Utility.Constructors;
 import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
 import org.apache.commons.lang.StringUtils;
 import org.apache.lucene.queryParser.QueryParser;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import edu.mayo.cts2.framework.filter.directory.AbstractStateBuildingDirectoryBuilder.Callback;
@@ -45,6 +58,7 @@ import edu.mayo.cts2.framework.model.core.VersionTagReference;
 import edu.mayo.cts2.framework.model.directory.DirectoryResult;
 import edu.mayo.cts2.framework.model.entity.EntityDirectoryEntry;
 import edu.mayo.cts2.framework.model.entity.EntityListEntry;
+import edu.mayo.cts2.framework.model.exception.UnspecifiedCts2Exception;
 import edu.mayo.cts2.framework.model.service.core.DocumentedNamespaceReference;
 import edu.mayo.cts2.framework.model.service.core.EntityNameOrURI;
 import edu.mayo.cts2.framework.model.service.core.EntityNameOrURIList;
@@ -61,10 +75,16 @@ import edu.mayo.cts2.framework.service.profile.entitydescription.EntityDescripti
 @Component
 public class SearchExtensionEntityQueryService 
 	extends AbstractLexEvsService
-	implements InitializingBean, DelegateEntityQueryService {
+	implements InitializingBean, DisposableBean, DelegateEntityQueryService {
 	
 	private static final String LUCENE_QUERY = "luceneQuery";
 	
+	private static final int DEFAULT_FEDERATED_SEARCH_THREADS = 8;
+	
+	private static final int DEFAULT_FEDERATED_SEARCH_QUEUE_SIZE = 64;
+	
+	private static final long DEFAULT_FEDERATED_SEARCH_TIMEOUT_MILLIS = 10000;
+	
 	@Resource
 	private EntityNameQueryBuilder entityNameQueryBuilder;
 	
@@ -78,6 +98,14 @@ public class SearchExtensionEntityQueryService
 	private VersionNameConverter versionNameConverter;
 	
 	private SearchExtension searchExtension;
+	
+	private boolean federatedSearch = false;
+	
+	private int federatedSearchThreads = DEFAULT_FEDERATED_SEARCH_THREADS;
+	
+	private long federatedSearchTimeoutMillis = DEFAULT_FEDERATED_SEARCH_TIMEOUT_MILLIS;
+	
+	private ThreadPoolExecutor federatedSearchExecutor;
 
 	@Override
 	public void afterPropertiesSet() throws Exception {
@@ -87,6 +115,21 @@ public class SearchExtensionEntityQueryService
 		} catch (Exception e){
 			log.warn("SearchExtension is not available.");
 		}
+		
+		this.federatedSearchExecutor = new ThreadPoolExecutor(
+			this.federatedSearchThreads,
+			this.federatedSearchThreads,
+			0L,
+			TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<Runnable>(DEFAULT_FEDERATED_SEARCH_QUEUE_SIZE),
+			new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if(this.federatedSearchExecutor != null){
+			this.federatedSearchExecutor.shutdownNow();
+		}
 	}
 
 	private class SearchExtensionSummariesCallback extends
@@ -129,6 +172,10 @@ public class SearchExtensionEntityQueryService
 				String state, 
 				int start,
 				int maxResults) {
+			if(isFederated(this.codeSystemVersions)){
+				return this.executeFederated(state, start, maxResults);
+			}
+			
 			ResolvedConceptReferencesIterator iterator;
 			try {
 				iterator = searchExtension.search(state, toCodingSchemeReference(this.codeSystemVersions), null, MatchAlgorithm.LUCENE, false, true);
@@ -153,10 +200,81 @@ public class SearchExtensionEntityQueryService
 			return new DirectoryResult<T>(returnList, atEnd);
 		}
 		
+		/**
+		 * Search each code system version separately and in parallel. Each search
+		 * reads only the top hits needed for the requested page. The per version
+		 * hit lists, which are already in score order, are then merged by rank.
+		 * Scores from separate indexes are not comparable, so a strict merge by
+		 * score is not attempted. A version that does not answer within the
+		 * timeout is left out of the page.
+		 */
+		private DirectoryResult<T> executeFederated(
+				final String state, 
+				int start,
+				int maxResults) {
+			int needed = start + maxResults;
+			
+			List<FederatedSearchResult> results = searchFederated(state, this.codeSystemVersions, needed);
+			
+			List<ResolvedConceptReference> merged = new ArrayList<ResolvedConceptReference>();
+			int total = 0;
+			boolean complete = true;
+			for(int rank = 0; merged.size() < needed; rank++){
+				boolean found = false;
+				for(FederatedSearchResult result : results){
+					if(result != null && rank < result.refs.size()){
+						merged.add(result.refs.get(rank));
+						found = true;
+					}
+				}
+				if(! found){
+					break;
+				}
+			}
+			for(FederatedSearchResult result : results){
+				if(result == null){
+					complete = false;
+				} else {
+					total += result.total;
+				}
+			}
+			
+			List<T> returnList = new ArrayList<T>();
+			for(int i = start; i < merged.size() && i < needed; i++){
+				returnList.add(this.doTransform(merged.get(i)));
+			}
+			
+			return new DirectoryResult<T>(returnList, complete && total <= needed);
+		}
+		
 		protected abstract T doTransform(ResolvedConceptReference ref);
 
+		/**
+		 * Unlike a page, a count cannot be marked incomplete, so a federated count
+		 * fails if any code system version does not answer within the timeout.
+		 */
 		@Override
 		public int executeCount(String state) {
+			if(isFederated(this.codeSystemVersions)){
+				int total = 0;
+				int timedOut = 0;
+				for(FederatedSearchResult result : searchFederated(state, this.codeSystemVersions, 0)){
+					if(result != null){
+						total += result.total;
+					} else {
+						timedOut++;
+					}
+				}
+				
+				if(timedOut > 0){
+					throw new IllegalStateException(
+						"Counting search hits timed out for " + timedOut + " of " + 
+						this.codeSystemVersions.size() + " code system versions.");
+				}
+				
+				return total;
+			}
+			
 			try {
 				return 
 					searchExtension.search(
@@ -169,6 +287,128 @@ public class SearchExtensionEntityQueryService
 		}
 	}
 	
+	/**
+	 * The top hits of one code system version, and its total number of hits.
+	 */
+	private static class FederatedSearchResult {
+		
+		private final List<ResolvedConceptReference> refs;
+		
+		private final int total;
+		
+		private FederatedSearchResult(List<ResolvedConceptReference> refs, int total){
+			this.refs = refs;
+			this.total = total;
+		}
+	}
+	
+	private boolean isFederated(List<NameOrURI> codeSystemVersions){
+		return this.federatedSearch && codeSystemVersions.size() > 1;
+	}
+	
+	private List<NameOrURI> sortVersions(List<NameOrURI> codeSystemVersions){
+		List<NameOrURI> sorted = new ArrayList<NameOrURI>(codeSystemVersions);
+		Collections.sort(sorted, new Comparator<NameOrURI>(){
+
+			@Override
+			public int compare(NameOrURI o1, NameOrURI o2) {
+				return String.valueOf(o1.getName()).compareTo(String.valueOf(o2.getName()));
+			}
+			
+		});
+		
+		return sorted;
+	}
+	
+	private FederatedSearchResult searchVersion(String state, NameOrURI version, int maxHits) throws LBException {
+		ResolvedConceptReferencesIterator iterator = this.searchExtension.search(
+				state, 
+				this.toCodingSchemeReference(Arrays.asList(version)), 
+				null, 
+				MatchAlgorithm.LUCENE, 
+				false, 
+				true);
+		
+		try {
+			int total = iterator.numberRemaining();
+			
+			List<ResolvedConceptReference> refs;
+			if(maxHits > 0 && total > 0){
+				refs = Arrays.asList(
+					iterator.get(0, Math.min(maxHits, total)).getResolvedConceptReference());
+			} else {
+				refs = new ArrayList<ResolvedConceptReference>();
+			}
+			
+			return new FederatedSearchResult(refs, total);
+		} finally {
+			iterator.release();
+		}
+	}
+	
+	/**
+	 * Search each code system version in parallel, waiting up to the timeout for all of them.
+	 * If the executor is full, the search is refused with a '503 Service Unavailable'
+	 * rather than run on the request thread, where the timeout could not stop it.
+	 *
+	 * @param state the search
+	 * @param codeSystemVersions the code system versions
+	 * @param maxHits the number of top hits to read from each code system version
+	 * @return the results, ordered by code system version name, with null for any that timed out
+	 */
+	private List<FederatedSearchResult> searchFederated(
+			final String state, 
+			List<NameOrURI> codeSystemVersions, 
+			final int maxHits){
+		List<Future<FederatedSearchResult>> futures = new ArrayList<Future<FederatedSearchResult>>();
+		try {
+			for(final NameOrURI version : this.sortVersions(codeSystemVersions)){
+				futures.add(this.federatedSearchExecutor.submit(new Callable<FederatedSearchResult>(){
+	
+					@Override
+					public FederatedSearchResult call() throws Exception {
+						return searchVersion(state, version, maxHits);
+					}
+					
+				}));
+			}
+		} catch (RejectedExecutionException e) {
+			for(Future<FederatedSearchResult> future : futures){
+				future.cancel(true);
+			}
+			
+			throw new UnspecifiedCts2Exception(
+				"Too many federated searches are running. Try again later.", 
+				HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		}
+		
+		long deadline = System.currentTimeMillis() + this.federatedSearchTimeoutMillis;
+		
+		List<FederatedSearchResult> results = new ArrayList<FederatedSearchResult>();
+		try {
+			for(Future<FederatedSearchResult> future : futures){
+				try {
+					results.add(future.get(
+						Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+				} catch (TimeoutException e) {
+					log.warn("Federated search of a code system version timed out.");
+					results.add(null);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		} finally {
+			for(Future<FederatedSearchResult> future : futures){
+				future.cancel(true);
+			}
+		}
+		
+		return results;
+	}
+	
 	private Set<CodingSchemeReference> toCodingSchemeReference(Iterable<NameOrURI> codeSystemVersions){
 		Set<CodingSchemeReference> returnSet = new HashSet<CodingSchemeReference>();
 		
@@ -358,6 +598,7 @@ public class SearchExtensionEntityQueryService
 	public boolean canHandle(EntityDescriptionQuery query, QueryType queryType) {
 		return this.searchExtension != null &&
 				!queryType.equals(QueryType.LIST) &&
+				!queryType.equals(QueryType.MEMBERSHIP) &&
 				query.getEntitiesFromAssociationsQuery() == null &&
 				query.getRestrictions().getHierarchyRestriction() == null &&
 				this.checkFilters(query.getFilterComponent()) &&
@@ -396,4 +637,31 @@ public class SearchExtensionEntityQueryService
 		return 0;
 	}
 
+	public boolean isFederatedSearch() {
+		return federatedSearch;
+	}
+
+	@Value("${federatedSearch:false}")
+	public void setFederatedSearch(boolean federatedSearch) {
+		this.federatedSearch = federatedSearch;
+	}
+
+	public int getFederatedSearchThreads() {
+		return federatedSearchThreads;
+	}
+
+	@Value("${federatedSearchThreads:" + DEFAULT_FEDERATED_SEARCH_THREADS + "}")
+	public void setFederatedSearchThreads(int federatedSearchThreads) {
+		this.federatedSearchThreads = federatedSearchThreads;
+	}
+
+	public long getFederatedSearchTimeoutMillis() {
+		return federatedSearchTimeoutMillis;
+	}
+
+	@Value("${federatedSearchTimeoutMillis:" + DEFAULT_FEDERATED_SEARCH_TIMEOUT_MILLIS + "}")
+	public void setFederatedSearchTimeoutMillis(long federatedSearchTimeoutMillis) {
+		this.federatedSearchTimeoutMillis = federatedSearchTimeoutMillis;
+	}
+
 }
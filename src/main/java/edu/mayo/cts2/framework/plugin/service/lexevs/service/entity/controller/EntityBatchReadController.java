@@ -0,0 +1,162 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.controller;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import edu.mayo.cts2.framework.core.xml.Cts2Marshaller;
+import edu.mayo.cts2.framework.model.core.RESTResource;
+import edu.mayo.cts2.framework.model.core.types.CompleteDirectory;
+import edu.mayo.cts2.framework.model.entity.EntityDescription;
+import edu.mayo.cts2.framework.model.entity.EntityList;
+import edu.mayo.cts2.framework.model.entity.EntityListEntry;
+import edu.mayo.cts2.framework.model.exception.UnspecifiedCts2Exception;
+import edu.mayo.cts2.framework.model.service.core.EntityNameOrURI;
+import edu.mayo.cts2.framework.model.util.ModelUtils;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.EntityProjection;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.LexEvsEntityReadService;
+import edu.mayo.cts2.framework.service.profile.entitydescription.name.EntityDescriptionReadId;
+import edu.mayo.cts2.framework.webapp.rest.extensions.controller.ControllerProvider;
+
+/**
+ * A REST Controller reading many entities of a code system version in one request.
+ *
+ * Entities are given as repeated 'entity' parameters of the form 'namespace:name',
+ * for example
+ * <code>/entitybatch?codesystemversion=X&amp;entity=N:A&amp;entity=N:B</code>.
+ * The full descriptions of the entities that exist are returned as an EntityList,
+ * in the order they were asked for. The 'fields' projection of entity reads applies.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Controller("entityBatchReadController")
+public class EntityBatchReadController implements ControllerProvider {
+
+	private static final String PATH = "entitybatch";
+
+	private static final char NAMESPACE_SEPARATOR = ':';
+
+	@Resource
+	private LexEvsEntityReadService lexEvsEntityReadService;
+
+	@Resource
+	private Cts2Marshaller cts2Marshaller;
+
+	/**
+	 * Read the entities.
+	 *
+	 * @param response the response
+	 * @param codesystemversion the code system version
+	 * @param entities the entities, as 'namespace:name'
+	 * @param fields the parts of the entities to include
+	 */
+	@RequestMapping(value="/" + PATH)
+	public void read(
+			HttpServletResponse response,
+			@RequestParam(value="codesystemversion", defaultValue="") String codesystemversion,
+			@RequestParam(value="entity", required=false) String[] entities,
+			@RequestParam(value=EntityProjection.FIELDS_PARAM, required=false) String fields) {
+		if(StringUtils.isBlank(codesystemversion)){
+			throw new IllegalArgumentException("'codesystemversion' parameter is required.");
+		}
+		if(entities == null || entities.length == 0){
+			throw new IllegalArgumentException("At least one 'entity' parameter is required.");
+		}
+
+		//checked here, as this controller only answers IllegalArgumentExceptions with a '400'
+		try {
+			EntityProjection.parse(fields);
+		} catch (UnspecifiedCts2Exception e) {
+			throw new IllegalArgumentException(e.getMessage());
+		}
+
+		List<EntityDescriptionReadId> identifiers = new ArrayList<EntityDescriptionReadId>();
+		for(String entity : entities){
+			identifiers.add(this.toIdentifier(codesystemversion, entity));
+		}
+
+		List<EntityDescription> descriptions =
+			this.lexEvsEntityReadService.readEntityDescriptions(identifiers, null);
+
+		EntityList list = new EntityList();
+		for(EntityDescription description : descriptions){
+			if(description != null){
+				EntityListEntry entry = new EntityListEntry();
+				entry.setEntry(description);
+				list.addEntry(entry);
+			}
+		}
+
+		RESTResource heading = new RESTResource();
+		heading.setResourceRoot(PATH);
+		heading.setAccessDate(new Date());
+		list.setHeading(heading);
+		list.setComplete(CompleteDirectory.COMPLETE);
+		list.setNumEntries((long) list.getEntryCount());
+
+		response.setStatus(HttpServletResponse.SC_OK);
+		response.setContentType("application/xml; charset=utf-8");
+
+		try {
+			this.cts2Marshaller.marshal(list, new StreamResult(response.getOutputStream()));
+			response.flushBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private EntityDescriptionReadId toIdentifier(String codesystemversion, String entity){
+		int separator = entity.indexOf(NAMESPACE_SEPARATOR);
+		if(separator < 1 || separator == entity.length() - 1){
+			throw new IllegalArgumentException(
+				"Entity '" + entity + "' is not of the form 'namespace:name'.");
+		}
+
+		EntityNameOrURI name = new EntityNameOrURI();
+		name.setEntityName(ModelUtils.createScopedEntityName(
+			entity.substring(separator + 1), entity.substring(0, separator)));
+
+		return new EntityDescriptionReadId(name, ModelUtils.nameOrUriFromName(codesystemversion));
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseBody
+	public void handleException(IllegalArgumentException e, HttpServletResponse response) {
+		response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+		response.setContentType("text/plain; charset=utf-8");
+
+		try {
+			IOUtils.write("Invalid Input: " + e.getMessage() + "\n", response.getOutputStream());
+			response.flushBuffer();
+		} catch (IOException ioe) {
+			throw new RuntimeException(ioe);
+		}
+	}
+
+	@Override
+	public Object getController() {
+		return this;
+	}
+
+}
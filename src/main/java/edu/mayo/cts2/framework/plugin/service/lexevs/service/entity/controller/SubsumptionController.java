@@ -0,0 +1,104 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.controller;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.LexEvsAssociationEntityQueryService;
+import edu.mayo.cts2.framework.webapp.rest.extensions.controller.ControllerProvider;
+
+/**
+ * A REST Controller answering whether entities are descendants of other entities.
+ *
+ * Pairs are given as repeated 'descendant' and 'ancestor' parameters, matched by
+ * position, for example
+ * <code>/subsumption?codesystemversion=X&amp;descendant=A&amp;ancestor=B&amp;descendant=C&amp;ancestor=D</code>.
+ * For each pair, a 'descendant|ancestor|true' or '...|false' line is returned.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Controller("subsumptionController")
+public class SubsumptionController implements ControllerProvider {
+
+	private static final String SEPARATOR = "|";
+
+	@Resource
+	private LexEvsAssociationEntityQueryService lexEvsAssociationEntityQueryService;
+
+	/**
+	 * Check the subsumption of each pair.
+	 *
+	 * @param response the response
+	 * @param codesystemversion the code system version
+	 * @param descendants the possible descendants
+	 * @param ancestors the possible ancestors
+	 */
+	@RequestMapping(value="/subsumption")
+	public void isDescendant(
+			HttpServletResponse response,
+			@RequestParam(value="codesystemversion", defaultValue="") String codesystemversion,
+			@RequestParam(value="descendant", required=false) String[] descendants,
+			@RequestParam(value="ancestor", required=false) String[] ancestors) {
+		if(StringUtils.isBlank(codesystemversion)){
+			throw new IllegalArgumentException("'codesystemversion' parameter is required.");
+		}
+		if(descendants == null || ancestors == null || descendants.length != ancestors.length){
+			throw new IllegalArgumentException(
+				"Each 'descendant' parameter needs one 'ancestor' parameter.");
+		}
+
+		boolean[] results = this.lexEvsAssociationEntityQueryService.isDescendant(
+			codesystemversion, Arrays.asList(descendants), Arrays.asList(ancestors));
+
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < results.length; i++){
+			sb.append(descendants[i]).append(SEPARATOR).
+				append(ancestors[i]).append(SEPARATOR).
+				append(results[i]).append("\n");
+		}
+
+		this.write(response, sb.toString(), HttpServletResponse.SC_OK);
+	}
+
+	@ExceptionHandler(IllegalArgumentException.class)
+	@ResponseBody
+	public void handleException(IllegalArgumentException e, HttpServletResponse response) {
+		this.write(response, "Invalid Input: " + e.getMessage() + "\n", HttpServletResponse.SC_BAD_REQUEST);
+	}
+
+	private void write(HttpServletResponse response, String content, int status){
+		response.setStatus(status);
+		response.setContentType("text/plain; charset=utf-8");
+
+		try {
+			IOUtils.write(content, response.getOutputStream());
+			response.flushBuffer();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public Object getController() {
+		return this;
+	}
+
+}
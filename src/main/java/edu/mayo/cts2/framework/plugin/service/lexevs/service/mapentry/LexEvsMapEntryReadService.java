@@ -33,6 +33,8 @@ import edu.mayo.cts2.framework.model.service.core.NameOrURI;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractLexEvsService;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion.MapVersionIndex;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion.MapVersionIndexManager;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.MapResolvedConceptReference;
 import edu.mayo.cts2.framework.service.profile.mapentry.MapEntryReadService;
 import edu.mayo.cts2.framework.service.profile.mapentry.name.MapEntryReadId;
@@ -54,6 +56,9 @@ public class LexEvsMapEntryReadService extends AbstractLexEvsService implements
 	@Resource
 	private MappingExtension mappingExtension;
 	
+	@Resource
+	private MapVersionIndexManager mapVersionIndexManager;
+	
 	// ------ Local methods ----------------------
 	private String extractMapVersion(MapEntryReadId identifier) {		
 		String mapVersion = null;
@@ -96,6 +101,12 @@ public class LexEvsMapEntryReadService extends AbstractLexEvsService implements
 		
 		String relationsContainerName = null;   
 		
+		MapVersionIndex index = this.mapVersionIndexManager.getIndex(
+			this.nameConverter.fromCts2VersionName(mapVersion));
+		if(index != null){
+			return index.getEntry(sourceEntityCode);
+		}
+		
 		ResolvedConceptReferencesIterator resolvedConceptReferencesIterator;
 		ResolvedConceptReference resolvedConceptReference = null;
 		try {
@@ -9,24 +9,50 @@
 package edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 
 import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
 import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
 import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeSummary;
 import org.LexGrid.LexBIG.Exceptions.LBException;
 import org.LexGrid.LexBIG.Exceptions.LBParameterException;
 import org.LexGrid.LexBIG.Extensions.Generic.MappingExtension;
 import org.LexGrid.LexBIG.Extensions.Generic.MappingExtension.Mapping;
 import org.LexGrid.LexBIG.Extensions.Generic.MappingExtension.Mapping.SearchContext;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet;
 import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
 import org.LexGrid.LexBIG.Utility.Constructors;
 import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
 import org.LexGrid.codingSchemes.CodingScheme;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import edu.mayo.cts2.framework.model.command.Page;
@@ -39,6 +65,8 @@ import edu.mayo.cts2.framework.model.core.SortCriteria;
 import edu.mayo.cts2.framework.model.directory.DirectoryResult;
 import edu.mayo.cts2.framework.model.entity.EntityDescription;
 import edu.mayo.cts2.framework.model.entity.EntityDirectoryEntry;
+import edu.mayo.cts2.framework.model.entity.EntityListEntry;
+import edu.mayo.cts2.framework.model.exception.UnspecifiedCts2Exception;
 import edu.mayo.cts2.framework.model.mapversion.MapVersionDirectoryEntry;
 import edu.mayo.cts2.framework.model.mapversion.MapVersionListEntry;
 import edu.mayo.cts2.framework.model.service.core.DocumentedNamespaceReference;
@@ -47,12 +75,16 @@ import edu.mayo.cts2.framework.model.service.core.NameOrURI;
 import edu.mayo.cts2.framework.model.service.core.types.RestrictionType;
 import edu.mayo.cts2.framework.model.service.mapversion.types.MapRole;
 import edu.mayo.cts2.framework.model.service.mapversion.types.MapStatus;
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
 import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter;
 import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractLexEvsService;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.EntityProjection;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.EntityTransform;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonCodingSchemeUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonPageUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonResourceUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonSearchFilterUtils;
+import edu.mayo.cts2.framework.plugin.service.lexevs.utility.CommonUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.utility.QueryData;
 import edu.mayo.cts2.framework.service.command.restriction.MapQueryServiceRestrictions.CodeSystemRestriction;
 import edu.mayo.cts2.framework.service.command.restriction.MapVersionQueryServiceRestrictions.EntitiesRestriction;
@@ -67,7 +99,15 @@ import edu.mayo.cts2.framework.service.profile.mapversion.MapVersionQueryService
 */
 @Component
 public class LexEvsMapVersionQueryService extends AbstractLexEvsService
-		implements MapVersionQueryService {
+		implements MapVersionQueryService, InitializingBean, DisposableBean {
+
+	private static final int DEFAULT_FILTER_THREADS = 4;
+	
+	private static final long DEFAULT_FILTER_TIMEOUT_MILLIS = 60000;
+	
+	private static final int FILTER_QUEUE_SIZE_PER_THREAD = 4;
+	
+	private static final String KEY_SEPARATOR = "\0";
 
 	@Resource
 	private VersionNameConverter nameConverter;
@@ -78,6 +118,54 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 	@Resource
 	private MappingExtension mappingExtension;
 	
+	@Resource
+	private MapVersionIndexManager mapVersionIndexManager;
+	
+	@Resource
+	private EntityTransform entityTransform;
+	
+	private int filterThreads = DEFAULT_FILTER_THREADS;
+	
+	private long filterTimeoutMillis = DEFAULT_FILTER_TIMEOUT_MILLIS;
+	
+	private ExecutorService filterExecutor;
+	
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		final AtomicInteger count = new AtomicInteger();
+		
+		this.filterExecutor = new ThreadPoolExecutor(
+			this.filterThreads, 
+			this.filterThreads, 
+			0L, 
+			TimeUnit.MILLISECONDS, 
+			new ArrayBlockingQueue<Runnable>(this.filterThreads * FILTER_QUEUE_SIZE_PER_THREAD),
+			new ThreadFactory(){
+
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "lexevs-map-version-filter-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+
+			},
+			new ThreadPoolExecutor.AbortPolicy());
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if(this.filterExecutor != null){
+			this.filterExecutor.shutdownNow();
+		}
+	}
+	
 	// ------ Local methods ----------------------
 	public void setCodeSystemVersionNameConverter(VersionNameConverter converter){
 		this.nameConverter = converter;
@@ -91,6 +179,67 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 		this.mappingExtension = extension;
 	}	
 
+	public void setMapVersionIndexManager(MapVersionIndexManager mapVersionIndexManager){
+		this.mapVersionIndexManager = mapVersionIndexManager;
+	}
+
+	/*
+	 * The index of the map version, or null if it is not built yet -- in which
+	 * case LexEVS is asked directly.
+	 */
+	private MapVersionIndex getMapVersionIndex(NameVersionPair mapVersion){
+		if(this.mapVersionIndexManager == null){
+			return null;
+		}
+
+		return this.mapVersionIndexManager.getIndex(mapVersion);
+	}
+
+	/**
+	 * Checks the restrictions against one map version.
+	 */
+	private class MapVersionFilterCallable implements Callable<Boolean> {
+		
+		private CodingSchemeRendering lexCodingSchemeRendering;
+		private Set<NameOrURI> cts2CodeSystemSet;
+		private MapRole cts2CodeSystemRestrictionMapRole;
+		private EntitiesRestriction cts2EntitiesRestriction;
+		
+		private MapVersionFilterCallable(
+				CodingSchemeRendering lexCodingSchemeRendering,
+				Set<NameOrURI> cts2CodeSystemSet,
+				MapRole cts2CodeSystemRestrictionMapRole,
+				EntitiesRestriction cts2EntitiesRestriction){
+			super();
+			this.lexCodingSchemeRendering = lexCodingSchemeRendering;
+			this.cts2CodeSystemSet = cts2CodeSystemSet;
+			this.cts2CodeSystemRestrictionMapRole = cts2CodeSystemRestrictionMapRole;
+			this.cts2EntitiesRestriction = cts2EntitiesRestriction;
+		}
+
+		@Override
+		public Boolean call() {
+			// only the code system restriction needs the full coding scheme, for its relations
+			if(this.cts2CodeSystemRestrictionMapRole != null && this.cts2CodeSystemSet != null){
+				CodingScheme lexCodingScheme = 
+					CommonResourceUtils.getLexCodingScheme(getLexBigService(), this.lexCodingSchemeRendering);
+				if(!CommonCodingSchemeUtils.checkIfCts2MapExists(lexCodingScheme, this.cts2CodeSystemSet, this.cts2CodeSystemRestrictionMapRole.value())){
+					return false;
+				}			
+			}
+			
+			if (this.cts2EntitiesRestriction != null) { 
+				CodingSchemeSummary lexCodingSchemeSummary = this.lexCodingSchemeRendering.getCodingSchemeSummary();
+				NameVersionPair mapVersion = new NameVersionPair(
+					lexCodingSchemeSummary.getLocalName(), lexCodingSchemeSummary.getRepresentsVersion());
+				
+				return checkIfMapExistsGivenCts2EntitiesRestriction(mapVersion, this.cts2EntitiesRestriction);
+			}
+			
+			return true;
+		}
+	}
+
 	protected CodingSchemeRendering[] filterByMapVersionQueryRestrictions(CodingSchemeRendering[] lexCodingSchemeRenderingArray, 
 			QueryData<MapVersionQuery> queryData) {
 		
@@ -118,34 +267,80 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 			cts2CodeSystemRestrictionMapRole = cts2CodeSystemRestriction.getMapRole();
 		}
 		
-
-		CodingScheme lexCodingScheme;
+		List<MapVersionFilterCallable> tasks = new ArrayList<MapVersionFilterCallable>();
 		for (CodingSchemeRendering lexCodingSchemeRendering : lexCodingSchemeRenderingArray) {
-			
-			boolean addToListFlag = true;  // assume we adding the CodingSchemeRendering object to the ArrayList 
-			
-			lexCodingScheme = CommonResourceUtils.getLexCodingScheme(getLexBigService(), lexCodingSchemeRendering);
-			if(cts2CodeSystemRestrictionMapRole != null && cts2CodeSystemSet != null){
-				if(!CommonCodingSchemeUtils.checkIfCts2MapExists(lexCodingScheme, cts2CodeSystemSet, cts2CodeSystemRestrictionMapRole.value())){
-					addToListFlag = false;
-				}			
+			tasks.add(new MapVersionFilterCallable(
+				lexCodingSchemeRendering, 
+				cts2CodeSystemSet, 
+				cts2CodeSystemRestrictionMapRole, 
+				cts2EntitiesRestriction));
+		}
+		
+		List<Boolean> matches = this.filterAll(tasks);
+		for (int i = 0; i < lexCodingSchemeRenderingArray.length; i++) {
+			if (matches.get(i)) {
+				lexCodingSchemeRenderingList.add(lexCodingSchemeRenderingArray[i]);
 			}
-			
-			if (addToListFlag && cts2EntitiesRestriction != null) { 
-				if (!checkIfMapExistsGivenCts2EntitiesRestriction(lexCodingScheme, cts2EntitiesRestriction)) {
-					addToListFlag = false;					
+		} 
+
+		return (CodingSchemeRendering[]) lexCodingSchemeRenderingList.toArray(new CodingSchemeRendering[0]);
+	}
+	
+	/*
+	 * Check each map version, in parallel if there are more than one, and return
+	 * the results in the order of the map versions. All checks must finish within
+	 * the filter timeout. When the queue is full the query is refused with a
+	 * '503 Service Unavailable', as a check run on the request thread could not
+	 * be stopped at the timeout.
+	 */
+	private List<Boolean> filterAll(List<MapVersionFilterCallable> tasks){
+		List<Boolean> results = new ArrayList<Boolean>();
+		
+		try {
+			if(tasks.size() == 1 || this.filterExecutor == null){
+				for(MapVersionFilterCallable task : tasks){
+					results.add(task.call());
 				}
+				return results;
 			}
 			
-			if (addToListFlag) {
-				lexCodingSchemeRenderingList.add(lexCodingSchemeRendering);
+			long deadline = System.currentTimeMillis() + this.filterTimeoutMillis;
+			
+			List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+			try {
+				for(MapVersionFilterCallable task : tasks){
+					futures.add(this.filterExecutor.submit(task));
+				}
+				for(Future<Boolean> future : futures){
+					results.add(future.get(
+						Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS));
+				}
+			} finally {
+				for(Future<Boolean> future : futures){
+					future.cancel(true);
+				}
 			}
-		} 
-
-		return (CodingSchemeRendering[]) lexCodingSchemeRenderingList.toArray(new CodingSchemeRendering[0]);
+		} catch (RejectedExecutionException e) {
+			throw new UnspecifiedCts2Exception(
+				"Too many map version queries are running. Try again later.", 
+				HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		} catch (TimeoutException e) {
+			throw new IllegalStateException(
+				"Filtering " + tasks.size() + " map versions took longer than " + this.filterTimeoutMillis + " ms.", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException){
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		
+		return results;
 	}
 	
-	protected boolean checkIfMapExistsGivenCts2EntitiesRestriction(CodingScheme lexCodingScheme, EntitiesRestriction cts2EntitiesRestriction) {
+	protected boolean checkIfMapExistsGivenCts2EntitiesRestriction(NameVersionPair mapVersion, EntitiesRestriction cts2EntitiesRestriction) {
 			
 		// CTS2 RestrictionType specification notes:
 		// A parameter used in queries where multiple elements are provided. It determines whether a candidate element 
@@ -164,30 +359,17 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 			// Set default processing rule to use all defined restrictions 
 			restrictionType = RestrictionType.ALL;
 		}
+		boolean matchAll = !restrictionType.value().equals(RestrictionType.AT_LEAST_ONE.value());
 		
-		if (restrictionType.value().equals(RestrictionType.AT_LEAST_ONE.value())) {
-			return checkIfMatchForAtLeastOneCts2EntitiesRestriction(lexCodingScheme, cts2EntitiesRestriction);			
-		} else {
-			// Process as ALL RestrictionType
-			return checkIfMatchForAllCts2EntitiesRestriction(lexCodingScheme, cts2EntitiesRestriction);
-		}
-	}
-	
-	protected boolean checkIfMatchForAllCts2EntitiesRestriction(CodingScheme lexCodingScheme, EntitiesRestriction cts2EntitiesRestriction) {
-
 		MapStatus mapStatus = cts2EntitiesRestriction.getMapStatus();
 		if (mapStatus == null) {
-			// Set default status 
+			// Set default status
 			mapStatus = MapStatus.MAPPED;  
 		}
 		
-		// MapStatus values to consider via notes from CTS2 specification:
-		//   ALLMAPENTRIES: The union of UNMAPPED and MAPPED entities - any entity that is a source or target of a map 
-		//    whether mentioned or not.
-		//   MAPPED: An entity is included in the "from" part of the map and appears in a MapEntry or it appears in the "to" 
-		//    part of the map and appears in one or more MapRules. MAPPED includes NOMAP entities.
-		//   NOMAP: An entity is included in the "from" part of the map and there is a MapEntry that references it but there 
-		//    the target set is empty. NOMAP references entities that have been explicitly declared to have no mapping.
+		//  MapStatus notes:
+		//   NOMAP: The map entries where the target set is empty. NOMAP references entities that have been explicitly 
+		//    declared to have no mapping.
 		//   UNMAPPED: An entity is included in the "from" part of the map but does not appear in an MapEntry or it appears 
 		//    in the "to" part of the map but does not appear in the output of a MapRule.
 		
@@ -204,216 +386,185 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 					"to EntitiesRestriction for MapVersionQuery");	
 		}
 		
-		Set<EntityNameOrURI> cts2RestrictedEntitiesSet = cts2EntitiesRestriction.getEntities();
 		MapRole mapRole = cts2EntitiesRestriction.getMapRole();
-
-		String lexRelationsContainerName = null;
-		CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag = new CodingSchemeVersionOrTag();
-		lexCodingSchemeVersionOrTag.setVersion(lexCodingScheme.getRepresentsVersion());
-		lexCodingSchemeVersionOrTag.setTag(lexCodingScheme.getCodingSchemeName());
-		
-		boolean matchFound = true;		
-		if (mapStatus == MapStatus.MAPPED) {
-			if (mapRole == MapRole.MAP_FROM_ROLE) {
-				for (EntityNameOrURI cts2RestrictedEntity : cts2RestrictedEntitiesSet) {
-					ScopedEntityName cts2EntityName = cts2RestrictedEntity.getEntityName();
-					matchFound = isEntityFoundForMapFromRole(cts2EntityName, 
-							lexCodingScheme, 
-							lexCodingSchemeVersionOrTag, 
-							lexRelationsContainerName);
-					if (!matchFound) {
-						break;
-					} 
-				}
-			} else if (mapRole == MapRole.MAP_TO_ROLE) {
-				for (EntityNameOrURI cts2RestrictedEntity : cts2RestrictedEntitiesSet) {
-					ScopedEntityName cts2EntityName = cts2RestrictedEntity.getEntityName();
-					matchFound = isEntityFoundForMapToRole(cts2EntityName, 
-							lexCodingScheme, 
-							lexCodingSchemeVersionOrTag, 
-							lexRelationsContainerName);
-					if (!matchFound) {
-						break;
-					} 
-				}
-			} else if (mapRole == MapRole.BOTH_MAP_ROLES) {
-				for (EntityNameOrURI cts2RestrictedEntity : cts2RestrictedEntitiesSet) {
-					ScopedEntityName cts2EntityName = cts2RestrictedEntity.getEntityName();
-					matchFound = isEntityFoundForBothMapRoles(cts2EntityName, 
-							lexCodingScheme, 
-							lexCodingSchemeVersionOrTag, 
-							lexRelationsContainerName);
-					if (!matchFound) {
-						break;
-					} 
-				}
-			} else {
-				throw new UnsupportedOperationException("The EntitiesRestriction for MapVersionQuery must have a MapRole defined " +
-						"when the MapStatus is defined as MapStatus.MAPPED");
-			}		
+		if (mapRole != MapRole.MAP_FROM_ROLE && mapRole != MapRole.MAP_TO_ROLE && mapRole != MapRole.BOTH_MAP_ROLES) {
+			throw new UnsupportedOperationException("The EntitiesRestriction for MapVersionQuery must have a MapRole defined " +
+					"when the MapStatus is defined as MapStatus.MAPPED");
 		}
 		
-		return matchFound;
-	}
-	
-	protected boolean isEntityFoundForMapFromRole(ScopedEntityName cts2EntityName, 
-			CodingScheme lexCodingScheme, 
-			CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag, 
-			String lexRelationsContainerName) {
+		List<ScopedEntityName> cts2EntityNames = new ArrayList<ScopedEntityName>();
+		for (EntityNameOrURI cts2RestrictedEntity : cts2EntitiesRestriction.getEntities()) {
+			cts2EntityNames.add(cts2RestrictedEntity.getEntityName());
+		}
+		if (cts2EntityNames.isEmpty()) {
+			return matchAll;
+		}
 		
-		ResolvedConceptReferencesIterator resolvedConceptReferencesIterator;
-		Mapping lexMapping = null;
-		try {
-			lexMapping = mappingExtension.getMapping(lexCodingScheme.getCodingSchemeName(), 
-					lexCodingSchemeVersionOrTag, 
-					lexRelationsContainerName);
-			String cts2SourceEntityName = cts2EntityName.getName();
-			String cts2SourceEntityNamespace = cts2EntityName.getNamespace();
-			ConceptReferenceList reference = Constructors.createConceptReferenceList(cts2SourceEntityName, 
-					cts2SourceEntityNamespace, 
-					lexCodingScheme.getCodingSchemeName());
-			lexMapping = lexMapping.restrictToCodes(reference, SearchContext.SOURCE_CODES);
+		MapVersionIndex index = this.getMapVersionIndex(mapVersion);
+		if (index != null) {
+			for (ScopedEntityName cts2EntityName : cts2EntityNames) {
+				boolean matchFound = isEntityFound(index, cts2EntityName, mapRole);
+				
+				// the first miss decides ALL, the first match decides AT_LEAST_ONE
+				if (matchFound != matchAll) {
+					return matchFound;
+				}
+			}
 			
-			resolvedConceptReferencesIterator = lexMapping.resolveMapping();
-			return (resolvedConceptReferencesIterator != null && resolvedConceptReferencesIterator.hasNext());	
-		
-		} catch (LBParameterException e) {
-			throw new RuntimeException(e);
-		} catch (LBException e) {
-			throw new RuntimeException(e);
+			return matchAll;
 		}
 		
+		return checkIfEntitiesFoundInMapping(mapVersion, cts2EntityNames, mapRole, matchAll);
 	}
 	
-	protected boolean isEntityFoundForMapToRole(ScopedEntityName cts2EntityName, 
-			CodingScheme lexCodingScheme, 
-			CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag, 
-			String lexRelationsContainerName) {
+	protected boolean isEntityFound(MapVersionIndex index, ScopedEntityName cts2EntityName, MapRole mapRole) {
+		String code = cts2EntityName.getName();
+		String namespace = cts2EntityName.getNamespace();
 		
-		ResolvedConceptReferencesIterator resolvedConceptReferencesIterator;
-		Mapping lexMapping = null;
-		try {
-			lexMapping = mappingExtension.getMapping(lexCodingScheme.getCodingSchemeName(), 
-					lexCodingSchemeVersionOrTag, 
-					lexRelationsContainerName);
-			String cts2SourceEntityName = cts2EntityName.getName();
-			String cts2SourceEntityNamespace = cts2EntityName.getNamespace();
-			ConceptReferenceList reference = Constructors.createConceptReferenceList(cts2SourceEntityName, 
-					cts2SourceEntityNamespace, 
-					lexCodingScheme.getCodingSchemeName());
-			lexMapping = lexMapping.restrictToCodes(reference, SearchContext.TARGET_CODES);
-			
-			resolvedConceptReferencesIterator = lexMapping.resolveMapping();
-			return (resolvedConceptReferencesIterator != null && resolvedConceptReferencesIterator.hasNext());	
-		
-		} catch (LBParameterException e) {
-			throw new RuntimeException(e);
-		} catch (LBException e) {
-			throw new RuntimeException(e);
+		if (mapRole == MapRole.MAP_FROM_ROLE) {
+			return index.isSource(code, namespace);
+		} else if (mapRole == MapRole.MAP_TO_ROLE) {
+			return index.isTarget(code, namespace);
+		} else {
+			return index.isSource(code, namespace) || index.isTarget(code, namespace);
 		}
-		
 	}
 	
-	protected boolean isEntityFoundForBothMapRoles(ScopedEntityName cts2EntityName, 
-			CodingScheme lexCodingScheme, 
-			CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag, 
-			String lexRelationsContainerName) {
+	/**
+	 * Check the entities against the map in LexEVS, restricting the map to all of
+	 * them at once -- in batches of at most {@link CommonUtils#MAX_CODES_PER_RESOLVE}.
+	 * The resolve stops as soon as the answer is known: at the first entry for
+	 * AT_LEAST_ONE, or when all entities have been seen (or a batch is done with
+	 * some still unseen) for ALL.
+	 *
+	 * @param mapVersion the map version
+	 * @param cts2EntityNames the entities
+	 * @param mapRole the role the entities must have in the map
+	 * @param matchAll whether all entities must be found, or at least one
+	 * @return true, if the entities are found
+	 */
+	protected boolean checkIfEntitiesFoundInMapping(
+			NameVersionPair mapVersion, 
+			List<ScopedEntityName> cts2EntityNames, 
+			MapRole mapRole, 
+			boolean matchAll) {
 		
-		ResolvedConceptReferencesIterator resolvedConceptReferencesIterator;
-		Mapping lexMapping = null;
-		try {
-			lexMapping = mappingExtension.getMapping(lexCodingScheme.getCodingSchemeName(), 
-					lexCodingSchemeVersionOrTag, 
-					lexRelationsContainerName);
-			String cts2SourceEntityName = cts2EntityName.getName();
-			String cts2SourceEntityNamespace = cts2EntityName.getNamespace();
-			ConceptReferenceList reference = Constructors.createConceptReferenceList(cts2SourceEntityName, 
-					cts2SourceEntityNamespace, 
-					lexCodingScheme.getCodingSchemeName());
-			lexMapping = lexMapping.restrictToCodes(reference, SearchContext.SOURCE_OR_TARGET_CODES);
-			
-			resolvedConceptReferencesIterator = lexMapping.resolveMapping();
-			return (resolvedConceptReferencesIterator != null && resolvedConceptReferencesIterator.hasNext());	
+		SearchContext searchContext;
+		if (mapRole == MapRole.MAP_FROM_ROLE) {
+			searchContext = SearchContext.SOURCE_CODES;
+		} else if (mapRole == MapRole.MAP_TO_ROLE) {
+			searchContext = SearchContext.TARGET_CODES;
+		} else {
+			searchContext = SearchContext.SOURCE_OR_TARGET_CODES;
+		}
 		
-		} catch (LBParameterException e) {
-			throw new RuntimeException(e);
+		CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag = 
+			Constructors.createCodingSchemeVersionOrTagFromVersion(mapVersion.getVersion());
+		
+		// the entities not seen yet, by code
+		Map<String, List<ScopedEntityName>> unseen = new HashMap<String, List<ScopedEntityName>>();
+		for (ScopedEntityName cts2EntityName : cts2EntityNames) {
+			List<ScopedEntityName> names = unseen.get(cts2EntityName.getName());
+			if (names == null) {
+				names = new ArrayList<ScopedEntityName>();
+				unseen.put(cts2EntityName.getName(), names);
+			}
+			names.add(cts2EntityName);
+		}
+		
+		try {
+			for (int start = 0; start < cts2EntityNames.size(); start += CommonUtils.MAX_CODES_PER_RESOLVE) {
+				int end = Math.min(start + CommonUtils.MAX_CODES_PER_RESOLVE, cts2EntityNames.size());
+				List<ScopedEntityName> batch = cts2EntityNames.subList(start, end);
+				
+				ConceptReferenceList references = new ConceptReferenceList();
+				for (ScopedEntityName cts2EntityName : batch) {
+					ConceptReference reference = new ConceptReference();
+					reference.setCode(cts2EntityName.getName());
+					reference.setCodeNamespace(cts2EntityName.getNamespace());
+					reference.setCodingSchemeName(mapVersion.getName());
+					references.addConceptReference(reference);
+				}
+				
+				Mapping lexMapping = mappingExtension.getMapping(mapVersion.getName(), lexCodingSchemeVersionOrTag, null);
+				lexMapping = lexMapping.restrictToCodes(references, searchContext);
+				
+				ResolvedConceptReferencesIterator iterator = lexMapping.resolveMapping();
+				try {
+					if (!matchAll) {
+						if (iterator != null && iterator.hasNext()) {
+							return true;
+						}
+						continue;
+					}
+					
+					while (iterator != null && iterator.hasNext() && !unseen.isEmpty()) {
+						for (ResolvedConceptReference ref : 
+								iterator.next(CommonUtils.MAX_CODES_PER_RESOLVE).getResolvedConceptReference()) {
+							this.markSeen(unseen, ref, mapRole);
+						}
+					}
+				} finally {
+					this.release(iterator);
+				}
+				
+				for (ScopedEntityName cts2EntityName : batch) {
+					List<ScopedEntityName> names = unseen.get(cts2EntityName.getName());
+					if (names != null && names.contains(cts2EntityName)) {
+						return false;
+					}
+				}
+			}
 		} catch (LBException e) {
 			throw new RuntimeException(e);
 		}
 		
+		return matchAll;
 	}
 	
-	protected boolean checkIfMatchForAtLeastOneCts2EntitiesRestriction(CodingScheme lexCodingScheme, EntitiesRestriction cts2EntitiesRestriction) {
-
-		MapStatus mapStatus = cts2EntitiesRestriction.getMapStatus();
-		if (mapStatus == null) {
-			// Set default status
-			mapStatus = MapStatus.MAPPED;  
-		}
-				
-		if (mapStatus == MapStatus.ALLMAPENTRIES) {
-			throw new UnsupportedOperationException("MapStatus.ALLMAPENTRIES is currently not a supported option in respect " +
-					"to EntitiesRestriction for MapVersionQuery");	
+	private void markSeen(Map<String, List<ScopedEntityName>> unseen, ResolvedConceptReference ref, MapRole mapRole) {
+		if (mapRole != MapRole.MAP_TO_ROLE) {
+			markSeen(unseen, ref);
 		}
-		if (mapStatus == MapStatus.UNMAPPED) {
-			throw new UnsupportedOperationException("MapStatus.UNMAPPED is currently not a supported option in respect " +
-					"to EntitiesRestriction for MapVersionQuery");	
+		
+		if (mapRole != MapRole.MAP_FROM_ROLE && ref.getSourceOf() != null) {
+			for (Association association : ref.getSourceOf().getAssociation()) {
+				if (association.getAssociatedConcepts() != null) {
+					for (AssociatedConcept target : association.getAssociatedConcepts().getAssociatedConcept()) {
+						markSeen(unseen, target);
+					}
+				}
+			}
 		}
-		if (mapStatus == MapStatus.NOMAP) {
-			throw new UnsupportedOperationException("MapStatus.NOMAP is currently not a supported option in respect " +
-					"to EntitiesRestriction for MapVersionQuery");	
+	}
+	
+	private static void markSeen(Map<String, List<ScopedEntityName>> unseen, ConceptReference ref) {
+		List<ScopedEntityName> names = unseen.get(ref.getCode());
+		if (names == null) {
+			return;
 		}
 		
-		Set<EntityNameOrURI> cts2RestrictedEntitiesSet = cts2EntitiesRestriction.getEntities();
-		MapRole mapRole = cts2EntitiesRestriction.getMapRole();
-		
-		String lexRelationsContainerName = null;
-		CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag = new CodingSchemeVersionOrTag();
-		lexCodingSchemeVersionOrTag.setVersion(lexCodingScheme.getRepresentsVersion());
-		lexCodingSchemeVersionOrTag.setTag(lexCodingScheme.getCodingSchemeName());
-		
-		boolean matchFound = false;
-		if (mapStatus == MapStatus.MAPPED) {
-			if (mapRole == MapRole.MAP_FROM_ROLE) {
-				for (EntityNameOrURI cts2RestrictedEntity : cts2RestrictedEntitiesSet) {
-					ScopedEntityName cts2EntityName = cts2RestrictedEntity.getEntityName();
-					matchFound = isEntityFoundForMapFromRole(cts2EntityName, 
-							lexCodingScheme, 
-							lexCodingSchemeVersionOrTag, 
-							lexRelationsContainerName);
-					if (matchFound) {
-						break;
-					} 
-				}
-			} else if (mapRole == MapRole.MAP_TO_ROLE) {
-				for (EntityNameOrURI cts2RestrictedEntity : cts2RestrictedEntitiesSet) {
-					ScopedEntityName cts2EntityName = cts2RestrictedEntity.getEntityName();
-					matchFound = isEntityFoundForMapToRole(cts2EntityName, 
-							lexCodingScheme, 
-							lexCodingSchemeVersionOrTag, 
-							lexRelationsContainerName);
-					if (matchFound) {
-						break;
-					} 
-				}
-			} else if (mapRole == MapRole.BOTH_MAP_ROLES) {
-					for (EntityNameOrURI cts2RestrictedEntity : cts2RestrictedEntitiesSet) {
-						ScopedEntityName cts2EntityName = cts2RestrictedEntity.getEntityName();
-						matchFound = isEntityFoundForBothMapRoles(cts2EntityName, 
-								lexCodingScheme, 
-								lexCodingSchemeVersionOrTag, 
-								lexRelationsContainerName);
-						if (matchFound) {
-							break;
-						} 
-					}
-			} else {
-				throw new UnsupportedOperationException("The EntitiesRestriction for MapVersionQuery must have a MapRole defined " +
-						"when the MapStatus is defined as MapStatus.MAPPED");
-			}		
+		Iterator<ScopedEntityName> itr = names.iterator();
+		while (itr.hasNext()) {
+			String namespace = itr.next().getNamespace();
+			if (namespace == null || namespace.equals(ref.getCodeNamespace())) {
+				itr.remove();
+			}
 		}
 		
-		return matchFound;
+		if (names.isEmpty()) {
+			unseen.remove(ref.getCode());
+		}
+	}
+	
+	private void release(ResolvedConceptReferencesIterator iterator){
+		if(iterator != null){
+			try {
+				iterator.release();
+			} catch (LBException e) {
+				log.warn("Could not release the mapping iterator.", e);
+			}
+		}
 	}
 	
 	
@@ -478,27 +629,260 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 		return CommonSearchFilterUtils.getLexSupportedSearchReferences();
 	}
 
-	// Not going to implement following methods
-	// -----------------------------------------
+	/**
+	 * Get the entities of a map version, summarized from the map entries.
+	 */
 	@Override
 	public DirectoryResult<EntityDirectoryEntry> mapVersionEntities(
 			NameOrURI mapVersion, MapRole mapRole, MapStatus mapStatus,
 			EntityDescriptionQuery query, SortCriteria sort, Page page) {
-		throw new UnsupportedOperationException();
+		MapVersionEntityPage entityPage = this.getMapVersionEntityPage(mapVersion, mapRole, mapStatus, query, page);
+		
+		List<EntityDirectoryEntry> entries = new ArrayList<EntityDirectoryEntry>();
+		for(ResolvedConceptReference ref : entityPage.entities){
+			entries.add(this.entityTransform.transformSummaryDescription(ref));
+		}
+		
+		return new DirectoryResult<EntityDirectoryEntry>(entries, entityPage.atEnd);
 	}
 
+	/**
+	 * Get the entities of a map version, resolved from their own code systems.
+	 * Entities whose code system is not loaded are left out.
+	 */
 	@Override
 	public DirectoryResult<EntityDescription> mapVersionEntityList(
 			NameOrURI mapVersion, MapRole mapRole, MapStatus mapStatus,
 			EntityDescriptionQuery query, SortCriteria sort, Page page) {
-		throw new UnsupportedOperationException();
+		MapVersionEntityPage entityPage = this.getMapVersionEntityPage(mapVersion, mapRole, mapStatus, query, page);
+		
+		List<EntityListEntry> listEntries = this.entityTransform.transformFullDescriptions(
+			this.resolveEntities(entityPage.entities), 
+			EntityProjection.fromCurrentRequest());
+		
+		List<EntityDescription> entries = new ArrayList<EntityDescription>();
+		for(EntityListEntry listEntry : listEntries){
+			entries.add(listEntry.getEntry());
+		}
+		
+		return new DirectoryResult<EntityDescription>(entries, entityPage.atEnd);
 	}
 
+	/**
+	 * Get references to the entities of a map version.
+	 */
 	@Override
 	public EntityReferenceList mapVersionEntityReferences(NameOrURI mapVersion,
 			MapRole mapRole, MapStatus mapStatus, EntityDescriptionQuery query,
 			SortCriteria sort, Page page) {
-		throw new UnsupportedOperationException();
+		MapVersionEntityPage entityPage = this.getMapVersionEntityPage(mapVersion, mapRole, mapStatus, query, page);
+		
+		EntityReferenceList returnList = new EntityReferenceList();
+		for(ResolvedConceptReference ref : entityPage.entities){
+			returnList.addEntry(this.entityTransform.transformEntityReference(ref));
+		}
+		
+		return returnList;
+	}
+	
+	/**
+	 * A page of the distinct entities of a map version.
+	 */
+	private static class MapVersionEntityPage {
+		
+		private final List<ResolvedConceptReference> entities;
+		private final boolean atEnd;
+		
+		private MapVersionEntityPage(List<ResolvedConceptReference> entities, boolean atEnd){
+			super();
+			this.entities = entities;
+			this.atEnd = atEnd;
+		}
+	}
+	
+	/*
+	 * Sources are MAP_FROM_ROLE, targets MAP_TO_ROLE, and both are BOTH_MAP_ROLES -- the
+	 * default. Entities are in the order they first appear in the map, so pages are stable.
+	 */
+	private MapVersionEntityPage getMapVersionEntityPage(
+			NameOrURI mapVersion, 
+			MapRole mapRole, 
+			MapStatus mapStatus, 
+			EntityDescriptionQuery query, 
+			Page page) {
+		if (mapStatus != null && mapStatus != MapStatus.MAPPED) {
+			throw new UnsupportedOperationException("MapStatus." + mapStatus + " is currently not a supported option " +
+					"for the entities of a MapVersion");
+		}
+		if (query != null && query.getFilterComponent() != null && !query.getFilterComponent().isEmpty()) {
+			throw new UnsupportedOperationException("Filters are currently not supported for the entities of a MapVersion");
+		}
+		if (mapVersion.getName() == null) {
+			throw new UnsupportedOperationException("Cannot resolve by DocumentURI yet.");
+		}
+		if (page == null) {
+			page = new Page();
+		}
+		
+		if (!this.nameConverter.isValidVersionName(mapVersion.getName())) {
+			return new MapVersionEntityPage(new ArrayList<ResolvedConceptReference>(), true);
+		}
+		NameVersionPair namePair = this.nameConverter.fromCts2VersionName(mapVersion.getName());
+		
+		boolean sources = mapRole != MapRole.MAP_TO_ROLE;
+		boolean targets = mapRole != MapRole.MAP_FROM_ROLE;
+		
+		MapVersionIndex index = this.getMapVersionIndex(namePair);
+		if (index != null) {
+			return new MapVersionEntityPage(
+				index.getEntities(sources, targets, page.getStart(), page.getMaxToReturn()),
+				page.getEnd() >= index.countEntities(sources, targets));
+		}
+		
+		return this.streamMapVersionEntities(namePair, sources, targets, page);
+	}
+	
+	/*
+	 * One pass over the map entries, keeping only the keys of the entities seen so
+	 * far -- and stopping as soon as an entity past the page is seen.
+	 */
+	private MapVersionEntityPage streamMapVersionEntities(
+			NameVersionPair namePair, 
+			boolean sources, 
+			boolean targets, 
+			Page page) {
+		List<ResolvedConceptReference> entities = new ArrayList<ResolvedConceptReference>();
+		Set<String> seen = new HashSet<String>();
+		
+		CodingSchemeVersionOrTag lexCodingSchemeVersionOrTag = 
+			Constructors.createCodingSchemeVersionOrTagFromVersion(namePair.getVersion());
+		
+		try {
+			if (!this.mappingExtension.isMappingCodingScheme(namePair.getName(), lexCodingSchemeVersionOrTag)) {
+				return new MapVersionEntityPage(entities, true);
+			}
+			
+			ResolvedConceptReferencesIterator iterator = 
+				this.mappingExtension.getMapping(namePair.getName(), lexCodingSchemeVersionOrTag, null).resolveMapping();
+			try {
+				while (iterator.hasNext()) {
+					for (ResolvedConceptReference ref : 
+							iterator.next(CommonUtils.MAX_CODES_PER_RESOLVE).getResolvedConceptReference()) {
+						if (sources) {
+							this.addDistinct(seen, entities, ref, page);
+						}
+						if (targets && ref.getSourceOf() != null) {
+							for (Association association : ref.getSourceOf().getAssociation()) {
+								if (association.getAssociatedConcepts() != null) {
+									for (AssociatedConcept target : association.getAssociatedConcepts().getAssociatedConcept()) {
+										this.addDistinct(seen, entities, target, page);
+									}
+								}
+							}
+						}
+						
+						if (seen.size() > page.getEnd()) {
+							return new MapVersionEntityPage(entities, false);
+						}
+					}
+				}
+			} finally {
+				this.release(iterator);
+			}
+		} catch (LBParameterException e) {
+			// the map version does not exist
+			return new MapVersionEntityPage(entities, true);
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+		
+		return new MapVersionEntityPage(entities, true);
+	}
+	
+	private void addDistinct(
+			Set<String> seen, 
+			List<ResolvedConceptReference> entities, 
+			ResolvedConceptReference ref,
+			Page page) {
+		String key = ref.getCode() + KEY_SEPARATOR + ref.getCodeNamespace() + KEY_SEPARATOR + ref.getCodingSchemeName();
+		
+		if (seen.add(key)) {
+			int position = seen.size() - 1;
+			if (position >= page.getStart() && position < page.getEnd()) {
+				entities.add(ref);
+			}
+		}
+	}
+	
+	/*
+	 * Resolve the entity objects of a page, with one resolve per code system version.
+	 */
+	private List<ResolvedConceptReference> resolveEntities(List<ResolvedConceptReference> refs) {
+		Map<String, List<ResolvedConceptReference>> byCodingScheme = 
+			new LinkedHashMap<String, List<ResolvedConceptReference>>();
+		for (ResolvedConceptReference ref : refs) {
+			String key = ref.getCodingSchemeName() + KEY_SEPARATOR + ref.getCodingSchemeVersion();
+			
+			List<ResolvedConceptReference> group = byCodingScheme.get(key);
+			if (group == null) {
+				group = new ArrayList<ResolvedConceptReference>();
+				byCodingScheme.put(key, group);
+			}
+			group.add(ref);
+		}
+		
+		Map<ResolvedConceptReference, ResolvedConceptReference> resolved = 
+			new IdentityHashMap<ResolvedConceptReference, ResolvedConceptReference>();
+		for (List<ResolvedConceptReference> group : byCodingScheme.values()) {
+			ResolvedConceptReference first = group.get(0);
+			
+			ConceptReferenceList references = new ConceptReferenceList();
+			Map<String, ResolvedConceptReference> byCode = new HashMap<String, ResolvedConceptReference>();
+			for (ResolvedConceptReference ref : group) {
+				ConceptReference reference = new ConceptReference();
+				reference.setCode(ref.getCode());
+				reference.setCodeNamespace(ref.getCodeNamespace());
+				references.addConceptReference(reference);
+				
+				byCode.put(ref.getCodeNamespace() + KEY_SEPARATOR + ref.getCode(), ref);
+			}
+			
+			ResolvedConceptReferencesIterator iterator = null;
+			try {
+				CodedNodeSet codedNodeSet = this.getLexBigService().getNodeSet(
+					first.getCodingSchemeName(), 
+					Constructors.createCodingSchemeVersionOrTagFromVersion(first.getCodingSchemeVersion()), 
+					null);
+				codedNodeSet = codedNodeSet.restrictToCodes(references);
+				
+				iterator = codedNodeSet.resolve(null, null, null, null, true);
+				while (iterator.hasNext()) {
+					for (ResolvedConceptReference entity : 
+							iterator.next(CommonUtils.MAX_CODES_PER_RESOLVE).getResolvedConceptReference()) {
+						ResolvedConceptReference ref = 
+							byCode.get(entity.getCodeNamespace() + KEY_SEPARATOR + entity.getCode());
+						if (ref != null) {
+							resolved.put(ref, entity);
+						}
+					}
+				}
+			} catch (LBException e) {
+				log.warn("Could not resolve the entities of " + first.getCodingSchemeName() + 
+					" " + first.getCodingSchemeVersion() + ", leaving them out.", e);
+			} finally {
+				this.release(iterator);
+			}
+		}
+		
+		List<ResolvedConceptReference> entities = new ArrayList<ResolvedConceptReference>();
+		for (ResolvedConceptReference ref : refs) {
+			ResolvedConceptReference entity = resolved.get(ref);
+			if (entity != null) {
+				entities.add(entity);
+			}
+		}
+		
+		return entities;
 	}
 
 	// Methods returning empty lists or sets
@@ -518,4 +902,22 @@ public class LexEvsMapVersionQueryService extends AbstractLexEvsService
 		return new ArrayList<DocumentedNamespaceReference>();
 	}
 
+	public int getFilterThreads() {
+		return filterThreads;
+	}
+
+	@Value("${mapVersionFilterThreads:" + DEFAULT_FILTER_THREADS + "}")
+	public void setFilterThreads(int filterThreads) {
+		this.filterThreads = filterThreads;
+	}
+
+	public long getFilterTimeoutMillis() {
+		return filterTimeoutMillis;
+	}
+
+	@Value("${mapVersionFilterTimeoutMillis:" + DEFAULT_FILTER_TIMEOUT_MILLIS + "}")
+	public void setFilterTimeoutMillis(long filterTimeoutMillis) {
+		this.filterTimeoutMillis = filterTimeoutMillis;
+	}
+
 }
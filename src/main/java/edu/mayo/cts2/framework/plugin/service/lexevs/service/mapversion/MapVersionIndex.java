@@ -0,0 +1,452 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.commonTypes.EntityDescription;
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * The entries of one map version, indexed from source codes to their targets and
+ * from target codes back to their sources.
+ *
+ * Entities are numbered in the order they first appear in the map, and hold only
+ * their code, namespace, description and coding scheme, which are shared between
+ * entities. Links are stored as arrays of entity numbers, and entities are found
+ * by a binary search over their codes.
+ *
+ * Instances are immutable once built, and safe to share between threads.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+public class MapVersionIndex {
+
+	/* name, URI and version of each coding scheme, three entries per coding scheme */
+	private final String[] codingSchemes;
+
+	private final String[] associationNames;
+
+	/* code, namespace, description and coding scheme of each entity */
+	private final String[] codes;
+
+	private final String[] namespaces;
+
+	private final String[] descriptions;
+
+	private final int[] entityCodingSchemes;
+
+	/* entities, sorted by code */
+	private final int[] idsByCode;
+
+	private final BitSet sources;
+
+	private final BitSet targets;
+
+	/* targets of entity i are targetOffsets[i] to targetOffsets[i + 1] */
+	private final int[] targetOffsets;
+
+	private final int[] targetIds;
+
+	private final int[] targetAssociations;
+
+	/* sources of entity i are sourceOffsets[i] to sourceOffsets[i + 1] */
+	private final int[] sourceOffsets;
+
+	private final int[] sourceIds;
+
+	/**
+	 * Collects the map entries, then builds the index.
+	 */
+	public static class Builder {
+
+		private final Map<String, Integer> codingSchemeIds = new HashMap<String, Integer>();
+
+		private final List<String> codingSchemes = new ArrayList<String>();
+
+		private final Map<String, Integer> associationIds = new HashMap<String, Integer>();
+
+		private final List<String> associationNames = new ArrayList<String>();
+
+		private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+		private final List<String> codes = new ArrayList<String>();
+
+		private final List<String> namespaces = new ArrayList<String>();
+
+		private final List<String> descriptions = new ArrayList<String>();
+
+		private int[] entityCodingSchemes = new int[1024];
+
+		private final BitSet sources = new BitSet();
+
+		private final BitSet targets = new BitSet();
+
+		private int[] edgeSources = new int[1024];
+
+		private int[] edgeTargets = new int[1024];
+
+		private int[] edgeAssociations = new int[1024];
+
+		private int edgeCount;
+
+		/**
+		 * Add a source entity of the map, with the targets in its sourceOf associations.
+		 *
+		 * @param ref the source, as resolved from the map
+		 * @return this builder
+		 */
+		public Builder addSource(ResolvedConceptReference ref){
+			int source = this.getId(ref);
+			this.sources.set(source);
+
+			AssociationList associations = ref.getSourceOf();
+			if(associations == null){
+				return this;
+			}
+
+			for(Association association : associations.getAssociation()){
+				if(association.getAssociatedConcepts() == null){
+					continue;
+				}
+
+				int associationId = getId(
+					this.associationIds, this.associationNames, association.getAssociationName());
+
+				for(AssociatedConcept target : association.getAssociatedConcepts().getAssociatedConcept()){
+					int targetId = this.getId(target);
+					this.targets.set(targetId);
+
+					if(this.edgeCount == this.edgeSources.length){
+						this.edgeSources = Arrays.copyOf(this.edgeSources, this.edgeCount * 2);
+						this.edgeTargets = Arrays.copyOf(this.edgeTargets, this.edgeCount * 2);
+						this.edgeAssociations = Arrays.copyOf(this.edgeAssociations, this.edgeCount * 2);
+					}
+
+					this.edgeSources[this.edgeCount] = source;
+					this.edgeTargets[this.edgeCount] = targetId;
+					this.edgeAssociations[this.edgeCount] = associationId;
+					this.edgeCount++;
+				}
+			}
+
+			return this;
+		}
+
+		private int getId(ResolvedConceptReference ref){
+			String codingScheme = ref.getCodingSchemeName() + '\u0000' +
+				ref.getCodingSchemeURI() + '\u0000' + ref.getCodingSchemeVersion();
+
+			Integer codingSchemeId = this.codingSchemeIds.get(codingScheme);
+			if(codingSchemeId == null){
+				codingSchemeId = this.codingSchemes.size() / 3;
+				this.codingSchemeIds.put(codingScheme, codingSchemeId);
+				this.codingSchemes.add(ref.getCodingSchemeName());
+				this.codingSchemes.add(ref.getCodingSchemeURI());
+				this.codingSchemes.add(ref.getCodingSchemeVersion());
+			}
+
+			String key = ref.getCode() + '\u0000' + ref.getCodeNamespace() + '\u0000' + codingSchemeId;
+
+			Integer id = this.ids.get(key);
+			if(id == null){
+				id = this.codes.size();
+				this.ids.put(key, id);
+				this.codes.add(ref.getCode());
+				this.namespaces.add(intern(this.namespaces, ref.getCodeNamespace()));
+				this.descriptions.add(
+					ref.getEntityDescription() != null ? ref.getEntityDescription().getContent() : null);
+
+				if(id == this.entityCodingSchemes.length){
+					this.entityCodingSchemes = Arrays.copyOf(this.entityCodingSchemes, id * 2);
+				}
+				this.entityCodingSchemes[id] = codingSchemeId;
+			}
+
+			return id;
+		}
+
+		/*
+		 * Namespaces repeat for almost every entity, so share the last one seen.
+		 */
+		private static String intern(List<String> namespaces, String namespace){
+			if(! namespaces.isEmpty()){
+				String last = namespaces.get(namespaces.size() - 1);
+				if(StringUtils.equals(last, namespace)){
+					return last;
+				}
+			}
+
+			return namespace;
+		}
+
+		private static int getId(Map<String, Integer> ids, List<String> values, String value){
+			Integer id = ids.get(value);
+			if(id == null){
+				id = values.size();
+				ids.put(value, id);
+				values.add(value);
+			}
+
+			return id;
+		}
+
+		public MapVersionIndex build(){
+			return new MapVersionIndex(this);
+		}
+	}
+
+	private MapVersionIndex(Builder builder){
+		int n = builder.codes.size();
+
+		this.codingSchemes = builder.codingSchemes.toArray(new String[builder.codingSchemes.size()]);
+		this.associationNames = builder.associationNames.toArray(new String[builder.associationNames.size()]);
+		this.codes = builder.codes.toArray(new String[n]);
+		this.namespaces = builder.namespaces.toArray(new String[n]);
+		this.descriptions = builder.descriptions.toArray(new String[n]);
+		this.entityCodingSchemes = Arrays.copyOf(builder.entityCodingSchemes, n);
+		this.sources = builder.sources;
+		this.targets = builder.targets;
+
+		List<Integer> ids = new ArrayList<Integer>(n);
+		for(int i = 0; i < n; i++){
+			ids.add(i);
+		}
+		Collections.sort(ids, new Comparator<Integer>(){
+
+			@Override
+			public int compare(Integer id1, Integer id2) {
+				return codes[id1].compareTo(codes[id2]);
+			}
+
+		});
+		this.idsByCode = new int[n];
+		for(int i = 0; i < n; i++){
+			this.idsByCode[i] = ids.get(i);
+		}
+
+		int edgeCount = builder.edgeCount;
+
+		this.targetOffsets = new int[n + 1];
+		this.targetIds = new int[edgeCount];
+		this.targetAssociations = new int[edgeCount];
+		this.sourceOffsets = new int[n + 1];
+		this.sourceIds = new int[edgeCount];
+
+		for(int i = 0; i < edgeCount; i++){
+			this.targetOffsets[builder.edgeSources[i] + 1]++;
+			this.sourceOffsets[builder.edgeTargets[i] + 1]++;
+		}
+		for(int i = 0; i < n; i++){
+			this.targetOffsets[i + 1] += this.targetOffsets[i];
+			this.sourceOffsets[i + 1] += this.sourceOffsets[i];
+		}
+
+		//fill in edge order, so the targets of a source keep their map order
+		int[] targetFill = Arrays.copyOf(this.targetOffsets, n);
+		int[] sourceFill = Arrays.copyOf(this.sourceOffsets, n);
+		for(int i = 0; i < edgeCount; i++){
+			int target = targetFill[builder.edgeSources[i]]++;
+			this.targetIds[target] = builder.edgeTargets[i];
+			this.targetAssociations[target] = builder.edgeAssociations[i];
+
+			this.sourceIds[sourceFill[builder.edgeTargets[i]]++] = builder.edgeSources[i];
+		}
+	}
+
+	/**
+	 * Whether an entity is the source of an entry in the map.
+	 *
+	 * @param code the code
+	 * @param namespace the namespace, or null for any namespace
+	 * @return true if it is a source
+	 */
+	public boolean isSource(String code, String namespace){
+		return this.find(code, namespace, this.sources) >= 0;
+	}
+
+	/**
+	 * Whether an entity is the target of an entry in the map.
+	 *
+	 * @param code the code
+	 * @param namespace the namespace, or null for any namespace
+	 * @return true if it is a target
+	 */
+	public boolean isTarget(String code, String namespace){
+		return this.find(code, namespace, this.targets) >= 0;
+	}
+
+	/**
+	 * Get the map entry of a source code, in the form it is resolved from the map:
+	 * the source, with its targets in its sourceOf associations.
+	 *
+	 * @param code the source code
+	 * @return the entry, or null if there is not exactly one source with the code
+	 */
+	public ResolvedConceptReference getEntry(String code){
+		int source = -1;
+
+		for(int i = this.firstIndexOf(code); i < this.idsByCode.length && this.codes[this.idsByCode[i]].equals(code); i++){
+			int id = this.idsByCode[i];
+			if(this.sources.get(id)){
+				if(source >= 0){
+					return null;
+				}
+				source = id;
+			}
+		}
+
+		if(source < 0){
+			return null;
+		}
+
+		ResolvedConceptReference ref = this.toReference(source, new ResolvedConceptReference());
+
+		AssociationList associations = new AssociationList();
+		Association association = null;
+		for(int i = this.targetOffsets[source]; i < this.targetOffsets[source + 1]; i++){
+			String associationName = this.associationNames[this.targetAssociations[i]];
+
+			if(association == null || ! association.getAssociationName().equals(associationName)){
+				association = new Association();
+				association.setAssociationName(associationName);
+				association.setAssociatedConcepts(new AssociatedConceptList());
+				associations.addAssociation(association);
+			}
+
+			association.getAssociatedConcepts().addAssociatedConcept(
+				this.toReference(this.targetIds[i], new AssociatedConcept()));
+		}
+		ref.setSourceOf(associations);
+
+		return ref;
+	}
+
+	/**
+	 * Get a page of the distinct entities of the map, in the order they first
+	 * appear in the map.
+	 *
+	 * @param sources whether to include the source entities
+	 * @param targets whether to include the target entities
+	 * @param start the first entity of the page
+	 * @param maxToReturn the size of the page
+	 * @return the entities
+	 */
+	public List<ResolvedConceptReference> getEntities(boolean sources, boolean targets, int start, int maxToReturn){
+		List<ResolvedConceptReference> refs = new ArrayList<ResolvedConceptReference>();
+
+		int position = 0;
+		for(int id = 0; id < this.codes.length && refs.size() < maxToReturn; id++){
+			if((sources && this.sources.get(id)) || (targets && this.targets.get(id))){
+				if(position++ >= start){
+					refs.add(this.toReference(id, new ResolvedConceptReference()));
+				}
+			}
+		}
+
+		return refs;
+	}
+
+	/**
+	 * Count the distinct entities of the map.
+	 *
+	 * @param sources whether to count the source entities
+	 * @param targets whether to count the target entities
+	 * @return the count
+	 */
+	public int countEntities(boolean sources, boolean targets){
+		BitSet entities = new BitSet();
+		if(sources){
+			entities.or(this.sources);
+		}
+		if(targets){
+			entities.or(this.targets);
+		}
+
+		return entities.cardinality();
+	}
+
+	private <R extends ResolvedConceptReference> R toReference(int id, R ref){
+		int codingScheme = this.entityCodingSchemes[id] * 3;
+
+		ref.setCode(this.codes[id]);
+		ref.setCodeNamespace(this.namespaces[id]);
+		ref.setCodingSchemeName(this.codingSchemes[codingScheme]);
+		ref.setCodingSchemeURI(this.codingSchemes[codingScheme + 1]);
+		ref.setCodingSchemeVersion(this.codingSchemes[codingScheme + 2]);
+
+		if(this.descriptions[id] != null){
+			EntityDescription description = new EntityDescription();
+			description.setContent(this.descriptions[id]);
+			ref.setEntityDescription(description);
+		}
+
+		return ref;
+	}
+
+	private int find(String code, String namespace, BitSet role){
+		for(int i = this.firstIndexOf(code); i < this.idsByCode.length && this.codes[this.idsByCode[i]].equals(code); i++){
+			int id = this.idsByCode[i];
+			if(role.get(id) && (namespace == null || namespace.equals(this.namespaces[id]))){
+				return id;
+			}
+		}
+
+		return -1;
+	}
+
+	private int firstIndexOf(String code){
+		int low = 0;
+		int high = this.idsByCode.length;
+		while(low < high){
+			int mid = (low + high) >>> 1;
+			if(this.codes[this.idsByCode[mid]].compareTo(code) < 0){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+
+		return low;
+	}
+
+	public int getSourceCount() {
+		return this.sources.cardinality();
+	}
+
+	public int getTargetCount() {
+		return this.targets.cardinality();
+	}
+
+	public int getEntryCount() {
+		return this.targetIds.length;
+	}
+
+	/**
+	 * The weight of the index, as the number of entities plus the number of links.
+	 *
+	 * @return the weight
+	 */
+	public long getWeight() {
+		return this.codes.length + this.targetIds.length;
+	}
+
+}
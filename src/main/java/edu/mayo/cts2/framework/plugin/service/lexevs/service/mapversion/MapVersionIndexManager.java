@@ -0,0 +1,172 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeSummary;
+import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.DataModel.InterfaceElements.CodingSchemeRendering;
+import org.LexGrid.LexBIG.Exceptions.LBException;
+import org.LexGrid.LexBIG.Exceptions.LBParameterException;
+import org.LexGrid.LexBIG.Extensions.Generic.MappingExtension;
+import org.LexGrid.LexBIG.LexBIGService.LexBIGService;
+import org.LexGrid.LexBIG.Utility.Constructors;
+import org.LexGrid.LexBIG.Utility.Iterators.ResolvedConceptReferencesIterator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager;
+
+/**
+ * Holds a {@link MapVersionIndex} for each map version that has been queried.
+ * Map versions with more source entities than the configured maximum are not
+ * indexed, and the total weight of the indexes held is bounded.
+ *
+ * @author <a href="mailto:kevin.peterson@mayo.edu">Kevin Peterson</a>
+ */
+@Component
+public class MapVersionIndexManager extends AbstractVersionIndexManager<MapVersionIndex> {
+
+	private static final int DEFAULT_MAX_SOURCES = 500000;
+
+	private static final int DEFAULT_BATCH_SIZE = 1000;
+
+	private static final long DEFAULT_MAX_WEIGHT = 2000000;
+
+	@Resource
+	private LexBIGService lexBigService;
+
+	@Resource
+	private MappingExtension mappingExtension;
+
+	private int maxSources = DEFAULT_MAX_SOURCES;
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+
+	public MapVersionIndexManager(){
+		super();
+		this.setMaxWeight(DEFAULT_MAX_WEIGHT);
+	}
+
+	@Override
+	protected String getThreadName() {
+		return "lexevs-map-version-index";
+	}
+
+	@Override
+	protected long getWeight(MapVersionIndex index) {
+		return index.getWeight();
+	}
+
+	/**
+	 * Only the coding scheme versions loaded in LexEVS may be built, under any of
+	 * the names a map version may be asked for by.
+	 *
+	 * @see edu.mayo.cts2.framework.plugin.service.lexevs.service.AbstractVersionIndexManager#getKnownVersions()
+	 */
+	@Override
+	protected List<NameVersionPair> getKnownVersions() throws LBException {
+		List<NameVersionPair> versions = new ArrayList<NameVersionPair>();
+		for(CodingSchemeRendering rendering :
+				this.lexBigService.getSupportedCodingSchemes().getCodingSchemeRendering()){
+			CodingSchemeSummary summary = rendering.getCodingSchemeSummary();
+
+			versions.add(new NameVersionPair(summary.getLocalName(), summary.getRepresentsVersion()));
+			versions.add(new NameVersionPair(summary.getCodingSchemeURI(), summary.getRepresentsVersion()));
+			versions.add(new NameVersionPair(summary.getFormalName(), summary.getRepresentsVersion()));
+		}
+
+		return versions;
+	}
+
+	/**
+	 * Resolve all entries of a map version.
+	 *
+	 * @param version the version
+	 * @return the index, or null if it is not a map or is too large
+	 * @throws LBException the lB exception
+	 */
+	@Override
+	protected MapVersionIndex buildIndex(NameVersionPair version) throws LBException {
+		long startTime = System.currentTimeMillis();
+
+		CodingSchemeVersionOrTag csvt =
+			Constructors.createCodingSchemeVersionOrTagFromVersion(version.getVersion());
+
+		try {
+			if(! this.mappingExtension.isMappingCodingScheme(version.getName(), csvt)){
+				return null;
+			}
+		} catch (LBParameterException e) {
+			log.info("Not indexing " + this.getKey(version) + ", it could not be found.");
+			return null;
+		}
+
+		ResolvedConceptReferencesIterator iterator =
+			this.mappingExtension.getMapping(version.getName(), csvt, null).resolveMapping();
+
+		MapVersionIndex.Builder builder = new MapVersionIndex.Builder();
+		try {
+			if(iterator.numberRemaining() > this.maxSources){
+				log.info("Not indexing map entries of " + this.getKey(version) +
+					", it has more than " + this.maxSources + " source entities.");
+				return null;
+			}
+
+			while(iterator.hasNext()){
+				ResolvedConceptReferenceList list = iterator.next(this.batchSize);
+
+				for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+					builder.addSource(ref);
+				}
+			}
+		} finally {
+			iterator.release();
+		}
+
+		MapVersionIndex index = builder.build();
+
+		log.info("Indexed " + index.getEntryCount() + " map entries of " +
+			index.getSourceCount() + " source entities for " + this.getKey(version) +
+			" in " + (System.currentTimeMillis() - startTime) + " ms.");
+
+		return index;
+	}
+
+	public int getMaxSources() {
+		return maxSources;
+	}
+
+	@Value("${mapVersionIndexMaxSources:" + DEFAULT_MAX_SOURCES + "}")
+	public void setMaxSources(int maxSources) {
+		this.maxSources = maxSources;
+	}
+
+	@Override
+	@Value("${mapVersionIndexMaxWeight:" + DEFAULT_MAX_WEIGHT + "}")
+	public void setMaxWeight(long maxWeight) {
+		super.setMaxWeight(maxWeight);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+}
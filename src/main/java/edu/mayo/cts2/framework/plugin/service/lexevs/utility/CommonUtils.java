@@ -8,9 +8,17 @@
 */
 package edu.mayo.cts2.framework.plugin.service.lexevs.utility;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.LexGrid.LexBIG.DataModel.Collections.ConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Collections.LocalNameList;
+import org.LexGrid.LexBIG.DataModel.Collections.ResolvedConceptReferenceList;
 import org.LexGrid.LexBIG.DataModel.Collections.SortOptionList;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
 import org.LexGrid.LexBIG.DataModel.Core.CodingSchemeVersionOrTag;
 import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
 import org.LexGrid.LexBIG.Exceptions.LBException;
@@ -32,6 +40,14 @@ import edu.mayo.cts2.framework.plugin.service.lexevs.naming.VersionNameConverter
 import edu.mayo.cts2.framework.service.profile.entitydescription.name.EntityDescriptionReadId;
 
 public final class CommonUtils {
+	
+	/**
+	 * The most codes restricted to in one LexEVS resolve. LexEVS turns the
+	 * code restriction into a Lucene boolean query, which has a clause limit.
+	 */
+	public static final int MAX_CODES_PER_RESOLVE = 500;
+	
+	private static final int RESOLVE_BATCH_SIZE = 100;
 
 	// Private constructor - case where every method in class is static
 	private CommonUtils() {
@@ -43,6 +59,21 @@ public final class CommonUtils {
 			VersionNameConverter nameConverter, 
 			EntityDescriptionReadId cts2EntityDescriptionReadId,
 			ResolvedReadContext readContext) {
+		return getLexResolvedConceptReference(
+			lexBigService, nameConverter, cts2EntityDescriptionReadId, readContext, null);
+	}
+	
+	/**
+	 * Resolve one entity, with only the given types of properties.
+	 *
+	 * @param propertyTypes the property types to resolve, or null for all
+	 */
+	public static ResolvedConceptReference getLexResolvedConceptReference(
+			LexBIGService lexBigService, 
+			VersionNameConverter nameConverter, 
+			EntityDescriptionReadId cts2EntityDescriptionReadId,
+			ResolvedReadContext readContext,
+			PropertyType[] propertyTypes) {
 
 		NameVersionPair codingSchemeName;
 		CodingSchemeVersionOrTag versionOrTag;
@@ -65,7 +96,8 @@ public final class CommonUtils {
 			lexCodedNodeSet = lexBigService.getNodeSet(codingSchemeName.getName(), versionOrTag, null);
 			lexCodedNodeSet = lexCodedNodeSet.restrictToCodes(referenceList);
 			
-			ResolvedConceptReferencesIterator lexResolvedConceptReferencesIterator = lexCodedNodeSet.resolve(null, null, null);
+			ResolvedConceptReferencesIterator lexResolvedConceptReferencesIterator = 
+				lexCodedNodeSet.resolve(null, null, null, propertyTypes, true);
 			
 			if(! lexResolvedConceptReferencesIterator.hasNext()){
 				return null;
@@ -78,6 +110,122 @@ public final class CommonUtils {
 		
 	}
 
+	/**
+	 * Resolve many entities at once. The entities are grouped by code system version,
+	 * and each group is resolved with one code restriction (split only if it has more
+	 * than {@link #MAX_CODES_PER_RESOLVE} codes), instead of one resolve per entity.
+	 *
+	 * @return the entities in the order of the identifiers, with null for any not found
+	 */
+	public static List<ResolvedConceptReference> getLexResolvedConceptReferences(
+			LexBIGService lexBigService, 
+			VersionNameConverter nameConverter, 
+			List<EntityDescriptionReadId> cts2EntityDescriptionReadIds,
+			ResolvedReadContext readContext) {
+		List<ResolvedConceptReference> returnList = new ArrayList<ResolvedConceptReference>();
+		
+		Map<String, List<Integer>> versionGroups = new LinkedHashMap<String, List<Integer>>();
+		for(int i = 0; i < cts2EntityDescriptionReadIds.size(); i++){
+			returnList.add(null);
+			
+			EntityDescriptionReadId id = cts2EntityDescriptionReadIds.get(i);
+			if(id == null || 
+					id.getEntityName() == null || 
+					id.getCodeSystemVersion() == null || 
+					id.getCodeSystemVersion().getName() == null){
+				continue;
+			}
+			
+			String cts2VersionName = id.getCodeSystemVersion().getName();
+			if(! versionGroups.containsKey(cts2VersionName)){
+				versionGroups.put(cts2VersionName, new ArrayList<Integer>());
+			}
+			versionGroups.get(cts2VersionName).add(i);
+		}
+		
+		for(Map.Entry<String, List<Integer>> versionGroup : versionGroups.entrySet()){
+			NameVersionPair codingSchemeName = nameConverter.fromCts2VersionName(versionGroup.getKey());
+			
+			List<Integer> indexes = versionGroup.getValue();
+			for(int start = 0; start < indexes.size(); start += MAX_CODES_PER_RESOLVE){
+				resolveCodes(
+					lexBigService, 
+					nameConverter, 
+					codingSchemeName, 
+					cts2EntityDescriptionReadIds, 
+					indexes.subList(start, Math.min(start + MAX_CODES_PER_RESOLVE, indexes.size())), 
+					returnList);
+			}
+		}
+		
+		return returnList;
+	}
+	
+	private static void resolveCodes(
+			LexBIGService lexBigService, 
+			VersionNameConverter nameConverter, 
+			NameVersionPair codingSchemeName,
+			List<EntityDescriptionReadId> cts2EntityDescriptionReadIds,
+			List<Integer> indexes,
+			List<ResolvedConceptReference> returnList) {
+		ConceptReferenceList referenceList = new ConceptReferenceList();
+		
+		Map<String, List<Integer>> indexesByCode = new HashMap<String, List<Integer>>();
+		String[] namespaces = new String[cts2EntityDescriptionReadIds.size()];
+		
+		for(Integer index : indexes){
+			ScopedEntityName entityName = cts2EntityDescriptionReadIds.get(index).getEntityName();
+			
+			String namespace = 
+				nameConverter.getCodingSchemeNameTranslator().translateToLexGrid(entityName.getNamespace());
+			namespaces[index] = namespace;
+			
+			ConceptReference reference = new ConceptReference();
+			reference.setCode(entityName.getName());
+			reference.setCodeNamespace(namespace);
+			reference.setCodingSchemeName(codingSchemeName.getName());
+			referenceList.addConceptReference(reference);
+			
+			if(! indexesByCode.containsKey(entityName.getName())){
+				indexesByCode.put(entityName.getName(), new ArrayList<Integer>());
+			}
+			indexesByCode.get(entityName.getName()).add(index);
+		}
+		
+		try {
+			CodedNodeSet lexCodedNodeSet = lexBigService.getNodeSet(
+				codingSchemeName.getName(), 
+				Constructors.createCodingSchemeVersionOrTagFromVersion(codingSchemeName.getVersion()), 
+				null);
+			lexCodedNodeSet = lexCodedNodeSet.restrictToCodes(referenceList);
+			
+			ResolvedConceptReferencesIterator iterator = lexCodedNodeSet.resolve(null, null, null);
+			try {
+				while(iterator.hasNext()){
+					ResolvedConceptReferenceList list = iterator.next(RESOLVE_BATCH_SIZE);
+					
+					for(ResolvedConceptReference ref : list.getResolvedConceptReference()){
+						List<Integer> matches = indexesByCode.get(ref.getCode());
+						if(matches == null){
+							continue;
+						}
+						
+						for(Integer index : matches){
+							if(returnList.get(index) == null && 
+									(namespaces[index] == null || namespaces[index].equals(ref.getCodeNamespace()))){
+								returnList.set(index, ref);
+							}
+						}
+					}
+				}
+			} finally {
+				iterator.release();
+			}
+		} catch (LBException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public static ResolvedConceptReferencesIterator getLexResolvedConceptIterator(CodedNodeSet lexCodedNodeSet, SortCriteria cts2SortCriteria){
 		ResolvedConceptReferencesIterator lexResolvedConceptReferencesIterator = null;
 		if(lexCodedNodeSet != null){
@@ -0,0 +1,143 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.AdmissionDeniedException;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+
+public class BulkDownloadAdmissionManagerTest {
+
+	private BulkDownloadAdmissionManager createManager(int global, int perClient, int queue, long timeout){
+		BulkDownloadAdmissionManager manager = new BulkDownloadAdmissionManager();
+		manager.setMaxConcurrentDownloads(global);
+		manager.setMaxConcurrentDownloadsPerClient(perClient);
+		manager.setMaxQueueSize(queue);
+		manager.setQueueTimeoutSeconds(timeout);
+		manager.setRetryAfterSeconds(5);
+
+		return manager;
+	}
+
+	@Test
+	public void testAcquireAndRelease(){
+		BulkDownloadAdmissionManager manager = this.createManager(2, 1, 1, 0);
+
+		Permit p1 = manager.acquire("a");
+		Permit p2 = manager.acquire("b");
+
+		assertEquals(2, manager.getActiveCount());
+
+		p1.release();
+		p1.release();
+
+		assertEquals(1, manager.getActiveCount());
+
+		p2.release();
+
+		assertEquals(0, manager.getActiveCount());
+		assertEquals(2, manager.getAdmittedCount());
+	}
+
+	@Test
+	public void testTransferLimit(){
+		BulkDownloadAdmissionManager manager = this.createManager(2, 2, 0, 0);
+		manager.setMaxConcurrentTransfers(1);
+
+		Permit p1 = manager.acquire("a");
+		p1.releaseSlot();
+
+		assertEquals(0, manager.getActiveCount());
+		assertEquals(1, manager.getTransferCount());
+
+		try {
+			manager.acquire("b");
+			fail();
+		} catch (AdmissionDeniedException e){
+			//
+		}
+
+		p1.release();
+
+		assertEquals(0, manager.getTransferCount());
+
+		manager.acquire("b");
+
+		assertEquals(1, manager.getActiveCount());
+	}
+
+	@Test
+	public void testPerClientLimitTimesOut(){
+		BulkDownloadAdmissionManager manager = this.createManager(2, 1, 1, 0);
+
+		manager.acquire("a");
+
+		try {
+			manager.acquire("a");
+			fail();
+		} catch (AdmissionDeniedException e){
+			assertEquals(5, e.getRetryAfterSeconds());
+		}
+
+		assertEquals(1, manager.getTimedOutCount());
+		assertEquals(0, manager.getQueueDepth());
+
+		manager.acquire("b");
+
+		assertEquals(2, manager.getActiveCount());
+	}
+
+	@Test
+	public void testRejectWhenQueueFull(){
+		BulkDownloadAdmissionManager manager = this.createManager(1, 1, 0, 10);
+
+		manager.acquire("a");
+
+		try {
+			manager.acquire("b");
+			fail();
+		} catch (AdmissionDeniedException e){
+			//
+		}
+
+		assertEquals(1, manager.getRejectedCount());
+	}
+
+	@Test
+	public void testQueuedRequestAdmittedOnRelease() throws Exception {
+		final BulkDownloadAdmissionManager manager = this.createManager(1, 1, 1, 10);
+
+		Permit p1 = manager.acquire("a");
+
+		final Permit[] queued = new Permit[1];
+		Thread thread = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				queued[0] = manager.acquire("b");
+			}
+
+		});
+		thread.start();
+
+		while(manager.getQueueDepth() == 0){
+			Thread.sleep(10);
+		}
+
+		p1.release();
+		thread.join(10000);
+
+		assertNotNull(queued[0]);
+		assertEquals(1, manager.getActiveCount());
+		assertEquals(0, manager.getQueueDepth());
+	}
+}
@@ -0,0 +1,119 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class BulkDownloadFormatTest {
+	
+	private static final List<String> FIELDS = Arrays.asList("code", "description");
+
+	private byte[] write(BulkDownloadFormat format, boolean finish, String[]... rows) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		RowWriter writer = format.createRowWriter(out, '|', FIELDS);
+		for(String[] row : rows){
+			writer.write(row);
+		}
+		if(finish){
+			writer.finish();
+		}
+		writer.close();
+		
+		return out.toByteArray();
+	}
+	
+	private String readString(DataInputStream in) throws Exception {
+		int length = in.readInt();
+		if(length == -1){
+			return null;
+		}
+		
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		
+		return new String(bytes, "UTF-8");
+	}
+	
+	@Test
+	public void testFromName(){
+		assertEquals(BulkDownloadFormat.NDJSON, BulkDownloadFormat.fromName("ndjson"));
+		assertEquals(BulkDownloadFormat.DELIMITED, BulkDownloadFormat.fromName("Delimited"));
+		assertNull(BulkDownloadFormat.fromName("xml"));
+	}
+
+	@Test
+	public void testDelimited() throws Exception {
+		byte[] bytes = this.write(BulkDownloadFormat.DELIMITED, true, 
+			new String[]{"C0001", "Car"});
+		
+		assertEquals("C0001|Car\r\n", new String(bytes, "UTF-8"));
+	}
+	
+	@Test
+	public void testNdjson() throws Exception {
+		byte[] bytes = this.write(BulkDownloadFormat.NDJSON, true, 
+			new String[]{"C0001", "Car"},
+			new String[]{"C0002", null},
+			new String[]{"C0003", "A \"quoted\"\tname\\\n"});
+		
+		assertEquals(
+			"{\"code\":\"C0001\",\"description\":\"Car\"}\n" +
+			"{\"code\":\"C0002\",\"description\":null}\n" +
+			"{\"code\":\"C0003\",\"description\":\"A \\\"quoted\\\"\\tname\\\\\\n\"}\n",
+			new String(bytes, "UTF-8"));
+	}
+	
+	@Test
+	public void testBinary() throws Exception {
+		byte[] bytes = this.write(BulkDownloadFormat.BINARY, true, 
+			new String[]{"C0001", "Café"},
+			new String[]{"C0002", null});
+		
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		
+		byte[] magic = new byte[4];
+		in.readFully(magic);
+		assertArrayEquals(BinaryRowWriter.MAGIC, magic);
+		assertEquals(BinaryRowWriter.VERSION, in.readByte());
+		assertEquals(2, in.readInt());
+		assertEquals("code", this.readString(in));
+		assertEquals("description", this.readString(in));
+		
+		assertEquals(BinaryRowWriter.ROW, in.readByte());
+		assertEquals("C0001", this.readString(in));
+		assertEquals("Café", this.readString(in));
+		
+		assertEquals(BinaryRowWriter.ROW, in.readByte());
+		assertEquals("C0002", this.readString(in));
+		assertNull(this.readString(in));
+		
+		assertEquals(BinaryRowWriter.END, in.readByte());
+		assertEquals(-1, in.read());
+	}
+	
+	@Test
+	public void testBinaryWithoutFinishHasNoEndMarker() throws Exception {
+		byte[] bytes = this.write(BulkDownloadFormat.BINARY, false, 
+			new String[]{"C0001", "Car"});
+		
+		// header: 4 + 1 + 4 + (4 + 4) + (4 + 11), row: 1 + (4 + 5) + (4 + 3)
+		assertEquals(49, bytes.length);
+		assertEquals(BinaryRowWriter.ROW, bytes[32]);
+	}
+
+}
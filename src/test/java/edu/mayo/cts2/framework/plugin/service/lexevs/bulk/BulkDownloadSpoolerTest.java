@@ -0,0 +1,366 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadAdmissionManager.Permit;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job.BulkDownloadTask;
+
+public class BulkDownloadSpoolerTest {
+
+	private BulkDownloadSpooler spooler;
+
+	private BulkDownloadAdmissionManager admissionManager;
+
+	private File spoolDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		this.spoolDirectory = File.createTempFile("bulk-spool-test", "");
+		this.spoolDirectory.delete();
+
+		this.spooler = new BulkDownloadSpooler();
+		this.spooler.setSpoolDirectory(this.spoolDirectory.getPath());
+		this.spooler.afterPropertiesSet();
+
+		this.admissionManager = new BulkDownloadAdmissionManager();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.spooler.destroy();
+	}
+
+	private byte[] createContent(int size){
+		byte[] content = new byte[size];
+		for(int i = 0; i < size; i++){
+			content[i] = (byte) ('a' + (i % 26));
+		}
+
+		return content;
+	}
+
+	private BulkDownloadTask createTask(final byte[] content){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				try {
+					for(int i = 0; i < content.length; i += 1000){
+						outputStream.write(content, i, Math.min(1000, content.length - i));
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+		};
+	}
+
+	private void waitForNoActiveDownloads() throws Exception {
+		long timeout = System.currentTimeMillis() + 10000;
+		while(this.admissionManager.getActiveCount() > 0 && System.currentTimeMillis() < timeout){
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testSpool() throws Exception {
+		byte[] content = this.createContent(100000);
+
+		ByteArrayOutputStream client = new ByteArrayOutputStream();
+
+		this.spooler.spool(this.createTask(content), this.admissionManager.acquire("a"), client);
+
+		assertTrue(Arrays.equals(content, client.toByteArray()));
+		assertEquals(0, this.admissionManager.getActiveCount());
+		assertEquals(0, this.spoolDirectory.list().length);
+	}
+
+	@Test
+	public void testPermitReleasedBeforeSlowClientFinishes() throws Exception {
+		final byte[] content = this.createContent(100000);
+		final Permit permit = this.admissionManager.acquire("a");
+
+		final CountDownLatch clientBlocked = new CountDownLatch(1);
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+		final OutputStream slowClient = new OutputStream(){
+
+			@Override
+			public void write(int b) throws IOException {
+				this.write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				try {
+					clientBlocked.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e.getMessage());
+				}
+				received.write(b, off, len);
+			}
+
+		};
+
+		final Throwable[] error = new Throwable[1];
+
+		Thread request = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					spooler.spool(createTask(content), permit, slowClient);
+				} catch (Throwable e) {
+					error[0] = e;
+				}
+			}
+
+		});
+		request.start();
+
+		this.waitForNoActiveDownloads();
+
+		assertEquals(0, this.admissionManager.getActiveCount());
+		assertEquals(1, this.admissionManager.getTransferCount());
+		assertEquals(0, received.size());
+
+		clientBlocked.countDown();
+		request.join(10000);
+
+		assertNull(error[0]);
+		assertTrue(Arrays.equals(content, received.toByteArray()));
+		assertEquals(0, this.admissionManager.getTransferCount());
+	}
+
+	@Test
+	public void testProducerBlocksAtSpoolCap() throws Exception {
+		this.spooler.setMaxSpoolBytes(10000);
+		this.spooler.setSegmentBytes(4000);
+
+		final byte[] content = this.createContent(100000);
+		final Permit permit = this.admissionManager.acquire("a");
+
+		final CountDownLatch clientBlocked = new CountDownLatch(1);
+		final ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+		final OutputStream slowClient = new OutputStream(){
+
+			@Override
+			public void write(int b) throws IOException {
+				this.write(new byte[]{(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				try {
+					clientBlocked.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e.getMessage());
+				}
+				received.write(b, off, len);
+			}
+
+		};
+
+		Thread request = new Thread(new Runnable(){
+
+			@Override
+			public void run() {
+				try {
+					spooler.spool(createTask(content), permit, slowClient);
+				} catch (Throwable e) {
+					//
+				}
+			}
+
+		});
+		request.start();
+
+		Thread.sleep(500);
+
+		assertEquals(1, this.admissionManager.getActiveCount());
+		
+		long spooled = 0;
+		for(File file : this.spoolDirectory.listFiles()){
+			spooled += file.length();
+		}
+		assertTrue(Long.toString(spooled), spooled <= 20000);
+
+		clientBlocked.countDown();
+		request.join(10000);
+
+		assertTrue(Arrays.equals(content, received.toByteArray()));
+		assertEquals(0, this.admissionManager.getActiveCount());
+		assertEquals(0, this.spoolDirectory.list().length);
+	}
+
+	@Test
+	public void testClientFailureCancelsTask() throws Exception {
+		final CountDownLatch taskStopped = new CountDownLatch(1);
+
+		BulkDownloadTask endless = new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				try {
+					byte[] row = "C0001|Car\r\n".getBytes();
+					while(true){
+						outputStream.write(row);
+					}
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				} finally {
+					taskStopped.countDown();
+				}
+			}
+
+		};
+
+		OutputStream brokenClient = new OutputStream(){
+
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Connection reset");
+			}
+
+		};
+
+		try {
+			this.spooler.spool(endless, this.admissionManager.acquire("a"), brokenClient);
+			fail();
+		} catch (IOException e) {
+			//
+		}
+
+		assertTrue(taskStopped.await(10, TimeUnit.SECONDS));
+
+		this.waitForNoActiveDownloads();
+		assertEquals(0, this.admissionManager.getActiveCount());
+	}
+
+	@Test
+	public void testClientFailureCancelsDelimitedDownload() throws Exception {
+		final CountDownLatch taskStopped = new CountDownLatch(1);
+
+		final AbstractBulkDownloader downloader = new AbstractBulkDownloader(){
+
+			@Override
+			protected Map<String, Extractor> getExtractorMap() {
+				return Collections.<String, Extractor>singletonMap("code", new Extractor(){
+
+					@Override
+					public String extract(ResolvedConceptReference ref) {
+						return ref.getCode();
+					}
+
+				});
+			}
+
+		};
+
+		final Iterator<ResolvedConceptReference> endless = new Iterator<ResolvedConceptReference>(){
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public ResolvedConceptReference next() {
+				ResolvedConceptReference ref = new ResolvedConceptReference();
+				ref.setCode("C0001");
+
+				return ref;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+
+		};
+
+		BulkDownloadTask task = new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				try {
+					List<String> fields = Arrays.asList("code");
+					downloader.doWrite(outputStream, endless, '|', BulkDownloadFormat.DELIMITED, fields, progress);
+				} finally {
+					taskStopped.countDown();
+				}
+			}
+
+		};
+
+		OutputStream brokenClient = new OutputStream(){
+
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("Connection reset");
+			}
+
+		};
+
+		try {
+			this.spooler.spool(task, this.admissionManager.acquire("a"), brokenClient);
+			fail();
+		} catch (IOException e) {
+			//
+		}
+
+		assertTrue(taskStopped.await(10, TimeUnit.SECONDS));
+
+		this.waitForNoActiveDownloads();
+		assertEquals(0, this.admissionManager.getActiveCount());
+	}
+
+	@Test
+	public void testTaskFailure() throws Exception {
+		BulkDownloadTask broken = new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				throw new IllegalStateException("broken");
+			}
+
+		};
+
+		try {
+			this.spooler.spool(broken, this.admissionManager.acquire("a"), new ByteArrayOutputStream());
+			fail();
+		} catch (RuntimeException e) {
+			assertEquals("broken", e.getCause().getMessage());
+		}
+
+		assertEquals(0, this.admissionManager.getActiveCount());
+	}
+
+}
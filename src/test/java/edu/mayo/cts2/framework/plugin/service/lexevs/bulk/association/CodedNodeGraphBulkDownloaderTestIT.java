@@ -0,0 +1,79 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.association;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
+import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContent;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.test.AbstractTestITBase;
+
+@LoadContent(contentPath="lexevs/test-content/Automobiles.xml")
+public class CodedNodeGraphBulkDownloaderTestIT extends AbstractTestITBase {
+
+	@Resource
+	private CodedNodeGraphBulkDownloader downloader;
+	
+	private String download(List<String> associations){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		CodingSchemeReference codingScheme = new CodingSchemeReference();
+		codingScheme.setCodingScheme("Automobiles");
+		
+		this.downloader.download(out, codingScheme, associations,
+			Arrays.asList(
+				CodedNodeGraphBulkDownloader.SOURCE_CODE_FIELD, 
+				CodedNodeGraphBulkDownloader.ASSOCIATION_NAME_FIELD,
+				CodedNodeGraphBulkDownloader.TARGET_CODE_FIELD
+				),
+			'|');
+		
+		return new String(out.toByteArray());
+	}
+	
+	@Test
+	public void testDownload(){
+		String result = this.download(null);
+		
+		assertTrue(result, result.contains("005|hasSubtype|Ford"));
+		assertTrue(result, result.contains("005|hasSubtype|GM"));
+		assertTrue(result, result.contains("GM|hasSubtype|Chevy"));
+		assertTrue(result, result.contains("A0001|uses|Batteries"));
+	}
+	
+	@Test
+	public void testDownloadRestrictToAssociations(){
+		String result = this.download(Arrays.asList("uses"));
+		
+		assertTrue(result, result.contains("A0001|uses|Batteries"));
+		assertFalse(result, result.contains("hasSubtype"));
+	}
+	
+	@Test
+	public void testDownloadSmallBatches(){
+		int batchSize = this.downloader.getBatchSize();
+		this.downloader.setBatchSize(1);
+		try {
+			String result = this.download(null);
+			
+			assertTrue(result, result.contains("005|hasSubtype|Ford"));
+			assertTrue(result, result.contains("GM|hasSubtype|Chevy"));
+		} finally {
+			this.downloader.setBatchSize(batchSize);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContent;
+import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContents;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
+import edu.mayo.cts2.framework.plugin.service.lexevs.test.AbstractTestITBase;
+
+@LoadContents({
+	@LoadContent(contentPath="lexevs/test-content/Automobiles.xml"),
+	@LoadContent(contentPath="lexevs/test-content/Automobiles_1.1.xml")
+})
+public class CodedNodeSetDeltaBulkDownloaderTestIT extends AbstractTestITBase {
+
+	@Resource
+	private CodedNodeSetDeltaBulkDownloader downloader;
+
+	@Test
+	public void testDownload(){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		this.downloader.download(out, "Automobiles", "1.0", "1.1",
+			Arrays.asList(
+					CodeSystemVersionDeltaBulkDownloader.CHANGE_FIELD,
+					CodeSystemVersionBulkDownloader.CODE_FIELD,
+					CodeSystemVersionBulkDownloader.DESCRIPTION_FIELD
+				),
+			'|',
+			BulkDownloadFormat.DELIMITED,
+			null);
+
+		String result = new String(out.toByteArray());
+
+		assertTrue(result, result.contains("removed|NoRelationsConcept|"));
+		assertTrue(result, result.contains("changed|Ford|Ford Motor Co."));
+		assertTrue(result, result.contains("added|lada|Lada"));
+	}
+
+	@Test
+	public void testDownloadOnlyChanges(){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		this.downloader.download(out, "Automobiles", "1.0", "1.1",
+			Arrays.asList(
+					CodeSystemVersionDeltaBulkDownloader.CHANGE_FIELD,
+					CodeSystemVersionBulkDownloader.CODE_FIELD
+				),
+			'|',
+			BulkDownloadFormat.DELIMITED,
+			null);
+
+		String result = new String(out.toByteArray());
+
+		// Codes of mixed case, such as 'hasSubtype' and 'Jaguar', are unchanged and
+		// must be matched up between the versions whatever order LexEVS reads them in.
+		assertEquals(result, 3, result.trim().split("\r\n").length);
+	}
+
+}
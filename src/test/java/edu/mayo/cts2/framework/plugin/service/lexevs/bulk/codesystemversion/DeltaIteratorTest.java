@@ -0,0 +1,96 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.commonTypes.EntityDescription;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.Extractor;
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.codesystemversion.DeltaIterator.DeltaReference;
+
+public class DeltaIteratorTest {
+	
+	private ResolvedConceptReference ref(String code, String description, String version){
+		ResolvedConceptReference ref = new ResolvedConceptReference();
+		ref.setCode(code);
+		ref.setCodeNamespace("ns");
+		ref.setCodingSchemeVersion(version);
+		
+		EntityDescription entityDescription = new EntityDescription();
+		entityDescription.setContent(description);
+		ref.setEntityDescription(entityDescription);
+		
+		return ref;
+	}
+	
+	private List<String> toStrings(DeltaIterator itr){
+		List<String> result = new ArrayList<String>();
+		while(itr.hasNext()){
+			DeltaReference ref = (DeltaReference) itr.next();
+			result.add(ref.getChange() + ":" + ref.getCode() + ":" + ref.getCodingSchemeVersion());
+		}
+		
+		return result;
+	}
+	
+	private List<Extractor> descriptionOnly(){
+		return Arrays.asList(
+			SearchExtensionBulkDownloader.EXTRACTOR_MAP.get(CodeSystemVersionBulkDownloader.DESCRIPTION_FIELD));
+	}
+
+	@Test
+	public void testDelta(){
+		DeltaIterator itr = new DeltaIterator(
+			Arrays.asList(
+				ref("A", "a", "1"), 
+				ref("B", "b", "1"), 
+				ref("C", "c", "1"),
+				ref("E", "e", "1")).iterator(), 
+			Arrays.asList(
+				ref("B", "b", "2"), 
+				ref("C", "c changed", "2"), 
+				ref("D", "d", "2"),
+				ref("E", "e", "2"),
+				ref("F", "f", "2")).iterator(), 
+			this.descriptionOnly());
+		
+		assertEquals(Arrays.asList(
+			"REMOVED:A:1", 
+			"CHANGED:C:2", 
+			"ADDED:D:2", 
+			"ADDED:F:2"), this.toStrings(itr));
+	}
+	
+	@Test
+	public void testNoDifferences(){
+		DeltaIterator itr = new DeltaIterator(
+			Arrays.asList(ref("A", "a", "1")).iterator(), 
+			Arrays.asList(ref("A", "a", "2")).iterator(), 
+			this.descriptionOnly());
+		
+		assertFalse(itr.hasNext());
+	}
+	
+	@Test
+	public void testEmptyFrom(){
+		DeltaIterator itr = new DeltaIterator(
+			new ArrayList<ResolvedConceptReference>().iterator(), 
+			Arrays.asList(ref("A", "a", "2"), ref("B", "b", "2")).iterator(), 
+			this.descriptionOnly());
+		
+		assertEquals(Arrays.asList("ADDED:A:2", "ADDED:B:2"), this.toStrings(itr));
+	}
+}
@@ -18,11 +18,16 @@ import javax.annotation.Resource;
 
 import org.LexGrid.LexBIG.Extensions.Generic.CodingSchemeReference;
 import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContent;
+import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContents;
 import org.junit.Test;
 
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadFormat;
 import edu.mayo.cts2.framework.plugin.service.lexevs.test.AbstractTestITBase;
 
-@LoadContent(contentPath="lexevs/test-content/Automobiles.xml")
+@LoadContents({
+	@LoadContent(contentPath="lexevs/test-content/Automobiles.xml"),
+	@LoadContent(contentPath="lexevs/test-content/German_Made_Parts.xml")
+})
 public class SearchExtensionBulkDownloaderTestIT extends AbstractTestITBase {
 
 	@Resource
@@ -51,4 +56,50 @@ public class SearchExtensionBulkDownloaderTestIT extends AbstractTestITBase {
 		assertTrue(result, !result.contains("73|Oldsmobile"));
 		//... etc...
 	}
+	
+	@Test
+	public void testDownloadMultipleCodingSchemesInOrder(){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		CodingSchemeReference automobiles = new CodingSchemeReference();
+		automobiles.setCodingScheme("Automobiles");
+		
+		CodingSchemeReference parts = new CodingSchemeReference();
+		parts.setCodingScheme("GermanMadeParts");
+		
+		this.downloader.download(out, new HashSet<CodingSchemeReference>(Arrays.asList(parts, automobiles)), null,
+			Arrays.asList(
+					SearchExtensionBulkDownloader.CODE_FIELD,
+					SearchExtensionBulkDownloader.CODINGSCHEME_NAME_FIELD
+				),
+			'|');
+		
+		String result = new String(out.toByteArray());
+		
+		assertTrue(result, result.contains("C0001|Automobiles"));
+		assertTrue(result, result.contains("E0001|GermanMadeParts"));
+		
+		assertTrue(result, result.lastIndexOf("|Automobiles") < result.indexOf("|GermanMadeParts"));
+	}
+	
+	@Test
+	public void testDownloadNdjson(){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		CodingSchemeReference codingScheme = new CodingSchemeReference();
+		codingScheme.setCodingScheme("Automobiles");
+		
+		this.downloader.download(out, new HashSet<CodingSchemeReference>(Arrays.asList(codingScheme)), null,
+			Arrays.asList(
+					SearchExtensionBulkDownloader.CODE_FIELD,
+					SearchExtensionBulkDownloader.DESCRIPTION_FIELD
+				),
+			'|',
+			BulkDownloadFormat.NDJSON,
+			null);
+		
+		String result = new String(out.toByteArray());
+		
+		assertTrue(result, result.contains("{\"code\":\"C0001\",\"description\":\"Car\"}\n"));
+	}
 }
@@ -0,0 +1,150 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.job;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.bulk.BulkDownloadProgress;
+
+public class BulkDownloadJobManagerTest {
+
+	private BulkDownloadJobManager createManager() throws Exception {
+		File dir = File.createTempFile("bulk-job-test", "");
+		dir.delete();
+
+		BulkDownloadJobManager manager = new BulkDownloadJobManager();
+		manager.setJobDirectory(dir.getPath());
+		manager.setRetentionMinutes(0);
+		manager.afterPropertiesSet();
+
+		return manager;
+	}
+
+	private void waitForFinish(BulkDownloadJob job) throws Exception {
+		long timeout = System.currentTimeMillis() + 10000;
+		while(! job.isFinished() && System.currentTimeMillis() < timeout){
+			Thread.sleep(10);
+		}
+	}
+
+	private BulkDownloadTask createTask(final String content){
+		return new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				try {
+					outputStream.write(content.getBytes());
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+				progress.rowWritten();
+			}
+
+		};
+	}
+
+	@Test
+	public void testSubmitAndComplete() throws Exception {
+		BulkDownloadJobManager manager = this.createManager();
+
+		BulkDownloadJob job = manager.submit("key", "test.txt", this.createTask("C0001|Car"));
+		this.waitForFinish(job);
+
+		assertEquals(BulkDownloadJob.Status.COMPLETED, job.getStatus());
+		assertEquals(1, job.getProgress().getRowsWritten());
+		assertEquals("C0001|Car", FileUtils.readFileToString(job.getFile()));
+		assertSame(job, manager.getJob(job.getId()));
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testSameKeyReturnsRetainedJob() throws Exception {
+		BulkDownloadJobManager manager = this.createManager();
+
+		BulkDownloadJob job1 = manager.submit("key", "test.txt", this.createTask("a"));
+		this.waitForFinish(job1);
+
+		BulkDownloadJob job2 = manager.submit("key", "test.txt", this.createTask("b"));
+
+		assertSame(job1, job2);
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testFailedJob() throws Exception {
+		BulkDownloadJobManager manager = this.createManager();
+
+		BulkDownloadJob job = manager.submit("key", "test.txt", new BulkDownloadTask(){
+
+			@Override
+			public void run(OutputStream outputStream, BulkDownloadProgress progress) {
+				throw new IllegalStateException("broken");
+			}
+
+		});
+		this.waitForFinish(job);
+
+		assertEquals(BulkDownloadJob.Status.FAILED, job.getStatus());
+		assertEquals("broken", job.getErrorMessage());
+		assertFalse(job.getFile().exists());
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testPurge() throws Exception {
+		BulkDownloadJobManager manager = this.createManager();
+
+		BulkDownloadJob job = manager.submit("key", "test.txt", this.createTask("a"));
+		this.waitForFinish(job);
+
+		Thread.sleep(5);
+		manager.purge();
+
+		assertNull(manager.getJob(job.getId()));
+		assertFalse(job.getFile().exists());
+
+		manager.destroy();
+	}
+
+	@Test
+	public void testPurgeWaitsForReaders() throws Exception {
+		BulkDownloadJobManager manager = this.createManager();
+
+		BulkDownloadJob job = manager.submit("key", "test.txt", this.createTask("a"));
+		this.waitForFinish(job);
+
+		InputStream inputStream = manager.openFile(job);
+
+		Thread.sleep(5);
+		manager.purge();
+
+		assertNull(manager.getJob(job.getId()));
+		assertTrue(job.getFile().exists());
+		assertNull(manager.openFile(job));
+
+		assertEquals("a", IOUtils.toString(inputStream));
+		inputStream.close();
+
+		assertFalse(job.getFile().exists());
+
+		manager.destroy();
+	}
+}
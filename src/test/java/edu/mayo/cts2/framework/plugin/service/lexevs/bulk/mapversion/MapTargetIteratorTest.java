@@ -0,0 +1,93 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.mapversion;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.junit.Test;
+
+public class MapTargetIteratorTest {
+
+	private ResolvedConceptReference createSource(String code, String[]... associations){
+		ResolvedConceptReference source = new ResolvedConceptReference();
+		source.setCode(code);
+
+		if(associations.length > 0){
+			AssociationList sourceOf = new AssociationList();
+			for(String[] association : associations){
+				Association assoc = new Association();
+				assoc.setAssociationName(association[0]);
+
+				AssociatedConceptList targets = new AssociatedConceptList();
+				for(int i=1;i<association.length;i++){
+					AssociatedConcept target = new AssociatedConcept();
+					target.setCode(association[i]);
+					targets.addAssociatedConcept(target);
+				}
+				assoc.setAssociatedConcepts(targets);
+
+				sourceOf.addAssociation(assoc);
+			}
+			source.setSourceOf(sourceOf);
+		}
+
+		return source;
+	}
+
+	private List<String> toRows(MapTargetIterator itr){
+		List<String> rows = new ArrayList<String>();
+		while(itr.hasNext()){
+			ResolvedConceptReference ref = itr.next();
+			if(ref.getSourceOf() == null){
+				rows.add(ref.getCode());
+			} else {
+				assertEquals(1, ref.getSourceOf().getAssociationCount());
+				Association association = ref.getSourceOf().getAssociation(0);
+				assertEquals(1, association.getAssociatedConcepts().getAssociatedConceptCount());
+
+				rows.add(ref.getCode() + "|" + association.getAssociationName() + "|" +
+					association.getAssociatedConcepts().getAssociatedConcept(0).getCode());
+			}
+		}
+
+		return rows;
+	}
+
+	@Test
+	public void testOneRowPerTarget(){
+		MapTargetIterator itr = new MapTargetIterator(Arrays.asList(
+			this.createSource("S1", new String[]{"mapsTo", "T1", "T2"}, new String[]{"hasPart", "T3"}),
+			this.createSource("S2", new String[]{"mapsTo", "T4"})).iterator());
+
+		assertEquals(
+			Arrays.asList("S1|mapsTo|T1", "S1|mapsTo|T2", "S1|hasPart|T3", "S2|mapsTo|T4"),
+			this.toRows(itr));
+	}
+
+	@Test
+	public void testSourceWithNoTargets(){
+		MapTargetIterator itr = new MapTargetIterator(Arrays.asList(
+			this.createSource("S1"),
+			this.createSource("S2", new String[]{"mapsTo"}),
+			this.createSource("S3", new String[]{"mapsTo", "T1"})).iterator());
+
+		assertEquals(
+			Arrays.asList("S1", "S2", "S3|mapsTo|T1"),
+			this.toRows(itr));
+	}
+}
@@ -55,4 +55,25 @@ public class MappingExtensionBulkDownloaderTestIT extends AbstractTestITBase {
 		assertTrue(result, result.contains("A0001|R0001"));
 		assertTrue(result, result.contains("C0001|E0001"));
 	}
+	
+	@Test
+	public void testDownloadAssociationName(){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		CodingSchemeReference codingScheme = new CodingSchemeReference();
+		codingScheme.setCodingScheme("MappingSample");
+		
+		this.downloader.download(out, codingScheme, 
+			Arrays.asList(
+				MappingExtensionBulkDownloader.SOURCE_CODE_FIELD, 
+				MappingExtensionBulkDownloader.ASSOCIATION_NAME_FIELD, 
+				MappingExtensionBulkDownloader.TARGET_CODE_FIELD
+				),
+			'|');
+		
+		String result = new String(out.toByteArray());
+		
+		assertTrue(result, result.contains("Jaguar|hasPart|E0001"));
+		assertTrue(result, result.contains("Ford|mapsTo|E0001"));
+	}
 }
@@ -0,0 +1,53 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.bulk.resolvedvalueset;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import javax.annotation.Resource;
+
+import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContent;
+import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContents;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.ResolvedValueSetNameTriple;
+import edu.mayo.cts2.framework.plugin.service.lexevs.test.AbstractTestITBase;
+
+@LoadContents({
+	@LoadContent(contentPath = "lexevs/test-content/valueset/ResolvedAllDomesticAutosAndGM.xml"),
+	@LoadContent(contentPath="lexevs/test-content/Automobiles.xml")})
+public class LexEvsResolvedValueSetBulkDownloaderTestIT extends AbstractTestITBase {
+
+	@Resource
+	private LexEvsResolvedValueSetBulkDownloader downloader;
+	
+	@Test
+	public void testDownload(){
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		
+		this.downloader.download(out, 
+			Arrays.asList(new ResolvedValueSetNameTriple("All Domestic Autos AND GM", "571eb4e6", "1")),
+			Arrays.asList(
+				ResolvedValueSetBulkDownloader.VALUESET_FIELD, 
+				ResolvedValueSetBulkDownloader.CODE_FIELD,
+				ResolvedValueSetBulkDownloader.DESCRIPTION_FIELD,
+				ResolvedValueSetBulkDownloader.CODINGSCHEME_NAME_FIELD,
+				ResolvedValueSetBulkDownloader.CODINGSCHEME_URI_FIELD,
+				ResolvedValueSetBulkDownloader.CODINGSCHEME_VERSION_FIELD
+				),
+			'|');
+		
+		String result = new String(out.toByteArray());
+		
+		assertEquals("All Domestic Autos AND GM|GM|General Motors|Automobiles|urn:oid:11.11.0.1|1.0\r\n", result);
+	}
+}
@@ -0,0 +1,165 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.naming.NameVersionPair;
+
+public class AbstractVersionIndexManagerTest {
+
+	private static class StringIndexManager extends AbstractVersionIndexManager<String> {
+
+		private List<NameVersionPair> prebuild = Collections.emptyList();
+
+		private List<NameVersionPair> known;
+
+		private AtomicInteger builds = new AtomicInteger();
+
+		@Override
+		protected String buildIndex(NameVersionPair version) throws Exception {
+			this.builds.incrementAndGet();
+
+			return version.getName().isEmpty() ? null : version.getName();
+		}
+
+		@Override
+		protected long getWeight(String index) {
+			return index.length();
+		}
+
+		@Override
+		protected List<NameVersionPair> getVersionsToPrebuild() {
+			return this.prebuild;
+		}
+
+		@Override
+		protected List<NameVersionPair> getKnownVersions() {
+			return this.known;
+		}
+
+		@Override
+		protected String getThreadName() {
+			return "test-index";
+		}
+	}
+
+	private StringIndexManager manager;
+
+	@Before
+	public void setUp() throws Exception {
+		this.manager = new StringIndexManager();
+		this.manager.afterPropertiesSet();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.manager.destroy();
+	}
+
+	private String awaitIndex(NameVersionPair version) throws InterruptedException {
+		for(int i = 0; i < 100; i++){
+			String index = this.manager.getIndex(version);
+			if(index != null){
+				return index;
+			}
+			Thread.sleep(20);
+		}
+
+		return null;
+	}
+
+	@Test
+	public void testBuildsInBackground() throws Exception {
+		NameVersionPair version = new NameVersionPair("abc", "1");
+
+		assertEquals("abc", this.awaitIndex(version));
+		assertEquals(3, this.manager.getWeight());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedByWeight() throws Exception {
+		this.manager.setMaxWeight(6);
+
+		NameVersionPair a = new NameVersionPair("aaa", "1");
+		NameVersionPair b = new NameVersionPair("bbb", "1");
+		NameVersionPair c = new NameVersionPair("ccc", "1");
+
+		assertNotNull(this.awaitIndex(a));
+		assertNotNull(this.awaitIndex(b));
+		assertNotNull(this.manager.getIndex(a));
+		assertNotNull(this.awaitIndex(c));
+
+		assertEquals(6, this.manager.getWeight());
+		assertNotNull(this.manager.getIndex(a));
+		assertNull(this.manager.getIndex(b));
+	}
+
+	@Test
+	public void testPrebuild() throws Exception {
+		this.manager.destroy();
+
+		this.manager = new StringIndexManager();
+		this.manager.prebuild = Arrays.asList(new NameVersionPair("abc", "1"), new NameVersionPair("de", "1"));
+		this.manager.afterPropertiesSet();
+
+		for(int i = 0; i < 100 && this.manager.getWeight() < 5; i++){
+			Thread.sleep(20);
+		}
+
+		assertEquals(5, this.manager.getWeight());
+		assertEquals("abc", this.manager.getIndex(new NameVersionPair("abc", "1")));
+	}
+
+	@Test
+	public void testUnknownVersionNotBuilt() throws Exception {
+		this.manager.known = Arrays.asList(new NameVersionPair("abc", "1"));
+
+		assertNull(this.manager.getIndex(new NameVersionPair("xyz", "1")));
+		assertEquals("abc", this.awaitIndex(new NameVersionPair("abc", "1")));
+		assertNull(this.manager.getIndex(new NameVersionPair("xyz", "1")));
+
+		assertEquals(1, this.manager.builds.get());
+	}
+
+	@Test
+	public void testNotIndexableNotRebuilt() throws Exception {
+		NameVersionPair version = new NameVersionPair("", "1");
+
+		assertNull(this.manager.getIndex(version));
+		assertEquals("abc", this.awaitIndex(new NameVersionPair("abc", "1")));
+		assertNull(this.manager.getIndex(version));
+		assertEquals("abc", this.awaitIndex(new NameVersionPair("abc", "1")));
+
+		assertEquals(2, this.manager.builds.get());
+	}
+
+	@Test
+	public void testOnChangeRebuilds() throws Exception {
+		NameVersionPair version = new NameVersionPair("abc", "1");
+		assertNotNull(this.awaitIndex(version));
+
+		this.manager.onChange();
+
+		assertNotNull(this.awaitIndex(version));
+		assertEquals(3, this.manager.getWeight());
+	}
+
+}
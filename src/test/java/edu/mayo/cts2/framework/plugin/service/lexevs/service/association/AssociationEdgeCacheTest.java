@@ -0,0 +1,113 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.association;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ConceptReference;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeGraph;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.association.ResolvedConceptReferenceAssociationPage.Direction;
+
+public class AssociationEdgeCacheTest {
+
+	private static class CountingCache extends AssociationEdgeCache {
+
+		private int loads = 0;
+
+		@Override
+		protected Edges load(CodedNodeGraph graph, ConceptReference focus, Direction direction) {
+			this.loads++;
+
+			AssociationList list = new AssociationList();
+			for(int i = 0; i < 3; i++){
+				AssociatedConceptList concepts = new AssociatedConceptList();
+				for(int j = 0; j < 3; j++){
+					AssociatedConcept concept = new AssociatedConcept();
+					concept.setCode(focus.getCode() + i + j);
+					concepts.addAssociatedConcept(concept);
+				}
+
+				Association association = new Association();
+				association.setAssociatedConcepts(concepts);
+				list.addAssociation(association);
+			}
+
+			ResolvedConceptReference ref = new ResolvedConceptReference();
+			ref.setCode(focus.getCode());
+			ref.setSourceOf(list);
+
+			return toEdges(ref, direction);
+		}
+	}
+
+	private ConceptReference getFocus(String code){
+		ConceptReference focus = new ConceptReference();
+		focus.setCode(code);
+
+		return focus;
+	}
+
+	@Test
+	public void testCountsAndCaches() throws Exception {
+		CountingCache cache = new CountingCache();
+
+		assertNull(cache.getIfPresent("A"));
+
+		AssociationEdgeCache.Edges edges = cache.get("A", null, this.getFocus("A"), Direction.SOURCEOF);
+		assertEquals(9, edges.getCount());
+		assertSame(edges, cache.getIfPresent("A"));
+		assertSame(edges, cache.get("A", null, this.getFocus("A"), Direction.SOURCEOF));
+
+		assertEquals(1, cache.loads);
+		assertEquals(10, cache.getWeight());
+	}
+
+	@Test
+	public void testCountsByDirection() throws Exception {
+		CountingCache cache = new CountingCache();
+
+		assertEquals(0, cache.get("A", null, this.getFocus("A"), Direction.TARGETOF).getCount());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedByWeight() throws Exception {
+		CountingCache cache = new CountingCache();
+		cache.setMaxWeight(20);
+
+		cache.get("A", null, this.getFocus("A"), Direction.SOURCEOF);
+		cache.get("B", null, this.getFocus("B"), Direction.SOURCEOF);
+		cache.get("A", null, this.getFocus("A"), Direction.SOURCEOF);
+		cache.get("C", null, this.getFocus("C"), Direction.SOURCEOF);
+
+		assertEquals(20, cache.getWeight());
+		assertNull(cache.getIfPresent("B"));
+		assertEquals(3, cache.loads);
+	}
+
+	@Test
+	public void testOnChangeClears() throws Exception {
+		CountingCache cache = new CountingCache();
+
+		cache.get("A", null, this.getFocus("A"), Direction.SOURCEOF);
+		cache.onChange();
+
+		assertEquals(0, cache.getWeight());
+		assertNull(cache.getIfPresent("A"));
+	}
+
+}
@@ -14,6 +14,9 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 
 import javax.annotation.Resource;
 import javax.xml.transform.stream.StreamResult;
@@ -23,7 +26,11 @@ import org.junit.Test;
 
 import edu.mayo.cts2.framework.core.xml.Cts2Marshaller;
 import edu.mayo.cts2.framework.core.xml.DelegatingMarshaller;
+import edu.mayo.cts2.framework.model.association.Association;
 import edu.mayo.cts2.framework.model.association.AssociationDirectoryEntry;
+import edu.mayo.cts2.framework.model.association.GraphNode;
+import edu.mayo.cts2.framework.model.association.types.GraphDirection;
+import edu.mayo.cts2.framework.model.association.types.GraphFocus;
 import edu.mayo.cts2.framework.model.command.Page;
 import edu.mayo.cts2.framework.model.core.ScopedEntityName;
 import edu.mayo.cts2.framework.model.directory.DirectoryResult;
@@ -32,6 +39,7 @@ import edu.mayo.cts2.framework.model.service.core.NameOrURI;
 import edu.mayo.cts2.framework.model.util.ModelUtils;
 import edu.mayo.cts2.framework.plugin.service.lexevs.test.AbstractTestITBase;
 import edu.mayo.cts2.framework.service.command.restriction.AssociationQueryServiceRestrictions;
+import edu.mayo.cts2.framework.service.profile.entitydescription.name.EntityDescriptionReadId;
 
 /**
  * @author <a href="mailto:frutiger.kim@mayo.edu">Kim Frutiger</a>
@@ -222,4 +230,137 @@ public class LexEvsAssociationQueryServiceTestIT extends AbstractTestITBase {
 			this.marshaller.marshal(entry, new StreamResult(new StringWriter()));
 		}
 	}
+
+	@Test
+	public void testCount() throws Exception {
+		assertEquals(5,this.service.count(this.getQuery("A0001", true)));
+		assertEquals(1,this.service.count(this.getQuery("Jaguar", false)));
+		assertEquals(0,this.service.count(this.getQuery("Jaguar", true)));
+	}
+	
+	@Test
+	public void testResourceList() throws Exception {
+		DirectoryResult<Association> resourceList = 
+			this.service.getResourceList(this.getQuery("A0001", true), null, new Page());
+		
+		assertEquals(5,resourceList.getEntries().size());
+		assertTrue(resourceList.isAtEnd());
+		
+		for(Association association : resourceList.getEntries()){
+			assertEquals("A0001", association.getSubject().getName());
+			this.marshaller.marshal(association, new StreamResult(new StringWriter()));
+		}
+	}
+	
+	@Test
+	public void testResourceSummariesPagedFromIndex() throws Exception {
+		int shallowPageLimit = this.service.getShallowPageLimit();
+		this.service.setShallowPageLimit(0);
+		try {
+			this.testResourceSummariesPaged();
+		} finally {
+			this.service.setShallowPageLimit(shallowPageLimit);
+		}
+	}
+	
+	@Test
+	public void testResourceSummariesPaged() throws Exception {
+		Page page = new Page();
+		page.setMaxToReturn(2);
+		
+		List<String> targets = new ArrayList<String>();
+		for(int i = 0; i < 3; i++){
+			page.setPage(i);
+			
+			DirectoryResult<AssociationDirectoryEntry> resourceSummaries = 
+				this.service.getResourceSummaries(this.getQuery("A0001", true), null, page);
+			
+			assertEquals(i < 2 ? 2 : 1,resourceSummaries.getEntries().size());
+			assertEquals(i == 2,resourceSummaries.isAtEnd());
+			
+			for(AssociationDirectoryEntry entry : resourceSummaries.getEntries()){
+				assertEquals("A0001", entry.getSubject().getName());
+				targets.add(entry.getTarget().getEntity().getName());
+			}
+		}
+		
+		assertEquals(5,new HashSet<String>(targets).size());
+	}
+	
+	@Test
+	public void testAssociationGraph() throws Exception {
+		DirectoryResult<GraphNode> graph = 
+			this.service.getAssociationGraph(
+				GraphFocus.SPECIFIC_ENTITY, this.getReadId("A"), GraphDirection.SOURCE_TO_TARGET, 1);
+		
+		assertEquals(1,graph.getEntries().size());
+		assertEquals("A",graph.getEntries().get(0).getSubject().getName());
+		assertEquals("B",graph.getEntries().get(0).getTarget().getEntity().getName());
+		assertTrue(graph.isAtEnd());
+	}
+	
+	@Test
+	public void testAssociationGraphCycle() throws Exception {
+		// A -> B -> C -> B, C -> A
+		DirectoryResult<GraphNode> graph = 
+			this.service.getAssociationGraph(
+				GraphFocus.SPECIFIC_ENTITY, this.getReadId("A"), GraphDirection.SOURCE_TO_TARGET, 10);
+		
+		assertEquals(4,graph.getEntries().size());
+		assertTrue(graph.isAtEnd());
+		
+		for(GraphNode node : graph.getEntries()){
+			this.marshaller.marshal(node, new StreamResult(new StringWriter()));
+		}
+	}
+	
+	@Test
+	public void testAssociationGraphReverse() throws Exception {
+		DirectoryResult<GraphNode> graph = 
+			this.service.getAssociationGraph(
+				GraphFocus.SPECIFIC_ENTITY, this.getReadId("Jaguar"), GraphDirection.TARGET_TO_SOURCE, 2);
+		
+		assertEquals(2,graph.getEntries().size());
+		assertEquals("Ford",graph.getEntries().get(0).getSubject().getName());
+		assertEquals("005",graph.getEntries().get(1).getSubject().getName());
+		assertTrue(graph.isAtEnd());
+	}
+	
+	@Test
+	public void testAssociationGraphEdgeLimit() throws Exception {
+		int maxGraphEdges = this.service.getMaxGraphEdges();
+		this.service.setMaxGraphEdges(2);
+		try {
+			DirectoryResult<GraphNode> graph = 
+				this.service.getAssociationGraph(
+					GraphFocus.SPECIFIC_ENTITY, this.getReadId("A"), GraphDirection.SOURCE_TO_TARGET, 10);
+			
+			assertEquals(2,graph.getEntries().size());
+			assertFalse(graph.isAtEnd());
+		} finally {
+			this.service.setMaxGraphEdges(maxGraphEdges);
+		}
+	}
+	
+	private AssociationQueryImpl getQuery(String code, boolean source){
+		EntityNameOrURI entity = new EntityNameOrURI();
+		entity.setEntityName(ModelUtils.createScopedEntityName(code, "Automobiles"));
+		
+		AssociationQueryServiceRestrictions restrictions = new AssociationQueryServiceRestrictions();
+		restrictions.setCodeSystemVersion(ModelUtils.nameOrUriFromName("Automobiles-1.0"));
+		if(source){
+			restrictions.setSourceEntity(entity);
+		} else {
+			restrictions.setTargetEntity(entity);
+		}
+		
+		return new AssociationQueryImpl(null,null,null,restrictions);
+	}
+	
+	private EntityDescriptionReadId getReadId(String code){
+		EntityNameOrURI entity = new EntityNameOrURI();
+		entity.setEntityName(ModelUtils.createScopedEntityName(code, "Automobiles"));
+		
+		return new EntityDescriptionReadId(entity, ModelUtils.nameOrUriFromName("Automobiles-1.0"));
+	}
 }
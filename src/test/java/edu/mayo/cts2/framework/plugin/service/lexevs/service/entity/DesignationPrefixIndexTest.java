@@ -0,0 +1,124 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class DesignationPrefixIndexTest {
+
+	private DesignationPrefixIndex createIndex(){
+		DesignationPrefixIndex.Builder builder = new DesignationPrefixIndex.Builder();
+		builder.setCodingSchemeUri("urn:oid:11.11.0.1");
+
+		int car = builder.addEntity("C0001", "Automobiles", "Car", true);
+		builder.addDesignation(car, "Car", true);
+		builder.addDesignation(car, "Automobile", false);
+
+		int carburetor = builder.addEntity("C0002", "Automobiles", "Carburetor", true);
+		builder.addDesignation(carburetor, "Carburetor", true);
+
+		int cargo = builder.addEntity("C0003", "Automobiles", "Cargo Van", false);
+		builder.addDesignation(cargo, "Cargo  Van", true);
+		builder.addDesignation(cargo, "car van", false);
+
+		int truck = builder.addEntity("T0001", "Automobiles", "Truck", true);
+		builder.addDesignation(truck, "Truck", true);
+		builder.addDesignation(truck, "truck", false);
+		builder.addDesignation(truck, " ", false);
+
+		return builder.build();
+	}
+
+	@Test
+	public void testSearchRanksExactThenPreferredThenShortest(){
+		List<DesignationPrefixIndex.Hit> hits = this.createIndex().search("CAR", false, 0, 10);
+
+		assertEquals(3, hits.size());
+		assertEquals("C0001", hits.get(0).getCode());
+		assertEquals("C0003", hits.get(1).getCode());
+		assertEquals("C0002", hits.get(2).getCode());
+		assertEquals("Car", hits.get(0).getDescription());
+	}
+
+	@Test
+	public void testSearchActiveOnly(){
+		List<DesignationPrefixIndex.Hit> hits = this.createIndex().search("car", true, 0, 10);
+
+		assertEquals(2, hits.size());
+		assertEquals("C0001", hits.get(0).getCode());
+		assertEquals("C0002", hits.get(1).getCode());
+	}
+
+	@Test
+	public void testSearchPage(){
+		List<DesignationPrefixIndex.Hit> hits = this.createIndex().search("car", false, 1, 1);
+
+		assertEquals(1, hits.size());
+		assertEquals("C0003", hits.get(0).getCode());
+	}
+
+	@Test
+	public void testSearchPagesMatchFullRanking(){
+		DesignationPrefixIndex.Builder builder = new DesignationPrefixIndex.Builder();
+		for(int i = 0; i < 50; i++){
+			int entity = builder.addEntity("E" + i, "Test", null, true);
+			builder.addDesignation(entity, "term " + (i * 7 % 50), i % 3 == 0);
+			builder.addDesignation(entity, "term " + (i * 13 % 50) + " x", i % 5 == 0);
+		}
+		DesignationPrefixIndex index = builder.build();
+
+		List<DesignationPrefixIndex.Hit> all = index.search("term", false, 0, 100);
+		assertEquals(50, all.size());
+
+		for(int start = 0; start < 50; start += 6){
+			List<DesignationPrefixIndex.Hit> page = index.search("term", false, start, 6);
+			for(int i = 0; i < page.size(); i++){
+				assertEquals(all.get(start + i).getCode(), page.get(i).getCode());
+			}
+		}
+	}
+
+	@Test
+	public void testSearchNormalizesWhitespace(){
+		List<DesignationPrefixIndex.Hit> hits = this.createIndex().search("cargo   v", false, 0, 10);
+
+		assertEquals(1, hits.size());
+		assertEquals("C0003", hits.get(0).getCode());
+	}
+
+	@Test
+	public void testSearchNoMatch(){
+		assertEquals(0, this.createIndex().search("bus", false, 0, 10).size());
+		assertEquals(0, this.createIndex().count("bus", false));
+	}
+
+	@Test
+	public void testCountDistinctEntities(){
+		DesignationPrefixIndex index = this.createIndex();
+
+		assertEquals(3, index.count("car", false));
+		assertEquals(2, index.count("car", true));
+		assertEquals(1, index.count("tr", false));
+		assertEquals(1, index.count("a", false));
+	}
+
+	@Test
+	public void testDuplicateAndBlankDesignationsIgnored(){
+		DesignationPrefixIndex index = this.createIndex();
+
+		assertEquals(4, index.getEntityCount());
+		assertEquals(6, index.getDesignationCount());
+		assertEquals("urn:oid:11.11.0.1", index.getCodingSchemeUri());
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+public class EntityCodeFilterTest {
+
+	private EntityCodeFilter createFilter(int size){
+		EntityCodeFilter.Builder builder = new EntityCodeFilter.Builder(size, 0.01);
+		for(int i = 0; i < size; i++){
+			builder.add("C" + i);
+		}
+
+		return builder.build();
+	}
+
+	@Test
+	public void testNoFalseNegatives(){
+		EntityCodeFilter filter = this.createFilter(10000);
+
+		for(int i = 0; i < 10000; i++){
+			assertTrue(filter.mightContain("C" + i));
+		}
+		assertEquals(10000, filter.getEntityCount());
+	}
+
+	@Test
+	public void testFalsePositiveRate(){
+		EntityCodeFilter filter = this.createFilter(10000);
+
+		int falsePositives = 0;
+		for(int i = 0; i < 10000; i++){
+			if(filter.mightContain("X" + i)){
+				falsePositives++;
+			}
+		}
+
+		assertTrue("False positives: " + falsePositives, falsePositives < 300);
+	}
+
+	@Test
+	public void testEmpty(){
+		EntityCodeFilter filter = this.createFilter(0);
+
+		assertFalse(filter.mightContain("C0"));
+		assertFalse(filter.mightContain(null));
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		EntityCodeFilter filter = this.createFilter(1000);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		filter.writeTo(out);
+
+		EntityCodeFilter read = EntityCodeFilter.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(1000, read.getEntityCount());
+		assertEquals(filter.getSizeInBytes(), read.getSizeInBytes());
+		for(int i = 0; i < 1000; i++){
+			assertTrue(read.mightContain("C" + i));
+		}
+		for(int i = 0; i < 1000; i++){
+			assertEquals(filter.mightContain("X" + i), read.mightContain("X" + i));
+		}
+	}
+
+}
@@ -0,0 +1,67 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.LexGrid.LexBIG.LexBIGService.CodedNodeSet.PropertyType;
+import org.junit.Test;
+
+import edu.mayo.cts2.framework.model.exception.UnspecifiedCts2Exception;
+import edu.mayo.cts2.framework.plugin.service.lexevs.service.entity.EntityProjection.Part;
+
+public class EntityProjectionTest {
+
+	@Test
+	public void testParseBlankIsAll(){
+		assertSame(EntityProjection.ALL, EntityProjection.parse(null));
+		assertSame(EntityProjection.ALL, EntityProjection.parse(" "));
+		assertNull(EntityProjection.ALL.getPropertyTypes());
+	}
+
+	@Test
+	public void testParse(){
+		EntityProjection projection = EntityProjection.parse("designations, Definitions, ");
+
+		assertTrue(projection.includes(Part.DESIGNATIONS));
+		assertTrue(projection.includes(Part.DEFINITIONS));
+		assertFalse(projection.includes(Part.PARENTS));
+		assertFalse(projection.includes(Part.PROPERTIES));
+		assertFalse(projection.isAll());
+	}
+
+	@Test(expected=UnspecifiedCts2Exception.class)
+	public void testParseUnknownPart(){
+		EntityProjection.parse("designations,unknown");
+	}
+
+	@Test
+	public void testPropertyTypes(){
+		PropertyType[] types = EntityProjection.of(Part.DESIGNATIONS, Part.DEFINITIONS).getPropertyTypes();
+
+		assertEquals(
+			Arrays.asList(PropertyType.PRESENTATION, PropertyType.DEFINITION), 
+			Arrays.asList(types));
+	}
+
+	@Test
+	public void testPropertyTypesNeverEmpty(){
+		PropertyType[] types = EntityProjection.of(Part.PARENTS).getPropertyTypes();
+
+		assertEquals(Arrays.asList(PropertyType.PRESENTATION), Arrays.asList(types));
+	}
+
+	@Test
+	public void testFromCurrentRequestOutsideRequest(){
+		assertSame(EntityProjection.ALL, EntityProjection.fromCurrentRequest());
+	}
+
+}
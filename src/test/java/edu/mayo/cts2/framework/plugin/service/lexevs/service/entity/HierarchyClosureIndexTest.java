@@ -0,0 +1,170 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class HierarchyClosureIndexTest {
+
+	/*
+	 *        A
+	 *       / \
+	 *      B   C
+	 *     / \ /
+	 *    D   E
+	 *        |
+	 *        F
+	 */
+	private HierarchyClosureIndex createIndex(){
+		return new HierarchyClosureIndex.Builder(10)
+			.addLink("A", "B")
+			.addLink("A", "C")
+			.addLink("B", "D")
+			.addLink("B", "E")
+			.addLink("C", "E")
+			.addLink("C", "E")
+			.addLink("E", "F")
+			.build();
+	}
+
+	@Test
+	public void testIsDescendant(){
+		HierarchyClosureIndex index = this.createIndex();
+
+		assertTrue(index.isDescendant("F", "A"));
+		assertTrue(index.isDescendant("F", "C"));
+		assertTrue(index.isDescendant("E", "B"));
+		assertFalse(index.isDescendant("D", "C"));
+		assertFalse(index.isDescendant("A", "F"));
+		assertFalse(index.isDescendant("A", "A"));
+		assertFalse(index.isDescendant("X", "A"));
+	}
+
+	@Test
+	public void testDescendants(){
+		HierarchyClosureIndex index = this.createIndex();
+
+		assertEquals(5, index.countDescendants("A"));
+		assertEquals(2, index.countDescendants("C"));
+		assertEquals(0, index.countDescendants("F"));
+		assertEquals(0, index.countDescendants("X"));
+
+		assertEquals(new HashSet<String>(Arrays.asList("E", "F")),
+			new HashSet<String>(index.getDescendants("C", 0, 10)));
+	}
+
+	@Test
+	public void testDescendantsPaged(){
+		HierarchyClosureIndex index = this.createIndex();
+
+		List<String> all = index.getDescendants("A", 0, 10);
+		assertEquals(5, all.size());
+
+		List<String> paged = new ArrayList<String>();
+		for(int start = 0; start < 5; start += 2){
+			paged.addAll(index.getDescendants("A", start, 2));
+		}
+
+		assertEquals(all, paged);
+		assertTrue(index.getDescendants("A", 5, 2).isEmpty());
+	}
+
+	@Test
+	public void testAncestors(){
+		HierarchyClosureIndex index = this.createIndex();
+
+		assertEquals(4, index.countAncestors("F"));
+		assertEquals(new HashSet<String>(Arrays.asList("A", "B", "C", "E")),
+			new HashSet<String>(index.getAncestors("F", 0, 10)));
+		assertEquals(2, index.getAncestors("F", 2, 10).size());
+		assertEquals(0, index.countAncestors("A"));
+	}
+
+	@Test
+	public void testCycle(){
+		HierarchyClosureIndex index = new HierarchyClosureIndex.Builder(3)
+			.addLink("A", "B")
+			.addLink("B", "C")
+			.addLink("C", "A")
+			.build();
+
+		assertEquals(3, index.getNodeCount());
+		assertTrue(index.isDescendant("C", "A"));
+	}
+
+	@Test
+	public void testMatchesGraphWalk(){
+		Random random = new Random(42);
+		int size = 300;
+
+		HierarchyClosureIndex.Builder builder = new HierarchyClosureIndex.Builder(size);
+		List<Set<Integer>> children = new ArrayList<Set<Integer>>();
+		for(int i = 0; i < size; i++){
+			children.add(new HashSet<Integer>());
+		}
+		for(int child = 1; child < size; child++){
+			int parentCount = 1 + random.nextInt(3);
+			for(int j = 0; j < parentCount; j++){
+				int parent = random.nextInt(child);
+				children.get(parent).add(child);
+				builder.addLink("C" + parent, "C" + child);
+			}
+		}
+
+		HierarchyClosureIndex index = builder.build();
+
+		for(int node = 0; node < size; node += 7){
+			Set<Integer> expected = new HashSet<Integer>();
+			List<Integer> queue = new ArrayList<Integer>(children.get(node));
+			while(! queue.isEmpty()){
+				int next = queue.remove(queue.size() - 1);
+				if(expected.add(next)){
+					queue.addAll(children.get(next));
+				}
+			}
+
+			assertEquals(expected.size(), index.countDescendants("C" + node));
+
+			Set<String> found = new HashSet<String>(index.getDescendants("C" + node, 0, size));
+			assertEquals(expected.size(), found.size());
+			for(int other = 0; other < size; other++){
+				assertEquals(expected.contains(other), index.isDescendant("C" + other, "C" + node));
+				assertEquals(expected.contains(other), found.contains("C" + other));
+			}
+		}
+	}
+
+	@Test
+	public void testWriteAndRead() throws Exception {
+		HierarchyClosureIndex index = this.createIndex();
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.writeTo(out);
+
+		HierarchyClosureIndex read = HierarchyClosureIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+
+		assertEquals(10, read.getEntityCount());
+		assertEquals(index.getIntervalCount(), read.getIntervalCount());
+		assertEquals(index.getDescendants("A", 0, 10), read.getDescendants("A", 0, 10));
+		assertEquals(index.getAncestors("F", 0, 10), read.getAncestors("F", 0, 10));
+		assertTrue(read.isDescendant("F", "A"));
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.junit.Test;
+
+public class HierarchyNeighbourCacheTest {
+
+	private static class CountingCache extends HierarchyNeighbourCache {
+
+		private int loads = 0;
+
+		@Override
+		protected AssociationList load(String codingScheme, String version,
+				String hierarchyId, String code, Direction direction) {
+			this.loads++;
+
+			AssociatedConceptList concepts = new AssociatedConceptList();
+			for(int i = 0; i < 9; i++){
+				AssociatedConcept concept = new AssociatedConcept();
+				concept.setCode(code + i);
+				concepts.addAssociatedConcept(concept);
+			}
+
+			Association association = new Association();
+			association.setAssociatedConcepts(concepts);
+
+			AssociationList list = new AssociationList();
+			list.addAssociation(association);
+
+			return list;
+		}
+	}
+
+	@Test
+	public void testCachedOnly() throws Exception {
+		CountingCache cache = new CountingCache();
+
+		assertNull(cache.getCachedHierarchyLevelNext("cs", "1.0", null, "A"));
+
+		AssociationList children = cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		assertSame(children, cache.getCachedHierarchyLevelNext("cs", "1.0", null, "A"));
+		assertNull(cache.getCachedHierarchyLevelNext("cs", "1.0", null, "B"));
+
+		assertEquals(1, cache.loads);
+	}
+
+		@Test
+	public void testCachesByDirection() throws Exception {
+		CountingCache cache = new CountingCache();
+
+		AssociationList children = cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		assertSame(children, cache.getHierarchyLevelNext("cs", "1.0", null, "A"));
+		assertNotSame(children, cache.getHierarchyLevelPrev("cs", "1.0", null, "A"));
+
+		assertEquals(2, cache.loads);
+		assertEquals(1, cache.getHits());
+		assertEquals(20, cache.getWeight());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsedByWeight() throws Exception {
+		CountingCache cache = new CountingCache();
+		cache.setMaxWeight(30);
+
+		cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		cache.getHierarchyLevelNext("cs", "1.0", null, "B");
+		cache.getHierarchyLevelNext("cs", "1.0", null, "C");
+		cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		cache.getHierarchyLevelNext("cs", "1.0", null, "D");
+
+		assertEquals(30, cache.getWeight());
+		assertEquals(4, cache.loads);
+
+		cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		assertEquals(4, cache.loads);
+
+		cache.getHierarchyLevelNext("cs", "1.0", null, "B");
+		assertEquals(5, cache.loads);
+	}
+
+	@Test
+	public void testOnChangeClears() throws Exception {
+		CountingCache cache = new CountingCache();
+
+		cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		cache.onChange();
+
+		assertEquals(0, cache.getWeight());
+
+		cache.getHierarchyLevelNext("cs", "1.0", null, "A");
+		assertEquals(2, cache.loads);
+	}
+
+}
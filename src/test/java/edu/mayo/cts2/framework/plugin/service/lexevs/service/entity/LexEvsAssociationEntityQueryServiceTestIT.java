@@ -9,13 +9,15 @@
 package edu.mayo.cts2.framework.plugin.service.lexevs.service.entity;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+
 import javax.annotation.Resource;
 
 import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContent;
-import org.junit.Ignore;
 import org.junit.Test;
 
 import edu.mayo.cts2.framework.model.command.Page;
@@ -50,30 +52,98 @@ public class LexEvsAssociationEntityQueryServiceTestIT
 	}
 	
 	@Test
-	@Ignore
-	@Override
-	public void testCount(){
-		//count not supported
+	public void testValidateChildren(){
+		DirectoryResult<EntityDirectoryEntry> results = 
+			this.getService().getResourceSummaries(this.getQuery(), null, new Page());
+		
+		assertEquals(2, results.getEntries().size());
+		assertTrue(results.isAtEnd());
 	}
 	
 	@Test
-	public void testValidateChildren(){
+	public void testCountChildren(){
+		assertEquals(2, this.getService().count(this.getQuery()));
+	}
+	
+	@Test
+	public void testValidateChildrenPaged(){
+		Page page = new Page();
+		page.setMaxToReturn(1);
+		
+		DirectoryResult<EntityDirectoryEntry> first = 
+			this.getService().getResourceSummaries(this.getQuery(), null, page);
+		
+		assertEquals(1, first.getEntries().size());
+		assertFalse(first.isAtEnd());
+		
+		page.setPage(1);
+		
+		DirectoryResult<EntityDirectoryEntry> second = 
+			this.getService().getResourceSummaries(this.getQuery(), null, page);
+		
+		assertEquals(1, second.getEntries().size());
+		assertTrue(second.isAtEnd());
+		assertFalse(first.getEntries().get(0).getName().getName().equals(
+			second.getEntries().get(0).getName().getName()));
+	}
+
+	@Test
+	public void testDescendants(){
+		EntityDescriptionQuery query = this.getQuery(HierarchyType.DESCENDANTS, "GM");
+		
 		DirectoryResult<EntityDirectoryEntry> results = 
-			this.getService().getResourceSummaries(this.getQuery(), null, new Page());
+			this.getService().getResourceSummaries(query, null, new Page());
+		
+		assertEquals(2, results.getEntries().size());
+		assertTrue(results.isAtEnd());
+		assertEquals(2, this.getService().count(query));
+	}
+	
+	@Test
+	public void testAncestors(){
+		EntityDescriptionQuery query = this.getQuery(HierarchyType.ANCESTORS, "Jaguar");
+		
+		DirectoryResult<EntityDirectoryEntry> results = 
+			this.getService().getResourceSummaries(query, null, new Page());
 		
 		assertEquals(2, results.getEntries().size());
 		assertTrue(results.isAtEnd());
+		assertEquals(2, this.getService().count(query));
+	}
+
+	@Test
+	public void testIsDescendant(){
+		assertTrue(this.service.isDescendant("Automobiles-1.0", "Jaguar", "005"));
+		assertFalse(this.service.isDescendant("Automobiles-1.0", "005", "Jaguar"));
+		assertFalse(this.service.isDescendant("Automobiles-1.0", "Jaguar", "Jaguar"));
+	}
+
+	@Test
+	public void testIsDescendantBatch(){
+		boolean[] results = this.service.isDescendant(
+			"Automobiles-1.0",
+			Arrays.asList("Jaguar", "Chevy", "Chevy", "C0001"),
+			Arrays.asList("Ford", "GM", "Ford", "A0001"));
+
+		assertTrue(results[0]);
+		assertTrue(results[1]);
+		assertFalse(results[2]);
+		assertTrue(results[3]);
 	}
 
 	@Override
 	protected EntityDescriptionQuery getQuery() {
+		return this.getQuery(HierarchyType.CHILDREN, "A0001");
+	}
+	
+	private EntityDescriptionQuery getQuery(HierarchyType type, String code) {
 		EntityDescriptionQueryServiceRestrictions restrictions = 
 			new EntityDescriptionQueryServiceRestrictions();
 		HierarchyRestriction hierarchy = new HierarchyRestriction();
-		hierarchy.setHierarchyType(HierarchyType.CHILDREN);
+		hierarchy.setHierarchyType(type);
 		
 		EntityNameOrURI entity = new EntityNameOrURI();
-		entity.setEntityName(ModelUtils.createScopedEntityName("A0001", "Automobiles"));
+		entity.setEntityName(ModelUtils.createScopedEntityName(code, "Automobiles"));
 		hierarchy.setEntity(entity);
 		restrictions.setHierarchyRestriction(hierarchy);
 		
@@ -14,6 +14,7 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -26,10 +27,15 @@ import org.junit.internal.runners.statements.Fail;
 import edu.mayo.cts2.framework.model.command.Page;
 import edu.mayo.cts2.framework.model.command.ResolvedFilter;
 import edu.mayo.cts2.framework.model.command.ResolvedReadContext;
+import edu.mayo.cts2.framework.model.core.EntityReferenceList;
 import edu.mayo.cts2.framework.model.core.SortCriteria;
+import edu.mayo.cts2.framework.model.core.URIAndEntityName;
 import edu.mayo.cts2.framework.model.directory.DirectoryResult;
+import edu.mayo.cts2.framework.model.entity.EntityDescription;
 import edu.mayo.cts2.framework.model.entity.EntityDirectoryEntry;
 import edu.mayo.cts2.framework.model.entity.EntityListEntry;
+import edu.mayo.cts2.framework.model.service.core.EntityNameOrURI;
+import edu.mayo.cts2.framework.model.service.core.EntityNameOrURIList;
 import edu.mayo.cts2.framework.model.service.core.NameOrURI;
 import edu.mayo.cts2.framework.model.service.core.Query;
 import edu.mayo.cts2.framework.model.service.core.ReadContext;
@@ -42,6 +48,7 @@ import edu.mayo.cts2.framework.service.meta.StandardModelAttributeReference;
 import edu.mayo.cts2.framework.service.profile.QueryService;
 import edu.mayo.cts2.framework.service.profile.entitydescription.EntitiesFromAssociationsQuery;
 import edu.mayo.cts2.framework.service.profile.entitydescription.EntityDescriptionQuery;
+import edu.mayo.cts2.framework.service.profile.entitydescription.name.EntityDescriptionReadId;
 
 /**
  *  @author <a href="mailto:frutiger.kim@mayo.edu">Kim Frutiger</a>
@@ -54,6 +61,9 @@ public class LexEvsEntityQueryServiceTestIT
 	
 	@Resource
 	private LexEvsEntityQueryService service;
+	
+	@Resource
+	private LexEvsEntityReadService readService;
 
 	// ---- Test methods ----	
 	@Test
@@ -220,6 +230,70 @@ public class LexEvsEntityQueryServiceTestIT
 		assertTrue(msg, list.size() > 0);		
 	}
 
+	@Test
+	public void testIsEntityInSet() throws Exception {
+		assertTrue(this.service.isEntityInSet(this.createEntity("Automobiles", "005"), this.getQuery(), null));
+		assertFalse(this.service.isEntityInSet(this.createEntity("Automobiles", "__INVALID"), this.getQuery(), null));
+	}
+	
+	@Test
+	public void testIntersectEntityList() throws Exception {
+		Set<EntityNameOrURI> entities = new HashSet<EntityNameOrURI>();
+		entities.add(this.createEntity("Automobiles", "005"));
+		entities.add(this.createEntity("Automobiles", "Chevy"));
+		entities.add(this.createEntity("Automobiles", "__INVALID"));
+		entities.add(this.createEntity("Automooobiles", "C0001"));
+		
+		EntityNameOrURIList list = this.service.intersectEntityList(entities, this.getQuery(), null);
+		
+		assertEquals(2, list.getEntryCount());
+	}
+	
+	@Test
+	public void testResolveAsEntityReferenceList() throws Exception {
+		EntityReferenceList list = this.service.resolveAsEntityReferenceList(this.getQuery(), null);
+		
+		assertEquals(this.service.count(this.getQuery()), list.getEntryCount());
+		assertNotNull(list.getEntry(0).getName());
+	}
+	
+	@Test
+	public void testGetResourceList_ParentsMatchRead() throws Exception {
+		DirectoryResult<EntityListEntry> directoryResult = this.service.getResourceList(this.getQuery(), null, new Page());
+		
+		assertTrue(directoryResult.getEntries().size() > 1);
+		
+		for(EntityListEntry entry : directoryResult.getEntries()){
+			EntityDescription listed = entry.getEntry();
+			
+			EntityDescription read = this.readService.read(
+				new EntityDescriptionReadId(
+					this.createEntity(
+						listed.getNamedEntity().getEntityID().getNamespace(), 
+						listed.getNamedEntity().getEntityID().getName()), 
+					ModelUtils.nameOrUriFromName("Automobiles-1.0")), 
+				null);
+			
+			assertEquals(this.toNames(read.getNamedEntity().getParent()), this.toNames(listed.getNamedEntity().getParent()));
+		}
+	}
+	
+	private Set<String> toNames(URIAndEntityName[] names){
+		Set<String> returnSet = new HashSet<String>();
+		for(URIAndEntityName name : names){
+			returnSet.add(name.getNamespace() + ":" + name.getName());
+		}
+		
+		return returnSet;
+	}
+	
+	private EntityNameOrURI createEntity(String namespace, String name){
+		EntityNameOrURI entity = new EntityNameOrURI();
+		entity.setEntityName(ModelUtils.createScopedEntityName(name, namespace));
+		
+		return entity;
+	}
+
 	@Test
 	public void testGetResourceSummaries_CodingSchemeDoesNotExist() throws Exception {
 		final NameOrURI name = ModelUtils.nameOrUriFromName("Automooobiles-1.0");
@@ -14,6 +14,8 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
 
 import javax.annotation.Resource;
 import javax.xml.transform.stream.StreamResult;
@@ -110,6 +112,31 @@ public class LexEvsEntityReadServiceTestIT extends
 		assertNull(entityDescription);
 	}	
 
+	@Test
+	public void testReadEntityDescriptions() throws Exception {
+		List<EntityDescription> entityDescriptions = this.service.readEntityDescriptions(
+			Arrays.asList(
+				this.createIdentifier("Automobiles", "005"),
+				this.createIdentifier("Automobiles", "__INVALID"),
+				this.createIdentifier("Automooobiles", "C0001"),
+				this.createIdentifier("Automobiles", "Chevy")), 
+			null);
+		
+		assertEquals(4, entityDescriptions.size());
+		assertEquals("005", entityDescriptions.get(0).getNamedEntity().getEntityID().getName());
+		assertNull(entityDescriptions.get(1));
+		assertNull(entityDescriptions.get(2));
+		assertEquals("Chevy", entityDescriptions.get(3).getNamedEntity().getEntityID().getName());
+		assertEquals("GM", entityDescriptions.get(3).getNamedEntity().getParent()[0].getName());
+	}
+	
+	private EntityDescriptionReadId createIdentifier(String namespace, String name){
+		EntityNameOrURI entity = new EntityNameOrURI();
+		entity.setEntityName(ModelUtils.createScopedEntityName(name, namespace));
+		
+		return new EntityDescriptionReadId(entity, ModelUtils.nameOrUriFromName("Automobiles-1.0"));
+	}
+
 	@Test
 	public void testExistsForInactiveEntity() throws Exception {
 		// Note:  this retired entity should exist since the search is using 
@@ -9,12 +9,18 @@
 package edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import javax.annotation.Resource;
+import javax.xml.transform.stream.StreamResult;
 
 import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContent;
 import org.LexGrid.LexBIG.test.LexEvsTestRunner.LoadContents;
@@ -22,9 +28,12 @@ import org.junit.Test;
 
 import edu.mayo.cts2.framework.core.xml.Cts2Marshaller;
 import edu.mayo.cts2.framework.model.command.Page;
+import edu.mayo.cts2.framework.model.core.EntityReferenceList;
 import edu.mayo.cts2.framework.model.core.ScopedEntityName;
 import edu.mayo.cts2.framework.model.core.SortCriteria;
 import edu.mayo.cts2.framework.model.directory.DirectoryResult;
+import edu.mayo.cts2.framework.model.entity.EntityDescription;
+import edu.mayo.cts2.framework.model.entity.EntityDirectoryEntry;
 import edu.mayo.cts2.framework.model.mapversion.MapVersionDirectoryEntry;
 import edu.mayo.cts2.framework.model.mapversion.MapVersionListEntry;
 import edu.mayo.cts2.framework.model.service.core.EntityNameOrURI;
@@ -1110,6 +1119,96 @@ public class LexEvsMapVersionQueryServiceTestIT extends AbstractTestITBase {
 		assertNotNull(resourceList);
 		assertEquals(1,resourceList.getEntries().size());
 	}
+
+	// Test cases for the entities of a map version
+	@Test
+	public void testMapVersionEntitiesMapFromRole() {
+		DirectoryResult<EntityDirectoryEntry> result = this.service.mapVersionEntities(
+			ModelUtils.nameOrUriFromName("MappingSample-1.0"), MapRole.MAP_FROM_ROLE, null, null, null, new Page());
+		
+		Set<String> codes = this.getCodes(result.getEntries());
+		assertEquals(6, result.getEntries().size());
+		assertTrue(codes.contains("A0001"));
+		assertTrue(codes.contains("Ford"));
+		assertFalse(codes.contains("E0001"));
+		assertTrue(result.isAtEnd());
+	}
+	
+	@Test
+	public void testMapVersionEntitiesMapToRole() {
+		DirectoryResult<EntityDirectoryEntry> result = this.service.mapVersionEntities(
+			ModelUtils.nameOrUriFromName("MappingSample-1.0"), MapRole.MAP_TO_ROLE, null, null, null, new Page());
+		
+		Set<String> codes = this.getCodes(result.getEntries());
+		assertEquals(4, result.getEntries().size());
+		assertTrue(codes.contains("E0001"));
+		assertTrue(codes.contains("R0001"));
+		assertFalse(codes.contains("A0001"));
+		assertTrue(result.isAtEnd());
+	}
+	
+	@Test
+	public void testMapVersionEntitiesBothMapRolesPaged() {
+		Set<String> codes = new HashSet<String>();
+		
+		Page page = new Page();
+		page.setMaxToReturn(4);
+		for(int i = 0; i < 3; i++){
+			page.setPage(i);
+			DirectoryResult<EntityDirectoryEntry> result = this.service.mapVersionEntities(
+				ModelUtils.nameOrUriFromName("MappingSample-1.0"), MapRole.BOTH_MAP_ROLES, null, null, null, page);
+			
+			assertEquals(i < 2 ? 4 : 2, result.getEntries().size());
+			assertEquals(i == 2, result.isAtEnd());
+			for(EntityDirectoryEntry entry : result.getEntries()){
+				codes.add(entry.getName().getNamespace() + ":" + entry.getName().getName());
+			}
+		}
+		
+		assertEquals(10, codes.size());
+	}
+	
+	@Test
+	public void testMapVersionEntityReferences() {
+		EntityReferenceList list = this.service.mapVersionEntityReferences(
+			ModelUtils.nameOrUriFromName("MappingSample-1.0"), MapRole.MAP_TO_ROLE, MapStatus.MAPPED, null, null, new Page());
+		
+		assertEquals(4, list.getEntryCount());
+		assertNotNull(list.getEntry(0).getName());
+	}
+	
+	@Test
+	public void testMapVersionEntityList() throws Exception {
+		DirectoryResult<EntityDescription> result = this.service.mapVersionEntityList(
+			ModelUtils.nameOrUriFromName("MappingSample-1.0"), MapRole.MAP_FROM_ROLE, null, null, null, new Page());
+		
+		Set<String> codes = new HashSet<String>();
+		for(EntityDescription entry : result.getEntries()){
+			codes.add(entry.getNamedEntity().getEntityID().getName());
+			this.marshaller.marshal(entry, new StreamResult(new StringWriter()));
+		}
+		
+		assertTrue(codes.contains("A0001"));
+		assertTrue(codes.contains("Jaguar"));
+		assertTrue(result.isAtEnd());
+	}
 	
+	@Test
+	public void testMapVersionEntitiesNotAMapVersion() {
+		DirectoryResult<EntityDirectoryEntry> result = this.service.mapVersionEntities(
+			ModelUtils.nameOrUriFromName("Automobiles-1.0"), MapRole.BOTH_MAP_ROLES, null, null, null, new Page());
+		
+		assertEquals(0, result.getEntries().size());
+		assertTrue(result.isAtEnd());
+	}
+	
+	private Set<String> getCodes(List<EntityDirectoryEntry> entries) {
+		Set<String> codes = new HashSet<String>();
+		for(EntityDirectoryEntry entry : entries){
+			codes.add(entry.getName().getName());
+		}
+		
+		return codes;
+	}
 
 }
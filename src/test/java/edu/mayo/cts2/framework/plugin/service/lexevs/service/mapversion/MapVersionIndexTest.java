@@ -0,0 +1,171 @@
+/*
+* Copyright: (c) Mayo Foundation for Medical Education and
+* Research (MFMER). All rights reserved. MAYO, MAYO CLINIC, and the
+* triple-shield Mayo logo are trademarks and service marks of MFMER.
+*
+* Distributed under the OSI-approved BSD 3-Clause License.
+* See http://ncip.github.com/lexevs-service/LICENSE.txt for details.
+*/
+package edu.mayo.cts2.framework.plugin.service.lexevs.service.mapversion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.LexGrid.LexBIG.DataModel.Collections.AssociatedConceptList;
+import org.LexGrid.LexBIG.DataModel.Collections.AssociationList;
+import org.LexGrid.LexBIG.DataModel.Core.AssociatedConcept;
+import org.LexGrid.LexBIG.DataModel.Core.Association;
+import org.LexGrid.LexBIG.DataModel.Core.ResolvedConceptReference;
+import org.LexGrid.commonTypes.EntityDescription;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MapVersionIndexTest {
+
+	private MapVersionIndex index;
+
+	@Before
+	public void buildIndex(){
+		MapVersionIndex.Builder builder = new MapVersionIndex.Builder();
+
+		builder.addSource(this.getSource("A0001", "mapsTo", "E0001", "E0002"));
+		builder.addSource(this.getSource("Ford", "mapsTo", "E0001"));
+		builder.addSource(this.getSource("C0001"));
+
+		this.index = builder.build();
+	}
+
+	private ResolvedConceptReference getSource(String code, String associationName, String... targets){
+		ResolvedConceptReference ref = this.setEntity(new ResolvedConceptReference(), code, "Automobiles");
+		ref.setEntityDescription(new EntityDescription());
+		ref.getEntityDescription().setContent(code + " description");
+
+		if(associationName != null){
+			AssociatedConceptList concepts = new AssociatedConceptList();
+			for(String target : targets){
+				concepts.addAssociatedConcept(this.setEntity(new AssociatedConcept(), target, "GermanMadeParts"));
+			}
+
+			Association association = new Association();
+			association.setAssociationName(associationName);
+			association.setAssociatedConcepts(concepts);
+
+			AssociationList associations = new AssociationList();
+			associations.addAssociation(association);
+			ref.setSourceOf(associations);
+		}
+
+		return ref;
+	}
+
+	private ResolvedConceptReference getSource(String code){
+		return this.getSource(code, null);
+	}
+
+	private <R extends ResolvedConceptReference> R setEntity(R ref, String code, String codingSchemeName){
+		ref.setCode(code);
+		ref.setCodeNamespace(codingSchemeName);
+		ref.setCodingSchemeName(codingSchemeName);
+		ref.setCodingSchemeURI("urn:oid:" + codingSchemeName);
+		ref.setCodingSchemeVersion("1.0");
+
+		return ref;
+	}
+
+	@Test
+	public void testCounts(){
+		assertEquals(3, this.index.getSourceCount());
+		assertEquals(2, this.index.getTargetCount());
+		assertEquals(3, this.index.getEntryCount());
+		assertEquals(8, this.index.getWeight());
+	}
+
+	@Test
+	public void testRoles(){
+		assertTrue(this.index.isSource("A0001", "Automobiles"));
+		assertTrue(this.index.isSource("C0001", null));
+		assertFalse(this.index.isSource("A0001", "GermanMadeParts"));
+		assertFalse(this.index.isSource("E0001", null));
+
+		assertTrue(this.index.isTarget("E0002", "GermanMadeParts"));
+		assertTrue(this.index.isTarget("E0001", null));
+		assertFalse(this.index.isTarget("A0001", null));
+		assertFalse(this.index.isTarget("Z", null));
+	}
+
+	@Test
+	public void testGetEntry(){
+		ResolvedConceptReference ref = this.index.getEntry("A0001");
+
+		assertEquals("A0001", ref.getCode());
+		assertEquals("urn:oid:Automobiles", ref.getCodingSchemeURI());
+		assertEquals(1, ref.getSourceOf().getAssociationCount());
+
+		Association association = ref.getSourceOf().getAssociation()[0];
+		assertEquals("mapsTo", association.getAssociationName());
+
+		AssociatedConcept[] targets = association.getAssociatedConcepts().getAssociatedConcept();
+		assertEquals(2, targets.length);
+		assertEquals("E0001", targets[0].getCode());
+		assertEquals("E0002", targets[1].getCode());
+		assertEquals("GermanMadeParts", targets[1].getCodingSchemeName());
+		assertEquals("1.0", targets[1].getCodingSchemeVersion());
+	}
+
+	@Test
+	public void testGetEntryWithoutTargets(){
+		assertEquals(0, this.index.getEntry("C0001").getSourceOf().getAssociationCount());
+	}
+
+	@Test
+	public void testGetEntryNotASource(){
+		assertNull(this.index.getEntry("E0001"));
+		assertNull(this.index.getEntry("Z"));
+	}
+
+	@Test
+	public void testGetEntitiesInMapOrder(){
+		assertEquals("[A0001, E0001, E0002, Ford, C0001]", this.getCodes(this.index.getEntities(true, true, 0, 10)));
+		assertEquals("[A0001, Ford, C0001]", this.getCodes(this.index.getEntities(true, false, 0, 10)));
+		assertEquals("[E0001, E0002]", this.getCodes(this.index.getEntities(false, true, 0, 10)));
+	}
+
+	@Test
+	public void testGetEntitiesPaged(){
+		assertEquals("[E0002, Ford]", this.getCodes(this.index.getEntities(true, true, 2, 2)));
+		assertEquals("[C0001]", this.getCodes(this.index.getEntities(true, false, 2, 2)));
+		assertEquals("[]", this.getCodes(this.index.getEntities(false, true, 2, 2)));
+	}
+
+	@Test
+	public void testGetEntitiesWithDescription(){
+		List<ResolvedConceptReference> refs = this.index.getEntities(true, false, 0, 1);
+
+		assertEquals("A0001 description", refs.get(0).getEntityDescription().getContent());
+		assertEquals("Automobiles", refs.get(0).getCodingSchemeName());
+	}
+
+	@Test
+	public void testCountEntities(){
+		assertEquals(5, this.index.countEntities(true, true));
+		assertEquals(3, this.index.countEntities(true, false));
+		assertEquals(2, this.index.countEntities(false, true));
+	}
+
+	private String getCodes(List<ResolvedConceptReference> refs){
+		StringBuilder sb = new StringBuilder("[");
+		for(ResolvedConceptReference ref : refs){
+			if(sb.length() > 1){
+				sb.append(", ");
+			}
+			sb.append(ref.getCode());
+		}
+
+		return sb.append("]").toString();
+	}
+
+}